@@ -0,0 +1,125 @@
+package gemenie.looper;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import gemenie.looper.audio.AudioSink;
+import gemenie.looper.audio.WavWriter;
+
+// Encodes rendered float audio to AAC in an MP4 container with MediaCodec and MediaMuxer
+public class AacEncoderSink implements AudioSink {
+
+    private static final long TIMEOUT_US = 10000;
+    private static final int BIT_RATE = 192000;
+
+    private final MediaCodec codec;
+    private final MediaMuxer muxer;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final int sampleRate;
+    private final int channels;
+    private int trackIndex = -1;
+    private boolean muxerStarted;
+    private long framesQueued;
+    private boolean closed;
+
+    public AacEncoderSink(File output, int sampleRate, int channels) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, channels);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        codec.start();
+        muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public void write(float[] samples, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+            if (inIndex >= 0) {
+                ByteBuffer in = codec.getInputBuffer(inIndex);
+                in.clear();
+                in.order(ByteOrder.nativeOrder());
+                // Only whole frames go into each input buffer
+                int count = Math.min(length - written, in.remaining() / 2 / channels * channels);
+                for (int i = 0; i < count; i++) {
+                    in.putShort(WavWriter.toPcm16(samples[offset + written + i]));
+                }
+                codec.queueInputBuffer(inIndex, 0, count * 2, presentationTimeUs(), 0);
+                framesQueued += count / channels;
+                written += count;
+            }
+            drain(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            int inIndex;
+            while ((inIndex = codec.dequeueInputBuffer(TIMEOUT_US)) < 0) {
+                drain(false);
+            }
+            codec.queueInputBuffer(inIndex, 0, 0, presentationTimeUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+        } finally {
+            codec.stop();
+            codec.release();
+            if (muxerStarted) {
+                muxer.stop();
+            }
+            muxer.release();
+        }
+    }
+
+    private long presentationTimeUs() {
+        return framesQueued * 1000000L / sampleRate;
+    }
+
+    private void drain(boolean endOfStream) throws IOException {
+        while (true) {
+            int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    return;
+                }
+            } else if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (muxerStarted) {
+                    throw new IOException("Encoder format changed twice");
+                }
+                trackIndex = muxer.addTrack(codec.getOutputFormat());
+                muxer.start();
+                muxerStarted = true;
+            } else if (outIndex >= 0) {
+                ByteBuffer out = codec.getOutputBuffer(outIndex);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // Codec specific data already went to the muxer with the output format
+                    info.size = 0;
+                }
+                if (info.size > 0 && muxerStarted) {
+                    out.position(info.offset);
+                    out.limit(info.offset + info.size);
+                    muxer.writeSampleData(trackIndex, out, info);
+                }
+                codec.releaseOutputBuffer(outIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
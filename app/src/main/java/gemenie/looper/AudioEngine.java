@@ -0,0 +1,184 @@
+package gemenie.looper;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+
+import gemenie.looper.audio.LoopMixer;
+import gemenie.looper.audio.MixerMetrics;
+
+// Owns the single AudioTrack and the thread that pulls mixed blocks from the LoopMixer. Once
+// the mixer has been idle for a while the thread parks and the AudioTrack is paused, so a silent
+// session in the background costs no CPU and lets the audio path sleep.
+public class AudioEngine implements Runnable {
+
+    private static final int DEFAULT_SAMPLE_RATE = 48000;
+    private static final int DEFAULT_BLOCK_FRAMES = 256;
+    // Long enough for delay and reverb tails to ring out before the output stops
+    private static final int PARK_AFTER_MS = 2000;
+    // A parked thread also looks in this often, for anything started without a wake()
+    private static final int PARK_POLL_MS = 100;
+
+    private final LoopMixer mixer;
+    private final int blockFrames;
+    private final Object parkLock = new Object();
+    private AudioTrack audioTrack;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile int holds;
+    private boolean parked;
+
+    public AudioEngine(Context context) {
+        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        int sampleRate = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE), DEFAULT_SAMPLE_RATE);
+        blockFrames = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER), DEFAULT_BLOCK_FRAMES);
+        mixer = new LoopMixer(sampleRate, blockFrames);
+    }
+
+    public LoopMixer getMixer() {
+        return mixer;
+    }
+
+    public int getSampleRate() {
+        return mixer.getSampleRate();
+    }
+
+    // Output is music, which is also what audio focus is requested for
+    static AudioAttributes attributes() {
+        return new AudioAttributes.Builder()
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .build();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        int minBuffer = AudioTrack.getMinBufferSize(mixer.getSampleRate(),
+                AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT);
+        audioTrack = new AudioTrack.Builder()
+                .setAudioAttributes(attributes())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+                        .setSampleRate(mixer.getSampleRate())
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .build())
+                .setBufferSizeInBytes(Math.max(minBuffer, blockFrames * LoopMixer.CHANNELS * 4 * 2))
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .build();
+        audioTrack.play();
+        running = true;
+        thread = new Thread(this, "LooperAudio");
+        thread.start();
+    }
+
+    // Call after starting a track or triggering a sample so a parked output picks it up at once
+    public void wake() {
+        synchronized (parkLock) {
+            parkLock.notifyAll();
+        }
+    }
+
+    // Keeps the frame clock running while nothing plays, for recording and calibration which
+    // line the microphone up against it. Returns once the output is running.
+    public void hold() {
+        synchronized (parkLock) {
+            holds++;
+            parkLock.notifyAll();
+            while (parked && running) {
+                try {
+                    parkLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void releaseHold() {
+        synchronized (parkLock) {
+            holds = Math.max(0, holds - 1);
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        float[] block = new float[blockFrames * LoopMixer.CHANNELS];
+        MixerMetrics metrics = mixer.getMetrics();
+        long parkFrames = (long) mixer.getSampleRate() * PARK_AFTER_MS / 1000;
+        long idleFrames = 0;
+        while (running) {
+            if (holds > 0 || !mixer.isIdle()) {
+                idleFrames = 0;
+            } else if ((idleFrames += blockFrames) >= parkFrames) {
+                idleFrames = 0;
+                park();
+                continue;
+            }
+            mixer.mix(block, blockFrames);
+            audioTrack.write(block, 0, block.length, AudioTrack.WRITE_BLOCKING);
+            metrics.setUnderruns(audioTrack.getUnderrunCount());
+        }
+    }
+
+    // Stops feeding the AudioTrack until something plays, is held or the engine is released.
+    // The frame clock stands still meanwhile, which nothing notices as nothing is playing.
+    private void park() {
+        synchronized (parkLock) {
+            if (!running || holds > 0 || !mixer.isIdle()) {
+                return;
+            }
+            parked = true;
+        }
+        audioTrack.pause();
+        audioTrack.flush();
+        synchronized (parkLock) {
+            while (running && holds == 0 && mixer.isIdle()) {
+                try {
+                    parkLock.wait(PARK_POLL_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        audioTrack.play();
+        synchronized (parkLock) {
+            parked = false;
+            parkLock.notifyAll();
+        }
+    }
+
+    public synchronized void release() {
+        running = false;
+        wake();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (audioTrack != null) {
+            audioTrack.stop();
+            audioTrack.release();
+            audioTrack = null;
+        }
+        mixer.clear();
+    }
+
+    private static int parseProperty(String value, int fallback) {
+        try {
+            return value != null ? Integer.parseInt(value) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
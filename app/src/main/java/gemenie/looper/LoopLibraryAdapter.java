@@ -0,0 +1,82 @@
+package gemenie.looper;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+
+import gemenie.looper.audio.LoopLibrary;
+
+// Rows of the loop library popup: thumbnail, name, length and tempo straight from the index
+public class LoopLibraryAdapter extends RecyclerView.Adapter<LoopLibraryAdapter.ViewHolder> {
+
+    public interface Listener {
+        // Called when a row is tapped to add that loop to the session
+        void onLoopSelected(LoopLibrary.Entry entry);
+    }
+
+    private final Listener listener;
+    private List<LoopLibrary.Entry> entries = Collections.emptyList();
+
+    public LoopLibraryAdapter(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Shows a new query result in place of the last one
+    public void setEntries(List<LoopLibrary.Entry> entries) {
+        this.entries = entries;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.library_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        LoopLibrary.Entry entry = entries.get(position);
+        holder.thumbnail.setThumbnail(entry.getThumbnail());
+        holder.name.setText(entry.getName());
+        float seconds = entry.getDurationMillis() / 1000f;
+        holder.details.setText(entry.getBpm() > 0
+                ? holder.itemView.getContext().getString(R.string.library_details_text, seconds, entry.getBpm())
+                : holder.itemView.getContext().getString(R.string.library_length_text, seconds));
+    }
+
+    @Override
+    public int getItemCount() {
+        return entries.size();
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        LoopThumbnailView thumbnail;
+        TextView name;
+        TextView details;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            thumbnail = itemView.findViewById(R.id.library_thumbnail);
+            name = itemView.findViewById(R.id.library_name);
+            details = itemView.findViewById(R.id.library_details);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onLoopSelected(entries.get(position));
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package gemenie.looper;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.core.content.ContextCompat;
+
+// Draws a library loop's stored thumbnail, one bar per column mirrored about the middle
+public class LoopThumbnailView extends View {
+
+    private final Paint barPaint = new Paint();
+    private byte[] thumbnail = new byte[0];
+
+    public LoopThumbnailView(Context context) {
+        this(context, null);
+    }
+
+    public LoopThumbnailView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        barPaint.setColor(ContextCompat.getColor(context, R.color.white));
+    }
+
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int columns = thumbnail.length;
+        if (columns == 0) {
+            return;
+        }
+        float width = (float) getWidth() / columns;
+        float middle = getHeight() / 2f;
+        for (int c = 0; c < columns; c++) {
+            // Keep silent columns one pixel tall so the loop's extent stays visible
+            float half = Math.max(0.5f, (thumbnail[c] & 0xFF) / 255f * middle);
+            canvas.drawRect(c * width, middle - half, (c + 1) * width - 1, middle + half, barPaint);
+        }
+    }
+}
@@ -0,0 +1,753 @@
+package gemenie.looper;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import android.widget.Toast;
+
+import androidx.core.app.NotificationCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import gemenie.looper.audio.AudioDelta;
+import gemenie.looper.audio.DecodedAudioCache;
+import gemenie.looper.audio.EffectChain;
+import gemenie.looper.audio.LoopLibrary;
+import gemenie.looper.audio.LoopRegion;
+import gemenie.looper.audio.MixerTrack;
+import gemenie.looper.audio.OverdubMixer;
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.PcmStream;
+import gemenie.looper.audio.PeakPyramid;
+import gemenie.looper.audio.SamplePlayer;
+import gemenie.looper.audio.SessionStore;
+import gemenie.looper.audio.StreamingSource;
+import gemenie.looper.audio.TempoDetector;
+import gemenie.looper.audio.Track;
+import gemenie.looper.audio.TrackCommands;
+import gemenie.looper.audio.TrackList;
+import gemenie.looper.audio.TrackLoader;
+import gemenie.looper.audio.UndoHistory;
+import gemenie.looper.audio.WavWriter;
+
+// Foreground service that owns the audio engine, the recorder and the session, so the jam keeps
+// playing through rotations and while the app is in the background. The activity binds to it and
+// picks up the running session as it is. Playback pauses when another app takes audio focus,
+// carrying on after a transient loss such as a call, and when headphones are unplugged.
+public class LooperService extends Service implements TrackLoader.Listener {
+
+    public static final String SESSION_FILE = "session.bin";
+    static final String ACTION_PAUSE = "gemenie.looper.action.PAUSE";
+    private static final String CHANNEL_ID = "session";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long DISK_CACHE_BYTES = 256L * 1024 * 1024;
+    // Imports longer than this play straight from the file instead of being decoded into memory
+    private static final long STREAM_THRESHOLD_US = 2 * 60 * 1000000L;
+    // Undo keeps this many steps, and at most an eighth of the heap in audio that is no longer playing
+    private static final int UNDO_STEPS = 50;
+    private static final String PEAK_SUFFIX = ".peaks";
+    private static final String LIBRARY_INDEX = "library.idx";
+    // Shared across service instances so a restarted session reloads from memory
+    private static DecodedAudioCache audioCache;
+    // Single writer shared by every service instance so session saves never interleave
+    private static final ExecutorService sessionWriter = Executors.newSingleThreadExecutor();
+    // Feedback sounds and waveform overviews are decoded and built one at a time behind the decodes
+    private final ExecutorService peakExecutor = Executors.newSingleThreadExecutor();
+    // New takes are stored and overdubs summed one at a time off the main thread
+    private final ExecutorService takeExecutor = Executors.newSingleThreadExecutor();
+    // Saved loops are indexed one at a time in the background
+    private final ExecutorService libraryExecutor = Executors.newSingleThreadExecutor();
+
+    private final IBinder binder = new LocalBinder();
+    private final TrackList trackList = new TrackList();
+    // Feedback sounds registered with the sample player, only touched on the main thread
+    private final List<Integer> feedbackSounds = new ArrayList<>();
+    // Rows that were playing when focus was lost for a moment, started again when it returns
+    private final List<Track> pausedByFocus = new ArrayList<>();
+    private Handler mainHandler;
+    private AudioEngine audioEngine;
+    private SamplePlayer samplePlayer;
+    private WavRecorder wavRecorder;
+    private PcmDecoder pcmDecoder;
+    private TrackLoader trackLoader;
+    private SessionStore sessionStore;
+    private UndoHistory history;
+    private LoopLibrary library;
+    private AudioManager audioManager;
+    private AudioFocusRequest focusRequest;
+    private boolean hasFocus;
+    private boolean bound;
+    private int currentPosition;
+    // The recording in progress, held here so it carries on through a rotation
+    private File recordingFile;
+    private long recordStartFrame;
+    private Track overdubTarget;
+
+    // Lets the undo steps reach the loader, the mixer and the files
+    private final TrackCommands.Host trackHost = new TrackCommands.Host() {
+        @Override
+        public void reload(Track track) {
+            trackLoader.load(track, LooperService.this);
+        }
+
+        @Override
+        public void cancelLoad(Track track) {
+            trackLoader.cancel(track);
+        }
+
+        @Override
+        public void attach(Track track, PcmBuffer buffer) {
+            attachTrack(track, buffer);
+            loadPeaks(track, buffer);
+        }
+
+        @Override
+        public void deleteSource(String source) {
+            deleteOwnedSource(source);
+        }
+    };
+
+    private final AudioManager.OnAudioFocusChangeListener focusListener = new AudioManager.OnAudioFocusChangeListener() {
+        @Override
+        public void onAudioFocusChange(int focusChange) {
+            switch (focusChange) {
+                case AudioManager.AUDIOFOCUS_GAIN:
+                    hasFocus = true;
+                    for (Track track : pausedByFocus) {
+                        MixerTrack voice = track.getMixerTrack();
+                        if (!track.isRemoved() && voice != null) {
+                            voice.play();
+                        }
+                    }
+                    pausedByFocus.clear();
+                    audioEngine.wake();
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                    hasFocus = false;
+                    pauseAll(true);
+                    break;
+                case AudioManager.AUDIOFOCUS_LOSS:
+                    hasFocus = false;
+                    pauseAll(false);
+                    audioManager.abandonAudioFocusRequest(focusRequest);
+                    break;
+                default:
+                    // Ducking is left to the system
+                    break;
+            }
+        }
+    };
+
+    // Unplugging headphones would otherwise carry on through the speaker
+    private final BroadcastReceiver noisyReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (AudioManager.ACTION_AUDIO_BECOMING_NOISY.equals(intent.getAction())) {
+                pauseAll(false);
+            }
+        }
+    };
+
+    public class LocalBinder extends Binder {
+        LooperService getService() {
+            return LooperService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        // Start the mixing engine that plays every track through one output
+        pcmDecoder = new PcmDecoder(this);
+        audioEngine = new AudioEngine(this);
+        samplePlayer = new SamplePlayer();
+        audioEngine.getMixer().setSamplePlayer(samplePlayer);
+        // Master bus processors, empty until something is added to them
+        audioEngine.getMixer().setMasterEffects(new EffectChain());
+        audioEngine.start();
+        wavRecorder = new WavRecorder(audioEngine.getSampleRate(), audioEngine.getMixer().getMetrics());
+
+        audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                .setAudioAttributes(AudioEngine.attributes())
+                .setOnAudioFocusChangeListener(focusListener, mainHandler)
+                .setWillPauseWhenDucked(false)
+                .build();
+        registerReceiver(noisyReceiver, new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY));
+
+        // Decoded audio is cached in memory with a quarter of the heap and on disk in the cache dir
+        if (audioCache == null) {
+            audioCache = new DecodedAudioCache(Runtime.getRuntime().maxMemory() / 4,
+                    new File(getCacheDir(), "pcm"), DISK_CACHE_BYTES);
+        }
+        loadSamples();
+
+        // Decode tracks in the background and publish them on the main thread
+        trackLoader = new TrackLoader(new TrackLoader.Decoder() {
+            @Override
+            public PcmBuffer decode(String source) throws IOException {
+                Uri uri = Uri.parse(source);
+                long modified = pcmDecoder.lastModified(uri);
+                PcmBuffer cached = audioCache.get(source, modified);
+                if (cached != null) {
+                    return cached;
+                }
+                PcmBuffer buffer = pcmDecoder.decode(uri);
+                audioCache.put(source, modified, buffer);
+                return buffer;
+            }
+        }, new TrackLoader.Streamer() {
+            @Override
+            public StreamingSource open(String source) throws IOException {
+                Uri uri = Uri.parse(source);
+                // Recordings and short imports decode as usual so every edit stays available
+                if (uri.getScheme() == null || pcmDecoder.durationUs(uri) < STREAM_THRESHOLD_US) {
+                    return null;
+                }
+                return new StreamingSource(new StreamingDecoder(LooperService.this, uri),
+                        audioEngine.getSampleRate());
+            }
+        }, TrackLoader.defaultThreadCount(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        });
+        history = new UndoHistory(UNDO_STEPS, Runtime.getRuntime().maxMemory() / 8);
+        // Saved loops are browsed from an index rather than by scanning storage each time
+        library = new LoopLibrary(new File(getFilesDir(), LIBRARY_INDEX));
+        libraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                library.load();
+            }
+        });
+
+        // Restore the last session straight away, audio is decoded behind placeholder rows
+        sessionStore = new SessionStore(new File(getFilesDir(), SESSION_FILE), sessionWriter);
+        SessionStore.Session session = sessionStore.load();
+        if (session != null) {
+            trackList.addAll(session.tracks);
+            for (Track track : session.tracks) {
+                // The history does not outlive the service, so earlier overdub versions are unreachable
+                for (String layer : track.getLayers()) {
+                    deleteOwnedSource(layer);
+                }
+                track.setLayers(Collections.<String>emptyList());
+                trackLoader.load(track, this);
+            }
+            currentPosition = Math.min(session.currentPosition, Math.max(0, trackList.size() - 1));
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_PAUSE.equals(intent.getAction())) {
+            pauseAll(false);
+            // Nobody is looking at the session, so there is nothing left to keep running for
+            if (!bound) {
+                stopIfIdle();
+            }
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, buildNotification());
+        return START_NOT_STICKY;
+    }
+
+    private Notification buildNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                getString(R.string.session_channel_text), NotificationManager.IMPORTANCE_LOW));
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent pause = PendingIntent.getService(this, 0,
+                new Intent(this, LooperService.class).setAction(ACTION_PAUSE), PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notification)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.session_running_text))
+                .setContentIntent(open)
+                .addAction(0, getString(R.string.pause_all_text), pause)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        bound = true;
+        return binder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        bound = true;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        bound = false;
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // make sure the latest selection and settings reach storage
+        saveSession(currentPosition);
+        unregisterReceiver(noisyReceiver);
+        audioManager.abandonAudioFocusRequest(focusRequest);
+        // finish any recording in progress so the WAV header is written
+        if (wavRecorder.isRecording()) {
+            try {
+                wavRecorder.stop();
+            } catch (IOException e) {
+                Log.e(MainActivity.TAG, "Unable to finish recording", e);
+            }
+            recordingFile = null;
+        }
+        // let go of the undo steps, removing files only they still needed
+        history.clear();
+        // drop any loads still in flight
+        trackLoader.shutdown();
+        // let stores, overdubs and indexing already queued finish, nothing new is taken on
+        peakExecutor.shutdown();
+        takeExecutor.shutdown();
+        libraryExecutor.shutdown();
+        // stop the decoders behind streaming rows
+        for (Track track : trackList) {
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null) {
+                voice.release();
+            }
+        }
+        // stop the output thread and release the AudioTrack
+        audioEngine.release();
+    }
+
+    public AudioEngine getEngine() {
+        return audioEngine;
+    }
+
+    public SamplePlayer getSamplePlayer() {
+        return samplePlayer;
+    }
+
+    public List<Integer> getFeedbackSounds() {
+        return feedbackSounds;
+    }
+
+    public WavRecorder getRecorder() {
+        return wavRecorder;
+    }
+
+    public TrackList getTrackList() {
+        return trackList;
+    }
+
+    public UndoHistory getHistory() {
+        return history;
+    }
+
+    public TrackCommands.Host getTrackHost() {
+        return trackHost;
+    }
+
+    public TrackLoader getTrackLoader() {
+        return trackLoader;
+    }
+
+    // Selected row, as last saved
+    public int getCurrentPosition() {
+        return currentPosition;
+    }
+
+    // Playback needs audio focus; false while another app, such as a call, holds it
+    public boolean requestAudioFocus() {
+        if (!hasFocus) {
+            pausedByFocus.clear();
+            hasFocus = audioManager.requestAudioFocus(focusRequest) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        }
+        return hasFocus;
+    }
+
+    // Pause every playing row, remembering them when they should start again once focus returns
+    public void pauseAll(boolean resumeLater) {
+        pausedByFocus.clear();
+        for (Track track : trackList) {
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null && voice.isPlaying()) {
+                voice.pause();
+                if (resumeLater) {
+                    pausedByFocus.add(track);
+                }
+            }
+        }
+    }
+
+    // Ends the session once nothing is playing or recording; a jam left running carries on in
+    // the background until it is paused from the notification
+    public void stopIfIdle() {
+        if (isRecording() || !pausedByFocus.isEmpty()) {
+            return;
+        }
+        for (Track track : trackList) {
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null && voice.isPlaying()) {
+                return;
+            }
+        }
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    // Start capturing PCM straight into a WAV file, layered onto overdubTarget when it is set
+    public void startRecording(File file, Track overdubTarget) throws IOException {
+        // Takes are placed by the mixer frame they started on, so the clock runs while recording
+        audioEngine.hold();
+        try {
+            wavRecorder.start(file);
+        } catch (IOException | RuntimeException e) {
+            audioEngine.releaseHold();
+            throw e;
+        }
+        recordStartFrame = audioEngine.getMixer().getFramePosition();
+        recordingFile = file;
+        this.overdubTarget = overdubTarget;
+    }
+
+    public boolean isRecording() {
+        return recordingFile != null;
+    }
+
+    public File getRecordingFile() {
+        return recordingFile;
+    }
+
+    public long getRecordStartFrame() {
+        return recordStartFrame;
+    }
+
+    // Track the current recording is layered onto, null when recording a new track
+    public Track getOverdubTarget() {
+        return overdubTarget;
+    }
+
+    // Finishes the WAV file and returns the take
+    public PcmBuffer stopRecording() throws IOException {
+        recordingFile = null;
+        overdubTarget = null;
+        audioEngine.releaseHold();
+        return wavRecorder.stop();
+    }
+
+    // Decode the bundled feedback sounds in the background and hand them to the sample player
+    private void loadSamples() {
+        peakExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int soundResource : SOUND_RESOURCES) {
+                    String source = "android.resource://" + getPackageName() + "/" + soundResource;
+                    try {
+                        PcmBuffer cached = audioCache.get(source, BuildConfig.VERSION_CODE);
+                        final PcmBuffer sample = cached != null ? cached : pcmDecoder.decode(Uri.parse(source));
+                        if (cached == null) {
+                            audioCache.put(source, BuildConfig.VERSION_CODE, sample);
+                        }
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                feedbackSounds.add(samplePlayer.addSample(sample));
+                            }
+                        });
+                    } catch (IOException e) {
+                        Log.e(MainActivity.TAG, "Unable to decode sound " + source, e);
+                    }
+                }
+            }
+        });
+    }
+
+    // Add a row for audio that still has to be decoded
+    public void load(Track track) {
+        trackLoader.load(track, this);
+    }
+
+    public LoopLibrary getLibrary() {
+        return library;
+    }
+
+    // Bring the library index up to date with the audio files in dir, analysing only new or
+    // changed ones, then run onDone on the main thread
+    public void refreshLibrary(final File dir, final Runnable onDone) {
+        libraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<File> files = new ArrayList<>();
+                File[] listed = dir.listFiles();
+                if (listed != null) {
+                    for (File file : listed) {
+                        String type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                                MimeTypeMap.getFileExtensionFromUrl(Uri.fromFile(file).toString()));
+                        if (file.isFile() && type != null && type.startsWith("audio/")) {
+                            files.add(file);
+                        }
+                    }
+                }
+                try {
+                    library.update(files, new LoopLibrary.Opener() {
+                        @Override
+                        public PcmStream open(File file) throws IOException {
+                            return new StreamingDecoder(LooperService.this, Uri.fromFile(file));
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e(MainActivity.TAG, "Unable to write the library index", e);
+                }
+                if (onDone != null) {
+                    mainHandler.post(onDone);
+                }
+            }
+        });
+    }
+
+    // Sum a take into the track it was recorded over and swap the result in mid-loop. The summed
+    // version replaces the raw take on disk and the previous version is kept to undo to.
+    public void overdubTake(final Track track, final PcmBuffer take, long captureFrame, final File output) {
+        final MixerTrack voice = track.getMixerTrack();
+        final PcmBuffer base = voice.getBuffer();
+        final LoopRegion region = voice.getLoop();
+        long origin = voice.getLoopOriginFrame();
+        if (origin == MixerTrack.UNANCHORED) {
+            output.delete();
+            return;
+        }
+        double tempoStep = (double) base.getSampleRate() / audioEngine.getSampleRate();
+        final double takeLoopFrame = OverdubMixer.loopFrameAt(captureFrame, origin, tempoStep,
+                region.length(base.getFrameCount()));
+        takeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PcmBuffer mixed;
+                try (WavWriter writer = new WavWriter(output, base.getSampleRate(), base.getChannels())) {
+                    mixed = OverdubMixer.sum(base, region, take, takeLoopFrame, 1f, writer);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(MainActivity.TAG, "Overdub failed", e);
+                    output.delete();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(LooperService.this, R.string.overdub_failed_text, Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                    return;
+                }
+                audioCache.put(output.getPath(), output.lastModified(), mixed);
+                // Undo and redo keep just the chunks the take changed
+                final AudioDelta before = AudioDelta.between(base, mixed);
+                final AudioDelta after = AudioDelta.between(mixed, base);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Drop the result if the track was deleted or changed while summing
+                        MixerTrack current = track.getMixerTrack();
+                        if (track.isRemoved() || current == null || current.getBuffer() != base) {
+                            deleteOwnedSource(output.getPath());
+                            return;
+                        }
+                        track.pushLayer(output.getPath());
+                        attachTrack(track, mixed);
+                        history.push(TrackCommands.overdubbed(trackHost, track, output.getPath(), before, after));
+                        loadPeaks(track, mixed);
+                        saveSession(currentPosition);
+                    }
+                });
+            }
+        });
+    }
+
+    // Store a new recording in the cache off the main thread so restores skip the WAV decode.
+    // Takes that were shifted or trimmed are written back first so the file matches what plays.
+    public void storeTake(final Track track, final PcmBuffer take, final boolean rewrite) {
+        takeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (rewrite) {
+                    try (WavWriter writer = new WavWriter(new File(track.getSource()), take.getSampleRate(), take.getChannels())) {
+                        writer.write(take.getSamples(), 0, take.getFrameCount() * take.getChannels());
+                    } catch (IOException e) {
+                        Log.e(MainActivity.TAG, "Unable to write quantized take", e);
+                    }
+                }
+                audioCache.put(track.getSource(), new File(track.getSource()).lastModified(), take);
+                // Queued after the rewrite so the overview is stamped with the final file
+                loadPeaks(track, take);
+            }
+        });
+    }
+
+    // Read the track's waveform overview back, or build and store it, then redraw its row. Tracks
+    // whose tempo isn't known yet are analysed on the same thread afterwards.
+    private void loadPeaks(final Track track, final PcmBuffer buffer) {
+        try {
+            peakExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (track.isRemoved()) {
+                        return;
+                    }
+                    File file = peakFile(track.getSource());
+                    long modified = pcmDecoder.lastModified(toUri(track.getSource()));
+                    PeakPyramid peaks = PeakPyramid.read(file, modified);
+                    if (peaks == null || peaks.getFrameCount() != buffer.getFrameCount()) {
+                        peaks = PeakPyramid.build(buffer);
+                        try {
+                            peaks.write(file, modified);
+                        } catch (IOException e) {
+                            Log.e(MainActivity.TAG, "Unable to store waveform for " + track.getSource(), e);
+                        }
+                    }
+                    track.setPeaks(peaks);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            trackList.changed(track, TrackList.Change.PEAKS);
+                        }
+                    });
+                    if (track.getDetectedBpm() == Track.BPM_UNKNOWN) {
+                        detectTempo(track, buffer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The service has been destroyed, the overview is built again on the next load
+        }
+    }
+
+    // Find the track's beat and keep it with the track in the session
+    private void detectTempo(final Track track, PcmBuffer buffer) {
+        final float bpm = TempoDetector.detect(buffer, track.getLoop().length(buffer.getFrameCount()));
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (track.isRemoved()) {
+                    return;
+                }
+                track.setDetectedBpm(bpm);
+                trackList.changed(track, TrackList.Change.TEMPO);
+                saveSession(currentPosition);
+            }
+        });
+    }
+
+    // Recordings keep their overview next to the WAV, imports in the cache dir
+    private File peakFile(String source) {
+        if (Uri.parse(source).getScheme() == null) {
+            return new File(source + PEAK_SUFFIX);
+        }
+        File dir = new File(getCacheDir(), "peaks");
+        dir.mkdirs();
+        return new File(dir, Integer.toHexString(source.hashCode()) + PEAK_SUFFIX);
+    }
+
+    // Remove a file this app wrote, along with its waveform; imported sources are never touched
+    private void deleteOwnedSource(String source) {
+        if (Uri.parse(source).getScheme() != null) {
+            return;
+        }
+        File file = new File(source);
+        if (getFilesDir().equals(file.getParentFile())) {
+            file.delete();
+            new File(source + PEAK_SUFFIX).delete();
+        }
+    }
+
+    // Recordings are stored as bare paths, imports as content URIs
+    static Uri toUri(String source) {
+        Uri uri = Uri.parse(source);
+        return uri.getScheme() == null ? Uri.fromFile(new File(source)) : uri;
+    }
+
+    // Queue the current session to be written to app storage
+    public void saveSession(int position) {
+        currentPosition = position;
+        sessionStore.save(trackList.asList(), position);
+    }
+
+    // Hand decoded audio to the mixer with the row's saved settings. A track that is already
+    // playing has its audio swapped in place so it carries on from the same point in the loop.
+    public void attachTrack(Track track, PcmBuffer buffer) {
+        MixerTrack previous = track.getMixerTrack();
+        MixerTrack mixerTrack;
+        if (previous != null) {
+            mixerTrack = previous.withBuffer(buffer);
+            audioEngine.getMixer().replaceTrack(previous, mixerTrack);
+        } else {
+            mixerTrack = new MixerTrack(track.getId(), buffer);
+            track.applySettings(mixerTrack);
+            audioEngine.getMixer().addTrack(mixerTrack);
+        }
+        track.setReady(mixerTrack);
+    }
+
+    @Override
+    public void onTrackLoaded(Track track, PcmBuffer buffer) {
+        attachTrack(track, buffer);
+        loadPeaks(track, buffer);
+        trackList.changed(track, TrackList.Change.STATE);
+    }
+
+    // Long imports start playing from a running stream, with no peaks or decode cache to fill
+    @Override
+    public void onTrackStreamed(Track track, StreamingSource stream) {
+        MixerTrack mixerTrack = new MixerTrack(track.getId(), stream);
+        track.applySettings(mixerTrack);
+        audioEngine.getMixer().addTrack(mixerTrack);
+        track.setReady(mixerTrack);
+        trackList.changed(track, TrackList.Change.STATE);
+    }
+
+    @Override
+    public void onTrackFailed(Track track, Exception error) {
+        Log.e(MainActivity.TAG, "Failed to load " + track.getSource(), error);
+        track.setFailed();
+        trackList.changed(track, TrackList.Change.STATE);
+    }
+
+    private static final int[] SOUND_RESOURCES = {
+            R.raw.boom_kick,
+            R.raw.gubbler_drum,
+            R.raw.nice_one,
+            R.raw.ready,
+            R.raw.robot_intro,
+            R.raw.thunder,
+            R.raw.whoosh
+    };
+}
@@ -2,64 +2,164 @@ package gemenie.looper;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.media.AudioAttributes;
-import android.media.MediaPlayer;
-import android.media.MediaRecorder;
-import android.media.SoundPool;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.os.Vibrator;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.format.Time;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.WindowManager;
+import android.webkit.MimeTypeMap;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.PopupWindow;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gemenie.looper.audio.AudioExporter;
+import gemenie.looper.audio.AudioSink;
+import gemenie.looper.audio.LatencyCalibrator;
+import gemenie.looper.audio.LevelMeter;
+import gemenie.looper.audio.LoopLibrary;
+import gemenie.looper.audio.LoopQuantizer;
+import gemenie.looper.audio.LoopMixer;
+import gemenie.looper.audio.MasterClock;
+import gemenie.looper.audio.MixdownRenderer;
+import gemenie.looper.audio.MixerMetrics;
+import gemenie.looper.audio.MixerTrack;
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.SamplePlayer;
+import gemenie.looper.audio.StemExporter;
+import gemenie.looper.audio.TimingHistogram;
+import gemenie.looper.audio.Track;
+import gemenie.looper.audio.TrackCommands;
+import gemenie.looper.audio.TrackList;
+import gemenie.looper.audio.UndoHistory;
+import gemenie.looper.audio.WavWriter;
 
 public class MainActivity extends AppCompatActivity implements SoundControlsAdapter.ButtonClickListener {
-	private static final int LOAD_QUALITY = 1;
-	private List<Integer> soundsList = new ArrayList<>();
-	private SoundPool mSoundPool;
+	// Feedback sounds registered with the service's sample player
+	private List<Integer> feedbackSounds;
+	private final Random random = new Random();
+	private SamplePlayer samplePlayer;
 	private SoundControlsAdapter adapter;
 	public static final String TAG = "TAG";
 	private RecyclerView activityRecyclerView;
-	public ArrayList<MediaPlayer> mediaPlayerList = new ArrayList<>();
-	private ArrayList<Uri> uriList = new ArrayList<>();
-	public static final String URIs = "uri";
+	// The engine and the session live in the service, these are its objects once it is bound
+	private LooperService looper;
+	private TrackList trackList;
+	private AudioEngine audioEngine;
+	private final ServiceConnection connection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder service) {
+			attachSession(((LooperService.LocalBinder) service).getService());
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			// The service runs in this process, so it only goes away along with it
+		}
+	};
+	// A file picked before the service was bound, added once it is
+	private Uri pendingImport;
+	// Exports and the latency measurement run one at a time off the main thread, shut down with the screen
+	private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+	private AudioExporter audioExporter;
+	private Handler mainHandler;
+	private Executor mainExecutor;
+	// Stems render across the cores, at most one export at a time
+	private StemExporter stemExporter;
+	private Future<?> stemExport;
+	public static final String PREFS = "looper";
+	private static final String PREF_BPM = "bpm";
+	private static final String PREF_BARS = "bars";
+	private static final String PREF_QUANTIZE = "quantize";
+	private static final float DEFAULT_BPM = 120f;
+	private static final int BEATS_PER_BAR = 4;
+	private SharedPreferences prefs;
+	// Bar grid that quantized recordings snap to
+	private MasterClock masterClock;
+	private boolean quantize;
+	private EditText tempoBpmText;
+	private EditText loopBarsText;
+	private static final String PREF_OVERDUB = "overdub";
+	private boolean overdub;
+	private UndoHistory history;
+	private Button undoButton;
+	private Button redoButton;
+	private ItemTouchHelper itemTouchHelper;
+	private TrackCommands.Host trackHost;
+	private static final String PREF_LATENCY_US = "latency_us";
+	private static final long CALIBRATION_MS = 2500;
+	// Measured output plus input delay, new recordings are shifted back by this much
+	private int latencyFrames;
+	private boolean isCalibrating;
+	// Audio stats text is refreshed every few display frames, the meters on every one
+	private static final int STATS_FRAMES = 15;
+	private TextView audioStatsText;
+	private int statsFrame;
+	private final Choreographer.FrameCallback meterCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			if (adapter != null) {
+				adapter.updateMeters(activityRecyclerView);
+				if (statsFrame++ % STATS_FRAMES == 0) {
+					showAudioStats();
+				}
+			}
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	};
 	public int CurrentPosition;
 	public static final int ReturnCodeFile = 1002;
-	private MediaRecorder mediaRecorder;
+	private WavRecorder wavRecorder;
 	private PopupWindow popupWindow;
-	private Boolean isRecording= false;
-	private final String[] permissions = {Manifest.permission.RECORD_AUDIO, Manifest.permission.WRITE_EXTERNAL_STORAGE, Manifest.permission.READ_EXTERNAL_STORAGE};
+	private final String[] permissions = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+			? new String[]{Manifest.permission.RECORD_AUDIO, Manifest.permission.WRITE_EXTERNAL_STORAGE, Manifest.permission.READ_EXTERNAL_STORAGE, Manifest.permission.POST_NOTIFICATIONS}
+			: new String[]{Manifest.permission.RECORD_AUDIO, Manifest.permission.WRITE_EXTERNAL_STORAGE, Manifest.permission.READ_EXTERNAL_STORAGE};
 
 
 // Initialize the activity on create
@@ -76,32 +176,73 @@ protected void onCreate(Bundle savedInstanceState) {
     // Request permissions
     getPermissions();
 
-    // Create a new SoundPool instance
-    mSoundPool = new SoundPool.Builder()
-            .setMaxStreams(10)
-            .build();
-
-    // Load sounds to SoundPool
-    loadSoundPool();
+    audioStatsText = findViewById(R.id.audio_stats);
 
-    // If there is a saved instance, retrieve it and assign it to uriList
-    if (savedInstanceState != null) {
-        ArrayList<String> holder = savedInstanceState.getStringArrayList(URIs);
-        uriList.clear();
-        for (String u : holder) {
-            Uri uri = Uri.parse(u);
-            uriList.add(uri);
+    // Restore the tempo grid used for quantized recording
+    prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+    tempoBpmText = findViewById(R.id.tempo_bpm);
+    loopBarsText = findViewById(R.id.loop_bars);
+    float bpm = prefs.getFloat(PREF_BPM, DEFAULT_BPM);
+    tempoBpmText.setText(bpm == Math.rint(bpm) ? String.valueOf((int) bpm) : String.valueOf(bpm));
+    loopBarsText.setText(String.valueOf(prefs.getInt(PREF_BARS, 1)));
+    quantize = prefs.getBoolean(PREF_QUANTIZE, false);
+    ((CheckBox) findViewById(R.id.quantize_check)).setChecked(quantize);
+    overdub = prefs.getBoolean(PREF_OVERDUB, false);
+    ((CheckBox) findViewById(R.id.overdub_check)).setChecked(overdub);
 
-            // Add to media player list
-            addToMediaPlayerList(uri);
+    // Exports report back on the main thread
+    mainHandler = new Handler(Looper.getMainLooper());
+    mainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mainHandler.post(command);
         }
+    };
+    audioExporter = new AudioExporter(exportExecutor, mainExecutor);
+    undoButton = findViewById(R.id.undo_button);
+    redoButton = findViewById(R.id.redo_button);
+    undoButton.setEnabled(false);
+    redoButton.setEnabled(false);
 
-        // Get sound controls
-        getSoundControls();
-    }
+    // Playback and recording run in a foreground service that outlives rotations and carries on
+    // in the background; a session that is already running is picked up as it is
+    Intent service = new Intent(this, LooperService.class);
+    startForegroundService(service);
+    bindService(service, connection, BIND_AUTO_CREATE);
+}
+
+// Take the engine and the session from the service and show them
+private void attachSession(LooperService service) {
+    looper = service;
+    audioEngine = looper.getEngine();
+    samplePlayer = looper.getSamplePlayer();
+    feedbackSounds = looper.getFeedbackSounds();
+    wavRecorder = looper.getRecorder();
+    trackList = looper.getTrackList();
+    trackHost = looper.getTrackHost();
+    history = looper.getHistory();
+    CurrentPosition = looper.getCurrentPosition();
+    updateClock();
+    latencyFrames = (int) (prefs.getLong(PREF_LATENCY_US, 0) * audioEngine.getSampleRate() / 1000000);
+
+    // Undo and redo are only offered when there is a step to take
+    history.setListener(new UndoHistory.Listener() {
+        @Override
+        public void onHistoryChanged() {
+            undoButton.setEnabled(history.canUndo());
+            redoButton.setEnabled(history.canRedo());
+        }
+    });
+    undoButton.setEnabled(history.canUndo());
+    redoButton.setEnabled(history.canRedo());
 
     // Get sound controls
     getSoundControls();
+    if (pendingImport != null) {
+        addToTrackList(pendingImport);
+        pendingImport = null;
+        saveSession();
+    }
 }
 
 // Request necessary permissions
@@ -126,18 +267,15 @@ public void onRequestPermissionsResult(int requestCode, @NonNull String[] permis
     }
 }
 
-// Load sound resources to SoundPool
-public void loadSoundPool() {
-    for (int soundResource : SOUND_RESOURCES) {
-        soundsList.add(mSoundPool.load(this, soundResource, LOAD_QUALITY));
+// Play a random feedback sound through the mixer, on the next beat when recording is synced
+public void playFeedbackSound() {
+    if (feedbackSounds.isEmpty()) {
+        return;
     }
-}
-
-// Play a random sound from the SoundPool
-public void playSoundPool() {
-    Random x = new Random();
-    int y = x.nextInt(7);
-    mSoundPool.play(soundsList.get(y), 1, 1, 1, 0, 1);
+    int sound = feedbackSounds.get(random.nextInt(feedbackSounds.size()));
+    long frame = quantize ? masterClock.nextBeatFrame(audioEngine.getMixer().getFramePosition()) : SamplePlayer.NOW;
+    samplePlayer.trigger(sound, 1f, frame);
+    audioEngine.wake();
 }
 
 // Vibrate the phone
@@ -146,84 +284,231 @@ public void vibratePhone() {
     vibe.vibrate(5);
 }
 
-// Initialize MediaRecorder with specified file
-public MediaRecorder initMediaRecorder(File file) throws IOException {
-    MediaRecorder recorder = new MediaRecorder();
-    recorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-    recorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-    recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
-    recorder.setOutputFile(file);
-    // Prepare the recorder for recording
-    recorder.prepare();
-    return recorder;
-}
-
 // Start recording audio
 public void recordWavStart(View v) {
+    if (looper == null || looper.isRecording() || isCalibrating) {
+        return;
+    }
+    // Overdubs layer onto the selected track instead of starting a new one
+    Track overdubTarget = overdub ? overdubTarget() : null;
+    if (overdub && overdubTarget == null) {
+        Toast.makeText(this, R.string.overdub_unavailable_text, Toast.LENGTH_SHORT).show();
+        return;
+    }
     vibratePhone();
-    getFile(); // Get file name
-    // Start recording audio to file
+    // Start capturing PCM straight into a WAV file
     try {
-        mediaRecorder = initMediaRecorder(new File(String.valueOf(uriList.get(uriList.size() - 1))));
-    } catch (Error | IOException e){
+        updateClock();
+        looper.startRecording(getFile(), overdubTarget);
+    } catch (IOException | RuntimeException e) {
         e.printStackTrace();
     }
-    mediaRecorder.start();
-    isRecording = true;
 }
 
 // Stop recording audio
 public void recordWavStop(View v) {
-    if (isRecording) {
-        mediaRecorder.stop(); // Stop recording
-        addToMediaPlayerList(uriList.get(uriList.size() - 1)); // Add to media player list
-        adapter.notifyDataSetChanged(); // Update list view
-        isRecording = false;
+    if (looper != null && looper.isRecording()) {
+        File recordingFile = looper.getRecordingFile();
+        long recordStartFrame = looper.getRecordStartFrame();
+        Track overdubTarget = looper.getOverdubTarget();
+        try {
+            // The captured take is playable right away, no need to decode the file again
+            long stopFrame = audioEngine.getMixer().getFramePosition();
+            PcmBuffer recorded = looper.stopRecording();
+            PcmBuffer take = recorded;
+            // Sound reaches the mic latencyFrames after the mixer plays it, so line the take up with the mix
+            long captureFrame = recordStartFrame - latencyFrames;
+            if (overdubTarget != null) {
+                looper.overdubTake(overdubTarget, recorded, captureFrame, recordingFile);
+                return;
+            }
+            long anchor = MixerTrack.UNANCHORED;
+            if (quantize) {
+                // Cut the take onto the bar grid and keep it locked to the grid when played
+                anchor = LoopQuantizer.startFrame(masterClock, captureFrame);
+                take = LoopQuantizer.fit(take, captureFrame, anchor,
+                        LoopQuantizer.lengthFrames(masterClock, anchor, stopFrame - latencyFrames));
+            } else if (latencyFrames > 0 && take.getFrameCount() > latencyFrames) {
+                take = LoopQuantizer.fit(take, captureFrame, recordStartFrame, take.getFrameCount() - latencyFrames);
+            }
+            Track track = new Track(recordingFile.getPath());
+            looper.attachTrack(track, take);
+            track.getMixerTrack().setAnchorFrame(anchor);
+            trackList.add(track); // Inserts the row
+            history.push(TrackCommands.added(trackList, audioEngine.getMixer(), trackHost, track));
+            looper.storeTake(track, take, take != recorded);
+            saveSession();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
 
-// Generate file name and add it to the list of files
-private void getFile() {
+// Rebuild the bar grid from the tempo fields, keeping the last valid values on bad input
+private void updateClock() {
+    double bpm = masterClock != null ? masterClock.getBpm() : prefs.getFloat(PREF_BPM, DEFAULT_BPM);
+    int bars = masterClock != null ? masterClock.getLoopBars() : prefs.getInt(PREF_BARS, 1);
+    try {
+        bpm = Double.parseDouble(tempoBpmText.getText().toString());
+    } catch (NumberFormatException ignored) {
+    }
+    try {
+        bars = Integer.parseInt(loopBarsText.getText().toString());
+    } catch (NumberFormatException ignored) {
+    }
+    bpm = Math.max(MasterClock.MIN_BPM, Math.min(bpm, MasterClock.MAX_BPM));
+    bars = Math.max(1, Math.min(bars, MasterClock.MAX_BARS));
+    masterClock = new MasterClock(audioEngine.getSampleRate(), bpm, BEATS_PER_BAR, bars);
+    prefs.edit().putFloat(PREF_BPM, (float) bpm).putInt(PREF_BARS, bars).apply();
+}
+
+// Play a click every half second and find it again on the microphone to measure round-trip latency
+public void calibrateLatency(View v) {
+    if (looper == null || looper.isRecording() || isCalibrating) {
+        return;
+    }
+    final int rate = audioEngine.getSampleRate();
+    final int period = rate / 2;
+    final float[] click = LatencyCalibrator.click(rate);
+    float[] loop = new float[period];
+    System.arraycopy(click, 0, loop, 0, click.length);
+    final MixerTrack clickTrack = new MixerTrack(new PcmBuffer(loop, 1, rate));
+    final LoopMixer mixer = audioEngine.getMixer();
+    // The click and the microphone are lined up on the frame clock, which must keep running
+    audioEngine.hold();
+    final long clickFrame = mixer.getFramePosition();
+    clickTrack.setAnchorFrame(clickFrame);
+    clickTrack.play();
+    mixer.addTrack(clickTrack);
+    final File file = new File(getCacheDir(), "calibration.wav");
+    final long captureFrame;
+    try {
+        wavRecorder.start(file);
+        captureFrame = mixer.getFramePosition();
+    } catch (IOException | RuntimeException e) {
+        Log.e(TAG, "Unable to start calibration", e);
+        mixer.removeTrack(clickTrack);
+        audioEngine.releaseHold();
+        return;
+    }
+    isCalibrating = true;
+    mainHandler.postDelayed(new Runnable() {
+        @Override
+        public void run() {
+            mixer.removeTrack(clickTrack);
+            if (!isCalibrating) {
+                return;
+            }
+            isCalibrating = false;
+            audioEngine.releaseHold();
+            final PcmBuffer take;
+            try {
+                take = wavRecorder.stop();
+            } catch (IOException e) {
+                Log.e(TAG, "Calibration recording failed", e);
+                Toast.makeText(MainActivity.this, R.string.calibrate_failed_text, Toast.LENGTH_LONG).show();
+                return;
+            } finally {
+                file.delete();
+            }
+            // The correlation is a few tens of millions of multiplies, keep it off the UI thread
+            exportExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int measured = LatencyCalibrator.measure(take.getSamples(), take.getFrameCount(),
+                            captureFrame, clickFrame, period, click);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (measured < 0) {
+                                Toast.makeText(MainActivity.this, R.string.calibrate_failed_text, Toast.LENGTH_LONG).show();
+                                return;
+                            }
+                            latencyFrames = measured;
+                            prefs.edit().putLong(PREF_LATENCY_US, measured * 1000000L / rate).apply();
+                            Toast.makeText(MainActivity.this, getString(R.string.calibrate_done_text, measured * 1000 / rate), Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                }
+            });
+        }
+    }, CALIBRATION_MS);
+}
+
+// Turn overdubbing onto the selected track on or off
+public void toggleOverdub(View v) {
+    overdub = ((CheckBox) v).isChecked();
+    prefs.edit().putBoolean(PREF_OVERDUB, overdub).apply();
+}
+
+// The selected track if it can be overdubbed: loaded into memory, playing, and at its recorded
+// speed and pitch so the take lines up with the audio sample for sample
+private Track overdubTarget() {
+    if (CurrentPosition < 0 || CurrentPosition >= trackList.size()) {
+        return null;
+    }
+    Track track = trackList.get(CurrentPosition);
+    MixerTrack voice = track.getMixerTrack();
+    if (voice == null || voice.isStreaming() || !voice.isPlaying()
+            || voice.getTempo() != 1f || voice.getPitch() != 1f) {
+        return null;
+    }
+    return track;
+}
+
+// Take back the last edit: a recording, import, delete, move, slider change or overdub
+public void undoAction(View v) {
+    if (history.undo()) {
+        historyStepped();
+    }
+}
+
+// Make the last undone edit again
+public void redoAction(View v) {
+    if (history.redo()) {
+        historyStepped();
+    }
+}
+
+private void historyStepped() {
+    // Keep the selection on an existing row
+    CurrentPosition = Math.min(CurrentPosition, Math.max(0, trackList.size() - 1));
+    saveSession();
+}
+
+// Turn bar quantized recording on or off
+public void toggleQuantize(View v) {
+    quantize = ((CheckBox) v).isChecked();
+    prefs.edit().putBoolean(PREF_QUANTIZE, quantize).apply();
+}
+
+// Generate a timestamped file for a new recording
+private File getFile() {
     Time time = new Time();
     time.setToNow();
     String timeString = time.format("%Y%m%d%H%M%S");
-    uriList.add(Uri.parse(this.getFilesDir() + "/" + timeString + ".mp3"));
-}
-
-// Add the specified URI to the media player list
-private void addToMediaPlayerList(Uri uri) {
-    MediaPlayer player = new MediaPlayer();
-    // Set audio attributes for the media player
-    player.setAudioAttributes(new AudioAttributes.Builder()
-        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-        .setUsage(AudioAttributes.USAGE_MEDIA)
-        .build()
-    );
-    try {
-        player.setDataSource(getApplicationContext(), uri); // Set data source for the media player
-        player.prepare(); // Prepare the media player for playback
-        // Set a listener to pause the media player when it starts playing
-        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-            @Override
-            public void onPrepared(MediaPlayer mediaPlayer) {
-                if (mediaPlayer.isPlaying()) {
-                    mediaPlayer.pause();
-                } else {
-                    mediaPlayer.start();
-                    mediaPlayer.pause();
-                }
-            }
-        });
-        mediaPlayerList.add(player); // Add the media player to the list
-    } catch (IOException e) {
-        e.printStackTrace();
+    return new File(this.getFilesDir(), timeString + ".wav");
+}
+
+// Add a placeholder row for the URI and decode it off the main thread
+private void addToTrackList(Uri uri) {
+    Track track = new Track(String.valueOf(uri));
+    trackList.add(track); // Add the track to the list
+    looper.load(track);
+    history.push(TrackCommands.added(trackList, audioEngine.getMixer(), trackHost, track));
+}
+
+// Queue the current session to be written to app storage
+private void saveSession() {
+    if (looper != null) {
+        looper.saveSession(CurrentPosition);
     }
 }
 
 
-// This method plays a sound.
+// This method plays a sound and exports the selected track, or every track, in the background.
 public void savePersistent(View v) {
-    playSoundPool();
+    playFeedbackSound();
 
     // Get the parent view of the clicked view.
     View parent = (View) v.getParent();
@@ -231,21 +516,239 @@ public void savePersistent(View v) {
     // Find the EditText view with the id "save_file_name" in the parent view.
     EditText text = parent.findViewById(R.id.save_file_name);
 
-    // If the text in the EditText is not empty, create a file with the given name and copy the current audio file to it.
-    if (text.length() > 0) {
-        File file = new File(getAlbumStorageDir("Looper"), text.getText().toString() + ".mp3");
-        try {
-            File copyFile = new File(String.valueOf(uriList.get(CurrentPosition)));
-            copy(copyFile, file);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // If the text in the EditText is not empty, copy the audio to files starting with the given name.
+    if (text.length() > 0 && trackList.size() > 0) {
+        File dir = getAlbumStorageDir("Looper");
+        String name = text.getText().toString();
+        List<AudioExporter.Job> jobs = new ArrayList<>();
+        if (v.getId() == R.id.save_all_button) {
+            for (int i = 0; i < trackList.size(); i++) {
+                jobs.add(exportJob(trackList.get(i), dir, name + "_" + (i + 1)));
+            }
+        } else {
+            jobs.add(exportJob(trackList.get(CurrentPosition), dir, name));
         }
+
+        // Keep the popup up with a progress bar until the copy finishes
+        final ProgressBar progressBar = parent.findViewById(R.id.export_progress);
+        progressBar.setVisibility(View.VISIBLE);
+        parent.findViewById(R.id.save_file_button).setEnabled(false);
+        parent.findViewById(R.id.save_all_button).setEnabled(false);
+        parent.findViewById(R.id.stems_button).setEnabled(false);
+        audioExporter.export(jobs, new AudioExporter.Listener() {
+            @Override
+            public void onProgress(long bytesDone, long bytesTotal) {
+                progressBar.setProgress(bytesTotal > 0 ? (int) (bytesDone * 100 / bytesTotal) : 100);
+            }
+
+            @Override
+            public void onComplete(List<File> outputs) {
+                popupWindow.dismiss();
+                indexLibrary();
+                Toast.makeText(MainActivity.this, getString(R.string.export_done_text, outputs.size()), Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(IOException error) {
+                Log.e(TAG, "Export failed", error);
+                popupWindow.dismiss();
+                Toast.makeText(MainActivity.this, R.string.export_failed_text, Toast.LENGTH_SHORT).show();
+            }
+        });
+        return;
     }
 
     // Dismiss the popup window.
     popupWindow.dismiss();
 }
 
+// Bounce every loaded track to one stereo file, as WAV or AAC, without playing it back.
+// Long imports streaming from their files only play live, so they are left out and named
+// when the mixdown is done.
+public void mixdown(View v) {
+    final View parent = (View) v.getParent();
+    EditText text = parent.findViewById(R.id.save_file_name);
+    final List<MixerTrack> mixerTracks = new ArrayList<>();
+    List<String> skipped = new ArrayList<>();
+    for (int i = 0; i < trackList.size(); i++) {
+        Track track = trackList.get(i);
+        if (!track.isReady()) {
+            continue;
+        }
+        if (track.getMixerTrack().isStreaming()) {
+            skipped.add(track.getName() != null ? track.getName() : getString(R.string.track_text) + " " + i);
+        } else {
+            mixerTracks.add(track.getMixerTrack());
+        }
+    }
+    final String skippedNames = TextUtils.join(", ", skipped);
+    if (text.length() == 0 || mixerTracks.isEmpty()) {
+        if (text.length() > 0 && !skipped.isEmpty()) {
+            Toast.makeText(this, getString(R.string.mixdown_streaming_text, skippedNames), Toast.LENGTH_LONG).show();
+        }
+        popupWindow.dismiss();
+        return;
+    }
+
+    final boolean aac = ((CheckBox) parent.findViewById(R.id.mixdown_aac)).isChecked();
+    final File output = new File(getAlbumStorageDir("Looper"), text.getText() + "_mix" + (aac ? ".m4a" : ".wav"));
+    final MixdownRenderer renderer = new MixdownRenderer(audioEngine.getSampleRate());
+    renderer.setMasterEffects(audioEngine.getMixer().getMasterEffects());
+    final long lengthFrames = renderer.longestLoopFrames(mixerTracks);
+    final ProgressBar progressBar = parent.findViewById(R.id.export_progress);
+    progressBar.setVisibility(View.VISIBLE);
+    parent.findViewById(R.id.mixdown_button).setEnabled(false);
+    parent.findViewById(R.id.stems_button).setEnabled(false);
+    exportExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+            IOException failure = null;
+            try (AudioSink sink = aac
+                    ? new AacEncoderSink(output, renderer.getSampleRate(), LoopMixer.CHANNELS)
+                    : new WavWriter(output, renderer.getSampleRate(), LoopMixer.CHANNELS)) {
+                renderer.render(mixerTracks, lengthFrames, sink, new MixdownRenderer.ProgressListener() {
+                    int shown = -1;
+
+                    @Override
+                    public void onProgress(long framesDone, long framesTotal) {
+                        // Rendering outruns the screen, so only post when the percent moves
+                        final int percent = (int) (framesDone * 100 / framesTotal);
+                        if (percent == shown) {
+                            return;
+                        }
+                        shown = percent;
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressBar.setProgress(percent);
+                            }
+                        });
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                output.delete();
+            }
+            final IOException error = failure;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    popupWindow.dismiss();
+                    if (error != null) {
+                        Log.e(TAG, "Mixdown failed", error);
+                        Toast.makeText(MainActivity.this, R.string.mixdown_failed_text, Toast.LENGTH_SHORT).show();
+                    } else {
+                        indexLibrary();
+                        if (skippedNames.isEmpty()) {
+                            Toast.makeText(MainActivity.this, getString(R.string.mixdown_done_text, output.getName()), Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(MainActivity.this, getString(R.string.mixdown_skipped_text, output.getName(), skippedNames), Toast.LENGTH_LONG).show();
+                        }
+                    }
+                }
+            });
+        }
+    });
+}
+
+// Render every loaded track to its own processed WAV stem, all lined up, along with a manifest.
+// Tapping the button again while the stems render cancels them, as does closing the popup.
+public void exportStems(View v) {
+    if (stemExport != null) {
+        stemExport.cancel(true);
+        stemExport = null;
+        popupWindow.dismiss();
+        return;
+    }
+    final View parent = (View) v.getParent();
+    EditText text = parent.findViewById(R.id.save_file_name);
+    List<StemExporter.Stem> stems = new ArrayList<>();
+    for (int i = 0; i < trackList.size(); i++) {
+        Track track = trackList.get(i);
+        if (track.isReady() && !track.getMixerTrack().isStreaming()) {
+            String name = track.getName() != null ? track.getName() : getString(R.string.track_text) + " " + i;
+            stems.add(new StemExporter.Stem(track.getMixerTrack(), name));
+        }
+    }
+    if (text.length() == 0 || stems.isEmpty()) {
+        popupWindow.dismiss();
+        return;
+    }
+    if (stemExporter == null) {
+        stemExporter = new StemExporter(audioEngine.getSampleRate(), StemExporter.defaultThreadCount(),
+                exportExecutor, mainExecutor);
+    }
+
+    final ProgressBar progressBar = parent.findViewById(R.id.export_progress);
+    progressBar.setVisibility(View.VISIBLE);
+    ((Button) v).setText(R.string.stems_cancel_text);
+    parent.findViewById(R.id.save_file_button).setEnabled(false);
+    parent.findViewById(R.id.save_all_button).setEnabled(false);
+    parent.findViewById(R.id.mixdown_button).setEnabled(false);
+    popupWindow.setOnDismissListener(new PopupWindow.OnDismissListener() {
+        @Override
+        public void onDismiss() {
+            if (stemExport != null) {
+                stemExport.cancel(true);
+                stemExport = null;
+            }
+        }
+    });
+    stemExport = stemExporter.export(stems, getAlbumStorageDir("Looper"), text.getText().toString(),
+            masterClock != null ? masterClock.getBpm() : 0, new StemExporter.Listener() {
+        @Override
+        public void onProgress(long framesDone, long framesTotal) {
+            progressBar.setProgress((int) (framesDone * 100 / framesTotal));
+        }
+
+        @Override
+        public void onComplete(List<File> outputs) {
+            stemExport = null;
+            popupWindow.dismiss();
+            indexLibrary();
+            // The manifest is listed last
+            Toast.makeText(MainActivity.this, getString(R.string.stems_done_text, outputs.size() - 1), Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onError(IOException error) {
+            stemExport = null;
+            Log.e(TAG, "Stem export failed", error);
+            popupWindow.dismiss();
+            Toast.makeText(MainActivity.this, R.string.stems_failed_text, Toast.LENGTH_SHORT).show();
+        }
+    });
+}
+
+// Build an export job reading the track's source through the content resolver
+private AudioExporter.Job exportJob(Track track, File dir, String name) {
+    final Uri uri = LooperService.toUri(track.getSource());
+    return new AudioExporter.Job(new AudioExporter.Source() {
+        @Override
+        public FileInputStream open() throws IOException {
+            ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                throw new IOException("Unable to open " + uri);
+            }
+            return new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        }
+    }, new File(dir, name + "." + extensionOf(uri)));
+}
+
+// Keep the source's file type when exporting
+private String extensionOf(Uri uri) {
+    String extension = null;
+    if ("file".equals(uri.getScheme())) {
+        extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+    } else {
+        String type = getContentResolver().getType(uri);
+        if (type != null) {
+            extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(type);
+        }
+    }
+    return extension == null || extension.isEmpty() ? "mp3" : extension;
+}
+
 // This method returns the directory where the audio file will be saved.
 public File getAlbumStorageDir(String albumName) {
     File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), albumName);
@@ -258,31 +761,10 @@ public File getAlbumStorageDir(String albumName) {
     return file;
 }
 
-// This method copies the current audio file to the specified destination file.
-public static void copy(File src, File dst) throws IOException {
-    InputStream in = new FileInputStream(src);
-    try {
-        OutputStream out = new FileOutputStream(dst);
-        try {
-            byte[] buf = new byte[1024];
-            int len;
-
-            // Read bytes from the input stream and write them to the output stream.
-            while ((len = in.read(buf)) > 0) {
-                out.write(buf, 0, len);
-            }
-        } finally {
-            out.close();
-        }
-    } finally {
-        in.close();
-    }
-}
-
 // This method shows a popup window where the user can save the current audio file.
 public void savePopUp(View v) {
     // If there is at least one audio file in the list, show the popup window.
-    if (uriList.size() > 0) {
+    if (trackList != null && trackList.size() > 0) {
         LayoutInflater inflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
         View popupView = inflater.inflate(R.layout.popup, null);
         int width = LinearLayout.LayoutParams.WRAP_CONTENT;
@@ -299,11 +781,71 @@ public void savePopUp(View v) {
     }
 }
 
+// Browse the saved loops from the library index, narrowing the list as the search text changes.
+// Tapping a loop adds it alongside the tracks already playing.
 public void listPersistent(View v) {
+    if (looper == null) {
+        return;
+    }
+    LayoutInflater inflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
+    View popupView = inflater.inflate(R.layout.library_popup, null);
+    popupWindow = new PopupWindow(popupView, LinearLayout.LayoutParams.WRAP_CONTENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT, true);
+
+    final File dir = getAlbumStorageDir("Looper");
+    final LoopLibrary library = looper.getLibrary();
+    final LoopLibraryAdapter adapter = new LoopLibraryAdapter(new LoopLibraryAdapter.Listener() {
+        @Override
+        public void onLoopSelected(LoopLibrary.Entry entry) {
+            popupWindow.dismiss();
+            addToTrackList(Uri.fromFile(new File(dir, entry.getName())));
+            saveSession();
+        }
+    });
+    RecyclerView list = popupView.findViewById(R.id.library_list);
+    list.setLayoutManager(new LinearLayoutManager(this));
+    list.setAdapter(adapter);
+    final EditText search = popupView.findViewById(R.id.library_search);
+    final Runnable filter = new Runnable() {
+        @Override
+        public void run() {
+            adapter.setEntries(library.query(LoopLibrary.Query.parse(search.getText().toString())));
+        }
+    };
+    search.addTextChangedListener(new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence text, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable text) {
+            filter.run();
+        }
+    });
+    // Show what is indexed straight away, then pick up loops saved or changed since
+    filter.run();
+    looper.refreshLibrary(dir, filter);
+    popupWindow.showAtLocation(v, Gravity.CENTER, 0, 0);
+}
+
+// Pick any audio file with the system picker instead of from the library
+public void browseFiles(View v) {
+    popupWindow.dismiss();
     // open file picker with initial directory set to music folder
     openFile(Uri.parse("/storage/emulated/0/Music"));
 }
 
+// Index newly saved loops in the background so the library opens up to date
+private void indexLibrary() {
+    if (looper != null) {
+        looper.refreshLibrary(getAlbumStorageDir("Looper"), null);
+    }
+}
+
 private void openFile(Uri pickerInitialUri) {
     // create intent to open document picker for audio files
     Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
@@ -320,82 +862,186 @@ public void onActivityResult(int requestCode, int resultCode, Intent resultData)
     super.onActivityResult(requestCode, resultCode, resultData);
     // if file was successfully picked
     if (requestCode == ReturnCodeFile && resultCode == Activity.RESULT_OK) {
-        Uri uri = resultData.getData();
-        // release all currently playing media players
-        for (MediaPlayer mediaPlayer : mediaPlayerList) {
-            mediaPlayer.release();
-        }
         if (resultData != null) {
-            // add new media player for selected file to list
-            addToMediaPlayerList(uri);
-            uriList.add(uri);
-            adapter.notifyDataSetChanged();
+            Uri uri = resultData.getData();
+            // decode selected file and add it alongside the tracks already playing
+            if (looper == null) {
+                pendingImport = uri;
+                return;
+            }
+            addToTrackList(uri);
+            saveSession();
         }
     }
 }
 
 public void getSoundControls() {
     // set up recycler view to display sound controls
-    adapter = new SoundControlsAdapter(mediaPlayerList, this);
+    adapter = new SoundControlsAdapter(trackList, this);
     activityRecyclerView.setAdapter(adapter);
     LinearLayoutManager layoutManager = new LinearLayoutManager(this);
     activityRecyclerView.setLayoutManager(layoutManager);
+    // Rows are dragged by their name, each drag being a single undo step
+    itemTouchHelper = new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+        private int dragFrom = RecyclerView.NO_POSITION;
+
+        @Override
+        public boolean isLongPressDragEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean onMove(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder, @NonNull RecyclerView.ViewHolder target) {
+            int from = viewHolder.getAdapterPosition();
+            int to = target.getAdapterPosition();
+            if (from == RecyclerView.NO_POSITION || to == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            if (dragFrom == RecyclerView.NO_POSITION) {
+                dragFrom = from;
+            }
+            trackList.move(from, to);
+            return true;
+        }
+
+        @Override
+        public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+        }
+
+        @Override
+        public void clearView(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+            super.clearView(recyclerView, viewHolder);
+            int to = viewHolder.getAdapterPosition();
+            if (dragFrom != RecyclerView.NO_POSITION && to != RecyclerView.NO_POSITION && to != dragFrom) {
+                history.push(TrackCommands.moved(trackList, dragFrom, to));
+                CurrentPosition = to;
+                saveSession();
+            }
+            dragFrom = RecyclerView.NO_POSITION;
+        }
+    });
+    itemTouchHelper.attachToRecyclerView(activityRecyclerView);
+}
+
+@Override
+public void onStartDrag(RecyclerView.ViewHolder holder) {
+    itemTouchHelper.startDrag(holder);
 }
 
 @Override
 public void currentPosition(int clickedposition) {
-    // set current position of media player for use with seek bar
+    // set current position of track for use with seek bar
     CurrentPosition = clickedposition;
 }
 
+@Override
+public void onPlay(int clickedposition) {
+    // nothing starts while another app, such as a call, holds audio focus
+    MixerTrack voice = trackList.get(clickedposition).getMixerTrack();
+    if (voice != null && looper.requestAudioFocus()) {
+        voice.play();
+        audioEngine.wake();
+    }
+}
+
 @Override
 public void onButtonClick(int clickedposition) {
-    // release media player and remove from list when stop button is clicked
-    mediaPlayerList.get(clickedposition).release();
-    mediaPlayerList.remove(clickedposition);
-    uriList.remove(clickedposition);
-    adapter.notifyDataSetChanged();
+    // take the row out of the list and the mixer, keeping its audio so the delete can be undone
+    history.perform(TrackCommands.remove(trackList, audioEngine.getMixer(), trackHost, clickedposition));
+    // Keep the selection on an existing row
+    CurrentPosition = Math.min(CurrentPosition, Math.max(0, trackList.size() - 1));
+    saveSession();
 }
+
 @Override
-protected void onSaveInstanceState(Bundle outState) {
-    // create an ArrayList to hold URIs as Strings
-    ArrayList<String> holder = new ArrayList<>();
-    // check if uriList is not null
-    if(uriList != null) {
-        // loop through uriList and add each Uri as a String to holder
-        for(Uri uri : uriList){
-            holder.add(String.valueOf(uri));
-        }
-        // add holder to the bundle
-        outState.putStringArrayList(URIs, holder);
+public void onTrackChanged(int clickedposition) {
+    // record the change for undo and persist it once the user lets go
+    Track track = trackList.get(clickedposition);
+    Track.Settings before = track.commitSettings();
+    Track.Settings after = track.getSettings();
+    if (!before.equals(after)) {
+        history.push(TrackCommands.edited(trackList, track, before, after));
     }
-    // release all MediaPlayers in mediaPlayerList
-    for(MediaPlayer media: mediaPlayerList){
-        media.release();
+    saveSession();
+}
+
+@Override
+public void onMatchTempo(int clickedposition) {
+    // play the track at the session tempo, as one undoable edit
+    Track track = trackList.get(clickedposition);
+    MixerTrack voice = track.getMixerTrack();
+    if (voice == null || voice.isStreaming() || masterClock == null) {
+        return;
     }
-    // call super method to save the instance state
-    super.onSaveInstanceState(outState);
+    if (!track.matchTempo(masterClock.getBpm())) {
+        Toast.makeText(this, R.string.tempo_unknown_text, Toast.LENGTH_SHORT).show();
+        return;
+    }
+    voice.setTempo(track.getTempo());
+    trackList.changed(track, TrackList.Change.SETTINGS);
+    onTrackChanged(clickedposition);
+}
+
+@Override
+protected void onResume() {
+    super.onResume();
+    // poll the meters and counters while the activity is visible
+    Choreographer.getInstance().postFrameCallback(meterCallback);
+}
+
+@Override
+protected void onPause() {
+    super.onPause();
+    Choreographer.getInstance().removeFrameCallback(meterCallback);
+    // make sure the latest selection and settings reach storage
+    saveSession();
+}
+
+// Mixer timing, dropouts, decode time and output level in one line
+private void showAudioStats() {
+    MixerMetrics metrics = audioEngine.getMixer().getMetrics();
+    TimingHistogram mixTimes = metrics.getMixTimes();
+    audioStatsText.setText(getString(R.string.audio_stats_text,
+            mixTimes.percentileNanos(0.5) / 1e6, mixTimes.percentileNanos(0.99) / 1e6, mixTimes.getMaxNanos() / 1e6,
+            metrics.getUnderruns(), metrics.getOverruns(),
+            looper.getTrackLoader().getDecodeTimes().getMeanNanos() / 1e6,
+            LevelMeter.toDecibels(metrics.getMasterMeter().getRms()),
+            history.getUndoCount() + history.getRedoCount(), history.getRetainedBytes() / (1024.0 * 1024.0)));
 }
 
 @Override
 protected void onDestroy() {
     super.onDestroy();
-    // release all MediaPlayers in mediaPlayerList
-    for(MediaPlayer player: mediaPlayerList){
-        if (player != null){
-            player.release();
+    // a calibration belongs to this screen, finish it so the WAV header is written
+    if (isCalibrating) {
+        try {
+            wavRecorder.stop();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        isCalibrating = false;
+        audioEngine.releaseHold();
+    }
+    // stems are rendered for this screen's popup, which goes with it
+    if (stemExport != null) {
+        stemExport.cancel(true);
+        stemExport = null;
+    }
+    if (stemExporter != null) {
+        stemExporter.shutdown();
     }
+    // queued work still finishes, nothing new is taken on
+    exportExecutor.shutdown();
+    // leaving the app with nothing playing ends the session, a rotation never does
+    if (looper != null) {
+        history.setListener(null);
+        trackList.setListener(null);
+        if (!isChangingConfigurations()) {
+            looper.stopIfIdle();
+        }
+    } else if (!isChangingConfigurations()) {
+        stopService(new Intent(this, LooperService.class));
+    }
+    unbindService(connection);
 }
-
-	private static final int[] SOUND_RESOURCES = {
-		R.raw.boom_kick,
-		R.raw.gubbler_drum,
-		R.raw.nice_one,
-		R.raw.ready,
-		R.raw.robot_intro,
-		R.raw.thunder,
-		R.raw.whoosh
-	};
 }
-
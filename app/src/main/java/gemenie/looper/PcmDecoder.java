@@ -0,0 +1,180 @@
+package gemenie.looper;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import gemenie.looper.audio.PcmBuffer;
+
+// Decodes a whole audio file into memory so the mixer can loop it sample-accurately
+public class PcmDecoder {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final Context context;
+
+    public PcmDecoder(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public PcmBuffer decode(Uri uri) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat format = selectAudioTrack(extractor);
+            if (format == null) {
+                throw new IOException("No audio track in " + uri);
+            }
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            boolean floatOutput = false;
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            float[] samples = new float[estimateSamples(format, sampleRate, channels)];
+            int count = 0;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                // Feed compressed samples to the codec
+                if (!inputDone) {
+                    int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inIndex >= 0) {
+                        ByteBuffer in = codec.getInputBuffer(inIndex);
+                        int size = extractor.readSampleData(in, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                // Drain decoded PCM
+                int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outFormat = codec.getOutputFormat();
+                    sampleRate = outFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channels = outFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    floatOutput = outFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && outFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+                } else if (outIndex >= 0) {
+                    ByteBuffer out = codec.getOutputBuffer(outIndex);
+                    out.position(info.offset);
+                    out.limit(info.offset + info.size);
+                    out.order(ByteOrder.nativeOrder());
+                    int available = floatOutput ? info.size / 4 : info.size / 2;
+                    if (count + available > samples.length) {
+                        samples = Arrays.copyOf(samples, Math.max(samples.length * 2, count + available));
+                    }
+                    if (floatOutput) {
+                        out.asFloatBuffer().get(samples, count, available);
+                    } else {
+                        PcmBuffer.readPcm16(out, samples, count);
+                    }
+                    count += available;
+                    codec.releaseOutputBuffer(outIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        outputDone = true;
+                    }
+                }
+            }
+            // Mixer supports mono and stereo sources, anything wider keeps its first two channels
+            return toPcmBuffer(samples, count, channels, sampleRate);
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    // Modification time used to key decoded audio, 0 when the provider does not report one
+    public long lastModified(Uri uri) {
+        String scheme = uri.getScheme();
+        if (scheme == null || ContentResolver.SCHEME_FILE.equals(scheme)) {
+            return new File(uri.getPath()).lastModified();
+        }
+        try (Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Providers that do not expose the column fall through
+        }
+        return 0;
+    }
+
+    // Length of the audio in microseconds from the container, without decoding it, or -1 when the
+    // file does not say
+    public long durationUs(Uri uri) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat format = selectAudioTrack(extractor);
+            if (format == null) {
+                throw new IOException("No audio track in " + uri);
+            }
+            return format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static int estimateSamples(MediaFormat format, int sampleRate, int channels) {
+        if (format.containsKey(MediaFormat.KEY_DURATION)) {
+            long durationUs = format.getLong(MediaFormat.KEY_DURATION);
+            long estimate = durationUs * sampleRate / 1000000L * channels;
+            if (estimate > 0 && estimate < Integer.MAX_VALUE - 8) {
+                return (int) estimate + channels * 1024;
+            }
+        }
+        return sampleRate * channels;
+    }
+
+    private static PcmBuffer toPcmBuffer(float[] samples, int count, int channels, int sampleRate) {
+        if (channels <= 2) {
+            // Drop the unused tail of the estimate so cached buffers are accounted exactly
+            float[] exact = samples.length == count ? samples : Arrays.copyOf(samples, count);
+            return new PcmBuffer(exact, count / channels, channels, sampleRate);
+        }
+        int frames = count / channels;
+        float[] stereo = new float[frames * 2];
+        for (int f = 0; f < frames; f++) {
+            stereo[f * 2] = samples[f * channels];
+            stereo[f * 2 + 1] = samples[f * channels + 1];
+        }
+        return new PcmBuffer(stereo, 2, sampleRate);
+    }
+}
@@ -1,13 +1,10 @@
 package gemenie.looper;
 
-import android.media.MediaPlayer;
-import android.media.PlaybackParams;
-import android.os.Build;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
@@ -15,21 +12,52 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 
-import java.util.ArrayList;
+import java.util.List;
+
+import gemenie.looper.audio.LevelMeter;
+import gemenie.looper.audio.MixerTrack;
+import gemenie.looper.audio.SliderMapping;
+import gemenie.looper.audio.Track;
+import gemenie.looper.audio.TrackList;
 
 
 public class SoundControlsAdapter extends RecyclerView.Adapter<SoundControlsAdapter.ViewHolder> {
 
-    private ArrayList<MediaPlayer> mMediaList;
+    private TrackList mTrackList;
     private ButtonClickListener buttonListener;
-    private int MAX_VOLUME = 100;
     private String TrackText = "Track ";
+    // How fast the meter falls back after a peak, in dB per display frame
+    private static final float METER_FALL_DB = 1.5f;
 
-    // SoundControlsAdapter class constructor takes an ArrayList of MediaPlayer objects and a ButtonClickListener interface object as parameters
-public SoundControlsAdapter(ArrayList<MediaPlayer> mediaList, ButtonClickListener buttonlistener) {
+    // SoundControlsAdapter class constructor takes the session's TrackList and a ButtonClickListener interface object as parameters
+public SoundControlsAdapter(TrackList trackList, ButtonClickListener buttonlistener) {
     // Store the passed parameters in the class variables
-    mMediaList = mediaList;
+    mTrackList = trackList;
     buttonListener = buttonlistener;
+    // Rows keep their view holders across inserts and removals
+    setHasStableIds(true);
+    // Forward each edit to the matching granular notification
+    mTrackList.setListener(new TrackList.Listener() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int from, int to) {
+            notifyItemMoved(from, to);
+        }
+
+        @Override
+        public void onChanged(int position, int count, TrackList.Change change) {
+            notifyItemRangeChanged(position, count, change);
+        }
+    });
 }
 
 // onCreateViewHolder() creates and returns a new ViewHolder object when a new list item needs to be displayed
@@ -45,119 +73,308 @@ public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
 // onBindViewHolder() binds data to the view holder when the view holder is created or updated
 @Override
 public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-    // Hide the seek bar for speed if the device version is lower than or equal to Android M (Marshmallow)
-    if(Build.VERSION.SDK_INT <= Build.VERSION_CODES.M) {
-        holder.seekBarSpeed.setVisibility(View.GONE);
+    // Restore the sliders from the track's saved settings
+    Track track = mTrackList.get(position);
+    holder.seekBarVolume.setProgress(track.getVolumeProgress());
+    holder.seekBarSpeed.setProgress(track.getSpeedProgress());
+    holder.seekBarPitch.setProgress(track.getPitchProgress());
+    holder.seekBarPan.setProgress(track.getPanProgress());
+    holder.showVolume(track.getVolumeProgress());
+    holder.showSpeed(track);
+    holder.showPitch(track.getPitchProgress());
+    holder.showPan(track.getPanProgress());
+    holder.meterDb = LevelMeter.FLOOR_DB;
+    holder.levelMeter.setProgress(0);
+    holder.waveform.setPeaks(track.getPeaks());
+    holder.waveform.setLoop(track.getLoopStartFrame(), track.getLoopEndFrame());
+    bindState(holder, track, position);
+}
+
+// Partial updates only touch the part of the row that changed
+@Override
+public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+    if (payloads.isEmpty()) {
+        onBindViewHolder(holder, position);
+        return;
     }
-    // Set the volume seek bar progress to 100%
-    holder.seekBarVolume.setProgress(100);
-    // Set the speed seek bar progress to 41
-    holder.seekBarSpeed.setProgress(41);
-    // Set the EditText text to the string "Track" followed by the position number
-    String text = TrackText + position;
+    Track track = mTrackList.get(position);
+    for (Object payload : payloads) {
+        if (payload == TrackList.Change.PEAKS) {
+            holder.waveform.setPeaks(track.getPeaks());
+            holder.waveform.setLoop(track.getLoopStartFrame(), track.getLoopEndFrame());
+        } else if (payload == TrackList.Change.SETTINGS) {
+            onBindViewHolder(holder, position);
+        } else if (payload == TrackList.Change.TEMPO) {
+            holder.showSpeed(track);
+        } else {
+            bindState(holder, track, position);
+        }
+    }
+}
+
+// Name and enabled state, which depend on the row position and whether the audio has loaded
+private void bindState(ViewHolder holder, Track track, int position) {
+    // Use the saved name, or the string "Track" followed by the position number
+    String text = track.getName() != null ? track.getName() : TrackText + position;
     holder.editText.setText(text);
+    // Rows stay as placeholders until the track has been decoded
+    boolean ready = track.isReady();
+    // Long imports play from the file at their own speed and pitch, end to end
+    boolean editable = ready && !track.getMixerTrack().isStreaming();
+    holder.seekBarVolume.setEnabled(ready);
+    holder.seekBarSpeed.setEnabled(editable);
+    holder.seekBarPitch.setEnabled(editable);
+    holder.seekBarFade.setEnabled(editable);
+    holder.speedText.setEnabled(editable);
+    holder.seekBarPan.setEnabled(ready);
+    // Fades are kept in source frames, so the slider can only show them once the rate is known
+    int fade = ready ? SliderMapping.fadeProgressFromFrames(track.getFadeInFrames(),
+            track.getMixerTrack().getBuffer().getSampleRate()) : 0;
+    holder.seekBarFade.setProgress(fade);
+    holder.showFade(fade);
+    holder.playBtn.setEnabled(ready);
+    holder.pauseBtn.setEnabled(ready);
+    if (track.getState() == Track.State.LOADING) {
+        holder.editText.setText(R.string.loading_text);
+    } else if (track.getState() == Track.State.FAILED) {
+        holder.editText.setText(R.string.load_failed_text);
+    }
+}
+
+@Override
+public long getItemId(int position) {
+    return mTrackList.get(position).getId();
+}
+
+// Refresh the level meters and playheads of the rows on screen, called once per display frame
+public void updateMeters(RecyclerView recyclerView) {
+    for (int i = 0; i < recyclerView.getChildCount(); i++) {
+        ViewHolder holder = (ViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            continue;
+        }
+        MixerTrack track = mTrackList.get(position).getMixerTrack();
+        if (track != null) {
+            holder.waveform.setPlayheadFrame(track.getPlayheadFrame());
+        }
+        float peakDb = track == null ? LevelMeter.FLOOR_DB : LevelMeter.toDecibels(track.getMeter().takePeak());
+        holder.meterDb = Math.max(peakDb, holder.meterDb - METER_FALL_DB);
+        holder.levelMeter.setProgress(Math.round((holder.meterDb - LevelMeter.FLOOR_DB) * 100 / -LevelMeter.FLOOR_DB));
+    }
 }
 
 // getItemCount() returns the number of items in the list
 @Override
 public int getItemCount() {
-    // If the media list is not null, return the size of the media list. Otherwise, return 0.
-    return mMediaList != null ? mMediaList.size() : 0;
+    return mTrackList.size();
 }
 
 // The ButtonClickListener interface defines two methods that can be implemented by a class that implements the interface
 public interface ButtonClickListener{
+    // onPlay() is called when the play button is clicked on a loaded track
+    void onPlay(int clickedposition);
     // onButtonClick() is called when the delete button is clicked and passes the position of the clicked item
     void onButtonClick(int clickedposition);
     // currentPosition() is called when the user interacts with the seek bars and passes the position of the item being interacted with
     void currentPosition(int clickedposition);
+    // onTrackChanged() is called when the user finishes changing a track's settings
+    void onTrackChanged(int clickedposition);
+    // onMatchTempo() is called when the speed text is tapped to play the track at the session tempo
+    void onMatchTempo(int clickedposition);
+    // onStartDrag() is called when the user long presses a track name to move the row
+    void onStartDrag(RecyclerView.ViewHolder holder);
 }
 
     class ViewHolder extends RecyclerView.ViewHolder
             implements SeekBar.OnSeekBarChangeListener,
-            View.OnClickListener {
+            View.OnClickListener,
+            WaveformView.LoopListener {
 
+        ImageButton playBtn;
+        ImageButton pauseBtn;
         SeekBar seekBarVolume;
         SeekBar seekBarSpeed;
+        SeekBar seekBarPitch;
+        SeekBar seekBarFade;
+        SeekBar seekBarPan;
         TextView volumeText;
         TextView speedText;
+        TextView pitchText;
+        TextView fadeText;
+        TextView panText;
+        ProgressBar levelMeter;
+        WaveformView waveform;
+        float meterDb = LevelMeter.FLOOR_DB;
         TextView editText;
 
         public ViewHolder(View itemView) {
             super(itemView);
             // Initialize UI views
-            ImageButton playBtn = itemView.findViewById(R.id.button_play);
-            ImageButton pauseBtn = itemView.findViewById(R.id.button_pause);
+            playBtn = itemView.findViewById(R.id.button_play);
+            pauseBtn = itemView.findViewById(R.id.button_pause);
             ImageButton deleteBtn = itemView.findViewById(R.id.button_delete);
             editText = itemView.findViewById(R.id.editText);
             seekBarVolume = itemView.findViewById(R.id.seekbar_volume);
             seekBarSpeed = itemView.findViewById(R.id.seekbar_speed);
+            seekBarPitch = itemView.findViewById(R.id.seekbar_pitch);
+            seekBarFade = itemView.findViewById(R.id.seekbar_fade);
+            seekBarPan = itemView.findViewById(R.id.seekbar_pan);
             volumeText = itemView.findViewById(R.id.volume_text);
             speedText = itemView.findViewById(R.id.speed_text);
+            pitchText = itemView.findViewById(R.id.pitch_text);
+            fadeText = itemView.findViewById(R.id.fade_text);
+            panText = itemView.findViewById(R.id.pan_text);
+            levelMeter = itemView.findViewById(R.id.level_meter);
+            waveform = itemView.findViewById(R.id.waveform);
             // Set click and seek bar listeners
             playBtn.setOnClickListener(this);
             pauseBtn.setOnClickListener(this);
             deleteBtn.setOnClickListener(this);
+            speedText.setOnClickListener(this);
             seekBarVolume.setOnSeekBarChangeListener(this);
             seekBarSpeed.setOnSeekBarChangeListener(this);
+            seekBarPitch.setOnSeekBarChangeListener(this);
+            seekBarFade.setOnSeekBarChangeListener(this);
+            seekBarPan.setOnSeekBarChangeListener(this);
+            waveform.setLoopListener(this);
+            // Long press the name to drag the row somewhere else
+            editText.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    buttonListener.onStartDrag(ViewHolder.this);
+                    return true;
+                }
+            });
         }
 
         @Override
         public void onClick(View view) {
-            // Get the position of the clicked item in the adapter
-            buttonListener.currentPosition(getAdapterPosition());
-            MediaPlayer music = mMediaList.get(getAdapterPosition());
+            // Get the position of the clicked item in the adapter, rows being removed have none
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            buttonListener.currentPosition(position);
+            MixerTrack track = mTrackList.get(position).getMixerTrack();
             String tag = view.getTag().toString();
             // Respond to click events based on the tag of the clicked view
-            Log.i(MainActivity.TAG, "adapterPosition: " + getAdapterPosition());
-            if (tag.equals("play")) {
-                if (!music.isLooping()) {
-                    music.setLooping(true);
-                }
-                music.start();
+            if (tag.equals("play") && track != null) {
+                // Tracks always loop inside the mixer, once the activity has audio focus
+                buttonListener.onPlay(position);
             }
-            if (tag.equals("pause")) {
-                music.pause();
+            if (tag.equals("pause") && track != null) {
+                track.pause();
             }
             if (tag.equals("delete")) {
-                buttonListener.onButtonClick(getAdapterPosition());
+                buttonListener.onButtonClick(position);
+            }
+            if (tag.equals("match") && track != null) {
+                buttonListener.onMatchTempo(position);
             }
         }
 
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            // Get the position of the item whose seek bar is changed in the adapter
-            buttonListener.currentPosition(getAdapterPosition());
-            MediaPlayer music = mMediaList.get(getAdapterPosition());
+            // Get the position of the item whose seek bar is changed in the adapter. Binding sets
+            // the sliders from the saved settings, which must neither select the row nor write back.
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || !fromUser) {
+                return;
+            }
+            buttonListener.currentPosition(position);
+            Track row = mTrackList.get(position);
+            MixerTrack track = row.getMixerTrack();
+            if (track == null) {
+                return;
+            }
             String tag = seekBar.getTag().toString();
             // Respond to seek bar changes based on the tag of the seek bar view
             if (tag.equals("volume")) {
-                if (progress > 0) {
-                    // Update the volume text and set the media player volume
-                    volumeText.setText(String.valueOf(progress));
-                    final float volume = (float) (1 - (Math.log(MAX_VOLUME - progress) / Math.log(MAX_VOLUME)));
-                    Log.i(MainActivity.TAG, "onProgressChanged: Volume: " + progress);
-                    music.setVolume(volume, volume);
-                } else {
-                    music.setVolume(0, 0);
-                }
+                // Update the volume text and set the track volume
+                row.setVolumeProgress(progress);
+                showVolume(progress);
+                track.setVolume(SliderMapping.volumeFromProgress(progress));
             }
             if (tag.equals("speed")) {
-                if (progress > 2) {
-                    // Update the speed text and set the media player playback speed
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        float speed = (float) progress / 41;
-                        String holder = String.format("%.2f", speed);
-                        if (holder.equals("2.44")) {
-                            speedText.setText("2.50");
-                        } else {
-                            speedText.setText(holder);
-                        }
-                        Log.i(MainActivity.TAG, "onProgressChanged: Speed: " + holder);
-                        music.setPlaybackParams(new PlaybackParams().setSpeed(Float.parseFloat(holder)));
-                    }
+                if (progress >= SliderMapping.MIN_SPEED_PROGRESS) {
+                    // Update the speed text and set the track tempo, the pitch is left alone
+                    row.setSpeedProgress(progress);
+                    showSpeed(row);
+                    track.setTempo(row.getTempo());
                 }
             }
+            if (tag.equals("pitch")) {
+                row.setPitchProgress(progress);
+                showPitch(progress);
+                track.setPitch(SliderMapping.pitchFromProgress(progress));
+            }
+            if (tag.equals("fade")) {
+                // One slider sets both ends, the seam itself is always crossfaded
+                int frames = SliderMapping.fadeFramesFromProgress(progress, track.getBuffer().getSampleRate());
+                row.setFades(frames, frames);
+                showFade(progress);
+                track.setLoop(row.getLoop());
+            }
+            if (tag.equals("pan")) {
+                // The pan processor reaches the mixer voice through the track's effects
+                row.setPanProgress(progress);
+                showPan(progress);
+            }
+        }
+
+        @Override
+        public void onLoopChanged(long startFrame, long endFrame) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Track row = mTrackList.get(position);
+            MixerTrack track = row.getMixerTrack();
+            if (track == null) {
+                return;
+            }
+            // An end marker left at the end of the audio is stored as 0 so it follows the file
+            row.setLoop(startFrame, endFrame >= track.getBuffer().getFrameCount() ? 0 : endFrame);
+            track.setLoop(row.getLoop());
+            buttonListener.currentPosition(position);
+            buttonListener.onTrackChanged(position);
+        }
+
+        // Show the slider value next to the volume seek bar
+        void showVolume(int progress) {
+            volumeText.setText(String.valueOf(progress));
+        }
+
+        // Show the playback speed next to the speed seek bar
+        void showSpeed(Track row) {
+            String holder = String.format("%.2f", row.getTempo());
+            // The detected tempo is shown once known, tapping the text matches it to the session
+            if (row.getDetectedBpm() > 0) {
+                holder = itemView.getContext().getString(R.string.speed_bpm_text, holder, row.getDetectedBpm());
+            }
+            speedText.setText(holder);
+        }
+
+        // Show the pitch shift in semitones next to the pitch seek bar
+        void showPitch(int progress) {
+            int semitones = progress - SliderMapping.PITCH_UNITY;
+            pitchText.setText(semitones > 0 ? "+" + semitones : String.valueOf(semitones));
+        }
+
+        // Show the fade length in milliseconds next to the fade seek bar
+        void showFade(int progress) {
+            fadeText.setText(itemView.getContext().getString(R.string.fade_text, progress * SliderMapping.FADE_STEP_MS));
+        }
+
+        // Show how far off centre the track is panned
+        void showPan(int progress) {
+            int offset = (progress - SliderMapping.PAN_CENTER) * 100 / SliderMapping.PAN_CENTER;
+            if (offset == 0) {
+                panText.setText(R.string.pan_center_text);
+            } else {
+                panText.setText(itemView.getContext().getString(offset < 0 ? R.string.pan_left_text : R.string.pan_right_text, Math.abs(offset)));
+            }
         }
 
         @Override
@@ -167,7 +384,11 @@ public interface ButtonClickListener{
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
-
+            // Save the settings once the user lets go of the slider
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                buttonListener.onTrackChanged(position);
+            }
         }
     }
         
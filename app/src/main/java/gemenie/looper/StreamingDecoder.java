@@ -0,0 +1,180 @@
+package gemenie.looper;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import gemenie.looper.audio.PcmStream;
+
+// Decodes an audio file a codec buffer at a time for files too long to hold in memory. Read from
+// one thread only, the feeder of a StreamingSource. Files with more than two channels keep their
+// first two, as with PcmDecoder.
+public class StreamingDecoder implements PcmStream {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final MediaExtractor extractor = new MediaExtractor();
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private int sampleRate;
+    private int sourceChannels;
+    private boolean floatOutput;
+    private boolean inputDone;
+    private boolean outputDone;
+
+    // Output buffer being read from, -1 for none
+    private int pendingIndex = -1;
+    private ShortBuffer pendingShorts;
+    private FloatBuffer pendingFloats;
+
+    public StreamingDecoder(Context context, Uri uri) throws IOException {
+        MediaCodec created = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat format = PcmDecoder.selectAudioTrack(extractor);
+            if (format == null) {
+                throw new IOException("No audio track in " + uri);
+            }
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            sourceChannels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            created = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            created.configure(format, null, null, 0);
+            created.start();
+            codec = created;
+            // The first output buffer comes after the real output format, which is what gets reported
+            if (!nextBuffer()) {
+                throw new IOException("No audio in " + uri);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (created != null) {
+                created.release();
+            }
+            extractor.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return Math.min(sourceChannels, 2);
+    }
+
+    @Override
+    public int read(float[] target, int offset, int maxSamples) throws IOException {
+        int channels = getChannels();
+        int maxFrames = maxSamples / channels;
+        int frames = 0;
+        while (frames < maxFrames) {
+            if (pendingIndex < 0 && !nextBuffer()) {
+                break;
+            }
+            int position = floatOutput ? pendingFloats.position() : pendingShorts.position();
+            int remaining = (floatOutput ? pendingFloats.remaining() : pendingShorts.remaining()) / sourceChannels;
+            int count = Math.min(remaining, maxFrames - frames);
+            int o = offset + frames * channels;
+            for (int f = 0; f < count; f++) {
+                int base = position + f * sourceChannels;
+                for (int c = 0; c < channels; c++) {
+                    target[o++] = floatOutput ? pendingFloats.get(base + c) : pendingShorts.get(base + c) / 32768f;
+                }
+            }
+            frames += count;
+            if (count == remaining) {
+                releasePending();
+            } else if (floatOutput) {
+                pendingFloats.position(position + count * sourceChannels);
+            } else {
+                pendingShorts.position(position + count * sourceChannels);
+            }
+        }
+        return frames == 0 && outputDone ? -1 : frames * channels;
+    }
+
+    @Override
+    public void rewind() {
+        releasePending();
+        extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        codec.flush();
+        inputDone = false;
+        outputDone = false;
+    }
+
+    @Override
+    public void close() {
+        releasePending();
+        codec.stop();
+        codec.release();
+        extractor.release();
+    }
+
+    // Moves on to the next decoded buffer with audio in it, returning false at the end of the file
+    private boolean nextBuffer() {
+        while (!outputDone) {
+            if (!inputDone) {
+                int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (inIndex >= 0) {
+                    ByteBuffer in = codec.getInputBuffer(inIndex);
+                    int size = extractor.readSampleData(in, 0);
+                    if (size < 0) {
+                        codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+            int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat outFormat = codec.getOutputFormat();
+                sampleRate = outFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                sourceChannels = outFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                floatOutput = outFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                        && outFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+            } else if (outIndex >= 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    outputDone = true;
+                }
+                if (info.size == 0) {
+                    codec.releaseOutputBuffer(outIndex, false);
+                    continue;
+                }
+                ByteBuffer out = codec.getOutputBuffer(outIndex);
+                out.position(info.offset);
+                out.limit(info.offset + info.size);
+                out.order(ByteOrder.nativeOrder());
+                if (floatOutput) {
+                    pendingFloats = out.asFloatBuffer();
+                } else {
+                    pendingShorts = out.asShortBuffer();
+                }
+                pendingIndex = outIndex;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void releasePending() {
+        if (pendingIndex >= 0) {
+            codec.releaseOutputBuffer(pendingIndex, false);
+            pendingIndex = -1;
+            pendingShorts = null;
+            pendingFloats = null;
+        }
+    }
+}
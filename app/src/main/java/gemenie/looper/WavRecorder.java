@@ -0,0 +1,161 @@
+package gemenie.looper;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import gemenie.looper.audio.MixerMetrics;
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.PcmRingBuffer;
+import gemenie.looper.audio.TakeBuffer;
+import gemenie.looper.audio.WavWriter;
+
+// Captures 16-bit mono PCM with AudioRecord. The capture thread only copies into a
+// preallocated ring; a writer thread streams the ring to a WAV file and keeps the take in memory.
+public class WavRecorder {
+
+    private static final int CHANNELS = 1;
+    private static final int RING_SECONDS = 2;
+    private static final long WRITER_IDLE_NS = 2000000L;
+
+    private final int sampleRate;
+    private final PcmRingBuffer ring;
+    private final MixerMetrics metrics;
+    private AudioRecord audioRecord;
+    private WavWriter wavWriter;
+    private TakeBuffer take;
+    private Thread captureThread;
+    private Thread writerThread;
+    private volatile boolean capturing;
+    private volatile boolean writing;
+    private volatile int overruns;
+    private IOException writeError;
+
+    public WavRecorder(int sampleRate, MixerMetrics metrics) {
+        this.sampleRate = sampleRate;
+        this.metrics = metrics;
+        this.ring = new PcmRingBuffer(sampleRate * CHANNELS * RING_SECONDS);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isRecording() {
+        return capturing;
+    }
+
+    // Number of capture reads that did not fit in the ring because the writer fell behind
+    public int getOverruns() {
+        return overruns;
+    }
+
+    public void start(File file) throws IOException {
+        if (audioRecord != null) {
+            throw new IllegalStateException("Already recording");
+        }
+        int minBuffer = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) {
+            throw new IOException("Unsupported capture format: " + sampleRate + "Hz");
+        }
+        audioRecord = new AudioRecord.Builder()
+                .setAudioSource(MediaRecorder.AudioSource.MIC)
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
+                        .build())
+                .setBufferSizeInBytes(minBuffer * 2)
+                .build();
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("AudioRecord failed to initialize");
+        }
+        wavWriter = new WavWriter(file, sampleRate, CHANNELS);
+        take = new TakeBuffer(CHANNELS, sampleRate, sampleRate * 10);
+        writeError = null;
+        overruns = 0;
+        final short[] captureBlock = new short[minBuffer / 2];
+
+        capturing = true;
+        writing = true;
+        audioRecord.startRecording();
+        captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                while (capturing) {
+                    int read = audioRecord.read(captureBlock, 0, captureBlock.length);
+                    if (read > 0 && ring.write(captureBlock, 0, read) < read) {
+                        overruns++;
+                        metrics.addOverrun();
+                    }
+                }
+            }
+        }, "LooperCapture");
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "LooperWavWriter");
+        captureThread.start();
+        writerThread.start();
+    }
+
+    // Stops capture, finishes the WAV file and returns the take ready for playback
+    public PcmBuffer stop() throws IOException {
+        if (audioRecord == null) {
+            throw new IllegalStateException("Not recording");
+        }
+        capturing = false;
+        try {
+            // The writer keeps draining until the capture thread has pushed its last block
+            captureThread.join();
+            writing = false;
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        audioRecord.stop();
+        audioRecord.release();
+        audioRecord = null;
+        wavWriter.close();
+        if (overruns > 0) {
+            Log.w(MainActivity.TAG, "WavRecorder dropped " + overruns + " capture blocks");
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        return take.toPcmBuffer();
+    }
+
+    private void drain() {
+        short[] block = new short[4096];
+        try {
+            while (true) {
+                // Read the flag before draining so nothing written before stop is missed
+                boolean finished = !writing;
+                int read;
+                while ((read = ring.read(block, 0, block.length)) > 0) {
+                    wavWriter.write(block, 0, read);
+                    take.append(block, 0, read);
+                }
+                if (finished) {
+                    return;
+                }
+                LockSupport.parkNanos(WRITER_IDLE_NS);
+            }
+        } catch (IOException e) {
+            writeError = e;
+            capturing = false;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package gemenie.looper;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.core.content.ContextCompat;
+
+import gemenie.looper.audio.PeakPyramid;
+
+// Draws a track's waveform from its peak pyramid with a playhead on top. Columns are only
+// recomputed when the peaks, size or zoom change, and each refresh costs a few steps per pixel
+// whatever the length of the track. Pinch to zoom around the fingers, drag a loop marker to trim.
+public class WaveformView extends View {
+
+    // Narrowest visible range, in pyramid blocks
+    private static final int MIN_VISIBLE_BLOCKS = 4;
+    // How close a touch has to land to grab a marker
+    private static final float MARKER_TOUCH_DP = 24f;
+    private static final int DRAG_NONE = 0;
+    private static final int DRAG_START = 1;
+    private static final int DRAG_END = 2;
+
+    public interface LoopListener {
+        // Called once the user lets go of a marker, end being exclusive
+        void onLoopChanged(long startFrame, long endFrame);
+    }
+
+    private final Paint wavePaint = new Paint();
+    private final Paint playheadPaint = new Paint();
+    private final Paint markerPaint = new Paint();
+    private final Paint trimmedPaint = new Paint();
+    private final float markerTouch;
+    private final ScaleGestureDetector scaleDetector;
+    private PeakPyramid peaks;
+    private long startFrame;
+    private long endFrame;
+    private float[] mins = new float[0];
+    private float[] maxs = new float[0];
+    private float[] lines = new float[0];
+    private boolean columnsDirty = true;
+    private long playheadFrame = -1;
+    private long loopStart;
+    private long loopEnd;
+    private int dragging = DRAG_NONE;
+    private LoopListener loopListener;
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        wavePaint.setColor(ContextCompat.getColor(context, R.color.white));
+        wavePaint.setStrokeWidth(1f);
+        playheadPaint.setColor(ContextCompat.getColor(context, R.color.colorAccent));
+        playheadPaint.setStrokeWidth(2f);
+        markerPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        markerPaint.setStrokeWidth(3f);
+        trimmedPaint.setColor(ContextCompat.getColor(context, R.color.black));
+        trimmedPaint.setAlpha(0x80);
+        markerTouch = MARKER_TOUCH_DP * context.getResources().getDisplayMetrics().density;
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
+    }
+
+    // Shows the whole of the new peaks, null clears the view
+    public void setPeaks(PeakPyramid peaks) {
+        if (peaks == this.peaks) {
+            return;
+        }
+        this.peaks = peaks;
+        startFrame = 0;
+        endFrame = peaks != null ? peaks.getFrameCount() : 0;
+        loopStart = 0;
+        loopEnd = endFrame;
+        playheadFrame = -1;
+        columnsDirty = true;
+        invalidate();
+    }
+
+    public void setLoopListener(LoopListener listener) {
+        loopListener = listener;
+    }
+
+    // Loop markers in source frames, an end of 0 meaning the end of the audio. Set after the peaks.
+    public void setLoop(long startFrame, long endFrame) {
+        if (peaks == null || dragging != DRAG_NONE) {
+            return;
+        }
+        long total = peaks.getFrameCount();
+        loopStart = Math.max(0, Math.min(startFrame, total));
+        loopEnd = endFrame == 0 ? total : Math.max(loopStart, Math.min(endFrame, total));
+        invalidate();
+    }
+
+    // Moves the playhead, only redrawing when it lands on a different pixel
+    public void setPlayheadFrame(long frame) {
+        if (peaks == null || frame == playheadFrame) {
+            return;
+        }
+        float before = xOf(playheadFrame);
+        playheadFrame = frame;
+        if (Math.round(xOf(frame)) != Math.round(before)) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mins = new float[w];
+        maxs = new float[w];
+        lines = new float[w * 4];
+        columnsDirty = true;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (peaks == null) {
+            return false;
+        }
+        scaleDetector.onTouchEvent(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                dragging = markerAt(event.getX());
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // A second finger means zoom, the marker stays where it got to
+                if (dragging != DRAG_NONE) {
+                    dragging = DRAG_NONE;
+                    finishDrag();
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (dragging != DRAG_NONE) {
+                    moveMarker(event.getX());
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (dragging != DRAG_NONE) {
+                    dragging = DRAG_NONE;
+                    finishDrag();
+                }
+                break;
+            default:
+                break;
+        }
+        // Keep the list from scrolling away while a marker is dragged or two fingers are zooming
+        getParent().requestDisallowInterceptTouchEvent(dragging != DRAG_NONE
+                || event.getPointerCount() > 1 || scaleDetector.isInProgress());
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = mins.length;
+        if (peaks == null || width == 0) {
+            return;
+        }
+        float middle = getHeight() / 2f;
+        if (columnsDirty) {
+            peaks.render(startFrame, endFrame, mins, maxs, width);
+            for (int x = 0, i = 0; x < width; x++, i += 4) {
+                lines[i] = x;
+                lines[i + 1] = middle - maxs[x] * middle;
+                lines[i + 2] = x;
+                // Keep silent columns one pixel tall so the track's extent stays visible
+                lines[i + 3] = Math.max(lines[i + 1] + 1, middle - mins[x] * middle);
+            }
+            columnsDirty = false;
+        }
+        canvas.drawLines(lines, 0, width * 4, wavePaint);
+        // Dim what the loop skips and mark its ends
+        float startX = xOf(loopStart);
+        float endX = xOf(loopEnd);
+        if (startX > 0) {
+            canvas.drawRect(0, 0, Math.min(startX, width), getHeight(), trimmedPaint);
+        }
+        if (endX < width) {
+            canvas.drawRect(Math.max(endX, 0), 0, width, getHeight(), trimmedPaint);
+        }
+        if (startX >= 0 && startX <= width) {
+            canvas.drawLine(startX, 0, startX, getHeight(), markerPaint);
+        }
+        if (endX >= 0 && endX <= width) {
+            canvas.drawLine(endX, 0, endX, getHeight(), markerPaint);
+        }
+        if (playheadFrame >= startFrame && playheadFrame < endFrame) {
+            float x = xOf(playheadFrame);
+            canvas.drawLine(x, 0, x, getHeight(), playheadPaint);
+        }
+    }
+
+    private void zoom(float factor, float focusX) {
+        long total = peaks.getFrameCount();
+        long visible = endFrame - startFrame;
+        long minVisible = Math.min(total, (long) PeakPyramid.BLOCK_FRAMES * MIN_VISIBLE_BLOCKS);
+        long next = Math.max(minVisible, Math.min(total, Math.round(visible / (double) factor)));
+        if (next == visible || getWidth() == 0) {
+            return;
+        }
+        // Keep the frame under the fingers where it is
+        long focusFrame = startFrame + Math.round(visible * (double) focusX / getWidth());
+        long start = focusFrame - Math.round(next * (double) focusX / getWidth());
+        startFrame = Math.max(0, Math.min(total - next, start));
+        endFrame = startFrame + next;
+        columnsDirty = true;
+        invalidate();
+    }
+
+    private int markerAt(float x) {
+        float toStart = Math.abs(x - xOf(loopStart));
+        float toEnd = Math.abs(x - xOf(loopEnd));
+        if (Math.min(toStart, toEnd) > markerTouch) {
+            return DRAG_NONE;
+        }
+        return toStart <= toEnd ? DRAG_START : DRAG_END;
+    }
+
+    // Markers keep at least one pyramid block between them
+    private void moveMarker(float x) {
+        long frame = startFrame + Math.round((endFrame - startFrame) * (double) Math.max(0, Math.min(x, getWidth())) / getWidth());
+        if (dragging == DRAG_START) {
+            loopStart = Math.max(0, Math.min(frame, loopEnd - PeakPyramid.BLOCK_FRAMES));
+        } else {
+            loopEnd = Math.min(peaks.getFrameCount(), Math.max(frame, loopStart + PeakPyramid.BLOCK_FRAMES));
+        }
+        invalidate();
+    }
+
+    private void finishDrag() {
+        if (loopListener != null) {
+            loopListener.onLoopChanged(loopStart, loopEnd);
+        }
+    }
+
+    private float xOf(long frame) {
+        if (endFrame <= startFrame) {
+            return -1;
+        }
+        return (float) ((frame - startFrame) * (double) getWidth() / (endFrame - startFrame));
+    }
+}
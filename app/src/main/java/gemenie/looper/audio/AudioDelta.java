@@ -0,0 +1,99 @@
+package gemenie.looper.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One version of a track's audio stored as the chunks where it differs from another version.
+// Chunks are copied once and never written again, and everything they do not cover is taken
+// from the other version when the audio is rebuilt, so an undo step for a short overdub over a
+// long loop costs a few chunks rather than a second copy of the whole track.
+public final class AudioDelta {
+
+    public static final int CHUNK_FRAMES = 16384;
+
+    private final int frameCount;
+    private final int channels;
+    private final int sampleRate;
+    // Chunk numbers in ascending order with their samples; the last chunk may be short
+    private final int[] indexes;
+    private final float[][] chunks;
+    private final long sizeInBytes;
+
+    private AudioDelta(int frameCount, int channels, int sampleRate, int[] indexes, float[][] chunks) {
+        this.frameCount = frameCount;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.indexes = indexes;
+        this.chunks = chunks;
+        long bytes = 0;
+        for (float[] chunk : chunks) {
+            bytes += chunk.length * 4L;
+        }
+        this.sizeInBytes = bytes;
+    }
+
+    // What it takes to get from base back to target. Both must share a channel layout.
+    public static AudioDelta between(PcmBuffer target, PcmBuffer base) {
+        int channels = target.getChannels();
+        if (base.getChannels() != channels) {
+            throw new IllegalArgumentException("Channel count differs: " + channels + " vs " + base.getChannels());
+        }
+        float[] samples = target.getSamples();
+        float[] other = base.getSamples();
+        int chunkSamples = CHUNK_FRAMES * channels;
+        int targetSamples = target.getFrameCount() * channels;
+        int baseSamples = base.getFrameCount() * channels;
+        List<float[]> changed = new ArrayList<>();
+        List<Integer> changedIndexes = new ArrayList<>();
+        for (int index = 0, from = 0; from < targetSamples; index++, from += chunkSamples) {
+            int to = Math.min(targetSamples, from + chunkSamples);
+            if (!sameRange(samples, other, from, to, baseSamples)) {
+                float[] chunk = new float[to - from];
+                System.arraycopy(samples, from, chunk, 0, chunk.length);
+                changed.add(chunk);
+                changedIndexes.add(index);
+            }
+        }
+        int[] indexes = new int[changedIndexes.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = changedIndexes.get(i);
+        }
+        return new AudioDelta(target.getFrameCount(), channels, target.getSampleRate(), indexes,
+                changed.toArray(new float[0][]));
+    }
+
+    private static boolean sameRange(float[] a, float[] b, int from, int to, int bLength) {
+        if (to > bLength) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rebuilds the target version on top of the same base it was taken against
+    public PcmBuffer applyTo(PcmBuffer base) {
+        if (base.getChannels() != channels) {
+            throw new IllegalArgumentException("Channel count differs: " + channels + " vs " + base.getChannels());
+        }
+        float[] samples = new float[frameCount * channels];
+        System.arraycopy(base.getSamples(), 0, samples, 0, Math.min(samples.length, base.getFrameCount() * channels));
+        int chunkSamples = CHUNK_FRAMES * channels;
+        for (int i = 0; i < indexes.length; i++) {
+            System.arraycopy(chunks[i], 0, samples, indexes[i] * chunkSamples, chunks[i].length);
+        }
+        return new PcmBuffer(samples, frameCount, channels, sampleRate);
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    // Memory held by the stored chunks
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+}
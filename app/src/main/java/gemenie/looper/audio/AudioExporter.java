@@ -0,0 +1,197 @@
+package gemenie.looper.audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Copies recordings out of the app with FileChannel.transferTo so the kernel moves the
+// bytes directly. Batches run on the background executor and report progress on the callback executor.
+public class AudioExporter {
+
+    // Progress is reported at most once per chunk
+    private static final long CHUNK_BYTES = 4L * 1024 * 1024;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    public interface Source {
+        FileInputStream open() throws IOException;
+    }
+
+    public interface Listener {
+        void onProgress(long bytesDone, long bytesTotal);
+
+        void onComplete(List<File> outputs);
+
+        void onError(IOException error);
+    }
+
+    public static final class Job {
+        final Source source;
+        final File destination;
+
+        public Job(Source source, File destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+
+        public Job(final File source, File destination) {
+            this(new Source() {
+                @Override
+                public FileInputStream open() throws IOException {
+                    return new FileInputStream(source);
+                }
+            }, destination);
+        }
+
+        public File getDestination() {
+            return destination;
+        }
+    }
+
+    interface ChunkListener {
+        void onChunk(long bytes) throws IOException;
+    }
+
+    private final Executor background;
+    private final Executor callback;
+
+    public AudioExporter(Executor background, Executor callback) {
+        this.background = background;
+        this.callback = callback;
+    }
+
+    // Exports every job in order; cancelling the future stops between chunks and removes the partial file
+    public Future<?> export(final List<Job> jobs, final Listener listener) {
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                final List<File> outputs = new ArrayList<>();
+                try {
+                    final long total = totalBytes(jobs);
+                    final long[] done = {0};
+                    for (Job job : jobs) {
+                        copy(job.source, job.destination, new ChunkListener() {
+                            @Override
+                            public void onChunk(long bytes) throws IOException {
+                                if (Thread.currentThread().isInterrupted()) {
+                                    throw new InterruptedIOException("Export cancelled");
+                                }
+                                done[0] += bytes;
+                                final long progress = done[0];
+                                callback.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        listener.onProgress(progress, total);
+                                    }
+                                });
+                            }
+                        });
+                        outputs.add(job.destination);
+                    }
+                    callback.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onComplete(Collections.unmodifiableList(outputs));
+                        }
+                    });
+                } catch (final IOException e) {
+                    // Cancelling mid transfer closes the channels instead of stopping between chunks
+                    if (e instanceof InterruptedIOException || e instanceof ClosedByInterruptException) {
+                        return;
+                    }
+                    callback.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onError(e);
+                        }
+                    });
+                }
+            }
+        }, null);
+        background.execute(task);
+        return task;
+    }
+
+    public static long copy(File source, File destination) throws IOException {
+        return copy(new Job(source, destination).source, destination, null);
+    }
+
+    static long copy(Source source, File destination, ChunkListener listener) throws IOException {
+        boolean complete = false;
+        try (FileInputStream in = source.open();
+             FileOutputStream out = new FileOutputStream(destination);
+             FileChannel inChannel = in.getChannel();
+             FileChannel outChannel = out.getChannel()) {
+            // Runs to the end of the stream rather than to size(), which is only a hint
+            long position = 0;
+            while (inChannel.size() > 0) {
+                long moved = inChannel.transferTo(position, CHUNK_BYTES, outChannel);
+                if (moved <= 0) {
+                    break;
+                }
+                position += moved;
+                if (listener != null) {
+                    listener.onChunk(moved);
+                }
+            }
+            // Content URIs can hand over a pipe, which reports no size and can't be transferred
+            // from by position, so it is read through a buffer instead
+            if (position == 0) {
+                position = read(inChannel, outChannel, listener);
+            }
+            if (position == 0) {
+                throw new IOException("Nothing to export to " + destination);
+            }
+            complete = true;
+            return position;
+        } finally {
+            if (!complete) {
+                destination.delete();
+            }
+        }
+    }
+
+    private static long read(FileChannel in, FileChannel out, ChunkListener listener) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        long total = 0;
+        long pending = 0;
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            total += read;
+            pending += read;
+            if (listener != null && pending >= CHUNK_BYTES) {
+                listener.onChunk(pending);
+                pending = 0;
+            }
+        }
+        if (listener != null && pending > 0) {
+            listener.onChunk(pending);
+        }
+        return total;
+    }
+
+    private static long totalBytes(List<Job> jobs) throws IOException {
+        long total = 0;
+        for (Job job : jobs) {
+            try (FileInputStream in = job.source.open()) {
+                total += in.getChannel().size();
+            }
+        }
+        return total;
+    }
+}
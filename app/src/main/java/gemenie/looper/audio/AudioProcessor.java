@@ -0,0 +1,15 @@
+package gemenie.looper.audio;
+
+// One effect in an EffectChain, run on the audio thread over stereo interleaved blocks in place.
+// Implementations allocate everything up front; parameter setters may be called from any
+// thread and are smoothed towards on the audio thread so changes never click.
+public interface AudioProcessor {
+
+    void process(float[] buffer, int offset, int frames);
+
+    // Clears any delay lines and filter memory, on the audio thread
+    void reset();
+
+    // Independent processor with the same settings and empty state, for offline renders
+    AudioProcessor copy();
+}
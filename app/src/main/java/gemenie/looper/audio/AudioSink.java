@@ -0,0 +1,10 @@
+package gemenie.looper.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Destination for rendered interleaved float audio, such as a WAV or AAC file
+public interface AudioSink extends Closeable {
+
+    void write(float[] samples, int offset, int length) throws IOException;
+}
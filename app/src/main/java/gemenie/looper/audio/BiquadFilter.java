@@ -0,0 +1,227 @@
+package gemenie.looper.audio;
+
+// Second order filter from the Audio EQ Cookbook, one per channel in transposed direct form II.
+// Frequency, Q and gain glide to new settings, the frequency in octaves so a sweep sounds even,
+// and while they move the coefficients follow every few frames rather than once per block.
+// A shelf or peak at 0 dB is skipped entirely, so a flat EQ costs nothing.
+public final class BiquadFilter implements AudioProcessor {
+
+    public enum Type { LOW_PASS, HIGH_PASS, LOW_SHELF, HIGH_SHELF, PEAK }
+
+    public static final float MIN_FREQUENCY = 10f;
+    // Frames between coefficient updates while a setting glides
+    private static final int GLIDE_FRAMES = 16;
+
+    private final int sampleRate;
+    private final Type type;
+    private volatile float frequency;
+    // Log2 of the frequency
+    private final SmoothedParameter octave;
+    private final SmoothedParameter q;
+    private final SmoothedParameter gainDb;
+
+    // Audio thread state, normalised by a0
+    private double b0;
+    private double b1;
+    private double b2;
+    private double a1;
+    private double a2;
+    private boolean dirty = true;
+    private double leftZ1;
+    private double leftZ2;
+    private double rightZ1;
+    private double rightZ2;
+
+    public BiquadFilter(int sampleRate, Type type, float frequency, float q, float gainDb) {
+        if (sampleRate <= 0 || !(q > 0f)) {
+            throw new IllegalArgumentException("Invalid filter: " + sampleRate + "Hz, Q " + q);
+        }
+        this.sampleRate = sampleRate;
+        this.type = type;
+        this.frequency = clampFrequency(frequency, sampleRate);
+        this.octave = new SmoothedParameter(log2(this.frequency), sampleRate);
+        this.q = new SmoothedParameter(q, sampleRate);
+        this.gainDb = new SmoothedParameter(gainDb, sampleRate);
+    }
+
+    private static float clampFrequency(float frequency, int sampleRate) {
+        return Math.max(MIN_FREQUENCY, Math.min(frequency, sampleRate * 0.49f));
+    }
+
+    private static float log2(float value) {
+        return (float) (Math.log(value) / Math.log(2));
+    }
+
+    private static float frequencyOf(float octave) {
+        return (float) Math.pow(2, octave);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public float getFrequency() {
+        return frequency;
+    }
+
+    public void setFrequency(float hz) {
+        frequency = clampFrequency(hz, sampleRate);
+        octave.set(log2(frequency));
+    }
+
+    public float getQ() {
+        return q.getTarget();
+    }
+
+    public void setQ(float value) {
+        if (!(value > 0f)) {
+            throw new IllegalArgumentException("Q must be positive: " + value);
+        }
+        q.set(value);
+    }
+
+    public float getGainDb() {
+        return gainDb.getTarget();
+    }
+
+    // Boost or cut for shelves and peaks, ignored by the pass filters
+    public void setGainDb(float db) {
+        gainDb.set(db);
+    }
+
+    // True when the filter would pass the audio through unchanged
+    boolean isFlat() {
+        return (type == Type.LOW_SHELF || type == Type.HIGH_SHELF || type == Type.PEAK)
+                && gainDb.current() == 0f && gainDb.isSettled();
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+        while (frames > 0 && (!octave.isSettled() || !q.isSettled() || !gainDb.isSettled())) {
+            int step = Math.min(GLIDE_FRAMES, frames);
+            octave.advance(step);
+            q.advance(step);
+            gainDb.advance(step);
+            dirty = true;
+            filter(buffer, offset, step);
+            offset += step * 2;
+            frames -= step;
+        }
+        if (frames > 0) {
+            filter(buffer, offset, frames);
+        }
+    }
+
+    private void filter(float[] buffer, int offset, int frames) {
+        if (isFlat()) {
+            return;
+        }
+        if (dirty) {
+            updateCoefficients();
+            dirty = false;
+        }
+        double lz1 = leftZ1;
+        double lz2 = leftZ2;
+        double rz1 = rightZ1;
+        double rz2 = rightZ2;
+        for (int i = 0, o = offset; i < frames; i++, o += 2) {
+            double x = buffer[o];
+            double y = b0 * x + lz1;
+            lz1 = b1 * x - a1 * y + lz2;
+            lz2 = b2 * x - a2 * y;
+            buffer[o] = (float) y;
+            x = buffer[o + 1];
+            y = b0 * x + rz1;
+            rz1 = b1 * x - a1 * y + rz2;
+            rz2 = b2 * x - a2 * y;
+            buffer[o + 1] = (float) y;
+        }
+        // Let decaying tails reach zero rather than crawl through the denormal range
+        leftZ1 = flush(lz1);
+        leftZ2 = flush(lz2);
+        rightZ1 = flush(rz1);
+        rightZ2 = flush(rz2);
+    }
+
+    private static double flush(double state) {
+        return Math.abs(state) < 1e-20 ? 0 : state;
+    }
+
+    private void updateCoefficients() {
+        double w0 = 2 * Math.PI * frequencyOf(octave.current()) / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q.current());
+        double a = Math.pow(10, gainDb.current() / 40);
+        double sqrtA = Math.sqrt(a);
+        double n0;
+        double n1;
+        double n2;
+        double d0;
+        double d1;
+        double d2;
+        switch (type) {
+            case LOW_PASS:
+                n0 = (1 - cos) / 2;
+                n1 = 1 - cos;
+                n2 = n0;
+                d0 = 1 + alpha;
+                d1 = -2 * cos;
+                d2 = 1 - alpha;
+                break;
+            case HIGH_PASS:
+                n0 = (1 + cos) / 2;
+                n1 = -(1 + cos);
+                n2 = n0;
+                d0 = 1 + alpha;
+                d1 = -2 * cos;
+                d2 = 1 - alpha;
+                break;
+            case LOW_SHELF:
+                n0 = a * ((a + 1) - (a - 1) * cos + 2 * sqrtA * alpha);
+                n1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                n2 = a * ((a + 1) - (a - 1) * cos - 2 * sqrtA * alpha);
+                d0 = (a + 1) + (a - 1) * cos + 2 * sqrtA * alpha;
+                d1 = -2 * ((a - 1) + (a + 1) * cos);
+                d2 = (a + 1) + (a - 1) * cos - 2 * sqrtA * alpha;
+                break;
+            case HIGH_SHELF:
+                n0 = a * ((a + 1) + (a - 1) * cos + 2 * sqrtA * alpha);
+                n1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                n2 = a * ((a + 1) + (a - 1) * cos - 2 * sqrtA * alpha);
+                d0 = (a + 1) - (a - 1) * cos + 2 * sqrtA * alpha;
+                d1 = 2 * ((a - 1) - (a + 1) * cos);
+                d2 = (a + 1) - (a - 1) * cos - 2 * sqrtA * alpha;
+                break;
+            default:
+                n0 = 1 + alpha * a;
+                n1 = -2 * cos;
+                n2 = 1 - alpha * a;
+                d0 = 1 + alpha / a;
+                d1 = -2 * cos;
+                d2 = 1 - alpha / a;
+                break;
+        }
+        b0 = n0 / d0;
+        b1 = n1 / d0;
+        b2 = n2 / d0;
+        a1 = d1 / d0;
+        a2 = d2 / d0;
+    }
+
+    @Override
+    public void reset() {
+        octave.snap();
+        q.snap();
+        gainDb.snap();
+        dirty = true;
+        leftZ1 = 0;
+        leftZ2 = 0;
+        rightZ1 = 0;
+        rightZ2 = 0;
+    }
+
+    @Override
+    public AudioProcessor copy() {
+        return new BiquadFilter(sampleRate, type, getFrequency(), q.getTarget(), gainDb.getTarget());
+    }
+}
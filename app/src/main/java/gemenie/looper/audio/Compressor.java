@@ -0,0 +1,166 @@
+package gemenie.looper.audio;
+
+// Feed-forward peak compressor with the channels linked so the stereo image holds still.
+// The envelope follows the louder channel with separate attack and release times, and gain is
+// only computed for the samples above the threshold. Skipped while the ratio is 1:1 with no
+// make-up gain.
+public final class Compressor implements AudioProcessor {
+
+    private final int sampleRate;
+    private final SmoothedParameter thresholdDb;
+    private final SmoothedParameter ratio;
+    private final SmoothedParameter makeupDb;
+    private volatile float attackMs;
+    private volatile float releaseMs;
+
+    // Audio thread state
+    private float envelope;
+    private float appliedAttackMs = -1f;
+    private float appliedReleaseMs = -1f;
+    private float attackCoefficient;
+    private float releaseCoefficient;
+    private float makeupGain = 1f;
+    // Deepest gain reduction in the last block, for a meter
+    private volatile float gainReductionDb;
+
+    public Compressor(int sampleRate) {
+        this(sampleRate, 0f, 1f, 10f, 100f, 0f);
+    }
+
+    public Compressor(int sampleRate, float thresholdDb, float ratio, float attackMs, float releaseMs, float makeupDb) {
+        if (sampleRate <= 0 || !(ratio >= 1f) || !(attackMs > 0f) || !(releaseMs > 0f)) {
+            throw new IllegalArgumentException("Invalid compressor: " + sampleRate + "Hz, ratio " + ratio
+                    + ", attack " + attackMs + " ms, release " + releaseMs + " ms");
+        }
+        this.sampleRate = sampleRate;
+        this.thresholdDb = new SmoothedParameter(Math.min(0f, thresholdDb), sampleRate);
+        this.ratio = new SmoothedParameter(ratio, sampleRate);
+        this.makeupDb = new SmoothedParameter(makeupDb, sampleRate);
+        this.attackMs = attackMs;
+        this.releaseMs = releaseMs;
+        this.makeupGain = decibelsToGain(makeupDb);
+    }
+
+    private static float decibelsToGain(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+
+    public float getThresholdDb() {
+        return thresholdDb.getTarget();
+    }
+
+    // Level in dBFS above which the gain comes down
+    public void setThresholdDb(float db) {
+        thresholdDb.set(Math.min(0f, db));
+    }
+
+    public float getRatio() {
+        return ratio.getTarget();
+    }
+
+    public void setRatio(float value) {
+        if (!(value >= 1f)) {
+            throw new IllegalArgumentException("Ratio must be at least 1: " + value);
+        }
+        ratio.set(value);
+    }
+
+    public float getAttackMs() {
+        return attackMs;
+    }
+
+    public void setAttackMs(float ms) {
+        if (!(ms > 0f)) {
+            throw new IllegalArgumentException("Attack must be positive: " + ms);
+        }
+        attackMs = ms;
+    }
+
+    public float getReleaseMs() {
+        return releaseMs;
+    }
+
+    public void setReleaseMs(float ms) {
+        if (!(ms > 0f)) {
+            throw new IllegalArgumentException("Release must be positive: " + ms);
+        }
+        releaseMs = ms;
+    }
+
+    public float getMakeupDb() {
+        return makeupDb.getTarget();
+    }
+
+    public void setMakeupDb(float db) {
+        makeupDb.set(db);
+    }
+
+    // How far the gain came down in the last block, 0 or negative
+    public float getGainReductionDb() {
+        return gainReductionDb;
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+        if (ratio.current() == 1f && ratio.isSettled() && makeupDb.current() == 0f && makeupDb.isSettled()) {
+            envelope = 0f;
+            gainReductionDb = 0f;
+            return;
+        }
+        updateTimes();
+        float threshold = decibelsToGain(thresholdDb.advance(frames));
+        // Gain above the threshold is (level / threshold) ^ -slope
+        float slope = 1f - 1f / ratio.advance(frames);
+        float makeupFrom = makeupGain;
+        makeupGain = decibelsToGain(makeupDb.advance(frames));
+        float makeupStep = (makeupGain - makeupFrom) / frames;
+        float makeup = makeupFrom;
+        float env = envelope;
+        float lowest = 1f;
+        for (int i = 0, o = offset; i < frames; i++, o += 2) {
+            makeup += makeupStep;
+            float left = buffer[o];
+            float right = buffer[o + 1];
+            float level = Math.max(Math.abs(left), Math.abs(right));
+            env = level > env ? level + (env - level) * attackCoefficient : level + (env - level) * releaseCoefficient;
+            float gain = 1f;
+            if (env > threshold) {
+                gain = (float) Math.pow(env / threshold, -slope);
+                lowest = Math.min(lowest, gain);
+            }
+            gain *= makeup;
+            buffer[o] = left * gain;
+            buffer[o + 1] = right * gain;
+        }
+        envelope = env < 1e-9f ? 0f : env;
+        gainReductionDb = lowest < 1f ? LevelMeter.toDecibels(lowest) : 0f;
+    }
+
+    private void updateTimes() {
+        float attack = attackMs;
+        if (attack != appliedAttackMs) {
+            appliedAttackMs = attack;
+            attackCoefficient = (float) Math.exp(-1000.0 / (attack * sampleRate));
+        }
+        float release = releaseMs;
+        if (release != appliedReleaseMs) {
+            appliedReleaseMs = release;
+            releaseCoefficient = (float) Math.exp(-1000.0 / (release * sampleRate));
+        }
+    }
+
+    @Override
+    public void reset() {
+        thresholdDb.snap();
+        ratio.snap();
+        makeupDb.snap();
+        makeupGain = decibelsToGain(makeupDb.current());
+        envelope = 0f;
+        gainReductionDb = 0f;
+    }
+
+    @Override
+    public AudioProcessor copy() {
+        return new Compressor(sampleRate, getThresholdDb(), getRatio(), attackMs, releaseMs, getMakeupDb());
+    }
+}
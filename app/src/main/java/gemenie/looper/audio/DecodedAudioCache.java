@@ -0,0 +1,289 @@
+package gemenie.looper.audio;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps decoded PCM keyed by source and modification time so reloading a track skips
+// the decoder. The memory tier is an LRU bounded by bytes; the optional disk tier stores
+// raw float PCM that is read straight back into a buffer, so a hit costs one read instead
+// of a decode.
+public class DecodedAudioCache {
+
+    private static final int DISK_MAGIC = 0x4C50434D; // "LPCM"
+    private static final int DISK_HEADER_SIZE = 16;
+    private static final String DISK_SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Samples moved between the file and the buffer at a time
+    private static final int DISK_CHUNK_SAMPLES = 16384;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long maxBytes;
+    private final File diskDir;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, PcmBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DecodedAudioCache(long maxBytes) {
+        this(maxBytes, null, 0);
+    }
+
+    // diskDir may be null to keep the cache in memory only
+    public DecodedAudioCache(long maxBytes, File diskDir, long maxDiskBytes) {
+        if (maxBytes < 0 || maxDiskBytes < 0) {
+            throw new IllegalArgumentException("Cache budget must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDir != null) {
+            diskDir.mkdirs();
+        }
+    }
+
+    public PcmBuffer get(String source, long modified) {
+        String key = key(source, modified);
+        synchronized (this) {
+            PcmBuffer buffer = entries.get(key);
+            if (buffer != null) {
+                hits.incrementAndGet();
+                return buffer;
+            }
+        }
+        PcmBuffer buffer = readDisk(key);
+        if (buffer != null) {
+            diskHits.incrementAndGet();
+            putMemory(key, buffer);
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String source, long modified, PcmBuffer buffer) {
+        String key = key(source, modified);
+        putMemory(key, buffer);
+        writeDisk(key, buffer);
+    }
+
+    public synchronized void clearMemory() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private synchronized void putMemory(String key, PcmBuffer buffer) {
+        long size = buffer.getSizeInBytes();
+        PcmBuffer previous = entries.remove(key);
+        if (previous != null) {
+            sizeBytes -= previous.getSizeInBytes();
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, buffer);
+        sizeBytes += size;
+        // Least recently used entries are first in access order
+        Iterator<Map.Entry<String, PcmBuffer>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, PcmBuffer> eldest = iterator.next();
+            sizeBytes -= eldest.getValue().getSizeInBytes();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private PcmBuffer readDisk(String key) {
+        if (diskDir == null) {
+            return null;
+        }
+        File file = new File(diskDir, key + DISK_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(DISK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < DISK_HEADER_SIZE || !readFully(channel, header) || header.getInt() != DISK_MAGIC) {
+                file.delete();
+                return null;
+            }
+            int channels = header.getInt();
+            int sampleRate = header.getInt();
+            int frames = header.getInt();
+            long expected = DISK_HEADER_SIZE + (long) frames * channels * 4;
+            if (channels <= 0 || frames < 0 || channel.size() != expected) {
+                file.delete();
+                return null;
+            }
+            // Read in chunks into the buffer the mixer keeps, never holding a second copy
+            float[] samples = new float[frames * channels];
+            ByteBuffer chunk = ByteBuffer.allocateDirect(DISK_CHUNK_SAMPLES * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int offset = 0; offset < samples.length; offset += DISK_CHUNK_SAMPLES) {
+                int count = Math.min(DISK_CHUNK_SAMPLES, samples.length - offset);
+                chunk.clear().limit(count * 4);
+                if (!readFully(channel, chunk)) {
+                    file.delete();
+                    return null;
+                }
+                chunk.asFloatBuffer().get(samples, offset, count);
+            }
+            // Touch so the disk trim keeps recently used entries
+            file.setLastModified(System.currentTimeMillis());
+            return new PcmBuffer(samples, frames, channels, sampleRate);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, PcmBuffer buffer) {
+        if (diskDir == null || buffer.getSizeInBytes() + DISK_HEADER_SIZE > maxDiskBytes) {
+            return;
+        }
+        File file = new File(diskDir, key + DISK_SUFFIX);
+        File temp = new File(diskDir, key + TEMP_SUFFIX);
+        int samples = buffer.getFrameCount() * buffer.getChannels();
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(DISK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(DISK_MAGIC);
+            header.putInt(buffer.getChannels());
+            header.putInt(buffer.getSampleRate());
+            header.putInt(buffer.getFrameCount());
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(DISK_CHUNK_SAMPLES * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int offset = 0; offset < samples; offset += DISK_CHUNK_SAMPLES) {
+                int count = Math.min(DISK_CHUNK_SAMPLES, samples - offset);
+                chunk.clear();
+                chunk.asFloatBuffer().put(buffer.getSamples(), offset, count);
+                chunk.limit(count * 4);
+                writeFully(channel, chunk);
+            }
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                return false;
+            }
+        }
+        target.flip();
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private synchronized void trimDisk() {
+        // Entries still being written are not counted, nor removed from under their writer
+        File[] files = diskDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(DISK_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static String key(String source, long modified) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(source.getBytes(UTF_8));
+            digest.update(ByteBuffer.allocate(8).putLong(modified).array());
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
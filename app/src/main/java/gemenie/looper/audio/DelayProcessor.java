@@ -0,0 +1,143 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Stereo echo with feedback, added on top of the dry signal. The delay line is allocated once
+// for the longest time allowed. Changing the time glides the read position, like a tape delay,
+// instead of jumping; mix and feedback are ramped. Skipped while the mix is at zero.
+public final class DelayProcessor implements AudioProcessor {
+
+    public static final float MAX_FEEDBACK = 0.95f;
+
+    private final int sampleRate;
+    private final float maxSeconds;
+    private final float[] line;
+    private final int lineFrames;
+    private final SmoothedParameter delayFrames;
+    private final SmoothedParameter feedback;
+    private final SmoothedParameter mix;
+
+    // Audio thread state
+    private int writeFrame;
+    private boolean idle = true;
+
+    public DelayProcessor(int sampleRate, float maxSeconds) {
+        this(sampleRate, maxSeconds, Math.min(0.25f, maxSeconds), 0.35f, 0f);
+    }
+
+    public DelayProcessor(int sampleRate, float maxSeconds, float seconds, float feedback, float mix) {
+        if (sampleRate <= 0 || !(maxSeconds > 0f)) {
+            throw new IllegalArgumentException("Invalid delay: " + sampleRate + "Hz, " + maxSeconds + " s");
+        }
+        this.sampleRate = sampleRate;
+        this.maxSeconds = maxSeconds;
+        // One extra frame so the longest delay can still be interpolated
+        this.lineFrames = (int) Math.ceil(maxSeconds * sampleRate) + 2;
+        this.line = new float[lineFrames * 2];
+        this.delayFrames = new SmoothedParameter(clampFrames(seconds), sampleRate);
+        this.feedback = new SmoothedParameter(clampFeedback(feedback), sampleRate);
+        this.mix = new SmoothedParameter(clampMix(mix), sampleRate);
+    }
+
+    private float clampFrames(float seconds) {
+        return Math.max(1f, Math.min(seconds * sampleRate, lineFrames - 2));
+    }
+
+    private static float clampFeedback(float value) {
+        return Math.max(0f, Math.min(value, MAX_FEEDBACK));
+    }
+
+    private static float clampMix(float value) {
+        return Math.max(0f, Math.min(value, 1f));
+    }
+
+    public float getSeconds() {
+        return delayFrames.getTarget() / sampleRate;
+    }
+
+    public void setSeconds(float seconds) {
+        delayFrames.set(clampFrames(seconds));
+    }
+
+    public float getFeedback() {
+        return feedback.getTarget();
+    }
+
+    public void setFeedback(float value) {
+        feedback.set(clampFeedback(value));
+    }
+
+    public float getMix() {
+        return mix.getTarget();
+    }
+
+    // Level of the echoes relative to the dry signal
+    public void setMix(float value) {
+        mix.set(clampMix(value));
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+        if (mix.current() == 0f && mix.isSettled()) {
+            idle = true;
+            return;
+        }
+        if (idle) {
+            // Nothing was written while skipped, so start from silence rather than old echoes
+            Arrays.fill(line, 0f);
+            idle = false;
+        }
+        float delayFrom = delayFrames.current();
+        float delayStep = (delayFrames.advance(frames) - delayFrom) / frames;
+        float feedbackFrom = feedback.current();
+        float feedbackStep = (feedback.advance(frames) - feedbackFrom) / frames;
+        float mixFrom = mix.current();
+        float mixStep = (mix.advance(frames) - mixFrom) / frames;
+        float delay = delayFrom;
+        float fb = feedbackFrom;
+        float wet = mixFrom;
+        int write = writeFrame;
+        for (int i = 0, o = offset; i < frames; i++, o += 2) {
+            delay += delayStep;
+            fb += feedbackStep;
+            wet += mixStep;
+            float read = write - delay;
+            if (read < 0) {
+                read += lineFrames;
+                // Rounding can land a hair short of zero on exactly the end of the line
+                if (read >= lineFrames) {
+                    read = 0;
+                }
+            }
+            int r0 = (int) read;
+            int r1 = r0 + 1 == lineFrames ? 0 : r0 + 1;
+            float frac = read - r0;
+            float left = line[r0 * 2] + (line[r1 * 2] - line[r0 * 2]) * frac;
+            float right = line[r0 * 2 + 1] + (line[r1 * 2 + 1] - line[r0 * 2 + 1]) * frac;
+            float dryLeft = buffer[o];
+            float dryRight = buffer[o + 1];
+            line[write * 2] = dryLeft + left * fb;
+            line[write * 2 + 1] = dryRight + right * fb;
+            buffer[o] = dryLeft + left * wet;
+            buffer[o + 1] = dryRight + right * wet;
+            if (++write == lineFrames) {
+                write = 0;
+            }
+        }
+        writeFrame = write;
+    }
+
+    @Override
+    public void reset() {
+        delayFrames.snap();
+        feedback.snap();
+        mix.snap();
+        Arrays.fill(line, 0f);
+        writeFrame = 0;
+    }
+
+    @Override
+    public AudioProcessor copy() {
+        return new DelayProcessor(sampleRate, maxSeconds, getSeconds(), getFeedback(), getMix());
+    }
+}
@@ -0,0 +1,108 @@
+package gemenie.looper.audio;
+
+// Ordered processors for one track or the master bus. Edits from the UI publish a new array, so
+// processors can be added, removed or reordered while the audio thread runs the previous order,
+// which it reads once per block without a lock.
+public final class EffectChain {
+
+    private static final AudioProcessor[] EMPTY = new AudioProcessor[0];
+
+    private volatile AudioProcessor[] processors = EMPTY;
+
+    public AudioProcessor[] getProcessors() {
+        return processors;
+    }
+
+    public int size() {
+        return processors.length;
+    }
+
+    public AudioProcessor get(int index) {
+        return processors[index];
+    }
+
+    public int indexOf(AudioProcessor processor) {
+        AudioProcessor[] current = processors;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == processor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // First processor of the given type, null when the chain has none
+    public <T extends AudioProcessor> T find(Class<T> type) {
+        for (AudioProcessor processor : processors) {
+            if (type.isInstance(processor)) {
+                return type.cast(processor);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void add(AudioProcessor processor) {
+        add(processors.length, processor);
+    }
+
+    public synchronized void add(int index, AudioProcessor processor) {
+        AudioProcessor[] current = processors;
+        AudioProcessor[] next = new AudioProcessor[current.length + 1];
+        System.arraycopy(current, 0, next, 0, index);
+        next[index] = processor;
+        System.arraycopy(current, index, next, index + 1, current.length - index);
+        processors = next;
+    }
+
+    public synchronized boolean remove(AudioProcessor processor) {
+        AudioProcessor[] current = processors;
+        int index = indexOf(processor);
+        if (index < 0) {
+            return false;
+        }
+        AudioProcessor[] next = new AudioProcessor[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+        processors = next;
+        return true;
+    }
+
+    // Moves a processor to a new place in the order, taking effect from the next block
+    public synchronized void move(int from, int to) {
+        AudioProcessor[] next = processors.clone();
+        AudioProcessor moved = next[from];
+        if (from < to) {
+            System.arraycopy(next, from + 1, next, from, to - from);
+        } else {
+            System.arraycopy(next, to, next, to + 1, from - to);
+        }
+        next[to] = moved;
+        processors = next;
+    }
+
+    // Runs every processor in order over a stereo interleaved block, in place
+    public void process(float[] buffer, int offset, int frames) {
+        AudioProcessor[] snapshot = processors;
+        for (AudioProcessor processor : snapshot) {
+            processor.process(buffer, offset, frames);
+        }
+    }
+
+    public void reset() {
+        for (AudioProcessor processor : processors) {
+            processor.reset();
+        }
+    }
+
+    // Chain of independent copies in the same order, for offline renders
+    public EffectChain copy() {
+        AudioProcessor[] current = processors;
+        AudioProcessor[] copies = new AudioProcessor[current.length];
+        for (int i = 0; i < current.length; i++) {
+            copies[i] = current[i].copy();
+        }
+        EffectChain chain = new EffectChain();
+        chain.processors = copies;
+        return chain;
+    }
+}
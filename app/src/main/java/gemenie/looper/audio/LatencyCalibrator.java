@@ -0,0 +1,92 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Measures round-trip latency by playing a click on a fixed period and finding it again in the
+// microphone take with normalised cross-correlation. The click is a short windowed chirp, which has
+// a single sharp correlation peak even through a phone speaker and a noisy room.
+public final class LatencyCalibrator {
+
+    public static final int CLICK_MS = 5;
+    // Correlation a match must reach to count as the click rather than background noise
+    static final double MIN_CORRELATION = 0.5;
+    private static final double CHIRP_START_HZ = 1000;
+    private static final double CHIRP_END_HZ = 8000;
+
+    private LatencyCalibrator() {
+    }
+
+    public static float[] click(int sampleRate) {
+        int length = sampleRate * CLICK_MS / 1000;
+        float[] click = new float[length];
+        double duration = (double) length / sampleRate;
+        double sweep = (CHIRP_END_HZ - CHIRP_START_HZ) / duration;
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / sampleRate;
+            double phase = 2 * Math.PI * (CHIRP_START_HZ * t + sweep * t * t / 2);
+            double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (length - 1));
+            click[i] = (float) (0.8 * window * Math.sin(phase));
+        }
+        return click;
+    }
+
+    // Start index in [from, to) where the reference matches best, or -1 if nothing clears the threshold
+    public static int locate(float[] signal, int from, int to, float[] reference) {
+        int last = Math.min(to, signal.length - reference.length + 1);
+        double referenceEnergy = 0;
+        for (float r : reference) {
+            referenceEnergy += r * r;
+        }
+        if (from >= last || referenceEnergy == 0) {
+            return -1;
+        }
+        // Energy of the current signal window, slid along rather than recomputed
+        double energy = 0;
+        for (int i = 0; i < reference.length; i++) {
+            energy += signal[from + i] * signal[from + i];
+        }
+        int best = -1;
+        double bestScore = MIN_CORRELATION;
+        for (int start = from; start < last; start++) {
+            if (start > from) {
+                float out = signal[start - 1];
+                float in = signal[start + reference.length - 1];
+                energy = Math.max(0, energy - out * out + in * in);
+            }
+            if (energy <= 0) {
+                continue;
+            }
+            double sum = 0;
+            for (int i = 0; i < reference.length; i++) {
+                sum += signal[start + i] * reference[i];
+            }
+            double score = sum / Math.sqrt(energy * referenceEnergy);
+            if (score > bestScore) {
+                bestScore = score;
+                best = start;
+            }
+        }
+        return best;
+    }
+
+    // Round-trip latency in frames, or -1 when fewer than two clicks were heard.
+    // The take started at mixer frame captureFrame, clicks went out every period frames from
+    // clickFrame, and each period of the take votes with the median kept against stray peaks.
+    // Latencies of a whole period or more wrap around, so the period must exceed the latency.
+    public static int measure(float[] take, int length, long captureFrame, long clickFrame, int period, float[] click) {
+        int[] votes = new int[length / period + 1];
+        int count = 0;
+        int lastStart = length - click.length + 1;
+        for (int from = 0; from < lastStart; from += period) {
+            int found = locate(take, from, Math.min(from + period, lastStart), click);
+            if (found >= 0) {
+                votes[count++] = (int) Math.floorMod(captureFrame + found - clickFrame, (long) period);
+            }
+        }
+        if (count < 2) {
+            return -1;
+        }
+        Arrays.sort(votes, 0, count);
+        return votes[count / 2];
+    }
+}
@@ -0,0 +1,81 @@
+package gemenie.looper.audio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Peak and RMS level of one stereo signal. The audio thread folds in every block and the UI reads
+// at display rate. The peak is held until it is read so transients between polls are never lost;
+// the RMS is smoothed over roughly 300 ms.
+public final class LevelMeter {
+
+    public static final float FLOOR_DB = -60f;
+    private static final double RMS_SECONDS = 0.3;
+
+    // Non-negative float bits sort the same as the floats, so the peak can be kept as an int
+    private final AtomicInteger peakBits = new AtomicInteger();
+    private volatile float meanSquare;
+
+    // Stereo interleaved frames starting at offset
+    void process(float[] buffer, int offset, int frames, int sampleRate) {
+        if (frames <= 0) {
+            return;
+        }
+        float peak = 0f;
+        double sum = 0;
+        int end = offset + frames * LoopMixer.CHANNELS;
+        for (int i = offset; i < end; i++) {
+            float sample = buffer[i];
+            float magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            sum += sample * sample;
+        }
+        update(peak, sum / (frames * LoopMixer.CHANNELS), frames, sampleRate);
+    }
+
+    // For callers that already measured the block while processing it
+    void update(float peak, double blockMeanSquare, int frames, int sampleRate) {
+        raisePeak(peak);
+        smooth(blockMeanSquare, frames, sampleRate);
+    }
+
+    // Lets the RMS fall back while the signal is silent
+    void silence(int frames, int sampleRate) {
+        if (meanSquare != 0f) {
+            smooth(0, frames, sampleRate);
+        }
+    }
+
+    // Highest absolute sample since the last call
+    public float takePeak() {
+        return Float.intBitsToFloat(peakBits.getAndSet(0));
+    }
+
+    public float getRms() {
+        return (float) Math.sqrt(meanSquare);
+    }
+
+    public static float toDecibels(float level) {
+        if (level <= 0f) {
+            return FLOOR_DB;
+        }
+        return Math.max(FLOOR_DB, (float) (20 * Math.log10(level)));
+    }
+
+    private void raisePeak(float peak) {
+        int bits = Float.floatToIntBits(peak);
+        int current;
+        while (bits > (current = peakBits.get())) {
+            if (peakBits.compareAndSet(current, bits)) {
+                return;
+            }
+        }
+    }
+
+    private void smooth(double blockMeanSquare, int frames, int sampleRate) {
+        double keep = Math.exp(-frames / (RMS_SECONDS * sampleRate));
+        float next = (float) (meanSquare * keep + blockMeanSquare * (1 - keep));
+        // Flush anything 20 dB under the floor so the meter settles at silence instead of crawling
+        meanSquare = next < 1e-8f ? 0f : next;
+    }
+}
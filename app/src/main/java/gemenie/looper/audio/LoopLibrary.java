@@ -0,0 +1,435 @@
+package gemenie.looper.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Index of the loops saved to the library folder, so browsing never rescans storage. Each entry
+// keeps what the list shows and filters on: length, rate, tempo, peak level and a small waveform
+// thumbnail. The index is one compact binary file brought up to date incrementally, where files
+// with the same size and modification time keep their entry and only new or changed ones are
+// decoded. Queries run over the entries in memory from any thread.
+public class LoopLibrary {
+
+    public static final int MAGIC = 0x4C4C4942; // "LLIB"
+    public static final int VERSION = 3;
+    public static final int THUMBNAIL_COLUMNS = 64;
+    private static final int MAX_ENTRIES = 100000;
+    // Peak blocks kept while analysing, halved in resolution whenever they fill up
+    private static final int MAX_BLOCKS = 4096;
+    private static final int FIRST_BLOCK_FRAMES = 256;
+    private static final int CHUNK_FRAMES = 4096;
+    // Estimated tempos land in [MIN_BPM, 2 * MIN_BPM)
+    private static final float MIN_BPM = 80f;
+    private static final float MAX_LOOP_SECONDS = 60f;
+
+    // Opens a library file for analysis, as a stream so long files never sit in memory
+    public interface Opener {
+        PcmStream open(File file) throws IOException;
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final long size;
+        private final long modified;
+        private final long frameCount;
+        private final int sampleRate;
+        private final int channels;
+        private final float bpm;
+        private final float peak;
+        private final byte[] thumbnail;
+        // Lower case name for searching
+        private final String key;
+
+        public Entry(String name, long size, long modified, long frameCount, int sampleRate, int channels,
+                     float bpm, float peak, byte[] thumbnail) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.frameCount = frameCount;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bpm = bpm;
+            this.peak = peak;
+            this.thumbnail = thumbnail;
+            this.key = name.toLowerCase(Locale.ROOT);
+        }
+
+        // File name within the library folder
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public long getDurationMillis() {
+            return frameCount * 1000 / sampleRate;
+        }
+
+        // Estimated tempo, 0 when unknown
+        public float getBpm() {
+            return bpm;
+        }
+
+        // Loudest sample, linear
+        public float getPeak() {
+            return peak;
+        }
+
+        // THUMBNAIL_COLUMNS peak levels across the file, 0 to 255
+        public byte[] getThumbnail() {
+            return thumbnail;
+        }
+
+        boolean isCurrent(File file) {
+            return file.length() == size && file.lastModified() == modified;
+        }
+    }
+
+    // What to look for. Every part left unset matches everything.
+    public static final class Query {
+        private static final float TEMPO_TOLERANCE = 0.03f;
+        private static final long LENGTH_TOLERANCE_MS = 500;
+
+        private final List<String> words = new ArrayList<>();
+        private long minMillis;
+        private long maxMillis = Long.MAX_VALUE;
+        private float minBpm;
+        private float maxBpm = Float.MAX_VALUE;
+
+        // Names must contain every word, ignoring case
+        public Query name(String text) {
+            for (String word : text.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+            return this;
+        }
+
+        public Query length(long minMillis, long maxMillis) {
+            this.minMillis = minMillis;
+            this.maxMillis = maxMillis;
+            return this;
+        }
+
+        public Query tempo(float minBpm, float maxBpm) {
+            this.minBpm = minBpm;
+            this.maxBpm = maxBpm;
+            return this;
+        }
+
+        // Reads a search box: "120bpm" finds tempos within 3%, "8s" lengths within half a second,
+        // "<30s" and ">4s" bound the length, and anything else is part of the name
+        public static Query parse(String text) {
+            Query query = new Query();
+            StringBuilder name = new StringBuilder();
+            for (String token : text.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                try {
+                    if (token.length() > 3 && token.endsWith("bpm")) {
+                        float bpm = Float.parseFloat(token.substring(0, token.length() - 3));
+                        query.tempo(bpm * (1 - TEMPO_TOLERANCE), bpm * (1 + TEMPO_TOLERANCE));
+                        continue;
+                    }
+                    char first = token.isEmpty() ? ' ' : token.charAt(0);
+                    if (token.length() > 2 && token.endsWith("s") && (first == '<' || first == '>')) {
+                        long millis = Math.round(Float.parseFloat(token.substring(1, token.length() - 1)) * 1000);
+                        if (first == '<') {
+                            query.maxMillis = millis;
+                        } else {
+                            query.minMillis = millis;
+                        }
+                        continue;
+                    }
+                    if (token.length() > 1 && token.endsWith("s") && Character.isDigit(first)) {
+                        long millis = Math.round(Float.parseFloat(token.substring(0, token.length() - 1)) * 1000);
+                        query.length(millis - LENGTH_TOLERANCE_MS, millis + LENGTH_TOLERANCE_MS);
+                        continue;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a filter after all, so it is part of the name
+                }
+                name.append(token).append(' ');
+            }
+            return query.name(name.toString());
+        }
+
+        public boolean matches(Entry entry) {
+            long millis = entry.getDurationMillis();
+            if (millis < minMillis || millis > maxMillis) {
+                return false;
+            }
+            if (entry.bpm < minBpm || entry.bpm > maxBpm) {
+                return false;
+            }
+            for (String word : words) {
+                if (!entry.key.contains(word)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.name.compareToIgnoreCase(b.name);
+        }
+    };
+
+    private final File indexFile;
+    private volatile List<Entry> entries = Collections.emptyList();
+
+    public LoopLibrary(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    // Every entry, sorted by name
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    // Matching entries, sorted by name
+    public List<Entry> query(Query query) {
+        List<Entry> matches = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (query.matches(entry)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    // Brings the index in line with files, analysing only the ones it has not seen in their current
+    // state, and writes it if anything changed. Stops early when the thread is interrupted, keeping
+    // what is already done. Returns the number of files analysed.
+    public synchronized int update(List<File> files, Opener opener) throws IOException {
+        Map<String, Entry> known = new HashMap<>();
+        for (Entry entry : entries) {
+            known.put(entry.name, entry);
+        }
+        List<Entry> next = new ArrayList<>(files.size());
+        int analysed = 0;
+        boolean changed = false;
+        for (File file : files) {
+            Entry entry = known.remove(file.getName());
+            if (entry != null && entry.isCurrent(file)) {
+                next.add(entry);
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // Left for the next update, keeping what was known about it meanwhile
+                if (entry != null) {
+                    next.add(entry);
+                }
+                continue;
+            }
+            changed = true;
+            try (PcmStream stream = opener.open(file)) {
+                next.add(analyse(file.getName(), file.length(), file.lastModified(), stream));
+                analysed++;
+            } catch (IOException | RuntimeException e) {
+                // Unreadable files are left out and tried again next time
+            }
+        }
+        changed |= !known.isEmpty();
+        if (changed) {
+            Collections.sort(next, BY_NAME);
+            entries = Collections.unmodifiableList(next);
+            write();
+        }
+        return analysed;
+    }
+
+    // Reads the whole stream once in fixed chunks, so memory stays flat for any length
+    public static Entry analyse(String name, long size, long modified, PcmStream stream) throws IOException {
+        int channels = stream.getChannels();
+        float[] chunk = new float[CHUNK_FRAMES * channels];
+        TempoDetector detector = new TempoDetector(stream.getSampleRate(), channels);
+        float[] blocks = new float[MAX_BLOCKS];
+        int blockFrames = FIRST_BLOCK_FRAMES;
+        int blockCount = 0;
+        int framesInBlock = 0;
+        float blockPeak = 0f;
+        long frames = 0;
+        int read;
+        while ((read = stream.read(chunk, 0, chunk.length)) >= 0) {
+            int chunkFrames = read / channels;
+            if (!detector.isFull()) {
+                detector.process(chunk, 0, chunkFrames);
+            }
+            for (int f = 0, i = 0; f < chunkFrames; f++) {
+                for (int c = 0; c < channels; c++, i++) {
+                    blockPeak = Math.max(blockPeak, Math.abs(chunk[i]));
+                }
+                if (++framesInBlock == blockFrames) {
+                    if (blockCount == MAX_BLOCKS) {
+                        blockCount = halve(blocks, blockCount);
+                        blockFrames *= 2;
+                        // The open block is now only half full at the new size
+                        framesInBlock = blockFrames / 2;
+                        continue;
+                    }
+                    blocks[blockCount++] = blockPeak;
+                    blockPeak = 0f;
+                    framesInBlock = 0;
+                }
+            }
+            frames += chunkFrames;
+        }
+        if (framesInBlock > 0) {
+            if (blockCount == MAX_BLOCKS) {
+                blockCount = halve(blocks, blockCount);
+            }
+            blocks[blockCount++] = blockPeak;
+        }
+        byte[] thumbnail = new byte[THUMBNAIL_COLUMNS];
+        float peak = 0f;
+        for (int b = 0; b < blockCount; b++) {
+            peak = Math.max(peak, blocks[b]);
+        }
+        for (int column = 0; column < THUMBNAIL_COLUMNS && blockCount > 0; column++) {
+            int from = (int) ((long) column * blockCount / THUMBNAIL_COLUMNS);
+            int to = Math.max(from + 1, (int) ((long) (column + 1) * blockCount / THUMBNAIL_COLUMNS));
+            float level = 0f;
+            for (int b = from; b < to && b < blockCount; b++) {
+                level = Math.max(level, blocks[b]);
+            }
+            thumbnail[column] = (byte) Math.round(Math.min(1f, level) * 255);
+        }
+        int rate = stream.getSampleRate();
+        // The beat heard in the audio wins over the guess from the length, which only covers
+        // loop lengths
+        float bpm = TempoDetector.fitToLength(detector.getBpm(), frames, rate);
+        if (bpm <= 0) {
+            bpm = estimateTempo(frames, rate);
+        }
+        return new Entry(name, size, modified, frames, rate, channels, bpm, Math.min(1f, peak), thumbnail);
+    }
+
+    // Folds pairs of blocks together, returning the new count
+    private static int halve(float[] blocks, int count) {
+        int half = (count + 1) / 2;
+        for (int b = 0; b < half; b++) {
+            int a = b * 2;
+            blocks[b] = a + 1 < count ? Math.max(blocks[a], blocks[a + 1]) : blocks[a];
+        }
+        return half;
+    }
+
+    // Tempo of a loop from its length alone, assuming it holds a power of two beats as anything
+    // recorded bar by bar does. 0 for anything too short or long to be a loop.
+    public static float estimateTempo(long frames, int sampleRate) {
+        double seconds = (double) frames / sampleRate;
+        if (seconds < 60.0 / (2 * MIN_BPM) || seconds > MAX_LOOP_SECONDS) {
+            return 0f;
+        }
+        double beats = 1;
+        while (60 * beats / seconds < MIN_BPM) {
+            beats *= 2;
+        }
+        while (60 * beats / seconds >= 2 * MIN_BPM) {
+            beats /= 2;
+        }
+        return Math.round(600 * beats / seconds) / 10f;
+    }
+
+    // Loads the index written last time, starting empty when it is missing or damaged
+    public synchronized void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (InputStream stream = Files.newInputStream(indexFile.toPath())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAX_ENTRIES) {
+                return;
+            }
+            List<Entry> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long frames = in.readLong();
+                int rate = in.readInt();
+                int channels = in.readByte();
+                float bpm = in.readFloat();
+                float peak = in.readFloat();
+                byte[] thumbnail = new byte[THUMBNAIL_COLUMNS];
+                in.readFully(thumbnail);
+                if (frames < 0 || rate <= 0 || channels < 1) {
+                    return;
+                }
+                loaded.add(new Entry(name, size, modified, frames, rate, channels, bpm, peak, thumbnail));
+            }
+            Collections.sort(loaded, BY_NAME);
+            entries = Collections.unmodifiableList(loaded);
+        } catch (IOException | RuntimeException e) {
+            // Rebuilt by the next update
+        }
+    }
+
+    // Writes the index through a temp file so a crash never leaves half of it
+    private void write() throws IOException {
+        List<Entry> snapshot = entries;
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeLong(entry.frameCount);
+                out.writeInt(entry.sampleRate);
+                out.writeByte(entry.channels);
+                out.writeFloat(entry.bpm);
+                out.writeFloat(entry.peak);
+                out.write(entry.thumbnail);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(indexFile)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + indexFile);
+        }
+    }
+}
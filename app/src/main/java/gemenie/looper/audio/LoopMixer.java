@@ -0,0 +1,158 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Sums every active MixerTrack into a single stereo output buffer. All tracks advance
+// from the same frame clock so loops stay locked together regardless of how long they run.
+// Track changes publish a new array so the audio thread never takes a lock.
+public class LoopMixer {
+
+    public static final int CHANNELS = 2;
+
+    private final int sampleRate;
+    private final int maxBlockFrames;
+    private final float[] scratch;
+
+    private volatile MixerTrack[] tracks = new MixerTrack[0];
+    private volatile long framePosition;
+    private volatile SamplePlayer samplePlayer;
+    private volatile EffectChain masterEffects;
+    private final MixerMetrics metrics = new MixerMetrics();
+
+    public LoopMixer(int sampleRate, int maxBlockFrames) {
+        if (sampleRate <= 0 || maxBlockFrames <= 0) {
+            throw new IllegalArgumentException("Invalid mixer format: " + sampleRate + "Hz/" + maxBlockFrames);
+        }
+        this.sampleRate = sampleRate;
+        this.maxBlockFrames = maxBlockFrames;
+        this.scratch = new float[maxBlockFrames * CHANNELS];
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getMaxBlockFrames() {
+        return maxBlockFrames;
+    }
+
+    // Total frames rendered since the mixer was created
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    public MixerTrack[] getTracks() {
+        return tracks;
+    }
+
+    public MixerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public SamplePlayer getSamplePlayer() {
+        return samplePlayer;
+    }
+
+    // One-shot samples are summed after the loops, on the same frame clock
+    public void setSamplePlayer(SamplePlayer samplePlayer) {
+        this.samplePlayer = samplePlayer;
+    }
+
+    public EffectChain getMasterEffects() {
+        return masterEffects;
+    }
+
+    // Processors run on the sum of the tracks, before the feedback sounds, null for none
+    public void setMasterEffects(EffectChain masterEffects) {
+        this.masterEffects = masterEffects;
+    }
+
+    // True when no track is playing and no sample is sounding or queued, so the next block holds
+    // nothing but effect tails. Called from the audio thread.
+    public boolean isIdle() {
+        for (MixerTrack track : tracks) {
+            if (track.isPlaying()) {
+                return false;
+            }
+        }
+        SamplePlayer player = samplePlayer;
+        return player == null || player.isIdle();
+    }
+
+    public synchronized void addTrack(MixerTrack track) {
+        MixerTrack[] current = tracks;
+        MixerTrack[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = track;
+        tracks = next;
+    }
+
+    public synchronized boolean removeTrack(MixerTrack track) {
+        MixerTrack[] current = tracks;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == track) {
+                MixerTrack[] next = new MixerTrack[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                tracks = next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Swaps one track for another in a single step, so no block plays both or neither
+    public synchronized boolean replaceTrack(MixerTrack old, MixerTrack replacement) {
+        MixerTrack[] current = tracks;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == old) {
+                MixerTrack[] next = current.clone();
+                next[i] = replacement;
+                tracks = next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        tracks = new MixerTrack[0];
+    }
+
+    // Renders the requested number of stereo frames into out, overwriting its contents
+    public void mix(float[] out, int frames) {
+        if (out.length < frames * CHANNELS) {
+            throw new IllegalArgumentException("Output buffer too small for " + frames + " frames");
+        }
+        long start = System.nanoTime();
+        Arrays.fill(out, 0, frames * CHANNELS, 0f);
+        int offset = 0;
+        while (offset < frames) {
+            int block = Math.min(maxBlockFrames, frames - offset);
+            mixBlock(out, offset * CHANNELS, block);
+            offset += block;
+        }
+        metrics.getMasterMeter().process(out, 0, frames, sampleRate);
+        metrics.getMixTimes().record(System.nanoTime() - start);
+    }
+
+    private void mixBlock(float[] out, int outOffset, int frames) {
+        MixerTrack[] snapshot = tracks;
+        int samples = frames * CHANNELS;
+        for (MixerTrack track : snapshot) {
+            if (track.render(scratch, frames, sampleRate, framePosition)) {
+                for (int i = 0; i < samples; i++) {
+                    out[outOffset + i] += scratch[i];
+                }
+            }
+        }
+        EffectChain master = masterEffects;
+        if (master != null) {
+            master.process(out, outOffset, frames);
+        }
+        SamplePlayer player = samplePlayer;
+        if (player != null) {
+            player.render(out, outOffset, frames, sampleRate, framePosition);
+        }
+        framePosition += frames;
+    }
+}
@@ -0,0 +1,39 @@
+package gemenie.looper.audio;
+
+// Cuts a recorded take onto the bar grid. The start is snapped to the nearest bar and the
+// length to a whole number of loops; audio outside that window is trimmed and gaps are padded
+// with silence, so every quantized track is exactly the snapped length.
+public final class LoopQuantizer {
+
+    private LoopQuantizer() {
+    }
+
+    // Grid frame the take should start on when capture began at captureFrame
+    public static long startFrame(MasterClock clock, long captureFrame) {
+        return clock.nearestBarFrame(captureFrame);
+    }
+
+    // Quantized length for a take running from startFrame until the stop press at stopFrame
+    public static long lengthFrames(MasterClock clock, long startFrame, long stopFrame) {
+        return clock.snapLength(stopFrame - startFrame);
+    }
+
+    // Returns lengthFrames of the take beginning startFrame - captureFrame frames in.
+    // A negative offset means capture began after the bar and is padded at the front.
+    public static PcmBuffer fit(PcmBuffer take, long captureFrame, long startFrame, long lengthFrames) {
+        if (lengthFrames <= 0 || lengthFrames > Integer.MAX_VALUE / take.getChannels()) {
+            throw new IllegalArgumentException("Invalid loop length " + lengthFrames);
+        }
+        int channels = take.getChannels();
+        float[] out = new float[(int) lengthFrames * channels];
+        long offset = startFrame - captureFrame;
+        // Source and destination ranges of the copy in frames
+        long from = Math.max(0, offset);
+        long to = Math.max(0, -offset);
+        long count = Math.min(take.getFrameCount() - from, lengthFrames - to);
+        if (count > 0) {
+            System.arraycopy(take.getSamples(), (int) from * channels, out, (int) to * channels, (int) count * channels);
+        }
+        return new PcmBuffer(out, channels, take.getSampleRate());
+    }
+}
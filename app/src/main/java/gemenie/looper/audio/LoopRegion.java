@@ -0,0 +1,80 @@
+package gemenie.looper.audio;
+
+// The part of a track's audio that loops, with its fades, in source frames. The audio itself is
+// never touched: the time-stretcher reads through the region, trimming to the markers, shaping
+// the fades and crossfading the seam as it goes. Immutable so the UI can swap in a new region
+// while the audio thread is reading the old one.
+public final class LoopRegion {
+
+    // Length of the automatic crossfade at the seam
+    public static final double SEAM_SECONDS = 0.01;
+
+    public static final LoopRegion WHOLE = new LoopRegion(0, 0, 0, 0);
+
+    private final long startFrame;
+    private final long endFrame;
+    private final int fadeInFrames;
+    private final int fadeOutFrames;
+
+    // An end of 0 loops to the end of the audio
+    public LoopRegion(long startFrame, long endFrame, int fadeInFrames, int fadeOutFrames) {
+        if (startFrame < 0 || endFrame < 0 || (endFrame != 0 && endFrame <= startFrame)
+                || fadeInFrames < 0 || fadeOutFrames < 0) {
+            throw new IllegalArgumentException("Invalid loop " + startFrame + ".." + endFrame
+                    + " fades " + fadeInFrames + "/" + fadeOutFrames);
+        }
+        this.startFrame = startFrame;
+        this.endFrame = endFrame;
+        this.fadeInFrames = fadeInFrames;
+        this.fadeOutFrames = fadeOutFrames;
+    }
+
+    public long getStartFrame() {
+        return startFrame;
+    }
+
+    public long getEndFrame() {
+        return endFrame;
+    }
+
+    public int getFadeInFrames() {
+        return fadeInFrames;
+    }
+
+    public int getFadeOutFrames() {
+        return fadeOutFrames;
+    }
+
+    // First looped frame within audio of the given length, leaving at least one frame to play
+    public int start(int frameCount) {
+        return (int) Math.max(0, Math.min(startFrame, frameCount - 1L));
+    }
+
+    // Frame after the last looped one within audio of the given length
+    public int end(int frameCount) {
+        int start = start(frameCount);
+        if (endFrame == 0 || endFrame > frameCount) {
+            return frameCount;
+        }
+        return (int) Math.max(start + 1, endFrame);
+    }
+
+    public int length(int frameCount) {
+        return end(frameCount) - start(frameCount);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof LoopRegion)) {
+            return false;
+        }
+        LoopRegion region = (LoopRegion) other;
+        return startFrame == region.startFrame && endFrame == region.endFrame
+                && fadeInFrames == region.fadeInFrames && fadeOutFrames == region.fadeOutFrames;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (startFrame * 31 + endFrame) * 31 + fadeInFrames * 7 + fadeOutFrames;
+    }
+}
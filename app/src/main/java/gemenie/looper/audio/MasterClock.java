@@ -0,0 +1,94 @@
+package gemenie.looper.audio;
+
+// Bar grid for the session, counted in mixer frames from frame 0. A bar is a whole number of
+// frames so boundaries never drift; rounding moves the effective tempo by well under 0.01%.
+public final class MasterClock {
+
+    public static final double MIN_BPM = 20;
+    public static final double MAX_BPM = 300;
+    public static final int MAX_BARS = 64;
+
+    private final int sampleRate;
+    private final double bpm;
+    private final int beatsPerBar;
+    private final int loopBars;
+    private final long framesPerBar;
+
+    public MasterClock(int sampleRate, double bpm, int beatsPerBar, int loopBars) {
+        if (sampleRate <= 0 || !(bpm >= MIN_BPM && bpm <= MAX_BPM) || beatsPerBar < 1
+                || loopBars < 1 || loopBars > MAX_BARS) {
+            throw new IllegalArgumentException("Invalid clock: " + bpm + " BPM, " + beatsPerBar + "/" + loopBars);
+        }
+        this.sampleRate = sampleRate;
+        this.bpm = bpm;
+        this.beatsPerBar = beatsPerBar;
+        this.loopBars = loopBars;
+        this.framesPerBar = Math.round(sampleRate * 60.0 * beatsPerBar / bpm);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public double getBpm() {
+        return bpm;
+    }
+
+    public int getBeatsPerBar() {
+        return beatsPerBar;
+    }
+
+    public int getLoopBars() {
+        return loopBars;
+    }
+
+    public long getFramesPerBar() {
+        return framesPerBar;
+    }
+
+    public double getFramesPerBeat() {
+        return (double) framesPerBar / beatsPerBar;
+    }
+
+    // Length of one loop, every quantized take is a whole multiple of this
+    public long getLoopFrames() {
+        return framesPerBar * loopBars;
+    }
+
+    public long barIndex(long frame) {
+        return Math.floorDiv(frame, framesPerBar);
+    }
+
+    public long barStartFrame(long bar) {
+        return bar * framesPerBar;
+    }
+
+    // First bar boundary at or after frame
+    public long nextBarFrame(long frame) {
+        return -Math.floorDiv(-frame, framesPerBar) * framesPerBar;
+    }
+
+    public long nearestBarFrame(long frame) {
+        return Math.floorDiv(frame + framesPerBar / 2, framesPerBar) * framesPerBar;
+    }
+
+    // First beat boundary at or after frame. Beats land on whole frames within each bar.
+    public long nextBeatFrame(long frame) {
+        long barStart = Math.floorDiv(frame, framesPerBar) * framesPerBar;
+        long within = frame - barStart;
+        for (int beat = 0; beat < beatsPerBar; beat++) {
+            long offset = beat * framesPerBar / beatsPerBar;
+            if (offset >= within) {
+                return barStart + offset;
+            }
+        }
+        return barStart + framesPerBar;
+    }
+
+    // Rounds a take length to the nearest whole number of loops, never less than one
+    public long snapLength(long frames) {
+        long loop = getLoopFrames();
+        long loops = Math.max(1, Math.round((double) frames / loop));
+        return loops * loop;
+    }
+}
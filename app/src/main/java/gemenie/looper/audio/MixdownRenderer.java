@@ -0,0 +1,88 @@
+package gemenie.looper.audio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+// Bounces a set of tracks to a single stereo stream offline. Rendering goes through the same
+// LoopMixer as playback, one fixed-size block at a time, so memory stays flat for any length.
+public class MixdownRenderer {
+
+    public static final int DEFAULT_BLOCK_FRAMES = 4096;
+
+    public interface ProgressListener {
+        void onProgress(long framesDone, long framesTotal);
+    }
+
+    private final int sampleRate;
+    private final int blockFrames;
+    private EffectChain masterEffects;
+
+    public MixdownRenderer(int sampleRate) {
+        this(sampleRate, DEFAULT_BLOCK_FRAMES);
+    }
+
+    public MixdownRenderer(int sampleRate, int blockFrames) {
+        this.sampleRate = sampleRate;
+        this.blockFrames = blockFrames;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // Master bus processors to bounce through, copied for each render so the live chain is untouched
+    public void setMasterEffects(EffectChain masterEffects) {
+        this.masterEffects = masterEffects;
+    }
+
+    // Output length of one pass of the longest loop at its current speed
+    public long longestLoopFrames(List<MixerTrack> tracks) {
+        long longest = 0;
+        for (MixerTrack track : tracks) {
+            PcmBuffer buffer = track.getBuffer();
+            double frames = (double) track.getLoop().length(buffer.getFrameCount()) * sampleRate / (buffer.getSampleRate() * track.getTempo());
+            longest = Math.max(longest, (long) Math.ceil(frames));
+        }
+        return longest;
+    }
+
+    // Renders lengthFrames of every unmuted track into the sink. The sink is not closed.
+    public void render(List<MixerTrack> tracks, long lengthFrames, AudioSink sink, ProgressListener listener) throws IOException {
+        LoopMixer mixer = new LoopMixer(sampleRate, blockFrames);
+        if (masterEffects != null) {
+            mixer.setMasterEffects(masterEffects.copy());
+        }
+        for (MixerTrack track : tracks) {
+            if (!track.isMuted()) {
+                mixer.addTrack(track.copyForRender());
+            }
+        }
+        render(mixer, lengthFrames, sink, listener);
+    }
+
+    // Renders lengthFrames of one track on its own, muted or not, with its own effects but not
+    // the master bus. Stems of every track at the same length line up from the first frame.
+    public void renderStem(MixerTrack track, long lengthFrames, AudioSink sink, ProgressListener listener) throws IOException {
+        LoopMixer mixer = new LoopMixer(sampleRate, blockFrames);
+        mixer.addTrack(track.copyForStem());
+        render(mixer, lengthFrames, sink, listener);
+    }
+
+    private void render(LoopMixer mixer, long lengthFrames, AudioSink sink, ProgressListener listener) throws IOException {
+        float[] block = new float[blockFrames * LoopMixer.CHANNELS];
+        long done = 0;
+        while (done < lengthFrames) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Render cancelled");
+            }
+            int frames = (int) Math.min(blockFrames, lengthFrames - done);
+            mixer.mix(block, frames);
+            sink.write(block, 0, frames * LoopMixer.CHANNELS);
+            done += frames;
+            if (listener != null) {
+                listener.onProgress(done, lengthFrames);
+            }
+        }
+    }
+}
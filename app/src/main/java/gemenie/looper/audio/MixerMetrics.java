@@ -0,0 +1,40 @@
+package gemenie.looper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters for the audio path. Written from the audio and capture threads without locks,
+// polled by the UI.
+public final class MixerMetrics {
+
+    private final TimingHistogram mixTimes = new TimingHistogram();
+    private final LevelMeter masterMeter = new LevelMeter();
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+
+    // Time spent in each LoopMixer.mix call
+    public TimingHistogram getMixTimes() {
+        return mixTimes;
+    }
+
+    public LevelMeter getMasterMeter() {
+        return masterMeter;
+    }
+
+    // Output blocks the device had to fill with silence because the mixer was late
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public void setUnderruns(long count) {
+        underruns.lazySet(count);
+    }
+
+    // Capture blocks dropped because the recorder's writer fell behind
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public void addOverrun() {
+        overruns.incrementAndGet();
+    }
+}
@@ -0,0 +1,347 @@
+package gemenie.looper.audio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One looping voice inside the LoopMixer. Controls are written from the UI thread
+// and read by the audio thread once per block; the playhead is only touched by the audio thread.
+public class MixerTrack {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    public static final long UNANCHORED = Long.MIN_VALUE;
+
+    private final long id;
+    private final PcmBuffer buffer;
+    private final StreamingSource stream;
+
+    private volatile float volume = 1f;
+    private volatile float tempo = 1f;
+    private volatile float pitch = 1f;
+    private volatile boolean playing;
+    private volatile boolean muted;
+    private volatile long anchorFrame = UNANCHORED;
+    private volatile boolean resync;
+    private volatile long playheadFrame;
+    private volatile long loopOriginFrame = UNANCHORED;
+    private volatile LoopRegion loop = LoopRegion.WHOLE;
+    private volatile EffectChain effects;
+
+    // Audio thread state
+    private final TimeStretcher stretcher;
+    private final LevelMeter meter = new LevelMeter();
+    private LoopRegion appliedLoop = LoopRegion.WHOLE;
+    private float currentGain;
+
+    public MixerTrack(PcmBuffer buffer) {
+        this(NEXT_ID.getAndIncrement(), buffer);
+    }
+
+    public MixerTrack(long id, PcmBuffer buffer) {
+        this.id = id;
+        this.buffer = buffer;
+        this.stream = null;
+        this.stretcher = new TimeStretcher(buffer);
+    }
+
+    // A voice playing a long file straight from its decoder, already at the mixer rate. The file
+    // plays through and round again at its own speed and pitch, so tempo, pitch and loop settings
+    // do not apply, and its buffer is empty.
+    public MixerTrack(long id, StreamingSource stream) {
+        this.id = id;
+        this.buffer = new PcmBuffer(new float[0], LoopMixer.CHANNELS, stream.getSampleRate());
+        this.stream = stream;
+        this.stretcher = new TimeStretcher(buffer);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public PcmBuffer getBuffer() {
+        return buffer;
+    }
+
+    public boolean isStreaming() {
+        return stream != null;
+    }
+
+    // Source of a streaming voice, null for one playing from memory
+    public StreamingSource getStream() {
+        return stream;
+    }
+
+    // Stops the decoder behind a streaming voice once nothing can play it again
+    public void release() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing more to read from it either way
+            }
+        }
+    }
+
+    // Output level after volume and mute
+    public LevelMeter getMeter() {
+        return meter;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    // Linear gain applied to the track, ramped over one block to avoid zipper noise
+    public void setVolume(float volume) {
+        this.volume = Math.max(0f, volume);
+    }
+
+    public float getTempo() {
+        return tempo;
+    }
+
+    // Playback rate relative to the recorded rate, without changing pitch
+    public void setTempo(float tempo) {
+        this.tempo = checkRatio(tempo);
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    // Pitch ratio relative to the recording, without changing tempo
+    public void setPitch(float pitch) {
+        this.pitch = checkRatio(pitch);
+    }
+
+    // Tape style speed change, tempo and pitch move together
+    public void setSpeed(float speed) {
+        setTempo(speed);
+        setPitch(speed);
+    }
+
+    private static float checkRatio(float ratio) {
+        if (!(ratio > 0f)) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratio);
+        }
+        return ratio;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    // Anchored tracks rejoin the grid on play instead of resuming where they paused
+    public void play() {
+        if (anchorFrame != UNANCHORED) {
+            resync = true;
+        }
+        playing = true;
+    }
+
+    public void pause() {
+        playing = false;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    public LoopRegion getLoop() {
+        return loop;
+    }
+
+    // Trims the loop and sets its fades without touching the audio, picked up on the next block.
+    // Anchored tracks restart the new loop in phase with the session.
+    public void setLoop(LoopRegion loop) {
+        this.loop = loop;
+        if (anchorFrame != UNANCHORED) {
+            resync = true;
+        }
+    }
+
+    public EffectChain getEffects() {
+        return effects;
+    }
+
+    // Processors run on the track before its volume, null for none
+    public void setEffects(EffectChain effects) {
+        this.effects = effects;
+    }
+
+    // Source frame at the end of the last rendered block, for drawing the playhead
+    public long getPlayheadFrame() {
+        return playheadFrame;
+    }
+
+    // Mixer frame at which the current pass of the loop began, UNANCHORED until the track has
+    // played. Together with the tempo this maps any mixer frame to the loop frame being heard.
+    public long getLoopOriginFrame() {
+        return loopOriginFrame;
+    }
+
+    public long getAnchorFrame() {
+        return anchorFrame;
+    }
+
+    // Mixer frame at which the start of the audio lines up with the session, so the track
+    // plays in phase with the others whenever it starts
+    public void setAnchorFrame(long frame) {
+        anchorFrame = frame;
+        resync = frame != UNANCHORED;
+    }
+
+    // Independent copy with the same audio and settings, cued to the start at full gain.
+    // Used by offline renders so they never disturb the live playhead.
+    MixerTrack copyForRender() {
+        if (stream != null) {
+            throw new UnsupportedOperationException("Streaming tracks play live only");
+        }
+        MixerTrack copy = new MixerTrack(id, buffer);
+        copy.volume = volume;
+        copy.tempo = tempo;
+        copy.pitch = pitch;
+        copy.muted = muted;
+        copy.loop = loop;
+        EffectChain chain = effects;
+        copy.effects = chain != null ? chain.copy() : null;
+        copy.anchorFrame = anchorFrame;
+        copy.resync = anchorFrame != UNANCHORED;
+        copy.playing = true;
+        copy.currentGain = muted ? 0f : volume;
+        return copy;
+    }
+
+    // Like copyForRender but always audible, so muted rows still get a stem of their own
+    MixerTrack copyForStem() {
+        MixerTrack copy = copyForRender();
+        copy.muted = false;
+        copy.currentGain = volume;
+        return copy;
+    }
+
+    // The same voice playing new audio, such as an overdubbed take, carrying on from where this
+    // one is in the loop. Playing tracks stay locked to their current loop origin, so the swap
+    // lands mid-loop without a jump; the gain carries over so there is no fade in.
+    public MixerTrack withBuffer(PcmBuffer next) {
+        if (stream != null) {
+            throw new UnsupportedOperationException("Streaming tracks have no buffer to replace");
+        }
+        MixerTrack copy = new MixerTrack(id, next);
+        copy.volume = volume;
+        copy.tempo = tempo;
+        copy.pitch = pitch;
+        copy.muted = muted;
+        copy.loop = loop;
+        copy.effects = effects;
+        copy.playing = playing;
+        long origin = anchorFrame != UNANCHORED ? anchorFrame : (playing ? loopOriginFrame : UNANCHORED);
+        if (origin != UNANCHORED) {
+            copy.anchorFrame = origin;
+            copy.resync = true;
+        } else {
+            copy.appliedLoop = loop;
+            copy.stretcher.setRegion(loop);
+            copy.stretcher.seek(playheadFrame - copy.stretcher.getRegionStart());
+        }
+        copy.currentGain = currentGain;
+        return copy;
+    }
+
+    // Renders the next block of this track into a stereo interleaved scratch buffer, frame being
+    // the mixer position at the start of the block.
+    // Returns false when the track produced no audible output for the block.
+    boolean render(float[] scratch, int frames, int outputRate, long frame) {
+        if (stream != null) {
+            return renderStream(scratch, frames, outputRate);
+        }
+        if (buffer.getFrameCount() == 0) {
+            return false;
+        }
+        boolean active = playing;
+        float target = active && !muted ? volume : 0f;
+        double rate = (double) buffer.getSampleRate() / outputRate;
+        double tempoStep = tempo * rate;
+        LoopRegion region = loop;
+        if (region != appliedLoop) {
+            appliedLoop = region;
+            stretcher.setRegion(region);
+        }
+        if (resync) {
+            // Clear the flag before reading the anchor so a newer anchor is never missed
+            resync = false;
+            long anchor = anchorFrame;
+            if (anchor != UNANCHORED) {
+                stretcher.seek((frame - anchor) * tempoStep);
+            }
+        }
+        if (target == 0f && currentGain == 0f) {
+            // Muted tracks keep time with the rest of the session, paused tracks hold their place
+            if (active) {
+                stretcher.skip(frames, tempoStep);
+                publishPlayhead(frame + frames, tempoStep);
+            }
+            meter.silence(frames, outputRate);
+            return false;
+        }
+
+        stretcher.process(scratch, frames, tempoStep, pitch * rate);
+        finish(scratch, frames, outputRate, target);
+        if (active) {
+            publishPlayhead(frame + frames, tempoStep);
+        }
+        return true;
+    }
+
+    // Streams are already at the mixer rate and play from the ring in order
+    private boolean renderStream(float[] scratch, int frames, int outputRate) {
+        boolean active = playing;
+        float target = active && !muted ? volume : 0f;
+        if (target == 0f && currentGain == 0f) {
+            if (active) {
+                stream.skip(frames);
+            }
+            meter.silence(frames, outputRate);
+            return false;
+        }
+        stream.read(scratch, frames);
+        finish(scratch, frames, outputRate, target);
+        return true;
+    }
+
+    // Effects, the gain ramp towards target and the meter, shared by both kinds of voice
+    private void finish(float[] scratch, int frames, int outputRate, float target) {
+        EffectChain chain = effects;
+        if (chain != null) {
+            if (currentGain == 0f) {
+                // Coming back from silence, so no echo or filter ring from before should follow
+                chain.reset();
+            }
+            chain.process(scratch, 0, frames);
+        }
+        float gain = currentGain;
+        float gainStep = (target - gain) / frames;
+        float peak = 0f;
+        double sum = 0;
+        for (int i = 0, o = 0; i < frames; i++, o += 2) {
+            gain += gainStep;
+            float left = scratch[o] * gain;
+            float right = scratch[o + 1] * gain;
+            scratch[o] = left;
+            scratch[o + 1] = right;
+            peak = Math.max(peak, Math.max(Math.abs(left), Math.abs(right)));
+            sum += left * left + right * right;
+        }
+        meter.update(peak, sum / (frames * 2), frames, outputRate);
+        currentGain = target;
+    }
+
+    private void publishPlayhead(long endFrame, double tempoStep) {
+        double position = stretcher.getPosition();
+        playheadFrame = stretcher.getRegionStart() + (long) position;
+        loopOriginFrame = endFrame - Math.round(position / tempoStep);
+    }
+}
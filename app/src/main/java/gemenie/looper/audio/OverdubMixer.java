@@ -0,0 +1,87 @@
+package gemenie.looper.audio;
+
+import java.io.IOException;
+
+// Sums a take recorded over a playing loop into that loop's audio. The take is laid onto the
+// loop frame that was playing as each of its frames was captured, wrapping round for every
+// pass it spans, and resampled to the track's rate on the way. Works through the loop in
+// fixed-size blocks and writes each one straight to the sink, so the only full-length
+// allocation is the new version of the track itself.
+public final class OverdubMixer {
+
+    public static final int BLOCK_FRAMES = 4096;
+
+    private OverdubMixer() {
+    }
+
+    // Loop frame heard at mixerFrame for a track whose pass began at originFrame
+    public static double loopFrameAt(long mixerFrame, long originFrame, double tempoStep, int loopLength) {
+        return TimeStretcher.wrap((mixerFrame - originFrame) * tempoStep, loopLength);
+    }
+
+    // Returns base with the take summed into its loop region. takeLoopFrame is the loop frame
+    // that was playing when the first take frame was captured. The result is also written to
+    // sink when one is given; the sink is not closed.
+    public static PcmBuffer sum(PcmBuffer base, LoopRegion region, PcmBuffer take, double takeLoopFrame,
+                                float takeGain, AudioSink sink) throws IOException {
+        int frameCount = base.getFrameCount();
+        int channels = base.getChannels();
+        int loopStart = region.start(frameCount);
+        int loopLength = region.length(frameCount);
+        float[] src = base.getSamples();
+        float[] mixed = new float[frameCount * channels];
+        // Loop frames advance this much per take frame
+        double ratio = (double) base.getSampleRate() / take.getSampleRate();
+        int takeFrames = take.getFrameCount();
+        int passes = loopLength == 0 ? 0 : (int) Math.ceil((takeLoopFrame + (takeFrames - 1) * ratio) / loopLength) + 1;
+
+        for (int blockStart = 0; blockStart < frameCount; blockStart += BLOCK_FRAMES) {
+            int blockEnd = Math.min(frameCount, blockStart + BLOCK_FRAMES);
+            System.arraycopy(src, blockStart * channels, mixed, blockStart * channels, (blockEnd - blockStart) * channels);
+            int from = Math.max(blockStart, loopStart);
+            int to = Math.min(blockEnd, loopStart + loopLength);
+            for (int pass = 0; pass < passes; pass++) {
+                for (int f = from; f < to; f++) {
+                    // Take time at which this loop frame was playing on this pass
+                    double t = (f - loopStart + (double) pass * loopLength - takeLoopFrame) / ratio;
+                    if (t < 0) {
+                        continue;
+                    }
+                    if (t > takeFrames - 1) {
+                        break;
+                    }
+                    addFrame(mixed, f * channels, channels, take, t, takeGain);
+                }
+            }
+            if (sink != null) {
+                sink.write(mixed, blockStart * channels, (blockEnd - blockStart) * channels);
+            }
+        }
+        return new PcmBuffer(mixed, frameCount, channels, base.getSampleRate());
+    }
+
+    // Adds one interpolated take frame, folding or spreading channels to match the track
+    private static void addFrame(float[] out, int offset, int channels, PcmBuffer take, double t, float gain) {
+        float[] samples = take.getSamples();
+        int takeChannels = take.getChannels();
+        int i0 = (int) t;
+        int i1 = Math.min(i0 + 1, take.getFrameCount() - 1);
+        float frac = (float) (t - i0);
+        if (takeChannels == 1) {
+            float a = samples[i0];
+            float value = (a + (samples[i1] - a) * frac) * gain;
+            for (int c = 0; c < channels; c++) {
+                out[offset + c] += value;
+            }
+        } else if (channels == 1) {
+            float a = samples[i0 * 2] + samples[i0 * 2 + 1];
+            float b = samples[i1 * 2] + samples[i1 * 2 + 1];
+            out[offset] += (a + (b - a) * frac) * 0.5f * gain;
+        } else {
+            for (int c = 0; c < 2; c++) {
+                float a = samples[i0 * 2 + c];
+                out[offset + c] += (a + (samples[i1 * 2 + c] - a) * frac) * gain;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package gemenie.looper.audio;
+
+// Stereo balance from -1 (left) through 0 to 1 (right). The centre leaves the audio untouched;
+// moving off centre keeps the near side at full level and fades the far side on a quarter
+// cosine. Gains are ramped across each block like the track volume.
+public final class PanProcessor implements AudioProcessor {
+
+    private volatile float pan;
+    // Audio thread state
+    private float leftGain = 1f;
+    private float rightGain = 1f;
+    private float appliedPan;
+
+    public float getPan() {
+        return pan;
+    }
+
+    public void setPan(float pan) {
+        this.pan = Math.max(-1f, Math.min(1f, pan));
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+        float target = pan;
+        if (target == 0f && appliedPan == 0f) {
+            return;
+        }
+        float left = leftGain(target);
+        float right = rightGain(target);
+        float leftStep = (left - leftGain) / frames;
+        float rightStep = (right - rightGain) / frames;
+        float l = leftGain;
+        float r = rightGain;
+        for (int i = 0, o = offset; i < frames; i++, o += 2) {
+            l += leftStep;
+            r += rightStep;
+            buffer[o] *= l;
+            buffer[o + 1] *= r;
+        }
+        leftGain = left;
+        rightGain = right;
+        appliedPan = target;
+    }
+
+    @Override
+    public void reset() {
+        float target = pan;
+        leftGain = leftGain(target);
+        rightGain = rightGain(target);
+        appliedPan = target;
+    }
+
+    private static float leftGain(float pan) {
+        return pan > 0f ? (float) Math.cos(pan * Math.PI / 2) : 1f;
+    }
+
+    private static float rightGain(float pan) {
+        return pan < 0f ? (float) Math.cos(-pan * Math.PI / 2) : 1f;
+    }
+
+    @Override
+    public AudioProcessor copy() {
+        PanProcessor copy = new PanProcessor();
+        copy.setPan(pan);
+        copy.reset();
+        return copy;
+    }
+}
@@ -0,0 +1,75 @@
+package gemenie.looper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+// Decoded audio held in memory as interleaved floats in the range [-1, 1].
+// Instances are treated as immutable once handed to the mixer.
+public final class PcmBuffer {
+
+    private final float[] samples;
+    private final int channels;
+    private final int sampleRate;
+    private final int frameCount;
+
+    public PcmBuffer(float[] samples, int channels, int sampleRate) {
+        this(samples, samples.length / channels, channels, sampleRate);
+    }
+
+    public PcmBuffer(float[] samples, int frameCount, int channels, int sampleRate) {
+        if (channels < 1 || channels > 2) {
+            throw new IllegalArgumentException("Unsupported channel count: " + channels);
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        if (frameCount < 0 || (long) frameCount * channels > samples.length) {
+            throw new IllegalArgumentException("Frame count exceeds sample data: " + frameCount);
+        }
+        this.samples = samples;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+    }
+
+    // Convert signed 16-bit PCM into a float buffer
+    public static PcmBuffer fromPcm16(short[] pcm, int sampleCount, int channels, int sampleRate) {
+        float[] samples = new float[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            samples[i] = pcm[i] / 32768f;
+        }
+        return new PcmBuffer(samples, channels, sampleRate);
+    }
+
+    // Convert the signed 16-bit samples left in source, in its byte order, into target from
+    // offset through a short view rather than one getShort at a time. Returns the samples read.
+    public static int readPcm16(ByteBuffer source, float[] target, int offset) {
+        ShortBuffer pcm = source.asShortBuffer();
+        int count = pcm.remaining();
+        for (int i = 0; i < count; i++) {
+            target[offset + i] = pcm.get(i) / 32768f;
+        }
+        source.position(source.position() + count * 2);
+        return count;
+    }
+
+    public float[] getSamples() {
+        return samples;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public long getSizeInBytes() {
+        return (long) frameCount * channels * 4;
+    }
+}
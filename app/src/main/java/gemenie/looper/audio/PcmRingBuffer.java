@@ -0,0 +1,65 @@
+package gemenie.looper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Preallocated single-producer/single-consumer ring of 16-bit samples. The capture
+// thread writes and a background thread reads; neither side blocks or allocates.
+public final class PcmRingBuffer {
+
+    private final short[] data;
+    private final int mask;
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final AtomicLong readIndex = new AtomicLong();
+
+    public PcmRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        data = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    // Samples waiting to be read
+    public int available() {
+        return (int) (writeIndex.get() - readIndex.get());
+    }
+
+    // Copies up to length samples in, returning how many fit
+    public int write(short[] src, int offset, int length) {
+        long write = writeIndex.get();
+        int free = data.length - (int) (write - readIndex.get());
+        int count = Math.min(free, length);
+        if (count <= 0) {
+            return 0;
+        }
+        int start = (int) (write & mask);
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, count - first);
+        writeIndex.lazySet(write + count);
+        return count;
+    }
+
+    // Copies up to length samples out, returning how many were read
+    public int read(short[] dst, int offset, int length) {
+        long read = readIndex.get();
+        int count = Math.min((int) (writeIndex.get() - read), length);
+        if (count <= 0) {
+            return 0;
+        }
+        int start = (int) (read & mask);
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(data, start, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, count - first);
+        readIndex.lazySet(read + count);
+        return count;
+    }
+}
@@ -0,0 +1,20 @@
+package gemenie.looper.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Decoded audio handed over a chunk at a time, for files too long to hold in memory.
+// Samples are floats in [-1, 1], interleaved, with one or two channels.
+public interface PcmStream extends Closeable {
+
+    int getSampleRate();
+
+    int getChannels();
+
+    // Fills target with up to maxSamples samples, always whole frames. Returns the number of
+    // samples read, which may be zero while the decoder warms up, or -1 at the end of the audio.
+    int read(float[] target, int offset, int maxSamples) throws IOException;
+
+    // Goes back to the first frame
+    void rewind() throws IOException;
+}
@@ -0,0 +1,202 @@
+package gemenie.looper.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+// Min/max overview of a track at every power-of-two zoom. Level 0 holds one column per
+// BLOCK_FRAMES frames across all channels and each level above halves the one below, so drawing
+// any range at any width only touches a couple of columns per pixel. Built once per track in the
+// background and kept next to the recording so restores skip the scan.
+public final class PeakPyramid {
+
+    public static final int MAGIC = 0x4C50454B; // "LPEK"
+    public static final int VERSION = 1;
+    public static final int BLOCK_FRAMES = 256;
+    private static final int BLOCK_SHIFT = 8;
+    private static final float SCALE = 32767f;
+
+    private final int frameCount;
+    private final int sampleRate;
+    private final short[][] mins;
+    private final short[][] maxs;
+
+    private PeakPyramid(int frameCount, int sampleRate, short[][] mins, short[][] maxs) {
+        this.frameCount = frameCount;
+        this.sampleRate = sampleRate;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    // Scans the buffer once for level 0 and folds it upwards
+    public static PeakPyramid build(PcmBuffer buffer) {
+        float[] samples = buffer.getSamples();
+        int channels = buffer.getChannels();
+        int frames = buffer.getFrameCount();
+        int blocks = (frames + BLOCK_FRAMES - 1) >> BLOCK_SHIFT;
+        short[] min = new short[blocks];
+        short[] max = new short[blocks];
+        int sampleCount = frames * channels;
+        int blockSamples = BLOCK_FRAMES * channels;
+        for (int b = 0, i = 0; b < blocks; b++) {
+            int end = Math.min(i + blockSamples, sampleCount);
+            float low = samples[i];
+            float high = low;
+            for (; i < end; i++) {
+                float sample = samples[i];
+                if (sample < low) {
+                    low = sample;
+                } else if (sample > high) {
+                    high = sample;
+                }
+            }
+            min[b] = quantize(low);
+            max[b] = quantize(high);
+        }
+        return fold(frames, buffer.getSampleRate(), min, max);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getLevelCount() {
+        return mins.length;
+    }
+
+    // Fills one min/max column per pixel for frames [startFrame, endFrame), values in [-1, 1].
+    // Pixels past the end of the audio are left at zero. Returns how many columns were read.
+    public int render(long startFrame, long endFrame, float[] min, float[] max, int pixels) {
+        if (pixels <= 0 || endFrame <= startFrame) {
+            return 0;
+        }
+        double framesPerPixel = (double) (endFrame - startFrame) / pixels;
+        // Coarsest level whose columns are no wider than a pixel
+        int level = 0;
+        while (level + 1 < mins.length && (double) (BLOCK_FRAMES << (level + 1)) <= framesPerPixel) {
+            level++;
+        }
+        short[] levelMin = mins[level];
+        short[] levelMax = maxs[level];
+        int shift = BLOCK_SHIFT + level;
+        int read = 0;
+        for (int p = 0; p < pixels; p++) {
+            long from = startFrame + (long) (p * framesPerPixel);
+            long to = Math.max(from + 1, startFrame + (long) ((p + 1) * framesPerPixel));
+            long first = Math.max(0, from >> shift);
+            long last = Math.min(levelMin.length, ((to - 1) >> shift) + 1);
+            if (first >= last) {
+                min[p] = 0f;
+                max[p] = 0f;
+                continue;
+            }
+            int low = levelMin[(int) first];
+            int high = levelMax[(int) first];
+            for (int c = (int) first + 1; c < last; c++) {
+                low = Math.min(low, levelMin[c]);
+                high = Math.max(high, levelMax[c]);
+            }
+            min[p] = low / SCALE;
+            max[p] = high / SCALE;
+            read += (int) (last - first);
+        }
+        return read;
+    }
+
+    // Writes the pyramid, stamped with the source's modification time, through a temp file
+    public void write(File file, long sourceModified) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(sourceModified);
+            out.writeInt(frameCount);
+            out.writeInt(sampleRate);
+            // Upper levels are cheap to fold again, only level 0 is stored
+            short[] min = mins[0];
+            short[] max = maxs[0];
+            out.writeInt(min.length);
+            for (int b = 0; b < min.length; b++) {
+                out.writeShort(min[b]);
+                out.writeShort(max[b]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    // Returns null when the file is missing, damaged or was built from an older version of the source
+    public static PeakPyramid read(File file, long sourceModified) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readShort() != VERSION || in.readLong() != sourceModified) {
+                return null;
+            }
+            int frames = in.readInt();
+            int rate = in.readInt();
+            int blocks = in.readInt();
+            if (frames < 0 || rate <= 0 || blocks != (frames + BLOCK_FRAMES - 1) >> BLOCK_SHIFT) {
+                return null;
+            }
+            short[] min = new short[blocks];
+            short[] max = new short[blocks];
+            for (int b = 0; b < blocks; b++) {
+                min[b] = in.readShort();
+                max[b] = in.readShort();
+            }
+            return fold(frames, rate, min, max);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Builds every level above level 0
+    private static PeakPyramid fold(int frames, int rate, short[] min, short[] max) {
+        int levels = 1;
+        for (int n = min.length; n > 1; n = (n + 1) >> 1) {
+            levels++;
+        }
+        short[][] mins = new short[levels][];
+        short[][] maxs = new short[levels][];
+        mins[0] = min;
+        maxs[0] = max;
+        for (int level = 1; level < levels; level++) {
+            short[] lowerMin = mins[level - 1];
+            short[] lowerMax = maxs[level - 1];
+            int count = (lowerMin.length + 1) >> 1;
+            short[] upperMin = new short[count];
+            short[] upperMax = new short[count];
+            for (int c = 0; c < count; c++) {
+                int a = c << 1;
+                int b = Math.min(a + 1, lowerMin.length - 1);
+                upperMin[c] = (short) Math.min(lowerMin[a], lowerMin[b]);
+                upperMax[c] = (short) Math.max(lowerMax[a], lowerMax[b]);
+            }
+            mins[level] = upperMin;
+            maxs[level] = upperMax;
+        }
+        return new PeakPyramid(frames, rate, mins, maxs);
+    }
+
+    private static short quantize(float sample) {
+        return (short) Math.round(Math.max(-1f, Math.min(1f, sample)) * SCALE);
+    }
+}
@@ -0,0 +1,183 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One-shot sample voices mixed inside the LoopMixer. Samples are decoded up front and triggers
+// pass through a preallocated single-producer queue, so triggering from the UI never allocates or
+// locks. Each trigger starts on an exact mixer frame; when every voice is busy the oldest is stolen.
+public class SamplePlayer {
+
+    public static final int DEFAULT_VOICES = 16;
+    // Start as soon as the audio thread picks the trigger up
+    public static final long NOW = Long.MIN_VALUE;
+    private static final int QUEUE_SIZE = 64;
+
+    private volatile PcmBuffer[] samples = new PcmBuffer[0];
+
+    // Trigger queue, written by one UI thread and read by the audio thread
+    private final int[] queuedSample = new int[QUEUE_SIZE];
+    private final float[] queuedGain = new float[QUEUE_SIZE];
+    private final long[] queuedFrame = new long[QUEUE_SIZE];
+    private final AtomicLong queueWrite = new AtomicLong();
+    private final AtomicLong queueRead = new AtomicLong();
+
+    // Voice state, audio thread only. A sample of -1 marks a free voice.
+    private final int[] voiceSample;
+    private final float[] voiceGain;
+    private final long[] voiceStart;
+    private final double[] voicePosition;
+    private final long[] voiceOrder;
+    private long triggerCount;
+
+    public SamplePlayer() {
+        this(DEFAULT_VOICES);
+    }
+
+    public SamplePlayer(int voices) {
+        if (voices < 1) {
+            throw new IllegalArgumentException("Need at least one voice");
+        }
+        voiceSample = new int[voices];
+        voiceGain = new float[voices];
+        voiceStart = new long[voices];
+        voicePosition = new double[voices];
+        voiceOrder = new long[voices];
+        Arrays.fill(voiceSample, -1);
+    }
+
+    // Registers a decoded sample and returns the index used to trigger it
+    public synchronized int addSample(PcmBuffer sample) {
+        PcmBuffer[] current = samples;
+        PcmBuffer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = sample;
+        samples = next;
+        return current.length;
+    }
+
+    public int getSampleCount() {
+        return samples.length;
+    }
+
+    public int getVoiceCount() {
+        return voiceSample.length;
+    }
+
+    public boolean trigger(int sample, float gain) {
+        return trigger(sample, gain, NOW);
+    }
+
+    // Queues a sample to start at the given mixer frame. Frames already rendered start at once.
+    // Returns false if the queue is full; only one thread may trigger at a time.
+    public boolean trigger(int sample, float gain, long frame) {
+        if (sample < 0 || sample >= samples.length) {
+            throw new IndexOutOfBoundsException("No sample " + sample);
+        }
+        long write = queueWrite.get();
+        if (write - queueRead.get() >= QUEUE_SIZE) {
+            return false;
+        }
+        int slot = (int) (write % QUEUE_SIZE);
+        queuedSample[slot] = sample;
+        queuedGain[slot] = gain;
+        queuedFrame[slot] = frame;
+        queueWrite.lazySet(write + 1);
+        return true;
+    }
+
+    // Number of voices playing or waiting for their start frame
+    public int getActiveVoices() {
+        int active = 0;
+        for (int sample : voiceSample) {
+            if (sample >= 0) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    // True when no voice is sounding, waiting for its start frame or queued. Audio thread only.
+    boolean isIdle() {
+        return queueRead.get() == queueWrite.get() && getActiveVoices() == 0;
+    }
+
+    // Adds this block of every voice into out, frame being the mixer position of the block start
+    void render(float[] out, int outOffset, int frames, int outputRate, long frame) {
+        drainQueue(frame);
+        PcmBuffer[] bank = samples;
+        long end = frame + frames;
+        for (int v = 0; v < voiceSample.length; v++) {
+            int index = voiceSample[v];
+            if (index < 0 || voiceStart[v] >= end) {
+                continue;
+            }
+            PcmBuffer sample = bank[index];
+            int first = (int) Math.max(0, voiceStart[v] - frame);
+            if (!renderVoice(v, sample, out, outOffset + first * LoopMixer.CHANNELS, frames - first, outputRate)) {
+                voiceSample[v] = -1;
+            }
+        }
+    }
+
+    private void drainQueue(long frame) {
+        long read = queueRead.get();
+        long write = queueWrite.get();
+        while (read < write) {
+            int slot = (int) (read % QUEUE_SIZE);
+            long start = queuedFrame[slot];
+            startVoice(queuedSample[slot], queuedGain[slot], start == NOW ? frame : Math.max(start, frame));
+            read++;
+        }
+        queueRead.lazySet(read);
+    }
+
+    private void startVoice(int sample, float gain, long start) {
+        int voice = 0;
+        for (int v = 0; v < voiceSample.length; v++) {
+            if (voiceSample[v] < 0) {
+                voice = v;
+                break;
+            }
+            // Steal the voice triggered longest ago
+            if (voiceOrder[v] < voiceOrder[voice]) {
+                voice = v;
+            }
+        }
+        voiceSample[voice] = sample;
+        voiceGain[voice] = gain;
+        voiceStart[voice] = start;
+        voicePosition[voice] = 0;
+        voiceOrder[voice] = triggerCount++;
+    }
+
+    // Returns false once the voice has played to the end of its sample
+    private boolean renderVoice(int v, PcmBuffer sample, float[] out, int offset, int frames, int outputRate) {
+        float[] src = sample.getSamples();
+        int length = sample.getFrameCount();
+        boolean mono = sample.getChannels() == 1;
+        double step = (double) sample.getSampleRate() / outputRate;
+        double pos = voicePosition[v];
+        float gain = voiceGain[v];
+        for (int i = 0, o = offset; i < frames; i++, o += 2) {
+            int i0 = (int) pos;
+            if (i0 >= length) {
+                return false;
+            }
+            int i1 = Math.min(i0 + 1, length - 1);
+            float frac = (float) (pos - i0);
+            if (mono) {
+                float value = (src[i0] + (src[i1] - src[i0]) * frac) * gain;
+                out[o] += value;
+                out[o + 1] += value;
+            } else {
+                int a = i0 << 1;
+                int b = i1 << 1;
+                out[o] += (src[a] + (src[b] - src[a]) * frac) * gain;
+                out[o + 1] += (src[a + 1] + (src[b + 1] - src[a + 1]) * frac) * gain;
+            }
+            pos += step;
+        }
+        voicePosition[v] = pos;
+        return (int) pos < length;
+    }
+}
@@ -0,0 +1,93 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Converts a stream of interleaved mono or stereo frames to stereo at another rate, one chunk at
+// a time, with four point cubic interpolation that carries across chunk boundaries. There is no
+// filter ahead of it, so it suits the usual 44.1 and 48 kHz sources rather than large downsampling
+// ratios. Allocation free once constructed, single threaded.
+public final class SampleRateConverter {
+
+    // Frames kept from the end of the previous chunk
+    private static final int HISTORY = 3;
+
+    private final int channels;
+    private final double step;
+    private final boolean passThrough;
+    private final float[] history = new float[HISTORY * 2];
+    private double position;
+
+    public SampleRateConverter(int inputRate, int outputRate, int inputChannels) {
+        if (inputRate <= 0 || outputRate <= 0 || inputChannels < 1 || inputChannels > 2) {
+            throw new IllegalArgumentException("Unsupported conversion: " + inputChannels + " channels at "
+                    + inputRate + " Hz to " + outputRate + " Hz");
+        }
+        this.channels = inputChannels;
+        this.step = (double) inputRate / outputRate;
+        this.passThrough = inputRate == outputRate;
+    }
+
+    // Most stereo frames one call to process can write for inputFrames frames in
+    public int maxOutputFrames(int inputFrames) {
+        return (int) Math.ceil(inputFrames / step) + 1;
+    }
+
+    // Forgets the previous chunk, as when starting on unrelated audio
+    public void reset() {
+        Arrays.fill(history, 0f);
+        position = 0;
+    }
+
+    // Converts inputFrames frames from input and writes stereo frames to output, which needs room
+    // for maxOutputFrames(inputFrames). The last two input frames are only used once the next chunk
+    // arrives. Returns the number of frames written.
+    public int process(float[] input, int inputFrames, float[] output) {
+        if (passThrough) {
+            if (channels == 2) {
+                System.arraycopy(input, 0, output, 0, inputFrames * 2);
+            } else {
+                for (int i = 0, o = 0; i < inputFrames; i++, o += 2) {
+                    output[o] = input[i];
+                    output[o + 1] = input[i];
+                }
+            }
+            return inputFrames;
+        }
+        int written = 0;
+        double pos = position;
+        // Interpolating between frames i and i + 1 reads i - 1 to i + 2
+        while (pos < inputFrames - 2) {
+            int i = (int) Math.floor(pos);
+            float t = (float) (pos - i);
+            for (int c = 0; c < 2; c++) {
+                output[written * 2 + c] = interpolate(sample(input, i - 1, c), sample(input, i, c),
+                        sample(input, i + 1, c), sample(input, i + 2, c), t);
+            }
+            written++;
+            pos += step;
+        }
+        // Oldest first, each read comes from at or after the slot being written
+        for (int j = 0; j < HISTORY; j++) {
+            int frame = inputFrames - HISTORY + j;
+            history[j * 2] = sample(input, frame, 0);
+            history[j * 2 + 1] = sample(input, frame, 1);
+        }
+        position = pos - inputFrames;
+        return written;
+    }
+
+    private float sample(float[] input, int frame, int channel) {
+        if (frame < 0) {
+            return history[(frame + HISTORY) * 2 + channel];
+        }
+        return channels == 1 ? input[frame] : input[frame * 2 + channel];
+    }
+
+    // Catmull-Rom spline through the four frames around t
+    private static float interpolate(float before, float from, float to, float after, float t) {
+        float slope = 0.5f * (to - before);
+        float curve = before - 2.5f * from + 2f * to - 0.5f * after;
+        float cubic = 0.5f * (after - before) + 1.5f * (from - to);
+        return ((cubic * t + curve) * t + slope) * t + from;
+    }
+}
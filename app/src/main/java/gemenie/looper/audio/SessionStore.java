@@ -0,0 +1,208 @@
+package gemenie.looper.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Compact binary snapshot of the session. Saves are encoded on the caller's thread and
+// written on the writer executor; bursts of changes collapse into a single write of the latest state.
+public class SessionStore {
+
+    public static final int MAGIC = 0x4C534553; // "LSES"
+    public static final int VERSION = 6;
+    private static final int MAX_TRACKS = 10000;
+    // Each track opens with a byte of flags for the optional fields; before version 6 only the
+    // name could be left out and the byte was written as a boolean
+    private static final int HAS_NAME = 1;
+    private static final int HAS_TEMPO = 2;
+    private static final int HAS_MATCHED_TEMPO = 4;
+
+    public static class Session {
+        public final int currentPosition;
+        public final List<Track> tracks;
+
+        public Session(int currentPosition, List<Track> tracks) {
+            this.currentPosition = currentPosition;
+            this.tracks = tracks;
+        }
+    }
+
+    private final File file;
+    private final Executor writer;
+    private final AtomicReference<byte[]> pending = new AtomicReference<>();
+
+    public SessionStore(File file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Encodes the session now and queues it to be written
+    public void save(List<Track> tracks, int currentPosition) {
+        byte[] data = encode(tracks, currentPosition);
+        if (pending.getAndSet(data) == null) {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    // Writes whatever is queued on the current thread
+    public void flush() {
+        byte[] data = pending.getAndSet(null);
+        if (data == null) {
+            return;
+        }
+        try {
+            writeAtomically(data);
+        } catch (IOException e) {
+            // Keep the newest state queued so the next save retries it
+            pending.compareAndSet(null, data);
+        }
+    }
+
+    // Returns null when there is no usable session on disk
+    public Session load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return decode(in);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static byte[] encode(List<Track> tracks, int currentPosition) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + tracks.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(currentPosition);
+            out.writeInt(tracks.size());
+            for (Track track : tracks) {
+                out.writeLong(track.getId());
+                out.writeUTF(track.getSource());
+                boolean analysed = track.getDetectedBpm() != Track.BPM_UNKNOWN;
+                boolean matched = track.getMatchedTempo() > 0;
+                out.writeByte((track.getName() != null ? HAS_NAME : 0) | (analysed ? HAS_TEMPO : 0)
+                        | (matched ? HAS_MATCHED_TEMPO : 0));
+                if (track.getName() != null) {
+                    out.writeUTF(track.getName());
+                }
+                out.writeShort(track.getVolumeProgress());
+                out.writeShort(track.getSpeedProgress());
+                out.writeBoolean(track.isMuted());
+                out.writeLong(track.getLoopStartFrame());
+                out.writeLong(track.getLoopEndFrame());
+                out.writeShort(track.getPitchProgress());
+                out.writeInt(track.getFadeInFrames());
+                out.writeInt(track.getFadeOutFrames());
+                out.writeShort(track.getLayers().size());
+                for (String layer : track.getLayers()) {
+                    out.writeUTF(layer);
+                }
+                out.writeByte(track.getPanProgress());
+                // Detected tempo in hundredths of a beat per minute
+                if (analysed) {
+                    out.writeShort(Math.round(track.getDetectedBpm() * 100));
+                }
+                if (matched) {
+                    out.writeFloat(track.getMatchedTempo());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Session decode(byte[] data) throws IOException {
+        return decode(new ByteArrayInputStream(data));
+    }
+
+    private static Session decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a session file");
+        }
+        int version = in.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported session version " + version);
+        }
+        int currentPosition = in.readInt();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_TRACKS) {
+            throw new IOException("Invalid track count " + count);
+        }
+        List<Track> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Track track = new Track(in.readLong(), in.readUTF());
+            int flags = in.readByte();
+            if ((flags & HAS_NAME) != 0) {
+                track.setName(in.readUTF());
+            }
+            track.setVolumeProgress(in.readShort());
+            track.setSpeedProgress(in.readShort());
+            track.setMuted(in.readBoolean());
+            track.setLoop(in.readLong(), in.readLong());
+            if (version >= 2) {
+                track.setPitchProgress(in.readShort());
+            }
+            if (version >= 3) {
+                track.setFades(in.readInt(), in.readInt());
+            }
+            if (version >= 4) {
+                int layers = in.readShort();
+                List<String> sources = new ArrayList<>(layers);
+                for (int l = 0; l < layers; l++) {
+                    sources.add(in.readUTF());
+                }
+                track.setLayers(sources);
+            }
+            if (version >= 5) {
+                track.setPanProgress(in.readByte());
+            }
+            if ((flags & HAS_TEMPO) != 0) {
+                track.setDetectedBpm(in.readShort() / 100f);
+            }
+            if ((flags & HAS_MATCHED_TEMPO) != 0) {
+                track.setMatchedTempo(in.readFloat());
+            }
+            // Undo starts from the restored settings
+            track.commitSettings();
+            tracks.add(track);
+        }
+        return new Session(currentPosition, tracks);
+    }
+
+    private void writeAtomically(byte[] data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+}
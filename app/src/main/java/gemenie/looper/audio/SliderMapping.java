@@ -0,0 +1,71 @@
+package gemenie.looper.audio;
+
+// Converts the per-track seek bar positions into mixer parameters
+public final class SliderMapping {
+
+    public static final int MAX_VOLUME = 100;
+    public static final int DEFAULT_VOLUME = 100;
+    public static final int SPEED_UNITY = 41;
+    public static final int MIN_SPEED_PROGRESS = 3;
+    // The top of the speed slider plays at exactly MAX_SPEED
+    public static final int MAX_SPEED_PROGRESS = 100;
+    public static final float MAX_SPEED = 2.5f;
+    // Pitch slider moves in semitones, an octave either side of the recording
+    public static final int PITCH_UNITY = 12;
+    public static final int MAX_PITCH = 24;
+    // Fade slider moves in 10 ms steps up to half a second
+    public static final int FADE_STEP_MS = 10;
+    public static final int MAX_FADE = 50;
+    // Pan slider is centred, each step moving 2% of the way to one side
+    public static final int PAN_CENTER = 50;
+    public static final int MAX_PAN = 100;
+
+    private SliderMapping() {
+    }
+
+    // Logarithmic volume curve so the slider feels even across its range
+    public static float volumeFromProgress(int progress) {
+        if (progress <= 0) {
+            return 0f;
+        }
+        if (progress >= MAX_VOLUME) {
+            return 1f;
+        }
+        return (float) (1 - (Math.log(MAX_VOLUME - progress) / Math.log(MAX_VOLUME)));
+    }
+
+    // Speed slider is linear either side of SPEED_UNITY, reaching MAX_SPEED at the top;
+    // positions below MIN_SPEED_PROGRESS are ignored
+    public static float speedFromProgress(int progress) {
+        int clamped = Math.max(MIN_SPEED_PROGRESS, Math.min(progress, MAX_SPEED_PROGRESS));
+        if (clamped <= SPEED_UNITY) {
+            return (float) clamped / SPEED_UNITY;
+        }
+        return 1f + (MAX_SPEED - 1f) * (clamped - SPEED_UNITY) / (MAX_SPEED_PROGRESS - SPEED_UNITY);
+    }
+
+    // Nearest slider position to a speed
+    public static int progressFromSpeed(float speed) {
+        int progress = speed <= 1f ? Math.round(speed * SPEED_UNITY)
+                : SPEED_UNITY + Math.round((speed - 1f) * (MAX_SPEED_PROGRESS - SPEED_UNITY) / (MAX_SPEED - 1f));
+        return Math.max(MIN_SPEED_PROGRESS, Math.min(progress, MAX_SPEED_PROGRESS));
+    }
+
+    public static float pitchFromProgress(int progress) {
+        int semitones = Math.max(0, Math.min(progress, MAX_PITCH)) - PITCH_UNITY;
+        return (float) Math.pow(2, semitones / 12.0);
+    }
+
+    public static float panFromProgress(int progress) {
+        return (float) (Math.max(0, Math.min(progress, MAX_PAN)) - PAN_CENTER) / PAN_CENTER;
+    }
+
+    public static int fadeFramesFromProgress(int progress, int sampleRate) {
+        int clamped = Math.max(0, Math.min(progress, MAX_FADE));
+        return (int) ((long) clamped * FADE_STEP_MS * sampleRate / 1000);
+    }
+
+    public static int fadeProgressFromFrames(int frames, int sampleRate) {
+        return Math.min(MAX_FADE, (int) Math.round(frames * 1000.0 / sampleRate / FADE_STEP_MS));
+    }
+}
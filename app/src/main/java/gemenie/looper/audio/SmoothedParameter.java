@@ -0,0 +1,63 @@
+package gemenie.looper.audio;
+
+// A control written by the UI and followed by the audio thread, which glides towards it a block
+// at a time so a jump on the slider becomes a short ramp instead of a click.
+final class SmoothedParameter {
+
+    // Time taken to cover about two thirds of a change
+    static final double SMOOTHING_SECONDS = 0.02;
+
+    private volatile float target;
+    // Audio thread state
+    private float current;
+    private int coefficientFrames = -1;
+    private float coefficient;
+    private final int sampleRate;
+
+    SmoothedParameter(float initial, int sampleRate) {
+        this.target = initial;
+        this.current = initial;
+        this.sampleRate = sampleRate;
+    }
+
+    float getTarget() {
+        return target;
+    }
+
+    void set(float value) {
+        target = value;
+    }
+
+    // Value reached at the end of the previous block
+    float current() {
+        return current;
+    }
+
+    boolean isSettled() {
+        return current == target;
+    }
+
+    // Moves towards the target over one block of frames and returns the value at its end
+    float advance(int frames) {
+        float goal = target;
+        if (current == goal) {
+            return current;
+        }
+        if (frames != coefficientFrames) {
+            coefficientFrames = frames;
+            coefficient = (float) (1 - Math.exp(-frames / (SMOOTHING_SECONDS * sampleRate)));
+        }
+        float next = current + (goal - current) * coefficient;
+        // Land exactly once the rest of the way is inaudible
+        if (Math.abs(goal - next) <= 1e-4f * Math.max(1f, Math.abs(goal))) {
+            next = goal;
+        }
+        current = next;
+        return next;
+    }
+
+    // Jumps straight to the target, for a fresh start
+    void snap() {
+        current = target;
+    }
+}
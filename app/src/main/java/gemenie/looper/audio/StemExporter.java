@@ -0,0 +1,285 @@
+package gemenie.looper.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Renders every track to its own WAV file for use in a DAW: gain, speed, pitch, loop trims,
+// fades and the track's effects applied, all the same length from the first frame so they line
+// up, plus a small JSON manifest. Each stem renders on its own copy of the voice, so the stems
+// are spread over a pool of threads and come out the same as rendering them one by one.
+public class StemExporter {
+
+    public static final String MANIFEST_SUFFIX = "_stems.json";
+
+    public interface Listener {
+        void onProgress(long framesDone, long framesTotal);
+
+        void onComplete(List<File> outputs);
+
+        void onError(IOException error);
+    }
+
+    // One track to export, captured when it is made so edits during the export don't reach it
+    public static final class Stem {
+        final MixerTrack track;
+        final String name;
+        final boolean muted;
+
+        public Stem(MixerTrack track, String name) {
+            this.track = track.copyForStem();
+            this.name = name;
+            this.muted = track.isMuted();
+        }
+    }
+
+    private final MixdownRenderer renderer;
+    private final ThreadPoolExecutor workers;
+    private final Executor background;
+    private final Executor callback;
+
+    public StemExporter(int sampleRate, int threads, Executor background, Executor callback) {
+        renderer = new MixdownRenderer(sampleRate);
+        this.background = background;
+        this.callback = callback;
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StemExport-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    // Every core but the one left for the audio and UI threads
+    public static int defaultThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    // Exports the stems on the background executor; cancelling the future stops every render
+    // between blocks and removes the partial files
+    public Future<?> export(final List<Stem> stems, final File dir, final String prefix, final double bpm,
+                            final Listener listener) {
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<File> outputs = render(stems, dir, prefix, bpm, new MixdownRenderer.ProgressListener() {
+                        @Override
+                        public void onProgress(final long framesDone, final long framesTotal) {
+                            callback.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onProgress(framesDone, framesTotal);
+                                }
+                            });
+                        }
+                    });
+                    callback.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onComplete(outputs);
+                        }
+                    });
+                } catch (final IOException e) {
+                    if (e instanceof InterruptedIOException) {
+                        return;
+                    }
+                    callback.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onError(e);
+                        }
+                    });
+                }
+            }
+        }, null);
+        background.execute(task);
+        return task;
+    }
+
+    // Renders the stems on the pool and writes the manifest, blocking until all are done. The
+    // stem files come first in the result and the manifest last. Progress is reported at most
+    // once per percent. Interrupting the caller, or any stem failing, stops the rest between
+    // blocks and removes every file written.
+    public List<File> render(List<Stem> stems, File dir, String prefix, double bpm,
+                             final MixdownRenderer.ProgressListener progress) throws IOException {
+        List<MixerTrack> tracks = new ArrayList<>(stems.size());
+        for (Stem stem : stems) {
+            tracks.add(stem.track);
+        }
+        final long lengthFrames = renderer.longestLoopFrames(tracks);
+        final long totalFrames = lengthFrames * stems.size();
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong reported = new AtomicLong();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final CountDownLatch finished = new CountDownLatch(stems.size());
+        final List<File> outputs = new ArrayList<>(stems.size() + 1);
+        for (int i = 0; i < stems.size(); i++) {
+            final Stem stem = stems.get(i);
+            final File output = new File(dir, fileName(prefix, i, stem.name));
+            outputs.add(output);
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!stop.get()) {
+                            renderStem(stem, output);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (!stop.getAndSet(true)) {
+                            failure.set(e);
+                        }
+                    } finally {
+                        // A stop leaves this thread interrupted, which the next stem mustn't see
+                        Thread.interrupted();
+                        finished.countDown();
+                    }
+                }
+
+                private void renderStem(Stem stem, File output) throws IOException {
+                    try (WavWriter writer = new WavWriter(output, renderer.getSampleRate(), LoopMixer.CHANNELS)) {
+                        renderer.renderStem(stem.track, lengthFrames, writer, new MixdownRenderer.ProgressListener() {
+                            long last;
+
+                            @Override
+                            public void onProgress(long framesDone, long framesTotal) {
+                                // The renderer checks for an interrupt before each block
+                                if (stop.get()) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                long all = done.addAndGet(framesDone - last);
+                                last = framesDone;
+                                long percent = all * 100 / totalFrames;
+                                long previous = reported.get();
+                                if (progress != null && percent > previous && reported.compareAndSet(previous, percent)) {
+                                    progress.onProgress(all, totalFrames);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+        boolean complete = false;
+        try {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                stop.set(true);
+                awaitUninterruptibly(finished);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Stem export cancelled");
+            }
+            Exception error = failure.get();
+            if (error != null) {
+                throw error instanceof IOException ? (IOException) error : new IOException(error);
+            }
+            File manifest = new File(dir, prefix + MANIFEST_SUFFIX);
+            writeManifest(manifest, stems, outputs, lengthFrames, bpm);
+            outputs.add(manifest);
+            complete = true;
+            return Collections.unmodifiableList(outputs);
+        } finally {
+            if (!complete) {
+                for (File output : outputs) {
+                    output.delete();
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    // Numbered so the files sort in track order, with the name reduced to characters any file
+    // system accepts
+    static String fileName(String prefix, int index, String name) {
+        String safe = name.replaceAll("[^A-Za-z0-9 ._-]", "_").trim();
+        return String.format(Locale.ROOT, "%s_%02d%s.wav", prefix, index + 1, safe.isEmpty() ? "" : "_" + safe);
+    }
+
+    private void writeManifest(File file, List<Stem> stems, List<File> outputs, long lengthFrames, double bpm)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"sampleRate\": %d,\n", renderer.getSampleRate()));
+        json.append(String.format(Locale.ROOT, "  \"channels\": %d,\n", LoopMixer.CHANNELS));
+        json.append(String.format(Locale.ROOT, "  \"frames\": %d,\n", lengthFrames));
+        json.append(String.format(Locale.ROOT, "  \"bpm\": %.2f,\n", bpm));
+        json.append("  \"stems\": [");
+        for (int i = 0; i < stems.size(); i++) {
+            MixerTrack track = stems.get(i).track;
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.ROOT,
+                    "    {\"file\": %s, \"name\": %s, \"volume\": %.4f, \"tempo\": %.4f, \"pitch\": %.4f, \"muted\": %b}",
+                    quote(outputs.get(i).getName()), quote(stems.get(i).name), track.getVolume(),
+                    track.getTempo(), track.getPitch(), stems.get(i).muted));
+        }
+        json.append("\n  ]\n}\n");
+        // Written aside and renamed into place so a manifest is never left half written
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            out.write(json.toString());
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // Keep waiting, the caller restores the interrupt
+            }
+        }
+    }
+}
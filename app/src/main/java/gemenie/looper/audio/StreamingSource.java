@@ -0,0 +1,224 @@
+package gemenie.looper.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays a long file from its decoder instead of from memory. A feeder thread pulls chunks from
+// the stream, converts them to stereo at the mixer rate and keeps a ring a couple of seconds ahead
+// of the audio thread, which only copies out of it. At the end of the file the stream is rewound,
+// so it loops like any other track. Memory use does not depend on the length of the file.
+public final class StreamingSource implements Closeable {
+
+    public static final float PREFETCH_SECONDS = 2f;
+    // Enough audio to start on without an immediate gap
+    public static final float START_SECONDS = 0.1f;
+    private static final int CHUNK_FRAMES = 2048;
+    private static final long FEEDER_IDLE_NS = 5000000L;
+
+    private final PcmStream stream;
+    private final int sampleRate;
+    private final int channels;
+    private final SampleRateConverter converter;
+    private final float[] ring;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong writeFrame = new AtomicLong();
+    private final AtomicLong readFrame = new AtomicLong();
+
+    // Feeder thread state
+    private final float[] chunk;
+    private final float[] converted;
+    private Thread feeder;
+
+    private volatile boolean running;
+    private volatile boolean closed;
+    private volatile Exception error;
+    private volatile int underruns;
+    // Audio thread state
+    private boolean flowing;
+
+    public StreamingSource(PcmStream stream, int sampleRate) {
+        this(stream, sampleRate, Math.round(PREFETCH_SECONDS * sampleRate));
+    }
+
+    public StreamingSource(PcmStream stream, int sampleRate, int prefetchFrames) {
+        this.stream = stream;
+        this.sampleRate = sampleRate;
+        this.channels = stream.getChannels();
+        this.converter = new SampleRateConverter(stream.getSampleRate(), sampleRate, channels);
+        chunk = new float[CHUNK_FRAMES * channels];
+        converted = new float[converter.maxOutputFrames(CHUNK_FRAMES) * 2];
+        // Always room for a converted chunk while the audio thread holds back some frames
+        int minCapacity = Math.max(prefetchFrames, 2 * converter.maxOutputFrames(CHUNK_FRAMES));
+        int frames = Integer.highestOneBit(minCapacity);
+        if (frames < minCapacity) {
+            frames <<= 1;
+        }
+        capacity = frames;
+        mask = frames - 1;
+        ring = new float[frames * 2];
+    }
+
+    // Mixer rate the frames are converted to
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // Stereo frames the ring holds ahead of playback
+    public int capacity() {
+        return capacity;
+    }
+
+    // Frames decoded and waiting to be played
+    public int available() {
+        return (int) (writeFrame.get() - readFrame.get());
+    }
+
+    // Memory held for the ring and chunk buffers, the same for any length of file
+    public long getSizeInBytes() {
+        return 4L * (ring.length + chunk.length + converted.length);
+    }
+
+    // Blocks the audio thread found the ring short once playback was under way
+    public int getUnderruns() {
+        return underruns;
+    }
+
+    // Why the feeder stopped, null while it is running
+    public Exception getError() {
+        return error;
+    }
+
+    // Starts decoding ahead on a thread of its own
+    public synchronized void start() {
+        if (feeder != null || closed) {
+            return;
+        }
+        running = true;
+        feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                feed();
+            }
+        }, "LooperStream");
+        feeder.setPriority(Thread.NORM_PRIORITY + 1);
+        feeder.start();
+    }
+
+    // Waits until there is enough audio to start playing on, the feeder fails, or the timeout passes
+    public void awaitStart(long timeout, TimeUnit unit) throws IOException {
+        int wanted = Math.min(capacity, Math.round(START_SECONDS * sampleRate));
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (available() < wanted && running && System.nanoTime() < deadline
+                && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(FEEDER_IDLE_NS);
+        }
+        Exception failure = error;
+        if (failure != null) {
+            throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+        }
+    }
+
+    private void feed() {
+        long passFrames = 0;
+        try {
+            while (running) {
+                if (capacity - available() < converted.length / 2) {
+                    LockSupport.parkNanos(FEEDER_IDLE_NS);
+                    continue;
+                }
+                int samples = stream.read(chunk, 0, chunk.length);
+                if (samples < 0) {
+                    if (passFrames == 0) {
+                        throw new IOException("Stream has no audio");
+                    }
+                    // Carry straight on from the start, the converter bridges the join
+                    stream.rewind();
+                    passFrames = 0;
+                    continue;
+                }
+                if (samples == 0) {
+                    // The decoder has nothing ready yet
+                    LockSupport.parkNanos(FEEDER_IDLE_NS);
+                    continue;
+                }
+                int frames = samples / channels;
+                passFrames += frames;
+                write(converter.process(chunk, frames, converted));
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            running = false;
+        }
+    }
+
+    private void write(int frames) {
+        long write = writeFrame.get();
+        int start = (int) (write & mask);
+        int first = Math.min(frames, capacity - start);
+        System.arraycopy(converted, 0, ring, start * 2, first * 2);
+        System.arraycopy(converted, first * 2, ring, 0, (frames - first) * 2);
+        writeFrame.lazySet(write + frames);
+    }
+
+    // Copies the next frames into target as stereo, filling with silence where the feeder has
+    // fallen behind. Audio thread only. Returns the number of frames that came from the file.
+    public int read(float[] target, int frames) {
+        long read = readFrame.get();
+        int count = Math.min(frames, (int) (writeFrame.get() - read));
+        int start = (int) (read & mask);
+        int first = Math.min(count, capacity - start);
+        System.arraycopy(ring, start * 2, target, 0, first * 2);
+        System.arraycopy(ring, 0, target, first * 2, (count - first) * 2);
+        readFrame.lazySet(read + count);
+        if (count < frames) {
+            Arrays.fill(target, count * 2, frames * 2, 0f);
+        }
+        countUnderrun(count < frames);
+        return count;
+    }
+
+    // Moves past frames without copying them, for a muted track keeping time. Audio thread only.
+    public int skip(int frames) {
+        long read = readFrame.get();
+        int count = Math.min(frames, (int) (writeFrame.get() - read));
+        readFrame.lazySet(read + count);
+        countUnderrun(count < frames);
+        return count;
+    }
+
+    private void countUnderrun(boolean shortBlock) {
+        if (!shortBlock) {
+            flowing = true;
+        } else if (flowing) {
+            underruns++;
+        }
+    }
+
+    // Stops the feeder and releases the decoder. Safe to call more than once.
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = false;
+            thread = feeder;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stream.close();
+    }
+}
@@ -0,0 +1,42 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Growable in-memory copy of a recording so a finished take can be looped without
+// reading the WAV file back. Only appended to from the background writer thread.
+public class TakeBuffer {
+
+    private final int channels;
+    private final int sampleRate;
+    private float[] samples;
+    private int count;
+
+    public TakeBuffer(int channels, int sampleRate, int initialFrames) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.samples = new float[Math.max(1, initialFrames) * channels];
+    }
+
+    public void append(short[] pcm, int offset, int length) {
+        ensureCapacity(count + length);
+        for (int i = 0; i < length; i++) {
+            samples[count + i] = pcm[offset + i] / 32768f;
+        }
+        count += length;
+    }
+
+    public int getFrameCount() {
+        return count / channels;
+    }
+
+    // Wraps the captured samples without copying; the take must not be appended to afterwards
+    public PcmBuffer toPcmBuffer() {
+        return new PcmBuffer(samples, count / channels, channels, sampleRate);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(required, samples.length * 2));
+        }
+    }
+}
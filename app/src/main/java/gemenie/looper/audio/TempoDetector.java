@@ -0,0 +1,289 @@
+package gemenie.looper.audio;
+
+import java.util.Arrays;
+
+// Finds the beat of a recording from its onsets. Audio is fed in blocks of any size and every
+// 10 ms hop is reduced to how sharply a low and a high band got louder, which is the onset
+// envelope. The tempo is the envelope's strongest period between MIN_BPM and MAX_BPM, leaning
+// towards PRIOR_BPM when half and double time score alike. Only the first MAX_SECONDS are kept,
+// so long files analyse in fixed memory.
+public final class TempoDetector {
+
+    public static final float MIN_BPM = 60f;
+    public static final float MAX_BPM = 200f;
+    public static final int MAX_SECONDS = 60;
+    // Correlation of the envelope with itself one beat later, relative to no shift, below which
+    // the audio has no clear beat
+    public static final float MIN_CONFIDENCE = 0.25f;
+    // Loops up to this long are assumed to hold a whole number of beats
+    public static final float MAX_LOOP_SECONDS = 60f;
+    private static final double HOP_SECONDS = 0.01;
+    private static final double PRIOR_BPM = 120;
+    private static final double PRIOR_OCTAVES = 1;
+    private static final double LOW_BAND_HZ = 200;
+    // Levels below this count as silence, so quiet noise doesn't read as onsets
+    private static final double SILENCE = 1e-8;
+    // The period is refined over up to this many beats
+    private static final int MAX_REFINE_BEATS = 16;
+    private static final float FIT_TOLERANCE = 0.02f;
+    private static final int BUFFER_CHUNK_FRAMES = 4096;
+    private static final float ONSET_FRACTION = 0.1f;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int hopFrames;
+    private final float lowCoefficient;
+    private final float[] envelope;
+    private int hops;
+    private int framesInHop;
+    private float low;
+    private float previous;
+    private double lowEnergy;
+    private double highEnergy;
+    private double lowLevel = Math.log(SILENCE);
+    private double highLevel = Math.log(SILENCE);
+    private boolean estimated;
+    private float bpm;
+    private float confidence;
+
+    public TempoDetector(int sampleRate, int channels) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Invalid format " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        hopFrames = Math.max(1, (int) Math.round(sampleRate * HOP_SECONDS));
+        lowCoefficient = (float) (1 - Math.exp(-2 * Math.PI * LOW_BAND_HZ / sampleRate));
+        envelope = new float[(int) ((long) MAX_SECONDS * sampleRate / hopFrames)];
+    }
+
+    // Tempo of a whole buffer, fitted to the loop length when that holds a near-whole number of
+    // beats; 0 when there is no clear beat
+    public static float detect(PcmBuffer buffer, long loopFrames) {
+        TempoDetector detector = new TempoDetector(buffer.getSampleRate(), buffer.getChannels());
+        float[] samples = buffer.getSamples();
+        int channels = buffer.getChannels();
+        for (int frame = 0; frame < buffer.getFrameCount() && !detector.isFull(); frame += BUFFER_CHUNK_FRAMES) {
+            int frames = Math.min(BUFFER_CHUNK_FRAMES, buffer.getFrameCount() - frame);
+            detector.process(samples, frame * channels, frames);
+        }
+        return fitToLength(detector.getBpm(), loopFrames, buffer.getSampleRate());
+    }
+
+    // Nudges a tempo so the loop holds exactly the nearest whole number of beats, when that is
+    // within 2%. Longer recordings and tempos that don't fit are returned as they are.
+    public static float fitToLength(float bpm, long frames, int sampleRate) {
+        double seconds = (double) frames / sampleRate;
+        if (bpm <= 0 || seconds <= 0 || seconds > MAX_LOOP_SECONDS) {
+            return bpm;
+        }
+        double beats = bpm * seconds / 60;
+        long whole = Math.round(beats);
+        if (whole < 1 || Math.abs(beats - whole) > beats * FIT_TOLERANCE) {
+            return bpm;
+        }
+        return (float) (whole * 60 / seconds);
+    }
+
+    // Speed that plays a track at the session tempo, taking half or double time when that is
+    // the smaller change; 1 when the track's tempo is unknown
+    public static float matchRatio(float trackBpm, double sessionBpm) {
+        if (trackBpm <= 0 || sessionBpm <= 0) {
+            return 1f;
+        }
+        double ratio = sessionBpm / trackBpm;
+        while (ratio >= Math.sqrt(2)) {
+            ratio /= 2;
+        }
+        while (ratio < Math.sqrt(0.5)) {
+            ratio *= 2;
+        }
+        return (float) ratio;
+    }
+
+    public int getHopFrames() {
+        return hopFrames;
+    }
+
+    // True once MAX_SECONDS have been analysed, after which further audio is ignored
+    public boolean isFull() {
+        return hops == envelope.length;
+    }
+
+    // Feeds interleaved samples starting at offset
+    public void process(float[] samples, int offset, int frames) {
+        for (int f = 0, i = offset; f < frames && hops < envelope.length; f++) {
+            float mono = samples[i];
+            for (int c = 1; c < channels; c++) {
+                mono += samples[i + c];
+            }
+            mono /= channels;
+            i += channels;
+            // A one-pole low pass for kicks and bass, a first difference for clicks and hats
+            low += lowCoefficient * (mono - low);
+            float high = mono - previous;
+            previous = mono;
+            lowEnergy += low * low;
+            highEnergy += high * high;
+            if (++framesInHop == hopFrames) {
+                endHop();
+            }
+        }
+        estimated = false;
+    }
+
+    private void endHop() {
+        double lowNext = Math.log(SILENCE + lowEnergy / hopFrames);
+        double highNext = Math.log(SILENCE + highEnergy / hopFrames);
+        // Only rises in level are onsets, decays are ignored
+        envelope[hops++] = (float) (Math.max(0, lowNext - lowLevel) + Math.max(0, highNext - highLevel));
+        lowLevel = lowNext;
+        highLevel = highNext;
+        lowEnergy = 0;
+        highEnergy = 0;
+        framesInHop = 0;
+    }
+
+    // Onset strength of each hop analysed so far
+    public float[] getEnvelope() {
+        return Arrays.copyOf(envelope, hops);
+    }
+
+    // Frames at which the envelope peaks well above its surroundings
+    public long[] getOnsetFrames() {
+        int window = (int) Math.round(0.1 / HOP_SECONDS);
+        float strongest = 0f;
+        for (int h = 0; h < hops; h++) {
+            strongest = Math.max(strongest, envelope[h]);
+        }
+        long[] onsets = new long[hops];
+        int count = 0;
+        for (int h = 0; h < hops; h++) {
+            float value = envelope[h];
+            int from = Math.max(0, h - window);
+            int to = Math.min(hops, h + window + 1);
+            double sum = 0;
+            boolean highest = true;
+            for (int n = from; n < to; n++) {
+                sum += envelope[n];
+                if (envelope[n] > value || (envelope[n] == value && n < h)) {
+                    highest = false;
+                }
+            }
+            // The tallest in its neighbourhood, above twice the local average and not lost in
+            // the noise next to the strongest onset
+            if (highest && value > 2 * sum / (to - from) && value >= ONSET_FRACTION * strongest) {
+                onsets[count++] = (long) h * hopFrames;
+            }
+        }
+        return Arrays.copyOf(onsets, count);
+    }
+
+    // Beats per minute of what has been fed so far, 0 when there is no clear beat
+    public float getBpm() {
+        estimate();
+        return bpm;
+    }
+
+    // How strongly the envelope repeats at the reported tempo, 0 to 1
+    public float getConfidence() {
+        estimate();
+        return confidence;
+    }
+
+    private void estimate() {
+        if (estimated) {
+            return;
+        }
+        estimated = true;
+        bpm = 0f;
+        confidence = 0f;
+        double hopSeconds = (double) hopFrames / sampleRate;
+        int minLag = Math.max(2, (int) Math.floor(60 / MAX_BPM / hopSeconds));
+        int maxLag = (int) Math.ceil(60 / MIN_BPM / hopSeconds);
+        // At least two beats at the slowest tempo considered
+        if (hops < 2 * minLag + 2) {
+            return;
+        }
+        maxLag = Math.min(maxLag, hops / 2);
+        double mean = 0;
+        for (int h = 0; h < hops; h++) {
+            mean += envelope[h];
+        }
+        mean /= hops;
+        // Smoothed over five hops so beats that fall between hops still line up
+        float[] centred = new float[hops];
+        for (int h = 0; h < hops; h++) {
+            float sum = 0f;
+            for (int k = -2; k <= 2; k++) {
+                sum += (3 - Math.abs(k)) * envelope[Math.max(0, Math.min(hops - 1, h + k))];
+            }
+            centred[h] = (float) (sum / 9 - mean);
+        }
+        double zero = correlation(centred, 0);
+        if (zero <= 0) {
+            return;
+        }
+        double[] lags = new double[maxLag + 2];
+        for (int lag = minLag - 1; lag <= maxLag + 1; lag++) {
+            lags[lag] = correlation(centred, lag);
+        }
+        int best = -1;
+        double bestScore = 0;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            if (lags[lag] <= 0 || lags[lag] < lags[lag - 1] || lags[lag] < lags[lag + 1]) {
+                continue;
+            }
+            // Periods between two lags are scored by the top of the peak, not the lag nearest it
+            double offset = vertex(lags[lag - 1], lags[lag], lags[lag + 1]);
+            double height = lags[lag] - 0.25 * (lags[lag - 1] - lags[lag + 1]) * offset;
+            double octaves = Math.log(60 / ((lag + offset) * hopSeconds) / PRIOR_BPM) / Math.log(2) / PRIOR_OCTAVES;
+            double score = height * Math.exp(-0.5 * octaves * octaves);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        if (best < 0 || lags[best] / zero < MIN_CONFIDENCE) {
+            return;
+        }
+        confidence = (float) Math.min(1, lags[best] / zero);
+        double period = best + vertex(lags[best - 1], lags[best], lags[best + 1]);
+        // A whole number of beats later the error of one hop is spread over all of them
+        int beats = Math.min(MAX_REFINE_BEATS, Math.min(best / 3, (hops / 2 - 1) / best));
+        if (beats > 1) {
+            int centre = (int) Math.round(period * beats);
+            int reach = beats / 2 + 1;
+            int peak = centre;
+            double peakValue = correlation(centred, centre);
+            for (int lag = centre - reach; lag <= centre + reach; lag++) {
+                double value = correlation(centred, lag);
+                if (value > peakValue) {
+                    peak = lag;
+                    peakValue = value;
+                }
+            }
+            period = (peak + vertex(correlation(centred, peak - 1), peakValue, correlation(centred, peak + 1))) / beats;
+        }
+        bpm = (float) (60 / (period * hopSeconds));
+    }
+
+    // Average product of the envelope with itself lag hops later
+    private double correlation(float[] centred, int lag) {
+        double sum = 0;
+        int count = hops - lag;
+        for (int h = 0; h < count; h++) {
+            sum += centred[h] * centred[h + lag];
+        }
+        return sum / count;
+    }
+
+    // Offset of the top of the parabola through three neighbouring values, within half a step
+    private static double vertex(double before, double at, double after) {
+        double curve = before - 2 * at + after;
+        if (curve >= 0) {
+            return 0;
+        }
+        return Math.max(-0.5, Math.min(0.5, 0.5 * (before - after) / curve));
+    }
+}
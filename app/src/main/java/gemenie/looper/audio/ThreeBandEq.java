@@ -0,0 +1,71 @@
+package gemenie.looper.audio;
+
+// Low shelf, mid peak and high shelf in series with fixed corner frequencies, each band set in
+// dB. Bands left at 0 dB are skipped.
+public final class ThreeBandEq implements AudioProcessor {
+
+    public static final float LOW_HZ = 250f;
+    public static final float MID_HZ = 1000f;
+    public static final float HIGH_HZ = 4000f;
+    private static final float SHELF_Q = 0.707f;
+    private static final float MID_Q = 0.7f;
+
+    private final int sampleRate;
+    private final BiquadFilter low;
+    private final BiquadFilter mid;
+    private final BiquadFilter high;
+
+    public ThreeBandEq(int sampleRate) {
+        this(sampleRate, 0f, 0f, 0f);
+    }
+
+    public ThreeBandEq(int sampleRate, float lowDb, float midDb, float highDb) {
+        this.sampleRate = sampleRate;
+        low = new BiquadFilter(sampleRate, BiquadFilter.Type.LOW_SHELF, LOW_HZ, SHELF_Q, lowDb);
+        mid = new BiquadFilter(sampleRate, BiquadFilter.Type.PEAK, MID_HZ, MID_Q, midDb);
+        high = new BiquadFilter(sampleRate, BiquadFilter.Type.HIGH_SHELF, HIGH_HZ, SHELF_Q, highDb);
+    }
+
+    public float getLowDb() {
+        return low.getGainDb();
+    }
+
+    public void setLowDb(float db) {
+        low.setGainDb(db);
+    }
+
+    public float getMidDb() {
+        return mid.getGainDb();
+    }
+
+    public void setMidDb(float db) {
+        mid.setGainDb(db);
+    }
+
+    public float getHighDb() {
+        return high.getGainDb();
+    }
+
+    public void setHighDb(float db) {
+        high.setGainDb(db);
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+        low.process(buffer, offset, frames);
+        mid.process(buffer, offset, frames);
+        high.process(buffer, offset, frames);
+    }
+
+    @Override
+    public void reset() {
+        low.reset();
+        mid.reset();
+        high.reset();
+    }
+
+    @Override
+    public AudioProcessor copy() {
+        return new ThreeBandEq(sampleRate, low.getGainDb(), mid.getGainDb(), high.getGainDb());
+    }
+}
@@ -0,0 +1,294 @@
+package gemenie.looper.audio;
+
+// WSOLA time-stretch over a looping buffer. Each grain is read from the source at the pitch rate
+// and overlap-added under a Hann window while the playhead advances at the tempo rate, so tempo and
+// pitch are independent. Grain starts are nudged to the offset that best lines up with where the
+// previous grain would have carried on, which keeps the seams free of phase jumps.
+// Parameters are picked up once per grain and every grain crossfades into the next, so slider
+// moves are ramped over one hop. Playback loops over a LoopRegion, with positions counted from
+// the region start; its fades and seam crossfade are applied as grains are read, so the source
+// stays untouched. Nothing is allocated after construction.
+public final class TimeStretcher {
+
+    public static final int GRAIN_FRAMES = 1024;
+    public static final int HOP_FRAMES = GRAIN_FRAMES / 2;
+    // How far either side of the playhead a grain may start, in source frames
+    static final int SEEK_FRAMES = 256;
+    private static final int SEEK_STRIDE = 2;
+    private static final int CORRELATION_STRIDE = 4;
+    private static final double ALIGNED = 1e-6;
+    private static final float[] WINDOW = window();
+
+    private final PcmBuffer buffer;
+    // Loop region resolved against the buffer. Grains read through the shaped path only where
+    // a frame falls before slowHead or from slowTail on.
+    private int regionStart;
+    private int length;
+    private int fadeIn;
+    private int fadeOut;
+    private int seamFrames;
+    private boolean seamBefore;
+    private int slowHead;
+    private int slowTail;
+    private final float[] grain = new float[GRAIN_FRAMES * 2];
+    private final float[] tail = new float[HOP_FRAMES * 2];
+    private final float[] ready = new float[HOP_FRAMES * 2];
+    private final float[] reference = new float[HOP_FRAMES / CORRELATION_STRIDE];
+    private int readyIndex = HOP_FRAMES;
+    private double position;
+    private double continuation;
+    private boolean primed;
+
+    public TimeStretcher(PcmBuffer buffer) {
+        this.buffer = buffer;
+        setRegion(LoopRegion.WHOLE);
+    }
+
+    // Frame currently being heard, counted from the start of the loop region
+    public double getPosition() {
+        return position;
+    }
+
+    // First source frame of the loop region
+    public int getRegionStart() {
+        return regionStart;
+    }
+
+    public int getRegionLength() {
+        return length;
+    }
+
+    // Jumps the playhead, the next block starts cleanly from there
+    public void seek(double frame) {
+        position = wrap(frame, length);
+        primed = false;
+    }
+
+    // Loops over a new region, keeping the same source frame under the playhead when it is inside
+    // and starting from the top of the region otherwise
+    public void setRegion(LoopRegion region) {
+        int frameCount = buffer.getFrameCount();
+        double source = regionStart + position;
+        regionStart = region.start(frameCount);
+        length = region.length(frameCount);
+        fadeIn = Math.min(region.getFadeInFrames(), length / 2);
+        fadeOut = Math.min(region.getFadeOutFrames(), length / 2);
+        // Crossfade the seam with whichever side of the region has more audio to borrow
+        int before = regionStart;
+        int after = frameCount - (regionStart + length);
+        int seam = (int) Math.round(LoopRegion.SEAM_SECONDS * buffer.getSampleRate());
+        seamBefore = before >= after;
+        seamFrames = Math.min(Math.min(seam, length / 2), Math.max(before, after));
+        slowHead = Math.max(fadeIn, seamBefore ? 0 : seamFrames);
+        slowTail = Math.min(length - fadeOut, seamBefore ? length - seamFrames : length);
+        if (length > 0) {
+            seek(source >= regionStart && source < regionStart + length ? source - regionStart : 0);
+        }
+    }
+
+    // Moves the playhead without producing audio, as for a muted track
+    public void skip(int frames, double tempoStep) {
+        seek(position + tempoStep * frames);
+    }
+
+    // Writes frames of stereo interleaved output. Steps are source frames per output frame.
+    public void process(float[] out, int frames, double tempoStep, double pitchStep) {
+        if (!primed) {
+            prime(pitchStep);
+        }
+        int o = 0;
+        int remaining = frames;
+        while (remaining > 0) {
+            if (readyIndex == HOP_FRAMES) {
+                nextGrain(pitchStep);
+            }
+            int count = Math.min(remaining, HOP_FRAMES - readyIndex);
+            System.arraycopy(ready, readyIndex << 1, out, o, count << 1);
+            readyIndex += count;
+            o += count << 1;
+            remaining -= count;
+            position += tempoStep * count;
+            if (position >= length) {
+                position = wrap(position, length);
+            }
+        }
+    }
+
+    // Fills the overlap with the second half of a grain ending at the playhead, so output
+    // starts at full level without a fade in
+    private void prime(double pitchStep) {
+        readInto(grain, position - HOP_FRAMES * pitchStep, pitchStep);
+        System.arraycopy(grain, HOP_FRAMES << 1, tail, 0, HOP_FRAMES << 1);
+        continuation = position;
+        readyIndex = HOP_FRAMES;
+        primed = true;
+    }
+
+    private void nextGrain(double pitchStep) {
+        double start;
+        if (Math.abs(circularDistance(position, continuation, length)) < ALIGNED) {
+            // Playing at the natural rate, the previous grain carries straight on
+            start = continuation;
+        } else {
+            start = wrap(position + bestOffset(length, pitchStep), length);
+        }
+        readInto(grain, start, pitchStep);
+        int half = HOP_FRAMES << 1;
+        for (int i = 0; i < half; i++) {
+            ready[i] = tail[i] + grain[i];
+            tail[i] = grain[half + i];
+        }
+        continuation = wrap(start + HOP_FRAMES * pitchStep, length);
+        readyIndex = 0;
+    }
+
+    // Offset from the playhead whose audio best matches the continuation of the previous grain
+    private int bestOffset(int length, double pitchStep) {
+        double stride = CORRELATION_STRIDE * pitchStep;
+        double pos = continuation;
+        for (int j = 0; j < reference.length; j++) {
+            reference[j] = mono((int) pos);
+            pos += stride;
+            if (pos >= length) {
+                pos = wrap(pos, length);
+            }
+        }
+        int seek = Math.min(SEEK_FRAMES, length / 2);
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int offset = -seek; offset <= seek; offset += SEEK_STRIDE) {
+            double score = correlation(position + offset, stride, length);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        // Refine the coarse search to the neighbouring frames
+        int coarse = best;
+        for (int offset = coarse - SEEK_STRIDE + 1; offset < coarse + SEEK_STRIDE; offset++) {
+            if (offset != coarse && Math.abs(offset) <= seek) {
+                double score = correlation(position + offset, stride, length);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = offset;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Normalised so loud passages are not favoured over a better phase match
+    private double correlation(double start, double stride, int length) {
+        double pos = wrap(start, length);
+        double sum = 0;
+        double energy = 1e-9;
+        for (int j = 0; j < reference.length; j++) {
+            float sample = mono((int) pos);
+            sum += reference[j] * sample;
+            energy += sample * sample;
+            pos += stride;
+            if (pos >= length) {
+                pos = wrap(pos, length);
+            }
+        }
+        return sum / Math.sqrt(energy);
+    }
+
+    // The search matches raw audio, the shaping only changes levels
+    private float mono(int frame) {
+        float[] src = buffer.getSamples();
+        int f = regionStart + frame;
+        return buffer.getChannels() == 1 ? src[f] : src[f << 1] + src[(f << 1) + 1];
+    }
+
+    // Reads one windowed stereo grain, interpolating between loop frames
+    private void readInto(float[] target, double start, double step) {
+        float[] src = buffer.getSamples();
+        boolean mono = buffer.getChannels() == 1;
+        double pos = wrap(start, length);
+        for (int i = 0, o = 0; i < GRAIN_FRAMES; i++, o += 2) {
+            int i0 = (int) pos;
+            int i1 = i0 + 1 == length ? 0 : i0 + 1;
+            float frac = (float) (pos - i0);
+            float w = WINDOW[i];
+            if (i0 < slowHead || i1 < slowHead || i0 >= slowTail || i1 >= slowTail) {
+                float a = shaped(i0, 0);
+                float b = shaped(i1, 0);
+                target[o] = (a + (b - a) * frac) * w;
+                a = shaped(i0, 1);
+                b = shaped(i1, 1);
+                target[o + 1] = (a + (b - a) * frac) * w;
+            } else if (mono) {
+                float a = src[regionStart + i0];
+                float value = (a + (src[regionStart + i1] - a) * frac) * w;
+                target[o] = value;
+                target[o + 1] = value;
+            } else {
+                int a = (regionStart + i0) << 1;
+                int b = (regionStart + i1) << 1;
+                target[o] = (src[a] + (src[b] - src[a]) * frac) * w;
+                target[o + 1] = (src[a + 1] + (src[b + 1] - src[a + 1]) * frac) * w;
+            }
+            pos += step;
+            if (pos >= length) {
+                pos = wrap(pos, length);
+            }
+        }
+    }
+
+    // One channel of a loop frame with the fades and the seam crossfade applied
+    private float shaped(int frame, int channel) {
+        float[] src = buffer.getSamples();
+        int channels = buffer.getChannels();
+        int c = channels == 1 ? 0 : channel;
+        float value = src[(regionStart + frame) * channels + c];
+        if (seamFrames > 0) {
+            // Before the region: its last frames blend into the audio leading up to the start.
+            // After it: its first frames blend out of the audio that follows the end.
+            int into = seamBefore ? frame - (length - seamFrames) : frame;
+            if (into >= 0 && into < seamFrames) {
+                int other = regionStart + (seamBefore ? frame - length : frame + length);
+                double angle = (into + 0.5) / seamFrames * (Math.PI / 2);
+                float rising = (float) Math.sin(angle);
+                float falling = (float) Math.cos(angle);
+                float borrowed = src[other * channels + c];
+                value = seamBefore ? value * falling + borrowed * rising : value * rising + borrowed * falling;
+            }
+        }
+        if (frame < fadeIn) {
+            value *= (frame + 0.5f) / fadeIn;
+        }
+        if (frame >= length - fadeOut) {
+            value *= (length - frame - 0.5f) / fadeOut;
+        }
+        return value;
+    }
+
+    private static double circularDistance(double a, double b, int length) {
+        double d = a - b;
+        if (d > length / 2.0) {
+            d -= length;
+        } else if (d < -length / 2.0) {
+            d += length;
+        }
+        return d;
+    }
+
+    static double wrap(double pos, int length) {
+        if (pos >= 0 && pos < length) {
+            return pos;
+        }
+        double wrapped = pos % length;
+        return wrapped < 0 ? wrapped + length : wrapped;
+    }
+
+    // Periodic Hann, with the second half mirrored so overlapping halves sum to exactly one
+    private static float[] window() {
+        float[] w = new float[GRAIN_FRAMES];
+        for (int i = 0; i < HOP_FRAMES; i++) {
+            w[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / GRAIN_FRAMES));
+            w[i + HOP_FRAMES] = 1f - w[i];
+        }
+        return w;
+    }
+}
@@ -0,0 +1,347 @@
+package gemenie.looper.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A row in the session. The track exists as soon as its source is known and gains a
+// MixerTrack once the audio has been decoded in the background.
+public class Track {
+
+    public enum State { LOADING, READY, FAILED }
+
+    // Detected tempo of a track that hasn't been analysed yet
+    public static final float BPM_UNKNOWN = -1f;
+
+    // The user-editable settings of a row at one moment, for undoing edits
+    public static final class Settings {
+        final String name;
+        final int volumeProgress;
+        final int speedProgress;
+        final float matchedTempo;
+        final int pitchProgress;
+        final int panProgress;
+        final boolean muted;
+        final LoopRegion loop;
+
+        Settings(Track track) {
+            name = track.name;
+            volumeProgress = track.volumeProgress;
+            speedProgress = track.speedProgress;
+            matchedTempo = track.matchedTempo;
+            pitchProgress = track.pitchProgress;
+            panProgress = track.panProgress;
+            muted = track.muted;
+            loop = track.loop;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Settings)) {
+                return false;
+            }
+            Settings settings = (Settings) other;
+            return (name == null ? settings.name == null : name.equals(settings.name))
+                    && volumeProgress == settings.volumeProgress && speedProgress == settings.speedProgress
+                    && matchedTempo == settings.matchedTempo
+                    && pitchProgress == settings.pitchProgress && panProgress == settings.panProgress
+                    && muted == settings.muted
+                    && loop.equals(settings.loop);
+        }
+
+        @Override
+        public int hashCode() {
+            return (((volumeProgress * 31 + speedProgress) * 31 + pitchProgress) * 31 + panProgress) * 31 + loop.hashCode();
+        }
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id;
+    private volatile String source;
+    // Sources the track played before each overdub, oldest first
+    private final ArrayList<String> layers = new ArrayList<>();
+
+    // Persisted row settings, slider positions are kept as the UI sees them
+    private String name;
+    private int volumeProgress = SliderMapping.DEFAULT_VOLUME;
+    private int speedProgress = SliderMapping.SPEED_UNITY;
+    // Exact speed set by matching the session tempo, 0 when the speed slider is in charge
+    private float matchedTempo;
+    private int pitchProgress = SliderMapping.PITCH_UNITY;
+    private int panProgress = SliderMapping.PAN_CENTER;
+    private boolean muted;
+    private LoopRegion loop = LoopRegion.WHOLE;
+    // The row's processors, kept across overdubs and reloads; pan is always first
+    private final EffectChain effects = new EffectChain();
+    private final PanProcessor pan = new PanProcessor();
+    // Settings as of the last recorded edit
+    private Settings committed;
+
+    private volatile State state = State.LOADING;
+    private volatile MixerTrack mixerTrack;
+    private volatile PeakPyramid peaks;
+    private volatile float detectedBpm = BPM_UNKNOWN;
+    private volatile boolean removed;
+
+    public Track(String source) {
+        this(NEXT_ID.getAndIncrement(), source);
+    }
+
+    public Track(long id, String source) {
+        this.id = id;
+        this.source = source;
+        this.committed = new Settings(this);
+        effects.add(pan);
+        // Keep generated ids ahead of any restored ones
+        long next;
+        while ((next = NEXT_ID.get()) <= id) {
+            NEXT_ID.compareAndSet(next, id + 1);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // Uri string or file path the audio was loaded from, which moves to a new file on overdub
+    public String getSource() {
+        return source;
+    }
+
+    // Moves the track onto an overdubbed version of its audio, keeping the old one to undo to
+    public void pushLayer(String overdubbed) {
+        layers.add(source);
+        source = overdubbed;
+    }
+
+    // Goes back to the audio before the last overdub and returns the source that was dropped,
+    // null when there is nothing to undo
+    public String popLayer() {
+        if (layers.isEmpty()) {
+            return null;
+        }
+        String dropped = source;
+        source = layers.remove(layers.size() - 1);
+        return dropped;
+    }
+
+    // Forgets the oldest versions beyond max and returns them so their files can be removed
+    public List<String> trimLayers(int max) {
+        List<String> forgotten = new ArrayList<>();
+        while (layers.size() > max) {
+            forgotten.add(layers.remove(0));
+        }
+        return forgotten;
+    }
+
+    public List<String> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public void setLayers(List<String> sources) {
+        layers.clear();
+        layers.addAll(sources);
+    }
+
+    // Custom name, null to label the row by its position
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getVolumeProgress() {
+        return volumeProgress;
+    }
+
+    public void setVolumeProgress(int volumeProgress) {
+        this.volumeProgress = volumeProgress;
+    }
+
+    public int getSpeedProgress() {
+        return speedProgress;
+    }
+
+    // Moving the slider anywhere else gives up a matched tempo
+    public void setSpeedProgress(int speedProgress) {
+        if (speedProgress != this.speedProgress) {
+            matchedTempo = 0f;
+        }
+        this.speedProgress = speedProgress;
+    }
+
+    public float getMatchedTempo() {
+        return matchedTempo;
+    }
+
+    public void setMatchedTempo(float matchedTempo) {
+        this.matchedTempo = matchedTempo;
+    }
+
+    // Playback speed handed to the mixer, from the slider unless the tempo was matched
+    public float getTempo() {
+        return matchedTempo > 0 ? matchedTempo : SliderMapping.speedFromProgress(speedProgress);
+    }
+
+    // Sets the speed that brings the detected tempo to the session's, with the slider on the
+    // nearest step. False when the track has no known tempo.
+    public boolean matchTempo(double sessionBpm) {
+        if (detectedBpm <= 0) {
+            return false;
+        }
+        matchedTempo = TempoDetector.matchRatio(detectedBpm, sessionBpm);
+        speedProgress = SliderMapping.progressFromSpeed(matchedTempo);
+        return true;
+    }
+
+    public int getPitchProgress() {
+        return pitchProgress;
+    }
+
+    public void setPitchProgress(int pitchProgress) {
+        this.pitchProgress = pitchProgress;
+    }
+
+    public int getPanProgress() {
+        return panProgress;
+    }
+
+    public void setPanProgress(int panProgress) {
+        this.panProgress = panProgress;
+        pan.setPan(SliderMapping.panFromProgress(panProgress));
+    }
+
+    public EffectChain getEffects() {
+        return effects;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    public long getLoopStartFrame() {
+        return loop.getStartFrame();
+    }
+
+    // Loop end of 0 plays to the end of the audio
+    public long getLoopEndFrame() {
+        return loop.getEndFrame();
+    }
+
+    public int getFadeInFrames() {
+        return loop.getFadeInFrames();
+    }
+
+    public int getFadeOutFrames() {
+        return loop.getFadeOutFrames();
+    }
+
+    // Loop markers and fades in source frames, as handed to the mixer
+    public LoopRegion getLoop() {
+        return loop;
+    }
+
+    public void setLoop(long startFrame, long endFrame) {
+        loop = new LoopRegion(startFrame, endFrame, loop.getFadeInFrames(), loop.getFadeOutFrames());
+    }
+
+    public void setFades(int fadeInFrames, int fadeOutFrames) {
+        loop = new LoopRegion(loop.getStartFrame(), loop.getEndFrame(), fadeInFrames, fadeOutFrames);
+    }
+
+    public Settings getSettings() {
+        return new Settings(this);
+    }
+
+    // Puts back earlier settings; the caller pushes them on to the mixer voice
+    public void setSettings(Settings settings) {
+        name = settings.name;
+        volumeProgress = settings.volumeProgress;
+        speedProgress = settings.speedProgress;
+        matchedTempo = settings.matchedTempo;
+        pitchProgress = settings.pitchProgress;
+        setPanProgress(settings.panProgress);
+        muted = settings.muted;
+        loop = settings.loop;
+        committed = settings;
+    }
+
+    // Marks the current settings as the point the next edit is undone to and returns the
+    // previous point, which starts out as the defaults
+    public Settings commitSettings() {
+        Settings previous = committed;
+        committed = getSettings();
+        return previous;
+    }
+
+    // Pushes the saved settings onto the mixer voice
+    public void applySettings(MixerTrack target) {
+        target.setVolume(SliderMapping.volumeFromProgress(volumeProgress));
+        target.setTempo(getTempo());
+        target.setPitch(SliderMapping.pitchFromProgress(pitchProgress));
+        target.setMuted(muted);
+        target.setLoop(loop);
+        target.setEffects(effects);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public MixerTrack getMixerTrack() {
+        return mixerTrack;
+    }
+
+    public void setReady(MixerTrack mixerTrack) {
+        this.mixerTrack = mixerTrack;
+        this.state = State.READY;
+    }
+
+    // Waveform overview, null until it has been built or read back
+    public PeakPyramid getPeaks() {
+        return peaks;
+    }
+
+    public void setPeaks(PeakPyramid peaks) {
+        this.peaks = peaks;
+    }
+
+    // Tempo found by analysing the audio: BPM_UNKNOWN until then, 0 when it has no clear beat
+    public float getDetectedBpm() {
+        return detectedBpm;
+    }
+
+    public void setDetectedBpm(float detectedBpm) {
+        this.detectedBpm = detectedBpm;
+    }
+
+    public void setFailed() {
+        this.state = State.FAILED;
+    }
+
+    // Set when the row is deleted so late loads are dropped
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public void markRemoved() {
+        removed = true;
+    }
+
+    // Cleared when a deleted row is brought back by undo
+    public void markRestored() {
+        removed = false;
+    }
+}
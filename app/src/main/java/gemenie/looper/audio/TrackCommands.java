@@ -0,0 +1,226 @@
+package gemenie.looper.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The undoable edits to a session's rows. Deleted rows keep their decoded audio and mixer voice
+// so undo brings them straight back, and overdubs keep only the chunks of audio they changed.
+// Files are deleted once no step in the history can bring them back.
+public final class TrackCommands {
+
+    // What the commands need from the app beyond the list and the mixer
+    public interface Host {
+        // Starts decoding a row that came back before its audio had loaded
+        void reload(Track track);
+
+        // Stops a pending decode of a row that is going away
+        void cancelLoad(Track track);
+
+        // Plays new audio on a ready track in place of its current voice
+        void attach(Track track, PcmBuffer buffer);
+
+        // A file only the history referred to is no longer needed
+        void deleteSource(String source);
+    }
+
+    private TrackCommands() {
+    }
+
+    // A row that has just been recorded or imported, undone by taking it out again
+    public static UndoHistory.Command added(TrackList list, LoopMixer mixer, Host host, Track track) {
+        return new Membership(list, mixer, host, track, list.indexOf(track), true);
+    }
+
+    // Deletes the row at position when performed
+    public static UndoHistory.Command remove(TrackList list, LoopMixer mixer, Host host, int position) {
+        return new Membership(list, mixer, host, list.get(position), position, false);
+    }
+
+    // A row that has already been dragged from one position to another
+    public static UndoHistory.Command moved(final TrackList list, final int from, final int to) {
+        return new UndoHistory.Command() {
+            @Override
+            public void undo() {
+                list.move(to, from);
+            }
+
+            @Override
+            public void redo() {
+                list.move(from, to);
+            }
+        };
+    }
+
+    // A settings change that has already been made, going from before to after
+    public static UndoHistory.Command edited(final TrackList list, final Track track,
+                                             final Track.Settings before, final Track.Settings after) {
+        return new UndoHistory.Command() {
+            @Override
+            public void undo() {
+                apply(before);
+            }
+
+            @Override
+            public void redo() {
+                apply(after);
+            }
+
+            private void apply(Track.Settings settings) {
+                track.setSettings(settings);
+                MixerTrack voice = track.getMixerTrack();
+                if (voice != null) {
+                    track.applySettings(voice);
+                }
+                list.changed(track, TrackList.Change.SETTINGS);
+            }
+        };
+    }
+
+    // An overdub that has already moved the track onto overdubbedSource. before rebuilds the
+    // earlier audio from the overdubbed version and after the reverse.
+    public static UndoHistory.Command overdubbed(Host host, Track track, String overdubbedSource,
+                                                 AudioDelta before, AudioDelta after) {
+        return new Overdub(host, track, overdubbedSource, before, after);
+    }
+
+    private static final class Membership extends UndoHistory.Command {
+        private final TrackList list;
+        private final LoopMixer mixer;
+        private final Host host;
+        private final Track track;
+        private final int position;
+        private final boolean addition;
+        private boolean present;
+
+        Membership(TrackList list, LoopMixer mixer, Host host, Track track, int position, boolean addition) {
+            this.list = list;
+            this.mixer = mixer;
+            this.host = host;
+            this.track = track;
+            this.position = position;
+            this.addition = addition;
+            this.present = addition;
+        }
+
+        @Override
+        public void undo() {
+            if (addition) {
+                takeOut();
+            } else {
+                putBack();
+            }
+        }
+
+        @Override
+        public void redo() {
+            if (addition) {
+                putBack();
+            } else {
+                takeOut();
+            }
+        }
+
+        private void takeOut() {
+            host.cancelLoad(track);
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null) {
+                mixer.removeTrack(voice);
+            }
+            list.remove(list.indexOf(track));
+            present = false;
+        }
+
+        private void putBack() {
+            track.markRestored();
+            list.add(Math.min(position, list.size()), track);
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null) {
+                mixer.addTrack(voice);
+            } else {
+                host.reload(track);
+            }
+            present = true;
+        }
+
+        @Override
+        public long retainedBytes() {
+            MixerTrack voice = track.getMixerTrack();
+            return present || voice == null ? 0 : voice.getBuffer().getSizeInBytes();
+        }
+
+        @Override
+        protected void discard(boolean undone) {
+            // The row is gone for good once a delete can no longer be undone or an add redone
+            if (addition == undone) {
+                MixerTrack voice = track.getMixerTrack();
+                if (voice != null) {
+                    voice.release();
+                }
+                List<String> sources = new ArrayList<>(track.getLayers());
+                sources.add(track.getSource());
+                for (String source : sources) {
+                    host.deleteSource(source);
+                }
+            }
+        }
+    }
+
+    private static final class Overdub extends UndoHistory.Command {
+        private final Host host;
+        private final Track track;
+        private final String overdubbedSource;
+        private final String previousSource;
+        private final AudioDelta before;
+        private final AudioDelta after;
+
+        Overdub(Host host, Track track, String overdubbedSource, AudioDelta before, AudioDelta after) {
+            this.host = host;
+            this.track = track;
+            this.overdubbedSource = overdubbedSource;
+            List<String> layers = track.getLayers();
+            this.previousSource = layers.isEmpty() ? null : layers.get(layers.size() - 1);
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void undo() {
+            track.popLayer();
+            swap(before);
+        }
+
+        @Override
+        public void redo() {
+            track.pushLayer(overdubbedSource);
+            swap(after);
+        }
+
+        private void swap(AudioDelta delta) {
+            MixerTrack voice = track.getMixerTrack();
+            if (voice != null) {
+                host.attach(track, delta.applyTo(voice.getBuffer()));
+            }
+        }
+
+        @Override
+        public long retainedBytes() {
+            return before.getSizeInBytes() + after.getSizeInBytes();
+        }
+
+        @Override
+        protected void discard(boolean undone) {
+            if (undone) {
+                // Never coming back to the overdubbed version
+                host.deleteSource(overdubbedSource);
+                return;
+            }
+            // Never going back to the version before it, which is the oldest one left
+            List<String> layers = track.getLayers();
+            if (!layers.isEmpty() && layers.get(0).equals(previousSource)) {
+                for (String forgotten : track.trimLayers(layers.size() - 1)) {
+                    host.deleteSource(forgotten);
+                }
+            }
+        }
+    }
+}
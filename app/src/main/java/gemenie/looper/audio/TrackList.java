@@ -0,0 +1,152 @@
+package gemenie.looper.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+// The session's rows in display order. Every edit reports exactly which positions moved or
+// changed, and what about them changed, so the list view only rebinds what it has to.
+// Main thread only.
+public class TrackList implements Iterable<Track> {
+
+    // What part of a row needs redrawing
+    public enum Change {
+        // Default names follow the row position
+        LABEL,
+        // Loading finished or failed
+        STATE,
+        // The waveform overview is ready
+        PEAKS,
+        // Sliders and loop markers were set back by undo or redo
+        SETTINGS,
+        // The track's tempo has been detected
+        TEMPO
+    }
+
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int from, int to);
+
+        void onChanged(int position, int count, Change change);
+    }
+
+    private final ArrayList<Track> tracks = new ArrayList<>();
+    private final List<Track> view = Collections.unmodifiableList(tracks);
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    public boolean isEmpty() {
+        return tracks.isEmpty();
+    }
+
+    public Track get(int position) {
+        return tracks.get(position);
+    }
+
+    public int indexOf(Track track) {
+        return tracks.indexOf(track);
+    }
+
+    // Position of the track with the given id, -1 if it is not in the list
+    public int indexOfId(long id) {
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Read-only view for code that takes a plain list, such as the session store
+    public List<Track> asList() {
+        return view;
+    }
+
+    @Override
+    public Iterator<Track> iterator() {
+        return view.iterator();
+    }
+
+    public void add(Track track) {
+        add(tracks.size(), track);
+    }
+
+    // Inserts a row; the rows after it only need their default labels renumbered
+    public void add(int position, Track track) {
+        tracks.add(position, track);
+        if (listener != null) {
+            listener.onInserted(position, 1);
+            notifyLabels(position + 1);
+        }
+    }
+
+    public void addAll(List<Track> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        int position = tracks.size();
+        tracks.addAll(added);
+        if (listener != null) {
+            listener.onInserted(position, added.size());
+        }
+    }
+
+    // Removes a row; the rows after it only need their default labels renumbered
+    public Track remove(int position) {
+        Track track = tracks.remove(position);
+        if (listener != null) {
+            listener.onRemoved(position, 1);
+            notifyLabels(position);
+        }
+        return track;
+    }
+
+    // Moves a row, renumbering the default labels of the rows it passed
+    public void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        tracks.add(to, tracks.remove(from));
+        if (listener != null) {
+            listener.onMoved(from, to);
+            notifyLabels(Math.min(from, to), Math.max(from, to) + 1);
+        }
+    }
+
+    // Reports a change to one track, ignored when the track has already been removed
+    public void changed(Track track, Change change) {
+        int position = tracks.indexOf(track);
+        if (position >= 0 && listener != null) {
+            listener.onChanged(position, 1, change);
+        }
+    }
+
+    // Unnamed rows from position on, grouped into runs
+    private void notifyLabels(int position) {
+        notifyLabels(position, tracks.size());
+    }
+
+    private void notifyLabels(int from, int to) {
+        int start = -1;
+        for (int i = from; i <= to; i++) {
+            boolean unnamed = i < to && tracks.get(i).getName() == null;
+            if (unnamed && start < 0) {
+                start = i;
+            } else if (!unnamed && start >= 0) {
+                listener.onChanged(start, i - start, Change.LABEL);
+                start = -1;
+            }
+        }
+    }
+}
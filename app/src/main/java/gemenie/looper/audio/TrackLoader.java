@@ -0,0 +1,185 @@
+package gemenie.looper.audio;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decodes tracks on a small fixed pool and publishes each one on the callback executor
+// (the main thread in the app) as soon as it is ready. Sources the streamer takes are started
+// streaming instead of being decoded. Loads can be cancelled per track.
+public class TrackLoader {
+
+    public interface Decoder {
+        PcmBuffer decode(String source) throws IOException;
+    }
+
+    // Decides which sources are too long to decode up front
+    public interface Streamer {
+        // An unstarted stream of the source, or null to decode it into memory as usual
+        StreamingSource open(String source) throws IOException;
+    }
+
+    public interface Listener {
+        void onTrackLoaded(Track track, PcmBuffer buffer);
+
+        // The stream is running and has enough audio to start on
+        void onTrackStreamed(Track track, StreamingSource stream);
+
+        void onTrackFailed(Track track, Exception error);
+    }
+
+    // Longest a stream is given to fill before it is handed over regardless
+    private static final long STREAM_START_TIMEOUT_MS = 500;
+
+    private final Decoder decoder;
+    private final Streamer streamer;
+    private final Executor callbackExecutor;
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, Future<?>> pending = new ConcurrentHashMap<>();
+    private final TimingHistogram decodeTimes = new TimingHistogram();
+
+    public TrackLoader(Decoder decoder, int threads, Executor callbackExecutor) {
+        this(decoder, null, threads, callbackExecutor);
+    }
+
+    public TrackLoader(Decoder decoder, Streamer streamer, int threads, Executor callbackExecutor) {
+        this.decoder = decoder;
+        this.streamer = streamer;
+        this.callbackExecutor = callbackExecutor;
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TrackLoader-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Default pool size leaves a core free for the audio and UI threads
+    public static int defaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public void load(final Track track, final Listener listener) {
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StreamingSource stream = streamer != null ? streamer.open(track.getSource()) : null;
+                    if (stream != null) {
+                        startStream(track, stream, listener);
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    final PcmBuffer buffer = decoder.decode(track.getSource());
+                    decodeTimes.record(System.nanoTime() - start);
+                    publish(track, new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onTrackLoaded(track, buffer);
+                        }
+                    }, null);
+                } catch (final IOException | RuntimeException e) {
+                    publish(track, new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onTrackFailed(track, e);
+                        }
+                    }, null);
+                }
+            }
+        }, null);
+        // Registered before it can run so a fast load always finds its own entry
+        pending.put(track.getId(), task);
+        executor.execute(task);
+    }
+
+    // Lets a stream fill for a moment so it starts without a gap, then hands it over
+    private void startStream(final Track track, final StreamingSource stream, final Listener listener)
+            throws IOException {
+        try {
+            stream.start();
+            stream.awaitStart(STREAM_START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        publish(track, new Runnable() {
+            @Override
+            public void run() {
+                listener.onTrackStreamed(track, stream);
+            }
+        }, stream);
+    }
+
+    // Stops a queued or running load; the listener is never called for a cancelled track
+    public boolean cancel(Track track) {
+        track.markRemoved();
+        Future<?> future = pending.remove(track.getId());
+        return future != null && future.cancel(true);
+    }
+
+    public boolean isLoading(Track track) {
+        return pending.containsKey(track.getId());
+    }
+
+    // Wall time of each successful decode, cache hits included
+    public TimingHistogram getDecodeTimes() {
+        return decodeTimes;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void shutdown() {
+        for (Future<?> future : pending.values()) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    // unclaimed is closed if the track goes away before the callback can take it
+    private void publish(final Track track, final Runnable callback, final StreamingSource unclaimed) {
+        if (Thread.currentThread().isInterrupted() || track.isRemoved()) {
+            pending.remove(track.getId());
+            closeQuietly(unclaimed);
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.remove(track.getId());
+                // Deleting a row on the callback thread wins over a load that finished just before
+                if (!track.isRemoved()) {
+                    callback.run();
+                } else {
+                    closeQuietly(unclaimed);
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(StreamingSource stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Never played, nothing to lose
+            }
+        }
+    }
+}
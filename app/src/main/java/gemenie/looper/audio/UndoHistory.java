@@ -0,0 +1,151 @@
+package gemenie.looper.audio;
+
+import java.util.ArrayDeque;
+
+// Undo and redo stacks of session edits. Each command knows how to apply and revert itself,
+// and reports how much audio only the history is keeping alive, so the history can stay within
+// both a step count and a memory budget by forgetting its oldest steps. One step is always
+// kept so the last action can be undone, whatever it holds. Main thread only.
+public class UndoHistory {
+
+    public abstract static class Command {
+
+        public abstract void undo();
+
+        public abstract void redo();
+
+        // Audio the command holds that is no longer playing anywhere, in its current state
+        public long retainedBytes() {
+            return 0;
+        }
+
+        // Called once the command leaves the history, undone being true when it was dropped
+        // from the redo side. Files that only the command still needed can go.
+        protected void discard(boolean undone) {
+        }
+    }
+
+    public interface Listener {
+        void onHistoryChanged();
+    }
+
+    private final ArrayDeque<Command> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Command> redoStack = new ArrayDeque<>();
+    private final int maxSteps;
+    private final long maxBytes;
+    private long retainedBytes;
+    private Listener listener;
+
+    public UndoHistory(int maxSteps, long maxBytes) {
+        if (maxSteps < 1 || maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid limits: " + maxSteps + " steps, " + maxBytes + " bytes");
+        }
+        this.maxSteps = maxSteps;
+        this.maxBytes = maxBytes;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Applies a command and records it
+    public void perform(Command command) {
+        command.redo();
+        push(command);
+    }
+
+    // Records a command whose change has already been made. Anything that could be redone is lost.
+    public void push(Command command) {
+        while (!redoStack.isEmpty()) {
+            redoStack.pop().discard(true);
+        }
+        undoStack.push(command);
+        changed();
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public boolean undo() {
+        if (undoStack.isEmpty()) {
+            return false;
+        }
+        Command command = undoStack.pop();
+        command.undo();
+        redoStack.push(command);
+        changed();
+        return true;
+    }
+
+    public boolean redo() {
+        if (redoStack.isEmpty()) {
+            return false;
+        }
+        Command command = redoStack.pop();
+        command.redo();
+        undoStack.push(command);
+        changed();
+        return true;
+    }
+
+    // Forgets every step, keeping the session as it is now
+    public void clear() {
+        while (!redoStack.isEmpty()) {
+            redoStack.pop().discard(true);
+        }
+        while (!undoStack.isEmpty()) {
+            undoStack.removeLast().discard(false);
+        }
+        changed();
+    }
+
+    public int getUndoCount() {
+        return undoStack.size();
+    }
+
+    public int getRedoCount() {
+        return redoStack.size();
+    }
+
+    // Audio kept alive only by the history, never more than the budget unless a single step needs it
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Drops the oldest undo steps, then the furthest redo steps, until both limits hold
+    private void changed() {
+        retainedBytes = measure();
+        while (undoStack.size() + redoStack.size() > 1
+                && (undoStack.size() + redoStack.size() > maxSteps || retainedBytes > maxBytes)) {
+            if (!undoStack.isEmpty()) {
+                undoStack.removeLast().discard(false);
+            } else {
+                redoStack.removeLast().discard(true);
+            }
+            retainedBytes = measure();
+        }
+        if (listener != null) {
+            listener.onHistoryChanged();
+        }
+    }
+
+    private long measure() {
+        long total = 0;
+        for (Command command : undoStack) {
+            total += command.retainedBytes();
+        }
+        for (Command command : redoStack) {
+            total += command.retainedBytes();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,122 @@
+package gemenie.looper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Streams 16-bit PCM to a RIFF/WAVE file. The header is written up front with empty
+// sizes and patched on close, so audio can be appended while it is still being captured.
+public class WavWriter implements AudioSink {
+
+    public static final int HEADER_SIZE = 44;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final int sampleRate;
+    private final int channels;
+    private long dataBytes;
+    private boolean closed;
+
+    public WavWriter(File output, int sampleRate, int channels) throws IOException {
+        if (channels < 1 || sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid WAV format: " + sampleRate + "Hz/" + channels + "ch");
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        file = new RandomAccessFile(output, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        writeHeader(0);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getFramesWritten() {
+        return dataBytes / (2L * channels);
+    }
+
+    public void write(short[] samples, int offset, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (buffer.remaining() < 2) {
+                flushBuffer();
+            }
+            buffer.putShort(samples[offset + i]);
+        }
+        dataBytes += 2L * length;
+    }
+
+    // Clamps and converts float samples to 16-bit
+    @Override
+    public void write(float[] samples, int offset, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (buffer.remaining() < 2) {
+                flushBuffer();
+            }
+            buffer.putShort(toPcm16(samples[offset + i]));
+        }
+        dataBytes += 2L * length;
+    }
+
+    public static short toPcm16(float sample) {
+        float clamped = sample > 1f ? 1f : (sample < -1f ? -1f : sample);
+        return (short) Math.round(clamped * 32767f);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBuffer();
+            writeHeader(dataBytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader(long dataSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int byteRate = sampleRate * channels * 2;
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, 36 + dataSize));
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '});
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(byteRate);
+        header.putShort((short) (channels * 2));
+        header.putShort((short) 16);
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, dataSize));
+        header.flip();
+        long position = channel.position();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.position(Math.max(position, HEADER_SIZE));
+    }
+}
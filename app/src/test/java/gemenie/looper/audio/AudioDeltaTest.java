@@ -0,0 +1,64 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioDeltaTest {
+
+    private static final int RATE = 44100;
+
+    private static PcmBuffer noise(int frames, int channels, long seed) {
+        java.util.Random random = new java.util.Random(seed);
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextFloat() * 2 - 1;
+        }
+        return new PcmBuffer(samples, channels, RATE);
+    }
+
+    @Test
+    public void shortOverdubKeepsOnlyTheChunksItTouched() throws java.io.IOException {
+        // Three minutes of stereo with a two second take in the middle
+        PcmBuffer base = noise(RATE * 180, 2, 1);
+        PcmBuffer take = noise(RATE * 2, 1, 2);
+        PcmBuffer mixed = OverdubMixer.sum(base, LoopRegion.WHOLE, take, RATE * 90, 0.5f, null);
+
+        AudioDelta before = AudioDelta.between(base, mixed);
+        AudioDelta after = AudioDelta.between(mixed, base);
+        // Two seconds spans at most seven 16k chunks at 44.1 kHz
+        assertTrue(before.getChunkCount() <= 7);
+        assertEquals(before.getChunkCount(), after.getChunkCount());
+        assertTrue(before.getSizeInBytes() * 20 < base.getSizeInBytes());
+
+        assertArrayEquals(base.getSamples(), before.applyTo(mixed).getSamples(), 0f);
+        assertArrayEquals(mixed.getSamples(), after.applyTo(base).getSamples(), 0f);
+    }
+
+    @Test
+    public void identicalAudioCostsNothing() {
+        PcmBuffer base = noise(50000, 1, 3);
+        AudioDelta delta = AudioDelta.between(base, base);
+        assertEquals(0, delta.getChunkCount());
+        assertEquals(0, delta.getSizeInBytes());
+        PcmBuffer rebuilt = delta.applyTo(base);
+        assertArrayEquals(base.getSamples(), rebuilt.getSamples(), 0f);
+        assertEquals(base.getSampleRate(), rebuilt.getSampleRate());
+    }
+
+    @Test
+    public void lengthChangesAreCarried() {
+        PcmBuffer longer = noise(AudioDelta.CHUNK_FRAMES * 3 + 100, 2, 4);
+        float[] cut = java.util.Arrays.copyOf(longer.getSamples(), AudioDelta.CHUNK_FRAMES * 2 * 2);
+        PcmBuffer shorter = new PcmBuffer(cut, 2, RATE);
+        AudioDelta grow = AudioDelta.between(longer, shorter);
+        // The two shared chunks are not stored, the tail is
+        assertEquals(2, grow.getChunkCount());
+        assertArrayEquals(longer.getSamples(), grow.applyTo(shorter).getSamples(), 0f);
+        AudioDelta shrink = AudioDelta.between(shorter, longer);
+        assertEquals(0, shrink.getChunkCount());
+        assertEquals(AudioDelta.CHUNK_FRAMES * 2, shrink.applyTo(longer).getFrameCount());
+    }
+}
@@ -0,0 +1,184 @@
+package gemenie.looper.audio;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AudioExporterTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File randomFile(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static class RecordingListener implements AudioExporter.Listener {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Long> progress = new ArrayList<>();
+        List<File> outputs;
+        IOException error;
+
+        @Override
+        public synchronized void onProgress(long bytesDone, long bytesTotal) {
+            progress.add(bytesDone);
+            assertTrue(bytesDone <= bytesTotal);
+        }
+
+        @Override
+        public void onComplete(List<File> outputs) {
+            this.outputs = outputs;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(IOException error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void copiesBytesExactly() throws IOException {
+        File src = randomFile("take.wav", 123457);
+        File dst = new File(folder.getRoot(), "export.wav");
+        assertEquals(123457, AudioExporter.copy(src, dst));
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void sourcesWithoutASizeAreReadToTheEnd() throws Exception {
+        // A named pipe reports a size of 0 like the pipes some content URIs hand over
+        final File pipe = new File(folder.getRoot(), "pipe");
+        Process mkfifo;
+        try {
+            mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+        } catch (IOException e) {
+            mkfifo = null;
+        }
+        Assume.assumeTrue(mkfifo != null && mkfifo.waitFor() == 0);
+        final File src = randomFile("take.wav", 300001);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (OutputStream out = new FileOutputStream(pipe)) {
+                    Files.copy(src.toPath(), out);
+                } catch (IOException e) {
+                    // The copy below fails on its own
+                }
+            }
+        });
+        writer.start();
+        File dst = new File(folder.getRoot(), "export.wav");
+        assertEquals(300001, AudioExporter.copy(pipe, dst));
+        writer.join();
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void emptySourceFailsAndLeavesNothing() throws IOException {
+        File src = folder.newFile("empty.wav");
+        File dst = new File(folder.getRoot(), "export.wav");
+        try {
+            AudioExporter.copy(src, dst);
+            fail("an empty export should not succeed");
+        } catch (IOException expected) {
+            // Reported instead of an empty file
+        }
+        assertFalse(dst.exists());
+    }
+
+    @Test
+    public void batchExportReportsProgressAndOutputs() throws Exception {
+        File a = randomFile("a.wav", 5 * 1024 * 1024);
+        File b = randomFile("b.wav", 1000);
+        File outA = new File(folder.getRoot(), "out_a.wav");
+        File outB = new File(folder.getRoot(), "out_b.wav");
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        RecordingListener listener = new RecordingListener();
+        new AudioExporter(background, DIRECT).export(Arrays.asList(
+                new AudioExporter.Job(a, outA), new AudioExporter.Job(b, outB)), listener);
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        background.shutdown();
+
+        assertEquals(Arrays.asList(outA, outB), listener.outputs);
+        assertEquals(3, listener.progress.size());
+        assertEquals(5 * 1024 * 1024 + 1000, (long) listener.progress.get(2));
+        assertArrayEquals(Files.readAllBytes(b.toPath()), Files.readAllBytes(outB.toPath()));
+    }
+
+    @Test
+    public void cancellingMidTransferIsNotAnError() throws Exception {
+        File src = randomFile("long.wav", 12 * 1024 * 1024);
+        final File dst = new File(folder.getRoot(), "out.wav");
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final Future<?>[] export = new Future<?>[1];
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public synchronized void onProgress(long bytesDone, long bytesTotal) {
+                super.onProgress(bytesDone, bytesTotal);
+                // Cancelled from the export thread itself, so the next transfer starts interrupted
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                export[0].cancel(true);
+            }
+        };
+        export[0] = new AudioExporter(background, DIRECT).export(
+                Arrays.asList(new AudioExporter.Job(src, dst)), listener);
+        started.countDown();
+        background.shutdown();
+        assertTrue(background.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(export[0].isCancelled());
+        assertEquals(1, listener.progress.size());
+        assertEquals(1, listener.done.getCount());
+        assertTrue(listener.error == null);
+        assertFalse(dst.exists());
+    }
+
+    @Test
+    public void missingSourceIsReported() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        new AudioExporter(DIRECT, DIRECT).export(Arrays.asList(new AudioExporter.Job(
+                new File(folder.getRoot(), "missing.wav"), new File(folder.getRoot(), "out.wav"))), listener);
+        assertTrue(listener.done.await(1, TimeUnit.SECONDS));
+        assertTrue(listener.error != null);
+    }
+}
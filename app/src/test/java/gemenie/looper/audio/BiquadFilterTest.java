@@ -0,0 +1,105 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadFilterTest {
+
+    private static final int RATE = 48000;
+    private static final int BLOCK = 256;
+
+    private static float[] sine(double hz, int frames) {
+        float[] out = new float[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            float value = (float) (0.5 * Math.sin(2 * Math.PI * hz * i / RATE));
+            out[i * 2] = value;
+            out[i * 2 + 1] = value;
+        }
+        return out;
+    }
+
+    static void run(AudioProcessor processor, float[] buffer) {
+        int frames = buffer.length / 2;
+        for (int offset = 0; offset < frames; offset += BLOCK) {
+            processor.process(buffer, offset * 2, Math.min(BLOCK, frames - offset));
+        }
+    }
+
+    // Gain in dB of the left channel over the second half, once the filter has settled
+    static double gainDb(AudioProcessor processor, double hz) {
+        float[] signal = sine(hz, RATE / 2);
+        double before = rms(signal, signal.length / 2);
+        run(processor, signal);
+        return 20 * Math.log10(rms(signal, signal.length / 2) / before);
+    }
+
+    private static double rms(float[] signal, int from) {
+        double sum = 0;
+        for (int i = from; i < signal.length; i += 2) {
+            sum += signal[i] * signal[i];
+        }
+        return Math.sqrt(sum / ((signal.length - from) / 2));
+    }
+
+    @Test
+    public void passFiltersKeepTheirBandAndCutTheOther() {
+        assertEquals(0, gainDb(new BiquadFilter(RATE, BiquadFilter.Type.LOW_PASS, 1000, 0.707f, 0), 100), 0.1);
+        assertEquals(-3, gainDb(new BiquadFilter(RATE, BiquadFilter.Type.LOW_PASS, 1000, 0.707f, 0), 1000), 0.2);
+        assertTrue(gainDb(new BiquadFilter(RATE, BiquadFilter.Type.LOW_PASS, 1000, 0.707f, 0), 8000) < -34);
+        assertEquals(0, gainDb(new BiquadFilter(RATE, BiquadFilter.Type.HIGH_PASS, 1000, 0.707f, 0), 10000), 0.1);
+        assertTrue(gainDb(new BiquadFilter(RATE, BiquadFilter.Type.HIGH_PASS, 1000, 0.707f, 0), 125) < -34);
+    }
+
+    @Test
+    public void eqBandsBoostAndCutWhereTheySit() {
+        assertEquals(6, gainDb(new ThreeBandEq(RATE, 6, 0, 0), 40), 0.3);
+        assertEquals(-9, gainDb(new ThreeBandEq(RATE, 0, -9, 0), ThreeBandEq.MID_HZ), 0.2);
+        assertEquals(4, gainDb(new ThreeBandEq(RATE, 0, 0, 4), 15000), 0.3);
+        assertEquals(0, gainDb(new ThreeBandEq(RATE, 0, 0, 4), 60), 0.2);
+    }
+
+    @Test
+    public void flatSettingsLeaveAudioUntouched() {
+        float[] signal = sine(440, 4096);
+        float[] processed = signal.clone();
+        run(new ThreeBandEq(RATE), processed);
+        assertArrayEquals(signal, processed, 0f);
+    }
+
+    @Test
+    public void cutoffSweepsWithoutClicks() {
+        BiquadFilter filter = new BiquadFilter(RATE, BiquadFilter.Type.LOW_PASS, 200, 0.707f, 0);
+        float[] signal = sine(100, RATE);
+        int frames = signal.length / 2;
+        for (int offset = 0; offset < frames; offset += BLOCK) {
+            // Jump the cutoff three octaves back and forth on every tenth block
+            if (offset / BLOCK % 10 == 0) {
+                filter.setFrequency(offset / BLOCK % 20 == 0 ? 1600 : 200);
+            }
+            filter.process(signal, offset * 2, Math.min(BLOCK, frames - offset));
+        }
+        float largest = 0f;
+        for (int i = 2; i < signal.length; i += 2) {
+            largest = Math.max(largest, Math.abs(signal[i] - signal[i - 2]));
+        }
+        // A 100 Hz sine at half scale never moves more than 0.0066 per sample
+        assertTrue("step " + largest, largest < 0.01f);
+    }
+
+    @Test
+    public void copyStartsCleanWithTheSameSettings() {
+        BiquadFilter filter = new BiquadFilter(RATE, BiquadFilter.Type.PEAK, 2000, 2f, 5f);
+        run(filter, sine(2000, 1000));
+        BiquadFilter copy = (BiquadFilter) filter.copy();
+        assertEquals(2000f, copy.getFrequency(), 0f);
+        assertEquals(5f, copy.getGainDb(), 0f);
+        float[] a = sine(300, 2048);
+        float[] b = a.clone();
+        run(copy, a);
+        run(new BiquadFilter(RATE, BiquadFilter.Type.PEAK, 2000, 2f, 5f), b);
+        assertArrayEquals(b, a, 0f);
+    }
+}
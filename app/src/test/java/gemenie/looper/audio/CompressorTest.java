@@ -0,0 +1,66 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressorTest {
+
+    private static final int RATE = 48000;
+
+    private static float[] constant(float value, int frames) {
+        float[] buffer = new float[frames * 2];
+        Arrays.fill(buffer, value);
+        return buffer;
+    }
+
+    @Test
+    public void levelsAboveTheThresholdFollowTheRatio() {
+        Compressor compressor = new Compressor(RATE, -20f, 4f, 1f, 50f, 0f);
+        // 0 dBFS in, 20 dB over the threshold comes out 5 dB over it
+        float[] buffer = constant(1f, RATE / 2);
+        BiquadFilterTest.run(compressor, buffer);
+        assertEquals(-15.0, 20 * Math.log10(buffer[buffer.length - 1]), 0.05);
+        assertEquals(-15f, compressor.getGainReductionDb(), 0.1f);
+    }
+
+    @Test
+    public void quietAudioPassesAndMakeupIsApplied() {
+        Compressor compressor = new Compressor(RATE, -20f, 4f, 1f, 50f, 6f);
+        float[] buffer = constant(0.05f, RATE / 4);
+        BiquadFilterTest.run(compressor, buffer);
+        assertEquals(0.05f * Math.pow(10, 6 / 20.0), buffer[buffer.length - 1], 1e-5);
+        assertEquals(0f, compressor.getGainReductionDb(), 0f);
+    }
+
+    @Test
+    public void neutralSettingsAreSkipped() {
+        float[] buffer = constant(0.9f, 4096);
+        float[] processed = buffer.clone();
+        BiquadFilterTest.run(new Compressor(RATE), processed);
+        assertArrayEquals(buffer, processed, 0f);
+    }
+
+    @Test
+    public void makeupChangesAreRamped() {
+        Compressor compressor = new Compressor(RATE, 0f, 2f, 1f, 50f, 0f);
+        float[] buffer = constant(0.25f, RATE / 2);
+        int frames = buffer.length / 2;
+        for (int offset = 0; offset < frames; offset += 256) {
+            if (offset == 256 * 10) {
+                compressor.setMakeupDb(12f);
+            }
+            compressor.process(buffer, offset * 2, Math.min(256, frames - offset));
+        }
+        float largest = 0f;
+        for (int i = 2; i < buffer.length; i += 2) {
+            largest = Math.max(largest, Math.abs(buffer[i] - buffer[i - 2]));
+        }
+        assertTrue("step " + largest, largest < 0.005f);
+        assertEquals(0.25 * Math.pow(10, 12 / 20.0), buffer[buffer.length - 1], 1e-3);
+    }
+}
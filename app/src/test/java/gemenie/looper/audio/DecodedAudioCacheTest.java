@@ -0,0 +1,108 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DecodedAudioCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // 1000 mono frames = 4000 bytes
+    private static PcmBuffer buffer(float value) {
+        float[] samples = new float[1000];
+        java.util.Arrays.fill(samples, value);
+        return new PcmBuffer(samples, 1, 44100);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        DecodedAudioCache cache = new DecodedAudioCache(100000);
+        assertNull(cache.get("a", 1));
+        PcmBuffer a = buffer(0.1f);
+        cache.put("a", 1, a);
+        assertSame(a, cache.get("a", 1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void modificationTimeIsPartOfTheKey() {
+        DecodedAudioCache cache = new DecodedAudioCache(100000);
+        cache.put("a", 1, buffer(0.1f));
+        assertNull(cache.get("a", 2));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinBudget() {
+        DecodedAudioCache cache = new DecodedAudioCache(12000);
+        cache.put("a", 1, buffer(0.1f));
+        cache.put("b", 1, buffer(0.2f));
+        cache.put("c", 1, buffer(0.3f));
+        // Touch a so b becomes the eldest
+        assertNotNull(cache.get("a", 1));
+        cache.put("d", 1, buffer(0.4f));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(12000, cache.getSizeBytes());
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("a", 1));
+        assertNotNull(cache.get("c", 1));
+        assertNotNull(cache.get("d", 1));
+    }
+
+    @Test
+    public void oversizedBuffersAreNotKeptInMemory() {
+        DecodedAudioCache cache = new DecodedAudioCache(1000);
+        cache.put("a", 1, buffer(0.1f));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void diskTierSurvivesNewCacheInstance() throws IOException {
+        File dir = folder.newFolder("pcm");
+        float[] samples = {0.25f, -0.5f, 0.75f, -1f};
+        new DecodedAudioCache(100000, dir, 1000000).put("content://track", 42, new PcmBuffer(samples, 2, 48000));
+
+        DecodedAudioCache reopened = new DecodedAudioCache(100000, dir, 1000000);
+        PcmBuffer restored = reopened.get("content://track", 42);
+        assertNotNull(restored);
+        assertEquals(2, restored.getChannels());
+        assertEquals(48000, restored.getSampleRate());
+        assertEquals(2, restored.getFrameCount());
+        assertArrayEquals(samples, restored.getSamples(), 0f);
+        assertEquals(1, reopened.getDiskHitCount());
+        // Promoted into memory after the disk hit
+        assertNotNull(reopened.get("content://track", 42));
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void diskTierIsTrimmedToBudget() throws IOException {
+        File dir = folder.newFolder("trim");
+        // A write in progress elsewhere is neither counted nor removed
+        File writing = new File(dir, "writing.tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(writing, "rw")) {
+            raf.setLength(20000);
+        }
+        DecodedAudioCache cache = new DecodedAudioCache(0, dir, 9000);
+        cache.put("a", 1, buffer(0.1f));
+        cache.put("b", 1, buffer(0.2f));
+        cache.put("c", 1, buffer(0.3f));
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        assertEquals(3, files.length);
+        assertTrue(writing.isFile());
+    }
+}
@@ -0,0 +1,167 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EffectChainTest {
+
+    private static final int RATE = 48000;
+
+    // Adds or multiplies by a constant, so the order of two of them shows in the output
+    private static class Arithmetic implements AudioProcessor {
+        final float add;
+        final float multiply;
+
+        Arithmetic(float add, float multiply) {
+            this.add = add;
+            this.multiply = multiply;
+        }
+
+        @Override
+        public void process(float[] buffer, int offset, int frames) {
+            for (int i = offset; i < offset + frames * 2; i++) {
+                buffer[i] = (buffer[i] + add) * multiply;
+            }
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public AudioProcessor copy() {
+            return new Arithmetic(add, multiply);
+        }
+    }
+
+    private static PcmBuffer constant(float value, int frames) {
+        float[] samples = new float[frames];
+        Arrays.fill(samples, value);
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    @Test
+    public void chainCanBeReorderedBetweenBlocks() {
+        EffectChain chain = new EffectChain();
+        Arithmetic addOne = new Arithmetic(1f, 1f);
+        Arithmetic triple = new Arithmetic(0f, 3f);
+        chain.add(addOne);
+        chain.add(triple);
+        float[] buffer = new float[2];
+        chain.process(buffer, 0, 1);
+        assertEquals(3f, buffer[0], 0f);
+
+        chain.move(1, 0);
+        assertSame(triple, chain.get(0));
+        buffer[0] = 0f;
+        chain.process(buffer, 0, 1);
+        assertEquals(1f, buffer[0], 0f);
+
+        assertSame(triple, chain.find(Arithmetic.class));
+        assertNull(chain.find(PanProcessor.class));
+        chain.remove(triple);
+        assertEquals(1, chain.size());
+        assertFalse(chain.remove(triple));
+    }
+
+    @Test
+    public void panMovesTheTrackWithoutClicks() {
+        Track track = new Track("take.wav");
+        MixerTrack voice = new MixerTrack(constant(0.5f, RATE));
+        track.applySettings(voice);
+        voice.play();
+        LoopMixer mixer = new LoopMixer(RATE, 256);
+        mixer.addTrack(voice);
+        float[] out = new float[512];
+        mixer.mix(out, 256);
+        // Centred tracks are untouched
+        assertEquals(0.5f, out[510], 0f);
+        assertEquals(0.5f, out[511], 0f);
+
+        track.setPanProgress(SliderMapping.MAX_PAN);
+        mixer.mix(out, 256);
+        // Ramped across the block rather than switched
+        assertEquals(0.5f * (1 - 1f / 256), out[0], 1e-4f);
+        assertEquals(0f, out[510], 1e-6f);
+        assertEquals(0.5f, out[511], 0f);
+        track.setPanProgress(25);
+        mixer.mix(out, 256);
+        assertEquals(0.5f * Math.cos(Math.PI / 4), out[511], 1e-5f);
+        assertEquals(0.5f, out[510], 0f);
+    }
+
+    @Test
+    public void masterChainRunsLiveAndInMixdownsOnItsOwnCopy() throws java.io.IOException {
+        MixerTrack voice = new MixerTrack(constant(0.25f, 1000));
+        voice.play();
+        LoopMixer mixer = new LoopMixer(RATE, 256);
+        mixer.addTrack(voice);
+        EffectChain master = new EffectChain();
+        DelayProcessor delay = new DelayProcessor(RATE, 0.5f, 0.001f, 0.5f, 0f);
+        master.add(delay);
+        master.add(new Arithmetic(0f, 2f));
+        mixer.setMasterEffects(master);
+        float[] out = new float[512];
+        mixer.mix(out, 256);
+        assertEquals(0.5f, out[510], 0f);
+
+        MixdownRenderer renderer = new MixdownRenderer(RATE, 256);
+        renderer.setMasterEffects(master);
+        final float[] rendered = new float[512];
+        renderer.render(Arrays.asList(voice), 256, new AudioSink() {
+            @Override
+            public void write(float[] samples, int offset, int length) {
+                System.arraycopy(samples, offset, rendered, 0, length);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, null);
+        assertEquals(0.5f, rendered[510], 0f);
+        assertEquals(2, master.size());
+        assertSame(delay, master.get(0));
+    }
+
+    @Test
+    public void fullChainMixesWithoutAllocating() {
+        Track track = new Track("take.wav");
+        EffectChain effects = track.getEffects();
+        effects.add(new ThreeBandEq(RATE, 3f, -2f, 4f));
+        effects.add(new BiquadFilter(RATE, BiquadFilter.Type.HIGH_PASS, 80f, 0.707f, 0f));
+        effects.add(new DelayProcessor(RATE, 1f, 0.3f, 0.4f, 0.3f));
+        effects.add(new Compressor(RATE, -12f, 3f, 5f, 80f, 3f));
+        track.setPanProgress(30);
+        MixerTrack voice = new MixerTrack(constant(0.5f, RATE));
+        track.applySettings(voice);
+        voice.play();
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        mixer.addTrack(voice);
+        float[] out = new float[2 * 64];
+
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        for (int i = 0; i < 2000; i++) {
+            mixer.mix(out, 64);
+        }
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 10000; i++) {
+            if (i == 5000) {
+                // Live edits to the chain allocate on the caller, never on the mixing thread
+                effects.move(1, effects.size() - 1);
+            }
+            mixer.mix(out, 64);
+        }
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertFalse("Allocated " + allocated + " bytes", allocated > 2048);
+    }
+}
@@ -0,0 +1,75 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyCalibratorTest {
+
+    private static final int RATE = 48000;
+
+    // Room noise plus a quieter, slightly smeared copy of the click every period from firstClick
+    private static float[] take(int length, int firstClick, int period, float gain, float noise, long seed) {
+        Random random = new Random(seed);
+        float[] take = new float[length];
+        for (int i = 0; i < length; i++) {
+            take[i] = (float) (random.nextGaussian() * noise);
+        }
+        float[] click = LatencyCalibrator.click(RATE);
+        for (int start = firstClick; start + click.length + 1 < length; start += period) {
+            for (int i = 0; i < click.length; i++) {
+                take[start + i] += gain * click[i];
+                take[start + i + 1] += gain * 0.3f * click[i];
+            }
+        }
+        return take;
+    }
+
+    @Test
+    public void locatesClickInNoise() {
+        float[] signal = take(RATE / 2, 7123, RATE, 0.2f, 0.02f, 1);
+        assertEquals(7123, LatencyCalibrator.locate(signal, 0, signal.length, LatencyCalibrator.click(RATE)));
+    }
+
+    @Test
+    public void silenceAndNoiseAreNotClicks() {
+        float[] click = LatencyCalibrator.click(RATE);
+        assertEquals(-1, LatencyCalibrator.locate(new float[RATE], 0, RATE, click));
+        float[] noise = take(RATE, RATE * 2, RATE, 0f, 0.1f, 2);
+        assertEquals(-1, LatencyCalibrator.locate(noise, 0, noise.length, click));
+    }
+
+    @Test
+    public void measuresRoundTripAcrossPeriods() {
+        int period = RATE / 2;
+        long clickFrame = 1000000;
+        long captureFrame = clickFrame + 3000;
+        int latency = 9100;
+        // Click k leaves at clickFrame + k * period and lands latency frames later in the take
+        int firstClick = (int) (clickFrame + period + latency - captureFrame);
+        float[] take = take(RATE * 2, firstClick, period, 0.1f, 0.01f, 3);
+        float[] click = LatencyCalibrator.click(RATE);
+        assertEquals(latency, LatencyCalibrator.measure(take, take.length, captureFrame, clickFrame, period, click));
+    }
+
+    @Test
+    public void strayPeakIsOutvoted() {
+        int period = RATE / 2;
+        float[] take = take(RATE * 2, 2000, period, 0.1f, 0.01f, 4);
+        float[] click = LatencyCalibrator.click(RATE);
+        // A knock on the phone in one period
+        for (int i = 0; i < click.length; i++) {
+            take[period + 30000 + i] += click[i];
+        }
+        assertEquals(2000, LatencyCalibrator.measure(take, take.length, 0, 0, period, click));
+    }
+
+    @Test
+    public void tooFewClicksFails() {
+        float[] take = take(RATE * 2, 2000, RATE * 4, 0.1f, 0.01f, 5);
+        assertEquals(-1, LatencyCalibrator.measure(take, take.length, 0, 0, RATE / 2,
+                LatencyCalibrator.click(RATE)));
+    }
+}
@@ -0,0 +1,261 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoopLibraryTest {
+
+    private static final int RATE = 48000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Stands in for decoding: each file plays a ramp one second long per KB of file
+    private static final class CountingOpener implements LoopLibrary.Opener {
+        final AtomicInteger opens = new AtomicInteger();
+
+        @Override
+        public PcmStream open(File file) {
+            opens.incrementAndGet();
+            return new StreamingSourceTest.RampStream(file.length() / 1024 * RATE, RATE, 1000);
+        }
+    }
+
+    private File loop(String name, int seconds) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[seconds * 1024]);
+        }
+        return file;
+    }
+
+    private List<File> files() {
+        File[] files = folder.getRoot().listFiles();
+        List<File> loops = new ArrayList<>();
+        for (File file : files) {
+            if (!file.getName().endsWith(".idx")) {
+                loops.add(file);
+            }
+        }
+        return loops;
+    }
+
+    @Test
+    public void analysisMeasuresLengthPeakAndThumbnail() throws IOException {
+        LoopLibrary.Entry entry = LoopLibrary.analyse("ramp.wav", 1, 2,
+                new StreamingSourceTest.RampStream(4L * RATE, RATE, 1000));
+        assertEquals(4L * RATE, entry.getFrameCount());
+        assertEquals(4000, entry.getDurationMillis());
+        assertEquals(2, entry.getChannels());
+        assertEquals(1f, entry.getPeak(), 1e-3f);
+        assertEquals(120f, entry.getBpm(), 0f);
+        byte[] thumbnail = entry.getThumbnail();
+        assertEquals(LoopLibrary.THUMBNAIL_COLUMNS, thumbnail.length);
+        for (int i = 1; i < thumbnail.length; i++) {
+            assertTrue((thumbnail[i] & 0xFF) >= (thumbnail[i - 1] & 0xFF));
+        }
+        assertEquals(255, thumbnail[thumbnail.length - 1] & 0xFF);
+        assertTrue((thumbnail[0] & 0xFF) < 8);
+    }
+
+    @Test
+    public void heardBeatWinsOverTheLengthGuess() throws IOException {
+        // Five beats at 100 BPM, which the length alone would call four at 80
+        float[] clicks = TempoDetectorTest.clickTrack(100, 3, RATE, 1);
+        LoopLibrary.Entry entry = LoopLibrary.analyse("odd.wav", 1, 2, clicks(clicks, clicks.length));
+        assertEquals(80f, LoopLibrary.estimateTempo(3L * RATE, RATE), 0f);
+        assertEquals(100f, entry.getBpm(), 1e-3f);
+    }
+
+    @Test
+    public void heardBeatIsKeptForFilesTooLongToGuess() throws IOException {
+        // Ten seconds of clicks repeated for 70, past the longest loop the length can explain
+        float[] clicks = TempoDetectorTest.clickTrack(120, 10, RATE, 2);
+        long frames = 70L * RATE;
+        LoopLibrary.Entry entry = LoopLibrary.analyse("set.wav", 1, 2, clicks(clicks, frames * 2));
+        assertEquals(0f, LoopLibrary.estimateTempo(frames, RATE), 0f);
+        assertEquals(frames, entry.getFrameCount());
+        assertEquals(120f, entry.getBpm(), 0.2f);
+    }
+
+    // Stereo stream of the given samples, repeated until total samples have been read
+    private static PcmStream clicks(final float[] samples, final long total) {
+        return new PcmStream() {
+            long position;
+
+            @Override
+            public int getSampleRate() {
+                return RATE;
+            }
+
+            @Override
+            public int getChannels() {
+                return 2;
+            }
+
+            @Override
+            public int read(float[] target, int offset, int maxSamples) {
+                if (position == total) {
+                    return -1;
+                }
+                int from = (int) (position % samples.length);
+                int count = (int) Math.min(Math.min(maxSamples, samples.length - from), total - position);
+                System.arraycopy(samples, from, target, offset, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void rewind() {
+                position = 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void longFilesAnalyseInFixedMemory() throws IOException {
+        long frames = 30L * 60 * RATE;
+        LoopLibrary.Entry entry = LoopLibrary.analyse("set.m4a", 1, 2,
+                new StreamingSourceTest.RampStream(frames, RATE, 4096));
+        assertEquals(frames, entry.getFrameCount());
+        assertEquals(0f, entry.getBpm(), 0f);
+        byte[] thumbnail = entry.getThumbnail();
+        for (int i = 1; i < thumbnail.length; i++) {
+            assertTrue((thumbnail[i] & 0xFF) >= (thumbnail[i - 1] & 0xFF));
+        }
+        // Column c ends at (c + 1) / 64 of the ramp
+        assertEquals(255 / 2, thumbnail[31] & 0xFF, 2);
+    }
+
+    @Test
+    public void tempoAssumesWholeBeatsInTheLoop() {
+        assertEquals(120f, LoopLibrary.estimateTempo(2L * RATE, RATE), 0f);
+        assertEquals(80f, LoopLibrary.estimateTempo(3L * RATE, RATE), 0f);
+        assertEquals(120f, LoopLibrary.estimateTempo(16L * RATE, RATE), 0f);
+        assertEquals(150f, LoopLibrary.estimateTempo(RATE * 8 / 5, RATE), 0f);
+        assertEquals(0f, LoopLibrary.estimateTempo(RATE / 10, RATE), 0f);
+        assertEquals(0f, LoopLibrary.estimateTempo(120L * RATE, RATE), 0f);
+    }
+
+    @Test
+    public void updatesOnlyAnalyseNewAndChangedFiles() throws IOException {
+        File index = new File(folder.getRoot(), "library.idx");
+        LoopLibrary library = new LoopLibrary(index);
+        CountingOpener opener = new CountingOpener();
+        loop("drums.wav", 2);
+        File bass = loop("bass.wav", 4);
+        File keys = loop("keys.wav", 8);
+        assertEquals(3, library.update(files(), opener));
+        assertEquals(0, library.update(files(), opener));
+        assertEquals(3, opener.opens.get());
+
+        loop("bass.wav", 3);
+        assertTrue(bass.setLastModified(bass.lastModified() + 2000));
+        assertTrue(keys.delete());
+        assertEquals(1, library.update(files(), opener));
+        List<LoopLibrary.Entry> entries = library.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("bass.wav", entries.get(0).getName());
+        assertEquals(3000, entries.get(0).getDurationMillis());
+        assertEquals("drums.wav", entries.get(1).getName());
+
+        // A fresh start reads the index instead of decoding anything
+        LoopLibrary reopened = new LoopLibrary(index);
+        reopened.load();
+        assertEquals(0, reopened.update(files(), opener));
+        assertEquals(4, opener.opens.get());
+        assertEquals(2, reopened.getEntries().size());
+        LoopLibrary.Entry drums = reopened.getEntries().get(1);
+        assertEquals(2L * RATE, drums.getFrameCount());
+        assertEquals(120f, drums.getBpm(), 0f);
+        assertTrue(Arrays.equals(entries.get(1).getThumbnail(), drums.getThumbnail()));
+    }
+
+    @Test
+    public void unreadableFilesAreLeftOut() throws IOException {
+        LoopLibrary library = new LoopLibrary(new File(folder.getRoot(), "library.idx"));
+        loop("good.wav", 1);
+        loop("bad.wav", 1);
+        assertEquals(1, library.update(files(), new LoopLibrary.Opener() {
+            @Override
+            public PcmStream open(File file) throws IOException {
+                if (file.getName().equals("bad.wav")) {
+                    throw new IOException("corrupt");
+                }
+                return new StreamingSourceTest.RampStream(RATE, RATE, 1000);
+            }
+        }));
+        assertEquals(1, library.getEntries().size());
+        assertEquals("good.wav", library.getEntries().get(0).getName());
+    }
+
+    @Test
+    public void damagedIndexStartsEmpty() throws IOException {
+        File index = new File(folder.getRoot(), "library.idx");
+        try (FileOutputStream out = new FileOutputStream(index)) {
+            out.write(new byte[]{0x4C, 0x4C, 0x49, 0x42, 0, 2, 0});
+        }
+        LoopLibrary library = new LoopLibrary(index);
+        library.load();
+        assertTrue(library.getEntries().isEmpty());
+    }
+
+    @Test
+    public void searchBoxFiltersByNameLengthAndTempo() throws IOException {
+        LoopLibrary library = new LoopLibrary(new File(folder.getRoot(), "library.idx"));
+        loop("Funk Drums.wav", 2);
+        loop("funk bass.wav", 3);
+        loop("ambient pad.wav", 16);
+        library.update(files(), new CountingOpener());
+
+        assertEquals(2, library.query(LoopLibrary.Query.parse("funk")).size());
+        assertEquals("Funk Drums.wav", library.query(LoopLibrary.Query.parse("DRUMS funk")).get(0).getName());
+        assertEquals(2, library.query(LoopLibrary.Query.parse("120bpm")).size());
+        assertEquals("funk bass.wav", library.query(LoopLibrary.Query.parse("81bpm")).get(0).getName());
+        assertEquals(1, library.query(LoopLibrary.Query.parse("3s")).size());
+        assertEquals(2, library.query(LoopLibrary.Query.parse("<5s")).size());
+        assertEquals("ambient pad.wav", library.query(LoopLibrary.Query.parse(">10s")).get(0).getName());
+        assertEquals(0, library.query(LoopLibrary.Query.parse("funk >10s")).size());
+        // Words that only look like filters are part of the name
+        assertEquals(0, library.query(LoopLibrary.Query.parse("xs")).size());
+        assertEquals(3, library.query(LoopLibrary.Query.parse("  ")).size());
+        assertEquals(1, library.query(new LoopLibrary.Query().name("pad").length(0, 20000).tempo(100, 140)).size());
+    }
+
+    // Query latency over an index this size is measured by LibraryQueryBenchmark
+    @Test
+    public void queriesOverThousandsOfLoops() throws IOException {
+        LoopLibrary library = new LoopLibrary(new File(folder.getRoot(), "library.idx"));
+        for (int i = 0; i < 2000; i++) {
+            loop("loop " + i + (i % 3 == 0 ? " drums" : " keys") + ".wav", 1 + i % 8);
+        }
+        library.update(files(), new LoopLibrary.Opener() {
+            @Override
+            public PcmStream open(File file) {
+                return new StreamingSourceTest.RampStream(file.length() / 1024 * 4800, 4800, 4800);
+            }
+        });
+        LoopLibrary.Query query = LoopLibrary.Query.parse("drums 120bpm <5s");
+        List<LoopLibrary.Entry> found = library.query(query);
+        assertTrue(found.size() > 0);
+        for (LoopLibrary.Entry entry : found) {
+            assertTrue(query.matches(entry));
+        }
+    }
+}
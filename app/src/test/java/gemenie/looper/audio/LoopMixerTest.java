@@ -0,0 +1,185 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopMixerTest {
+
+    private static final int RATE = 48000;
+
+    private static PcmBuffer constant(float value, int frames) {
+        float[] samples = new float[frames];
+        java.util.Arrays.fill(samples, value);
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    private static PcmBuffer ramp(int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = i;
+        }
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    @Test
+    public void silentWhenNothingPlays() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        mixer.addTrack(new MixerTrack(constant(0.5f, 100)));
+        float[] out = new float[128];
+        mixer.mix(out, 64);
+        for (float sample : out) {
+            assertEquals(0f, sample, 0f);
+        }
+        assertEquals(64, mixer.getFramePosition());
+    }
+
+    @Test
+    public void idleUntilSomethingPlaysOrIsQueued() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        MixerTrack track = new MixerTrack(constant(0.5f, 100));
+        mixer.addTrack(track);
+        SamplePlayer player = new SamplePlayer(2);
+        int sample = player.addSample(constant(1f, 100));
+        mixer.setSamplePlayer(player);
+        assertTrue(mixer.isIdle());
+        // Muted tracks still keep the loop running
+        track.setMuted(true);
+        track.play();
+        assertFalse(mixer.isIdle());
+        track.pause();
+        // A queued sample counts until its voice has played out
+        player.trigger(sample, 1f);
+        assertFalse(mixer.isIdle());
+        float[] out = new float[128];
+        mixer.mix(out, 64);
+        assertFalse(mixer.isIdle());
+        mixer.mix(out, 64);
+        assertTrue(mixer.isIdle());
+    }
+
+    @Test
+    public void sumsActiveTracksIntoStereo() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        MixerTrack a = new MixerTrack(constant(0.25f, 100));
+        MixerTrack b = new MixerTrack(constant(0.5f, 100));
+        a.play();
+        b.play();
+        mixer.addTrack(a);
+        mixer.addTrack(b);
+        float[] out = new float[128];
+        // First block ramps the gain up from silence
+        mixer.mix(out, 64);
+        mixer.mix(out, 64);
+        for (float sample : out) {
+            assertEquals(0.75f, sample, 1e-6f);
+        }
+    }
+
+    @Test
+    public void loopsWrapSampleAccurately() {
+        LoopMixer mixer = new LoopMixer(RATE, 4);
+        MixerTrack track = new MixerTrack(ramp(10));
+        track.play();
+        mixer.addTrack(track);
+        float[] out = new float[2 * 24];
+        mixer.mix(out, 24);
+        // Skip the gain ramp in the first block, then every frame should follow the source
+        for (int frame = 4; frame < 24; frame++) {
+            assertEquals(frame % 10, out[frame * 2], 1e-4f);
+            assertEquals(frame % 10, out[frame * 2 + 1], 1e-4f);
+        }
+    }
+
+    @Test
+    public void speedResamplesBetweenFrames() {
+        LoopMixer mixer = new LoopMixer(RATE, 8);
+        MixerTrack track = new MixerTrack(ramp(100));
+        track.setSpeed(0.5f);
+        track.play();
+        mixer.addTrack(track);
+        float[] out = new float[2 * 16];
+        mixer.mix(out, 16);
+        assertEquals(4.5f, out[9 * 2], 1e-4f);
+        assertEquals(7.5f, out[15 * 2], 1e-4f);
+    }
+
+    @Test
+    public void sourceRateIsConvertedToMixerRate() {
+        LoopMixer mixer = new LoopMixer(RATE, 8);
+        float[] samples = new float[100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i;
+        }
+        MixerTrack track = new MixerTrack(new PcmBuffer(samples, 1, RATE / 2));
+        track.play();
+        mixer.addTrack(track);
+        float[] out = new float[2 * 16];
+        mixer.mix(out, 16);
+        assertEquals(6f, out[12 * 2], 1e-4f);
+    }
+
+    @Test
+    public void mutedTrackKeepsTime() {
+        LoopMixer mixer = new LoopMixer(RATE, 4);
+        MixerTrack track = new MixerTrack(ramp(100));
+        track.play();
+        track.setMuted(true);
+        mixer.addTrack(track);
+        float[] out = new float[2 * 8];
+        mixer.mix(out, 8);
+        track.setMuted(false);
+        mixer.mix(out, 8);
+        // Second block of the unmuted pass is at full gain
+        assertEquals(12f, out[4 * 2], 1e-4f);
+    }
+
+    @Test
+    public void anchoredTrackStartsInPhase() {
+        LoopMixer mixer = new LoopMixer(RATE, 4);
+        MixerTrack track = new MixerTrack(ramp(100));
+        track.setAnchorFrame(20);
+        mixer.addTrack(track);
+        float[] out = new float[2 * 40];
+        mixer.mix(out, 40);
+        // Started at mixer frame 40, so the track is 20 frames into its audio
+        track.play();
+        mixer.mix(out, 8);
+        assertEquals(24f, out[4 * 2], 1e-4f);
+        track.pause();
+        mixer.mix(out, 40);
+        track.play();
+        mixer.mix(out, 8);
+        assertEquals(72f, out[4 * 2], 1e-4f);
+    }
+
+    @Test
+    public void removedTrackStopsContributing() {
+        LoopMixer mixer = new LoopMixer(RATE, 16);
+        MixerTrack track = new MixerTrack(constant(1f, 50));
+        track.play();
+        mixer.addTrack(track);
+        assertTrue(mixer.removeTrack(track));
+        assertFalse(mixer.removeTrack(track));
+        float[] out = new float[32];
+        mixer.mix(out, 16);
+        assertEquals(0f, out[31], 0f);
+    }
+
+    @Test
+    public void volumeMappingMatchesSlider() {
+        assertEquals(0f, SliderMapping.volumeFromProgress(0), 0f);
+        assertEquals(1f, SliderMapping.volumeFromProgress(100), 0f);
+        assertEquals(1 - Math.log(50) / Math.log(100), SliderMapping.volumeFromProgress(50), 1e-6);
+        assertEquals(1f, SliderMapping.speedFromProgress(41), 0f);
+        assertEquals(2.5f, SliderMapping.speedFromProgress(SliderMapping.MAX_SPEED_PROGRESS), 0f);
+        assertEquals(2.5f, SliderMapping.speedFromProgress(500), 0f);
+        for (int progress = SliderMapping.MIN_SPEED_PROGRESS; progress <= SliderMapping.MAX_SPEED_PROGRESS; progress++) {
+            assertEquals(progress, SliderMapping.progressFromSpeed(SliderMapping.speedFromProgress(progress)));
+        }
+        assertEquals(1f, SliderMapping.pitchFromProgress(SliderMapping.PITCH_UNITY), 0f);
+        assertEquals(2f, SliderMapping.pitchFromProgress(SliderMapping.MAX_PITCH), 1e-6f);
+    }
+}
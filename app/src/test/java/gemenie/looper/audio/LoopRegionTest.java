@@ -0,0 +1,164 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopRegionTest {
+
+    private static final int RATE = 44100;
+
+    private static PcmBuffer constant(float value, int frames) {
+        float[] samples = new float[frames];
+        Arrays.fill(samples, value);
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    private static PcmBuffer sine(double hz, int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) Math.sin(2 * Math.PI * hz * i / RATE);
+        }
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    // Left channel of frames output at the natural rate
+    private static float[] play(TimeStretcher stretcher, int frames) {
+        float[] out = new float[frames * 2];
+        stretcher.process(out, frames, 1, 1);
+        float[] left = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            left[i] = out[i * 2];
+        }
+        return left;
+    }
+
+    private static float largestStep(float[] signal, int from, int to) {
+        float largest = 0f;
+        for (int i = from + 1; i < to; i++) {
+            largest = Math.max(largest, Math.abs(signal[i] - signal[i - 1]));
+        }
+        return largest;
+    }
+
+    @Test
+    public void resolvesAgainstTheAudioLength() {
+        assertEquals(0, LoopRegion.WHOLE.start(1000));
+        assertEquals(1000, LoopRegion.WHOLE.end(1000));
+        LoopRegion region = new LoopRegion(200, 800, 10, 20);
+        assertEquals(600, region.length(1000));
+        // Markers past the end of shorter audio are pulled in, leaving something to play
+        assertEquals(300, region.length(500));
+        LoopRegion late = new LoopRegion(600, 0, 0, 0);
+        assertEquals(499, late.start(500));
+        assertEquals(1, late.length(500));
+        assertEquals(new LoopRegion(200, 800, 10, 20), region);
+        assertFalse(region.equals(new LoopRegion(200, 800, 10, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEndBeforeStart() {
+        new LoopRegion(500, 400, 0, 0);
+    }
+
+    @Test
+    public void trimmedLoopPlaysOnlyTheRegion() {
+        float[] samples = new float[4000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i / 4000f;
+        }
+        PcmBuffer ramp = new PcmBuffer(samples, 1, RATE);
+        TimeStretcher stretcher = new TimeStretcher(ramp);
+        stretcher.setRegion(new LoopRegion(1000, 3000, 0, 0));
+        assertEquals(2000, stretcher.getRegionLength());
+        float[] out = play(stretcher, 5000);
+        int seam = (int) Math.round(LoopRegion.SEAM_SECONDS * RATE);
+        // Away from the seam the output is the region itself, pass after pass
+        for (int k = 0; k < 2000 - seam; k++) {
+            assertEquals(samples[1000 + k], out[k], 1e-5f);
+            assertEquals(samples[1000 + k], out[2000 + k], 1e-5f);
+        }
+        for (float value : out) {
+            assertTrue(value >= 0f && value < 3000 / 4000f + 1e-5f);
+        }
+    }
+
+    @Test
+    public void seamCrossfadeRemovesTheJumpAtTheWrap() {
+        // 441 Hz has a 100 frame period, a 1975 frame loop wraps from a trough straight to zero
+        PcmBuffer source = sine(441, 6000);
+        TimeStretcher raw = new TimeStretcher(new PcmBuffer(Arrays.copyOfRange(source.getSamples(), 2000, 3975), 1, RATE));
+        float[] rawOut = play(raw, 4000);
+        TimeStretcher trimmed = new TimeStretcher(source);
+        trimmed.setRegion(new LoopRegion(2000, 3975, 0, 0));
+        float[] out = play(trimmed, 4000);
+
+        float natural = (float) (2 * Math.PI * 441 / RATE);
+        assertTrue(largestStep(rawOut, 1965, 1985) > 0.9f);
+        assertTrue(largestStep(out, 1, out.length) < natural * 1.5f);
+    }
+
+    @Test
+    public void seamBorrowsFromAfterTheLoopWhenItStartsAtZero() {
+        PcmBuffer source = sine(441, 6000);
+        TimeStretcher trimmed = new TimeStretcher(source);
+        trimmed.setRegion(new LoopRegion(0, 1975, 0, 0));
+        float[] out = play(trimmed, 4000);
+        assertTrue(largestStep(out, 1, out.length) < 2 * Math.PI * 441 / RATE * 1.5);
+    }
+
+    @Test
+    public void fadesShapeTheStartAndEnd() {
+        TimeStretcher stretcher = new TimeStretcher(constant(0.5f, 3000));
+        stretcher.setRegion(new LoopRegion(0, 0, 100, 200));
+        float[] out = play(stretcher, 3000);
+        assertEquals(0.5f * 0.5f / 100, out[0], 1e-5f);
+        assertEquals(0.5f, out[100], 1e-5f);
+        assertEquals(0.5f, out[2799], 1e-5f);
+        assertEquals(0.5f * 0.5f / 200, out[2999], 1e-5f);
+        for (int i = 1; i < 100; i++) {
+            assertTrue(out[i] > out[i - 1]);
+        }
+        for (int i = 2801; i < 3000; i++) {
+            assertTrue(out[i] < out[i - 1]);
+        }
+    }
+
+    @Test
+    public void trackEditsReachTheMixerWithoutAllocating() {
+        Track track = new Track("take.wav");
+        track.setLoop(4800, 24000);
+        track.setFades(480, 960);
+        MixerTrack voice = new MixerTrack(constant(0.5f, 48000));
+        track.applySettings(voice);
+        assertEquals(new LoopRegion(4800, 24000, 480, 960), voice.getLoop());
+        voice.play();
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        mixer.addTrack(voice);
+        float[] out = new float[2 * 64];
+        mixer.mix(out, 64);
+        assertEquals(4800 + 64, voice.getPlayheadFrame());
+
+        MixdownRenderer renderer = new MixdownRenderer(RATE);
+        assertEquals(19200, renderer.longestLoopFrames(Arrays.asList(voice)));
+
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        for (int i = 0; i < 2000; i++) {
+            mixer.mix(out, 64);
+        }
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 10000; i++) {
+            mixer.mix(out, 64);
+        }
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertFalse("Allocated " + allocated + " bytes", allocated > 1024);
+    }
+}
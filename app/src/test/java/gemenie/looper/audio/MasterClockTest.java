@@ -0,0 +1,93 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MasterClockTest {
+
+    private static final int RATE = 48000;
+
+    private static PcmBuffer ramp(int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = i + 1;
+        }
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    @Test
+    public void barLengthsAreWholeFrames() {
+        MasterClock clock = new MasterClock(RATE, 120, 4, 2);
+        assertEquals(96000, clock.getFramesPerBar());
+        assertEquals(24000, clock.getFramesPerBeat(), 0);
+        assertEquals(192000, clock.getLoopFrames());
+
+        MasterClock odd = new MasterClock(44100, 97, 3, 1);
+        assertEquals(Math.round(44100 * 60.0 * 3 / 97), odd.getFramesPerBar());
+    }
+
+    @Test
+    public void boundariesDoNotDrift() {
+        MasterClock clock = new MasterClock(RATE, 97, 4, 1);
+        long bar = clock.getFramesPerBar();
+        assertEquals(1000 * bar, clock.barStartFrame(1000));
+        assertEquals(1000, clock.barIndex(1000 * bar));
+        assertEquals(999, clock.barIndex(1000 * bar - 1));
+        assertEquals(1000 * bar, clock.nextBarFrame(1000 * bar));
+        assertEquals(1001 * bar, clock.nextBarFrame(1000 * bar + 1));
+        assertEquals(1000 * bar, clock.nearestBarFrame(1000 * bar + bar / 2 - 1));
+        assertEquals(1001 * bar, clock.nearestBarFrame(1000 * bar + bar / 2 + 1));
+        assertEquals(0, clock.nearestBarFrame(-10));
+    }
+
+    @Test
+    public void lengthsSnapToWholeLoops() {
+        MasterClock clock = new MasterClock(RATE, 120, 4, 1);
+        long loop = clock.getLoopFrames();
+        assertEquals(loop, clock.snapLength(1));
+        assertEquals(loop, clock.snapLength(loop * 14 / 10));
+        assertEquals(3 * loop, clock.snapLength(loop * 26 / 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTempoOutOfRange() {
+        new MasterClock(RATE, 1000, 4, 1);
+    }
+
+    @Test
+    public void lateCaptureIsPaddedAtTheFront() {
+        // Capture began 2 frames after the bar, the take is 3 frames too short for the loop
+        PcmBuffer fitted = LoopQuantizer.fit(ramp(4), 102, 100, 9);
+        assertArrayEquals(new float[]{0, 0, 1, 2, 3, 4, 0, 0, 0}, fitted.getSamples(), 0);
+    }
+
+    @Test
+    public void earlyCaptureIsTrimmed() {
+        PcmBuffer fitted = LoopQuantizer.fit(ramp(10), 97, 100, 4);
+        assertArrayEquals(new float[]{4, 5, 6, 7}, fitted.getSamples(), 0);
+        assertEquals(4, fitted.getFrameCount());
+    }
+
+    @Test
+    public void stereoTakesKeepFramesTogether() {
+        PcmBuffer take = new PcmBuffer(new float[]{1, -1, 2, -2, 3, -3}, 2, RATE);
+        PcmBuffer fitted = LoopQuantizer.fit(take, 0, 1, 3);
+        assertArrayEquals(new float[]{2, -2, 3, -3, 0, 0}, fitted.getSamples(), 0);
+    }
+
+    @Test
+    public void quantizedTakeMatchesTheGrid() {
+        MasterClock clock = new MasterClock(RATE, 120, 4, 1);
+        long capture = 96000 * 3 - 700;
+        long start = LoopQuantizer.startFrame(clock, capture);
+        long stop = 96000 * 5 + 1200;
+        long length = LoopQuantizer.lengthFrames(clock, start, stop);
+        assertEquals(96000 * 3, start);
+        assertEquals(96000 * 2, length);
+        PcmBuffer fitted = LoopQuantizer.fit(ramp((int) (stop - capture)), capture, start, length);
+        assertEquals(length, fitted.getFrameCount());
+        assertEquals(701, fitted.getSamples()[0], 0);
+    }
+}
@@ -0,0 +1,193 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MixdownRendererTest {
+
+    private static final int RATE = 48000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Collects everything written so the output can be compared sample by sample
+    private static class CaptureSink implements AudioSink {
+        float[] samples = new float[0];
+        int count;
+        int writes;
+
+        @Override
+        public void write(float[] data, int offset, int length) {
+            if (count + length > samples.length) {
+                samples = Arrays.copyOf(samples, Math.max(count + length, samples.length * 2));
+            }
+            System.arraycopy(data, offset, samples, count, length);
+            count += length;
+            writes++;
+        }
+
+        float[] result() {
+            return Arrays.copyOf(samples, count);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Discards output, only counting it, to show memory does not grow with length
+    private static class NullSink implements AudioSink {
+        long samples;
+
+        @Override
+        public void write(float[] data, int offset, int length) {
+            samples += length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static MixerTrack track(float[] samples, int channels, float volume, float speed) {
+        MixerTrack track = new MixerTrack(new PcmBuffer(samples, channels, RATE));
+        track.setVolume(volume);
+        track.setSpeed(speed);
+        return track;
+    }
+
+    @Test
+    public void matchesGoldenMix() throws IOException {
+        List<MixerTrack> tracks = Arrays.asList(
+                track(new float[]{0f, 0.1f, 0.2f, 0.3f}, 1, 1f, 1f),
+                track(new float[]{0.5f, -0.5f, 0.5f, -0.5f}, 2, 0.5f, 1f));
+        CaptureSink sink = new CaptureSink();
+        new MixdownRenderer(RATE, 4).render(tracks, 6, sink, null);
+        float[] golden = {
+                0.25f, -0.25f, 0.35f, -0.15f, 0.45f, -0.05f, 0.55f, 0.05f, 0.25f, -0.25f, 0.35f, -0.15f};
+        assertArrayEquals(golden, sink.result(), 1e-6f);
+    }
+
+    @Test
+    public void matchesGoldenHalfSpeed() throws IOException {
+        List<MixerTrack> tracks = Arrays.asList(track(new float[]{0f, 0.4f, 0.8f}, 1, 1f, 0.5f));
+        CaptureSink sink = new CaptureSink();
+        MixdownRenderer renderer = new MixdownRenderer(RATE, 2);
+        assertEquals(6, renderer.longestLoopFrames(tracks));
+        renderer.render(tracks, 6, sink, null);
+        float[] golden = {0f, 0f, 0.2f, 0.2f, 0.4f, 0.4f, 0.6f, 0.6f, 0.8f, 0.8f, 0.4f, 0.4f};
+        assertArrayEquals(golden, sink.result(), 1e-6f);
+    }
+
+    @Test
+    public void mutedTracksAreLeftOut() throws IOException {
+        MixerTrack muted = track(new float[]{1f, 1f}, 1, 1f, 1f);
+        muted.setMuted(true);
+        CaptureSink sink = new CaptureSink();
+        new MixdownRenderer(RATE, 4).render(Arrays.asList(muted), 4, sink, null);
+        assertArrayEquals(new float[8], sink.result(), 0f);
+    }
+
+    @Test
+    public void stemsAddUpToTheMix() throws IOException {
+        MixerTrack first = track(new float[]{0f, 0.1f, 0.2f, 0.3f}, 1, 0.8f, 1f);
+        MixerTrack second = track(new float[]{0.5f, -0.5f, 0.25f, -0.25f, 0.1f, 0f}, 2, 0.5f, 1f);
+        MixdownRenderer renderer = new MixdownRenderer(RATE, 4);
+        CaptureSink mix = new CaptureSink();
+        renderer.render(Arrays.asList(first, second), 9, mix, null);
+        CaptureSink firstStem = new CaptureSink();
+        CaptureSink secondStem = new CaptureSink();
+        renderer.renderStem(first, 9, firstStem, null);
+        renderer.renderStem(second, 9, secondStem, null);
+        float[] sum = firstStem.result();
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += secondStem.result()[i];
+        }
+        assertArrayEquals(mix.result(), sum, 1e-6f);
+        // A muted track still has a stem, at its volume
+        first.setMuted(true);
+        CaptureSink muted = new CaptureSink();
+        renderer.renderStem(first, 9, muted, null);
+        assertArrayEquals(firstStem.result(), muted.result(), 0f);
+    }
+
+    @Test
+    public void renderIsDeterministicAcrossBlockSizes() throws IOException {
+        List<MixerTrack> tracks = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            float[] samples = new float[1000 + t * 77];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (float) Math.sin(i * 0.05 * (t + 1));
+            }
+            tracks.add(track(samples, 1, 0.3f + t * 0.1f, 0.8f + t * 0.15f));
+        }
+        CaptureSink small = new CaptureSink();
+        CaptureSink large = new CaptureSink();
+        new MixdownRenderer(RATE, 64).render(tracks, 5000, small, null);
+        new MixdownRenderer(RATE, 4096).render(tracks, 5000, large, null);
+        assertArrayEquals(small.result(), large.result(), 0f);
+    }
+
+    @Test
+    public void writesWavAndReportsProgress() throws IOException {
+        File file = new File(folder.getRoot(), "mix.wav");
+        List<MixerTrack> tracks = Arrays.asList(track(new float[]{0.5f, -0.5f}, 1, 1f, 1f));
+        final long[] last = {0};
+        try (WavWriter writer = new WavWriter(file, RATE, 2)) {
+            new MixdownRenderer(RATE, 3).render(tracks, 10, writer, new MixdownRenderer.ProgressListener() {
+                @Override
+                public void onProgress(long framesDone, long framesTotal) {
+                    assertTrue(framesDone > last[0]);
+                    last[0] = framesDone;
+                }
+            });
+        }
+        assertEquals(10, last[0]);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(40, bytes.getInt(40));
+        assertEquals(WavWriter.toPcm16(0.5f), bytes.getShort(44));
+        assertEquals(WavWriter.toPcm16(-0.5f), bytes.getShort(48));
+    }
+
+    // How much faster than real time this runs is measured by MixdownBenchmark
+    @Test
+    public void rendersMinutesWithoutGrowingMemory() throws IOException {
+        List<MixerTrack> tracks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            float[] samples = new float[RATE * 2 * 4];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (float) Math.sin(i * 0.001 * (t + 1));
+            }
+            tracks.add(track(samples, 2, 0.5f, 1f + t * 0.05f));
+        }
+        MixdownRenderer renderer = new MixdownRenderer(RATE);
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        renderer.render(tracks, RATE, new NullSink(), null);
+        long frames = RATE * 120L;
+        NullSink sink = new NullSink();
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        renderer.render(tracks, frames, sink, null);
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertEquals(frames * 2, sink.samples);
+        // Two minutes of the mix held in memory would be 46 MB
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024 * 1024);
+    }
+}
@@ -0,0 +1,108 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MixerMetricsTest {
+
+    private static final int RATE = 48000;
+
+    private static float[] sine(int frames, float amplitude) {
+        float[] block = new float[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            float value = (float) (amplitude * Math.sin(2 * Math.PI * 1000 * i / RATE));
+            block[i * 2] = value;
+            block[i * 2 + 1] = value;
+        }
+        return block;
+    }
+
+    @Test
+    public void peakIsHeldUntilRead() {
+        LevelMeter meter = new LevelMeter();
+        meter.process(new float[]{0.1f, -0.9f, 0.2f, 0.3f}, 0, 2, RATE);
+        meter.process(new float[]{0.1f, 0.1f}, 0, 1, RATE);
+        assertEquals(0.9f, meter.takePeak(), 0f);
+        assertEquals(0f, meter.takePeak(), 0f);
+    }
+
+    @Test
+    public void rmsSettlesOnSineLevelAndDecays() {
+        LevelMeter meter = new LevelMeter();
+        float[] block = sine(480, 0.5f);
+        for (int i = 0; i < 200; i++) {
+            meter.process(block, 0, 480, RATE);
+        }
+        assertEquals(0.5 / Math.sqrt(2), meter.getRms(), 0.005);
+        for (int i = 0; i < 1000; i++) {
+            meter.silence(480, RATE);
+        }
+        assertEquals(0f, meter.getRms(), 0f);
+        assertEquals(LevelMeter.FLOOR_DB, LevelMeter.toDecibels(meter.getRms()), 0f);
+        assertEquals(-6.02f, LevelMeter.toDecibels(0.5f), 0.01f);
+    }
+
+    @Test
+    public void histogramBucketsByPowerOfTwoMicros() {
+        TimingHistogram histogram = new TimingHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000);
+        histogram.record(3900);
+        histogram.record(5000000000L);
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(TimingHistogram.BUCKETS - 1));
+        assertEquals(5, histogram.getCount());
+        assertEquals(5000000000L, histogram.getMaxNanos());
+        assertEquals(4000, histogram.percentileNanos(0.6));
+        assertEquals(TimingHistogram.bucketLimitNanos(TimingHistogram.BUCKETS - 1), histogram.percentileNanos(1));
+        assertEquals(0, new TimingHistogram().percentileNanos(0.5));
+    }
+
+    @Test
+    public void histogramCountsEveryRecordAcrossThreads() throws InterruptedException {
+        final TimingHistogram histogram = new TimingHistogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void mixerPublishesTimesAndLevels() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        float[] samples = new float[1000];
+        java.util.Arrays.fill(samples, 0.25f);
+        MixerTrack loud = new MixerTrack(new PcmBuffer(samples, 1, RATE));
+        MixerTrack quiet = new MixerTrack(new PcmBuffer(samples, 1, RATE));
+        loud.play();
+        mixer.addTrack(loud);
+        mixer.addTrack(quiet);
+        float[] out = new float[128 * 2];
+        for (int i = 0; i < 10; i++) {
+            mixer.mix(out, 128);
+        }
+        assertEquals(10, mixer.getMetrics().getMixTimes().getCount());
+        assertEquals(0.25f, loud.getMeter().takePeak(), 1e-6f);
+        assertEquals(0f, quiet.getMeter().takePeak(), 0f);
+        assertEquals(0.25f, mixer.getMetrics().getMasterMeter().takePeak(), 1e-6f);
+        assertTrue(loud.getMeter().getRms() > 0.05f);
+    }
+}
@@ -0,0 +1,165 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class OverdubMixerTest {
+
+    private static final int RATE = 44100;
+
+    private static PcmBuffer constant(float value, int frames, int channels, int rate) {
+        float[] samples = new float[frames * channels];
+        Arrays.fill(samples, value);
+        return new PcmBuffer(samples, channels, rate);
+    }
+
+    // Collects everything written so it can be compared with the returned buffer
+    private static class CollectingSink implements AudioSink {
+        float[] samples = new float[0];
+        int blocks;
+
+        @Override
+        public void write(float[] data, int offset, int length) {
+            float[] grown = Arrays.copyOf(samples, samples.length + length);
+            System.arraycopy(data, offset, grown, samples.length, length);
+            samples = grown;
+            blocks++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void mapsMixerFramesOntoTheLoop() {
+        assertEquals(0.0, OverdubMixer.loopFrameAt(1000, 1000, 1.0, 500), 1e-9);
+        assertEquals(250.0, OverdubMixer.loopFrameAt(1250, 1000, 1.0, 500), 1e-9);
+        assertEquals(100.0, OverdubMixer.loopFrameAt(1600, 1000, 1.0, 500), 1e-9);
+        // Tracks recorded at a different rate move through the loop faster or slower
+        assertEquals(250.0, OverdubMixer.loopFrameAt(1500, 1000, 0.5, 500), 1e-9);
+    }
+
+    @Test
+    public void takeLandsOnTheLoopFrameItWasPlayedOver() throws IOException {
+        PcmBuffer base = constant(0f, 1000, 1, RATE);
+        float[] takeSamples = new float[100];
+        for (int i = 0; i < takeSamples.length; i++) {
+            takeSamples[i] = i + 1;
+        }
+        PcmBuffer take = new PcmBuffer(takeSamples, 1, RATE);
+        PcmBuffer mixed = OverdubMixer.sum(base, LoopRegion.WHOLE, take, 300, 1f, null);
+        float[] out = mixed.getSamples();
+        assertEquals(0f, out[299], 0f);
+        assertEquals(1f, out[300], 1e-6f);
+        assertEquals(100f, out[399], 1e-6f);
+        assertEquals(0f, out[400], 0f);
+        // The original is untouched
+        assertEquals(0f, base.getSamples()[300], 0f);
+    }
+
+    @Test
+    public void longTakesWrapRoundEveryPass() throws IOException {
+        PcmBuffer base = constant(0.5f, 1000, 1, RATE);
+        // Two and a half passes starting three quarters of the way through the loop
+        PcmBuffer take = constant(0.1f, 2500, 1, RATE);
+        float[] out = OverdubMixer.sum(base, LoopRegion.WHOLE, take, 750, 1f, null).getSamples();
+        // Frames 750..999 are covered on passes one, two and three, 0..249 on passes two and three,
+        // 250..749 on passes two and three as well
+        assertEquals(0.5f + 0.3f, out[800], 1e-5f);
+        assertEquals(0.5f + 0.3f, out[100], 1e-5f);
+        assertEquals(0.5f + 0.2f, out[500], 1e-5f);
+    }
+
+    @Test
+    public void onlyTheLoopRegionChanges() throws IOException {
+        PcmBuffer base = constant(0.25f, 10000, 2, RATE);
+        LoopRegion region = new LoopRegion(2000, 6000, 0, 0);
+        PcmBuffer take = constant(0.5f, 20000, 1, RATE);
+        float[] out = OverdubMixer.sum(base, region, take, 0, 1f, null).getSamples();
+        for (int f = 0; f < 10000; f++) {
+            float expected = f >= 2000 && f < 6000 ? 0.25f + 0.5f * 5 : 0.25f;
+            assertEquals("frame " + f, expected, out[f * 2], 1e-4f);
+            assertEquals("frame " + f, expected, out[f * 2 + 1], 1e-4f);
+        }
+    }
+
+    @Test
+    public void resamplesTakesRecordedAtAnotherRate() throws IOException {
+        PcmBuffer base = constant(0f, 4000, 1, 48000);
+        float[] ramp = new float[1000];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = i;
+        }
+        // Half the track's rate, so each take frame covers two loop frames
+        PcmBuffer take = new PcmBuffer(ramp, 1, 24000);
+        float[] out = OverdubMixer.sum(base, LoopRegion.WHOLE, take, 0, 1f, null).getSamples();
+        assertEquals(100f, out[200], 1e-4f);
+        assertEquals(100.5f, out[201], 1e-4f);
+        assertEquals(999f, out[1998], 1e-4f);
+        assertEquals(0f, out[1999], 0f);
+    }
+
+    @Test
+    public void sinkReceivesTheSameAudioInBlocks() throws IOException {
+        PcmBuffer base = constant(0.1f, 10000, 2, RATE);
+        PcmBuffer take = constant(0.2f, 3000, 2, RATE);
+        CollectingSink sink = new CollectingSink();
+        PcmBuffer mixed = OverdubMixer.sum(base, LoopRegion.WHOLE, take, 9000, 0.5f, sink);
+        assertArrayEquals(mixed.getSamples(), sink.samples, 0f);
+        assertEquals((10000 + OverdubMixer.BLOCK_FRAMES - 1) / OverdubMixer.BLOCK_FRAMES, sink.blocks);
+        assertEquals(0.1f + 0.1f, mixed.getSamples()[9500 * 2], 1e-6f);
+        assertEquals(0.1f + 0.1f, mixed.getSamples()[1000 * 2 + 1], 1e-6f);
+        assertEquals(0.1f, mixed.getSamples()[5000 * 2], 1e-6f);
+    }
+
+    @Test
+    public void layersUndoInOrderAndKeepABoundedHistory() {
+        Track track = new Track("a.wav");
+        assertNull(track.popLayer());
+        track.pushLayer("b.wav");
+        track.pushLayer("c.wav");
+        track.pushLayer("d.wav");
+        List<String> forgotten = track.trimLayers(2);
+        assertEquals(Arrays.asList("a.wav"), forgotten);
+        assertEquals("d.wav", track.popLayer());
+        assertEquals("c.wav", track.getSource());
+        assertEquals(Arrays.asList("b.wav"), track.getLayers());
+        assertEquals("c.wav", track.popLayer());
+        assertEquals("b.wav", track.getSource());
+        assertNull(track.popLayer());
+    }
+
+    @Test
+    public void swappedVoiceCarriesOnFromTheSameLoopFrame() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        MixerTrack voice = new MixerTrack(7, constant(0.5f, 1000, 1, RATE));
+        voice.play();
+        mixer.addTrack(voice);
+        float[] out = new float[2 * 64];
+        for (int i = 0; i < 20; i++) {
+            mixer.mix(out, 64);
+        }
+        // 1280 frames in, a quarter of the way round the second pass
+        assertEquals(280, voice.getPlayheadFrame());
+        assertEquals(1000, voice.getLoopOriginFrame());
+
+        MixerTrack next = voice.withBuffer(constant(0.25f, 1000, 1, RATE));
+        assertEquals(7, next.getId());
+        assertEquals(true, mixer.replaceTrack(voice, next));
+        mixer.mix(out, 64);
+        assertEquals(344, next.getPlayheadFrame());
+        assertEquals(1000, next.getLoopOriginFrame());
+        // No fade in, the new audio plays at full level straight away
+        assertEquals(0.25f, out[0], 1e-5f);
+        assertSame(next, mixer.getTracks()[0]);
+    }
+}
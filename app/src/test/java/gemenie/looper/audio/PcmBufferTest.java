@@ -0,0 +1,27 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmBufferTest {
+
+    @Test
+    public void readsPcm16InTheBufferByteOrder() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            // A stray odd byte at the end is left for the next read, like a split codec buffer
+            ByteBuffer pcm = ByteBuffer.allocateDirect(9).order(order);
+            pcm.putShort((short) 16384).putShort((short) -32768).putShort((short) 32767).putShort((short) 0);
+            pcm.put((byte) 1);
+            pcm.flip();
+            float[] samples = new float[6];
+            assertEquals(4, PcmBuffer.readPcm16(pcm, samples, 2));
+            assertArrayEquals(new float[]{0f, 0f, 0.5f, -1f, 32767 / 32768f, 0f}, samples, 0f);
+            assertEquals(8, pcm.position());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).capacity());
+        assertEquals(512, new PcmRingBuffer(512).capacity());
+    }
+
+    @Test
+    public void writesAndReadsAcrossTheWrapPoint() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] in = {1, 2, 3, 4, 5, 6};
+        short[] out = new short[8];
+        assertEquals(6, ring.write(in, 0, 6));
+        assertEquals(4, ring.read(out, 0, 4));
+        assertEquals(6, ring.write(in, 0, 6));
+        assertEquals(8, ring.available());
+        assertEquals(8, ring.read(out, 0, 8));
+        short[] expected = {5, 6, 1, 2, 3, 4, 5, 6};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], out[i]);
+        }
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void writeStopsWhenFull() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        short[] in = {1, 2, 3, 4, 5, 6};
+        assertEquals(4, ring.write(in, 0, 6));
+        assertEquals(0, ring.write(in, 0, 1));
+    }
+
+    @Test
+    public void concurrentProducerAndConsumerKeepOrder() throws InterruptedException {
+        final PcmRingBuffer ring = new PcmRingBuffer(256);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] block = new short[37];
+                int next = 0;
+                while (next < total) {
+                    int length = Math.min(block.length, total - next);
+                    for (int i = 0; i < length; i++) {
+                        block[i] = (short) (next + i);
+                    }
+                    int written = 0;
+                    while (written < length) {
+                        written += ring.write(block, written, length - written);
+                    }
+                    next += length;
+                }
+            }
+        });
+        producer.start();
+        TakeBuffer take = new TakeBuffer(1, 48000, 16);
+        short[] block = new short[64];
+        int received = 0;
+        while (received < total) {
+            int read = ring.read(block, 0, block.length);
+            for (int i = 0; i < read; i++) {
+                assertEquals((short) (received + i), block[i]);
+            }
+            take.append(block, 0, read);
+            received += read;
+        }
+        producer.join();
+        assertEquals(total, take.getFrameCount());
+        assertEquals((short) 12345 / 32768f, take.toPcmBuffer().getSamples()[12345], 0f);
+    }
+}
@@ -0,0 +1,149 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeakPyramidTest {
+
+    private static final int RATE = 44100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PcmBuffer noise(int frames, int channels, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < samples.length; i++) {
+            // Vary the envelope so neighbouring columns differ
+            samples[i] = (random.nextFloat() * 2 - 1) * (float) Math.abs(Math.sin(i / 5000.0));
+        }
+        return new PcmBuffer(samples, channels, RATE);
+    }
+
+    // Straight scan over the samples the pixel covers, widened to whole level 0 blocks
+    private static float[] bruteForce(PcmBuffer buffer, long from, long to) {
+        float[] samples = buffer.getSamples();
+        int channels = buffer.getChannels();
+        long first = from / PeakPyramid.BLOCK_FRAMES * PeakPyramid.BLOCK_FRAMES;
+        long last = Math.min(buffer.getFrameCount(), (to + PeakPyramid.BLOCK_FRAMES - 1) / PeakPyramid.BLOCK_FRAMES * PeakPyramid.BLOCK_FRAMES);
+        float low = Float.MAX_VALUE;
+        float high = -Float.MAX_VALUE;
+        for (long f = first; f < last; f++) {
+            for (int c = 0; c < channels; c++) {
+                float sample = samples[(int) f * channels + c];
+                low = Math.min(low, sample);
+                high = Math.max(high, sample);
+            }
+        }
+        return new float[]{low, high};
+    }
+
+    @Test
+    public void columnsBoundTheAudioTheyCover() {
+        PcmBuffer buffer = noise(100000, 2, 1);
+        PeakPyramid peaks = PeakPyramid.build(buffer);
+        int[] widths = {1, 37, 390, 1000};
+        for (int width : widths) {
+            float[] min = new float[width];
+            float[] max = new float[width];
+            peaks.render(0, buffer.getFrameCount(), min, max, width);
+            double framesPerPixel = (double) buffer.getFrameCount() / width;
+            for (int p = 0; p < width; p++) {
+                long from = (long) (p * framesPerPixel);
+                long to = (long) ((p + 1) * framesPerPixel);
+                float[] exact = bruteForce(buffer, from, to);
+                // Never narrower than the pixel's audio, never wider than two coarse columns around it
+                assertTrue(min[p] <= exact[0] + 1e-4f);
+                assertTrue(max[p] >= exact[1] - 1e-4f);
+                float[] outer = bruteForce(buffer, Math.max(0, (long) (from - framesPerPixel)), (long) (to + framesPerPixel));
+                assertTrue(min[p] >= outer[0] - 1e-4f);
+                assertTrue(max[p] <= outer[1] + 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void fineZoomMatchesLevelZeroExactly() {
+        PcmBuffer buffer = noise(20000, 1, 2);
+        PeakPyramid peaks = PeakPyramid.build(buffer);
+        int width = 20000 / PeakPyramid.BLOCK_FRAMES;
+        float[] min = new float[width];
+        float[] max = new float[width];
+        peaks.render(0, (long) width * PeakPyramid.BLOCK_FRAMES, min, max, width);
+        for (int p = 0; p < width; p++) {
+            float[] exact = bruteForce(buffer, (long) p * PeakPyramid.BLOCK_FRAMES, (long) (p + 1) * PeakPyramid.BLOCK_FRAMES);
+            assertEquals(exact[0], min[p], 1e-4f);
+            assertEquals(exact[1], max[p], 1e-4f);
+        }
+    }
+
+    @Test
+    public void pixelsPastTheEndAreSilent() {
+        PcmBuffer buffer = noise(1000, 1, 3);
+        PeakPyramid peaks = PeakPyramid.build(buffer);
+        float[] min = {1, 1, 1, 1};
+        float[] max = {1, 1, 1, 1};
+        peaks.render(0, 4000, min, max, 4);
+        assertTrue(max[0] > 0f);
+        assertEquals(0f, min[3], 0f);
+        assertEquals(0f, max[3], 0f);
+
+        PeakPyramid empty = PeakPyramid.build(new PcmBuffer(new float[0], 1, RATE));
+        assertEquals(1, empty.getLevelCount());
+        empty.render(0, 100, min, max, 4);
+        assertEquals(0f, max[0], 0f);
+    }
+
+    @Test
+    public void roundTripsThroughFileAndRejectsStaleStamp() throws Exception {
+        PcmBuffer buffer = noise(50000, 2, 4);
+        PeakPyramid peaks = PeakPyramid.build(buffer);
+        File file = new File(folder.getRoot(), "take.wav.peaks");
+        peaks.write(file, 1234L);
+
+        PeakPyramid restored = PeakPyramid.read(file, 1234L);
+        assertEquals(peaks.getFrameCount(), restored.getFrameCount());
+        assertEquals(peaks.getSampleRate(), restored.getSampleRate());
+        assertEquals(peaks.getLevelCount(), restored.getLevelCount());
+        float[] expectedMin = new float[300];
+        float[] expectedMax = new float[300];
+        float[] min = new float[300];
+        float[] max = new float[300];
+        peaks.render(1000, 40000, expectedMin, expectedMax, 300);
+        restored.render(1000, 40000, min, max, 300);
+        assertArrayEquals(expectedMin, min, 0f);
+        assertArrayEquals(expectedMax, max, 0f);
+
+        assertNull(PeakPyramid.read(file, 1235L));
+        assertNull(PeakPyramid.read(new File(folder.getRoot(), "missing.peaks"), 1234L));
+    }
+
+    // Build and draw times are measured by PeakPyramidBenchmark
+    @Test
+    public void drawingMinutesOfAudioReadsAFewColumnsPerPixel() {
+        int frames = RATE * 60 * 3;
+        float[] samples = new float[frames * 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) Math.sin(i * 0.001);
+        }
+        PeakPyramid peaks = PeakPyramid.build(new PcmBuffer(samples, 2, RATE));
+        float[] min = new float[1080];
+        float[] max = new float[1080];
+        // The whole track at screen width against the 33750 columns of level 0
+        int read = peaks.render(0, frames, min, max, 1080);
+        assertTrue("Read " + read + " columns", read <= 1080 * 3);
+        // Zoomed in to a second, it still only reads the columns that second covers
+        read = peaks.render(RATE * 60, RATE * 61, min, max, 1080);
+        assertTrue("Read " + read + " columns", read <= 1080 * 3);
+        assertEquals(0, peaks.render(0, frames, min, max, 0));
+    }
+}
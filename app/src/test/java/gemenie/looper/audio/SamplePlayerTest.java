@@ -0,0 +1,136 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplePlayerTest {
+
+    private static final int RATE = 48000;
+
+    private static PcmBuffer ramp(int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = i + 1;
+        }
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    private static LoopMixer mixerWith(SamplePlayer player, int blockFrames) {
+        LoopMixer mixer = new LoopMixer(RATE, blockFrames);
+        mixer.setSamplePlayer(player);
+        return mixer;
+    }
+
+    @Test
+    public void startsOnTheRequestedFrame() {
+        SamplePlayer player = new SamplePlayer(4);
+        int sample = player.addSample(ramp(5));
+        LoopMixer mixer = mixerWith(player, 8);
+        assertTrue(player.trigger(sample, 0.5f, 13));
+        float[] out = new float[2 * 24];
+        mixer.mix(out, 24);
+        assertEquals(0f, out[12 * 2], 0f);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0.5f * (i + 1), out[(13 + i) * 2], 0f);
+            assertEquals(0.5f * (i + 1), out[(13 + i) * 2 + 1], 0f);
+        }
+        assertEquals(0f, out[18 * 2], 0f);
+        assertEquals(0, player.getActiveVoices());
+    }
+
+    @Test
+    public void lateTriggersStartImmediately() {
+        SamplePlayer player = new SamplePlayer(4);
+        int sample = player.addSample(ramp(3));
+        LoopMixer mixer = mixerWith(player, 8);
+        float[] out = new float[2 * 8];
+        mixer.mix(out, 8);
+        player.trigger(sample, 1f, 2);
+        mixer.mix(out, 8);
+        assertEquals(1f, out[0], 0f);
+        assertEquals(3f, out[4], 0f);
+    }
+
+    @Test
+    public void oldestVoiceIsStolen() {
+        SamplePlayer player = new SamplePlayer(2);
+        int longSample = player.addSample(ramp(1000));
+        LoopMixer mixer = mixerWith(player, 4);
+        float[] out = new float[2 * 4];
+        player.trigger(longSample, 1f);
+        mixer.mix(out, 4);
+        player.trigger(longSample, 1f);
+        mixer.mix(out, 4);
+        player.trigger(longSample, 10f);
+        mixer.mix(out, 4);
+        // First voice replaced by the new trigger, second voice still running from frame 4
+        assertEquals(2, player.getActiveVoices());
+        assertEquals(10f * 1 + 5f, out[0], 0f);
+    }
+
+    @Test
+    public void stereoSamplesAndRateConversion() {
+        SamplePlayer player = new SamplePlayer(1);
+        int sample = player.addSample(new PcmBuffer(new float[]{1, -1, 3, -3}, 2, RATE / 2));
+        LoopMixer mixer = mixerWith(player, 8);
+        player.trigger(sample, 1f);
+        float[] out = new float[2 * 8];
+        mixer.mix(out, 8);
+        assertEquals(1f, out[0], 0f);
+        assertEquals(-1f, out[1], 0f);
+        assertEquals(2f, out[2], 0f);
+        assertEquals(-2f, out[3], 0f);
+        assertEquals(3f, out[4], 0f);
+    }
+
+    @Test
+    public void fullQueueRefusesTriggers() {
+        SamplePlayer player = new SamplePlayer(1);
+        int sample = player.addSample(ramp(1));
+        int accepted = 0;
+        while (player.trigger(sample, 1f)) {
+            accepted++;
+        }
+        assertEquals(64, accepted);
+        mixerWith(player, 4).mix(new float[8], 4);
+        assertTrue(player.trigger(sample, 1f));
+    }
+
+    @Test
+    public void triggersOnBeatBoundaries() {
+        MasterClock clock = new MasterClock(RATE, 100, 3, 1);
+        long bar = clock.getFramesPerBar();
+        assertEquals(0, clock.nextBeatFrame(0));
+        assertEquals(bar / 3, clock.nextBeatFrame(1));
+        assertEquals(2 * bar / 3, clock.nextBeatFrame(bar / 3 + 1));
+        assertEquals(bar, clock.nextBeatFrame(2 * bar / 3 + 1));
+        assertEquals(5 * bar + bar / 3, clock.nextBeatFrame(5 * bar + 7));
+    }
+
+    @Test
+    public void triggeringDoesNotAllocate() {
+        SamplePlayer player = new SamplePlayer(8);
+        int sample = player.addSample(ramp(64));
+        LoopMixer mixer = mixerWith(player, 64);
+        float[] out = new float[2 * 64];
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        for (int i = 0; i < 2000; i++) {
+            player.trigger(sample, 1f);
+            mixer.mix(out, 64);
+        }
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 10000; i++) {
+            player.trigger(sample, 1f);
+            mixer.mix(out, 64);
+        }
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertFalse("Allocated " + allocated + " bytes", allocated > 1024);
+    }
+}
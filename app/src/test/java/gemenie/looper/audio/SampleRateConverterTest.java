@@ -0,0 +1,104 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRateConverterTest {
+
+    private static float[] sine(int frames, int channels, double frequency, int sampleRate) {
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            float value = (float) Math.sin(2 * Math.PI * frequency * i / sampleRate);
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = c == 0 ? value : -value;
+            }
+        }
+        return samples;
+    }
+
+    // Feeds input through in chunks of the given sizes, cycling, and collects the output
+    private static float[] convert(SampleRateConverter converter, float[] input, int channels, int[] chunks) {
+        int frames = input.length / channels;
+        float[] output = new float[(converter.maxOutputFrames(frames) + chunks.length) * 2 + 64];
+        float[] chunk = new float[frames * channels];
+        float[] converted = new float[converter.maxOutputFrames(frames) * 2];
+        int done = 0;
+        int written = 0;
+        for (int n = 0; done < frames; n++) {
+            int count = Math.min(chunks[n % chunks.length], frames - done);
+            System.arraycopy(input, done * channels, chunk, 0, count * channels);
+            int out = converter.process(chunk, count, converted);
+            assertTrue(out <= converter.maxOutputFrames(count));
+            System.arraycopy(converted, 0, output, written * 2, out * 2);
+            written += out;
+            done += count;
+        }
+        float[] result = new float[written * 2];
+        System.arraycopy(output, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void equalRatesCopyAndSpreadMono() {
+        SampleRateConverter converter = new SampleRateConverter(48000, 48000, 1);
+        float[] out = new float[converter.maxOutputFrames(3) * 2];
+        assertEquals(3, converter.process(new float[]{0.1f, 0.2f, 0.3f}, 3, out));
+        assertEquals(0.1f, out[0], 0f);
+        assertEquals(0.1f, out[1], 0f);
+        assertEquals(0.3f, out[4], 0f);
+        assertEquals(0.3f, out[5], 0f);
+    }
+
+    @Test
+    public void upsampledSineStaysOnTheCurve() {
+        int inRate = 44100;
+        int outRate = 48000;
+        double frequency = 1000;
+        SampleRateConverter converter = new SampleRateConverter(inRate, outRate, 2);
+        float[] out = convert(converter, sine(inRate, 2, frequency, inRate), 2, new int[]{333});
+        double step = (double) inRate / outRate;
+        float worst = 0f;
+        for (int k = 0; k < out.length / 2; k++) {
+            float expected = (float) Math.sin(2 * Math.PI * frequency * k * step / inRate);
+            worst = Math.max(worst, Math.abs(out[k * 2] - expected));
+            assertEquals(-out[k * 2], out[k * 2 + 1], 0f);
+        }
+        assertTrue("interpolation error " + worst, worst < 2e-3f);
+        // All but the two frames held back for the next chunk come out
+        assertEquals(Math.ceil((inRate - 2) / step), out.length / 2, 1);
+    }
+
+    @Test
+    public void chunkSizesDoNotChangeTheOutput() {
+        float[] input = sine(20000, 1, 440, 48000);
+        float[] whole = convert(new SampleRateConverter(48000, 44100, 1), input, 1, new int[]{input.length});
+        Random random = new Random(7);
+        int[] chunks = new int[50];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = 1 + random.nextInt(700);
+        }
+        float[] pieces = convert(new SampleRateConverter(48000, 44100, 1), input, 1, chunks);
+        // Only the rounding of the carried position may differ
+        assertArrayEquals(whole, pieces, 1e-5f);
+    }
+
+    @Test
+    public void resetForgetsThePreviousChunk() {
+        SampleRateConverter converter = new SampleRateConverter(44100, 48000, 1);
+        float[] loud = new float[64];
+        Arrays.fill(loud, 1f);
+        float[] out = new float[converter.maxOutputFrames(64) * 2];
+        converter.process(loud, 64, out);
+        converter.reset();
+        int written = converter.process(new float[64], 64, out);
+        for (int i = 0; i < written * 2; i++) {
+            assertEquals(0f, out[i], 0f);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Holds writes until the test runs them, like a busy background thread
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            for (Runnable runnable : queue) {
+                runnable.run();
+            }
+            queue.clear();
+        }
+    }
+
+    private static List<Track> sampleTracks() {
+        Track recorded = new Track(7, "/data/user/0/gemenielabs.looper/files/20231005120000.wav");
+        recorded.setVolumeProgress(63);
+        recorded.setSpeedProgress(52);
+        recorded.setPitchProgress(15);
+        recorded.setLoop(480, 96000);
+        recorded.setFades(240, 4800);
+        recorded.setPanProgress(80);
+        recorded.setDetectedBpm(96.5f);
+        recorded.setMatchedTempo(1.27f);
+        recorded.pushLayer("/data/user/0/gemenielabs.looper/files/20231005120100.wav");
+        Track imported = new Track(9, "content://com.android.providers.downloads/document/12");
+        imported.setName("Bass");
+        imported.setMuted(true);
+        imported.setDetectedBpm(0f);
+        return Arrays.asList(recorded, imported);
+    }
+
+    @Test
+    public void roundTripsTrackSettings() throws IOException {
+        byte[] data = SessionStore.encode(sampleTracks(), 1);
+        SessionStore.Session session = SessionStore.decode(data);
+        assertEquals(1, session.currentPosition);
+        assertEquals(2, session.tracks.size());
+
+        Track first = session.tracks.get(0);
+        assertEquals(7, first.getId());
+        assertEquals("/data/user/0/gemenielabs.looper/files/20231005120100.wav", first.getSource());
+        assertEquals(Arrays.asList("/data/user/0/gemenielabs.looper/files/20231005120000.wav"), first.getLayers());
+        assertNull(first.getName());
+        assertEquals(63, first.getVolumeProgress());
+        assertEquals(52, first.getSpeedProgress());
+        assertEquals(15, first.getPitchProgress());
+        assertEquals(480, first.getLoopStartFrame());
+        assertEquals(96000, first.getLoopEndFrame());
+        assertEquals(240, first.getFadeInFrames());
+        assertEquals(4800, first.getFadeOutFrames());
+        assertEquals(80, first.getPanProgress());
+        assertEquals(0.6f, ((PanProcessor) first.getEffects().get(0)).getPan(), 1e-6f);
+        assertEquals(96.5f, first.getDetectedBpm(), 0f);
+        assertEquals(1.27f, first.getMatchedTempo(), 0f);
+        assertEquals(1.27f, first.getTempo(), 0f);
+        assertFalse(first.isMuted());
+        assertEquals(Track.State.LOADING, first.getState());
+
+        Track second = session.tracks.get(1);
+        assertEquals("Bass", second.getName());
+        assertTrue(second.isMuted());
+        assertEquals(SliderMapping.DEFAULT_VOLUME, second.getVolumeProgress());
+        assertEquals(SliderMapping.SPEED_UNITY, second.getSpeedProgress());
+        assertEquals(SliderMapping.PITCH_UNITY, second.getPitchProgress());
+        assertTrue(second.getLayers().isEmpty());
+        assertEquals(SliderMapping.PAN_CENTER, second.getPanProgress());
+        assertEquals(0f, second.getDetectedBpm(), 0f);
+        assertEquals(0f, second.getMatchedTempo(), 0f);
+    }
+
+    @Test
+    public void readsVersionOneSessions() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SessionStore.MAGIC);
+        out.writeShort(1);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeLong(3);
+        out.writeUTF("a.wav");
+        out.writeBoolean(false);
+        out.writeShort(80);
+        out.writeShort(30);
+        out.writeBoolean(false);
+        out.writeLong(0);
+        out.writeLong(0);
+        Track track = SessionStore.decode(bytes.toByteArray()).tracks.get(0);
+        assertEquals(80, track.getVolumeProgress());
+        assertEquals(30, track.getSpeedProgress());
+        assertEquals(SliderMapping.PITCH_UNITY, track.getPitchProgress());
+        assertEquals(LoopRegion.WHOLE, track.getLoop());
+        assertEquals(SliderMapping.PAN_CENTER, track.getPanProgress());
+        assertEquals(Track.BPM_UNKNOWN, track.getDetectedBpm(), 0f);
+        assertEquals(30f / SliderMapping.SPEED_UNITY, track.getTempo(), 0f);
+    }
+
+    @Test
+    public void formatStaysCompact() {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tracks.add(new Track("/data/user/0/gemenielabs.looper/files/2023100512" + i + ".wav"));
+        }
+        assertTrue(SessionStore.encode(tracks, 0).length < 50 * 100);
+    }
+
+    @Test
+    public void burstOfSavesCollapsesIntoOneWrite() throws IOException {
+        QueuedExecutor writer = new QueuedExecutor();
+        File file = new File(folder.getRoot(), "session.bin");
+        SessionStore store = new SessionStore(file, writer);
+        List<Track> tracks = new ArrayList<>(sampleTracks());
+        store.save(tracks, 0);
+        tracks.get(0).setVolumeProgress(10);
+        store.save(tracks, 0);
+        store.save(tracks, 1);
+        assertEquals(1, writer.queue.size());
+        assertFalse(file.exists());
+
+        writer.runAll();
+        SessionStore.Session session = store.load();
+        assertEquals(1, session.currentPosition);
+        assertEquals(10, session.tracks.get(0).getVolumeProgress());
+    }
+
+    @Test
+    public void missingOrCorruptFileLoadsNothing() throws IOException {
+        File file = folder.newFile("broken.bin");
+        SessionStore store = new SessionStore(file, null);
+        assertNull(store.load());
+        java.nio.file.Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6});
+        assertNull(store.load());
+        assertNull(new SessionStore(new File(folder.getRoot(), "none.bin"), null).load());
+    }
+
+    @Test
+    public void restoredIdsDoNotCollideWithNewTracks() throws IOException {
+        SessionStore.Session session = SessionStore.decode(SessionStore.encode(
+                java.util.Collections.singletonList(new Track(1000000, "a")), 0));
+        assertTrue(new Track("b").getId() > session.tracks.get(0).getId());
+    }
+}
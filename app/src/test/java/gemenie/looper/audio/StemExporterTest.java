@@ -0,0 +1,181 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StemExporterTest {
+
+    private static final int RATE = 48000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A session's worth of loops with every setting that shapes a stem changed somewhere
+    private static List<StemExporter.Stem> session(int count, int seconds) {
+        List<StemExporter.Stem> stems = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            float[] samples = new float[RATE * seconds * 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (float) Math.sin(i * 0.002 * (t + 1)) * 0.5f;
+            }
+            MixerTrack track = new MixerTrack(t + 1, new PcmBuffer(samples, 2, RATE));
+            track.setVolume(0.4f + t * 0.1f);
+            track.setTempo(0.8f + t * 0.1f);
+            track.setPitch(t % 2 == 0 ? 1f : 1.12f);
+            track.setLoop(new LoopRegion(RATE / 10 * t, 0, 480, 480));
+            PanProcessor pan = new PanProcessor();
+            pan.setPan(t % 3 - 1);
+            EffectChain effects = new EffectChain();
+            effects.add(pan);
+            track.setEffects(effects);
+            track.setMuted(t == 1);
+            stems.add(new StemExporter.Stem(track, "Loop \"" + t + "\"/take"));
+        }
+        return stems;
+    }
+
+    private static void export(List<StemExporter.Stem> stems, int threads, File dir) throws IOException {
+        StemExporter exporter = new StemExporter(RATE, threads, DIRECT, DIRECT);
+        List<File> outputs = exporter.render(stems, dir, "song", 120, null);
+        exporter.shutdown();
+        assertEquals(stems.size() + 1, outputs.size());
+    }
+
+    // How much faster the parallel render is gets measured by StemExportBenchmark
+    @Test
+    public void parallelStemsMatchASerialRender() throws IOException {
+        List<StemExporter.Stem> stems = session(8, 4);
+        File serialDir = folder.newFolder("serial");
+        File parallelDir = folder.newFolder("parallel");
+        export(stems, 1, serialDir);
+        export(stems, Math.max(2, Runtime.getRuntime().availableProcessors()), parallelDir);
+        String[] names = serialDir.list();
+        Arrays.sort(names);
+        assertArrayEquals(names, sortedNames(parallelDir));
+        for (String name : names) {
+            assertArrayEquals(name, Files.readAllBytes(new File(serialDir, name).toPath()),
+                    Files.readAllBytes(new File(parallelDir, name).toPath()));
+        }
+    }
+
+    private static String[] sortedNames(File dir) {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Test
+    public void stemsAreAlignedAndListedInTheManifest() throws IOException {
+        List<StemExporter.Stem> stems = session(3, 1);
+        StemExporter exporter = new StemExporter(RATE, 2, DIRECT, DIRECT);
+        List<File> outputs = exporter.render(stems, folder.getRoot(), "song", 96.5, null);
+        exporter.shutdown();
+        assertEquals("song_01_Loop _0__take.wav", outputs.get(0).getName());
+        assertEquals("song" + StemExporter.MANIFEST_SUFFIX, outputs.get(3).getName());
+        // Every stem runs the length of the longest loop, the slowest one here
+        long frames = (long) Math.ceil(RATE / 0.8);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(WavWriter.HEADER_SIZE + frames * 4, outputs.get(i).length());
+        }
+        String manifest = new String(Files.readAllBytes(outputs.get(3).toPath()), StandardCharsets.UTF_8);
+        assertTrue(manifest.contains("\"sampleRate\": 48000"));
+        assertTrue(manifest.contains("\"frames\": " + frames));
+        assertTrue(manifest.contains("\"bpm\": 96.50"));
+        assertTrue(manifest.contains("\"file\": \"song_02_Loop _1__take.wav\", \"name\": \"Loop \\\"1\\\"/take\""));
+        assertTrue(manifest.contains("\"tempo\": 0.9000, \"pitch\": 1.1200, \"muted\": true"));
+    }
+
+    @Test
+    public void fileNamesAreSafeAndNumbered() {
+        assertEquals("mix_01_Drums.wav", StemExporter.fileName("mix", 0, "Drums"));
+        assertEquals("mix_12_a_b_c.wav", StemExporter.fileName("mix", 11, "a/b:c"));
+        assertEquals("mix_03.wav", StemExporter.fileName("mix", 2, "  "));
+    }
+
+    @Test
+    public void cancellingStopsEveryStemAndRemovesTheFiles() throws Exception {
+        List<StemExporter.Stem> stems = session(4, 20);
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        StemExporter exporter = new StemExporter(RATE, 2, background, DIRECT);
+        final CountDownLatch started = new CountDownLatch(1);
+        final boolean[] finished = {false};
+        Future<?> export = exporter.export(stems, folder.getRoot(), "song", 120, new StemExporter.Listener() {
+            @Override
+            public void onProgress(long framesDone, long framesTotal) {
+                started.countDown();
+            }
+
+            @Override
+            public void onComplete(List<File> outputs) {
+                finished[0] = true;
+            }
+
+            @Override
+            public void onError(IOException error) {
+                finished[0] = true;
+            }
+        });
+        assertTrue(started.await(30, TimeUnit.SECONDS));
+        export.cancel(true);
+        background.shutdown();
+        assertTrue(background.awaitTermination(10, TimeUnit.SECONDS));
+        exporter.shutdown();
+        assertFalse(finished[0]);
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void aFailedStemRemovesTheOthers() throws IOException {
+        List<StemExporter.Stem> stems = session(3, 1);
+        // The manifest name is taken by a folder, so nothing can be completed
+        assertTrue(new File(folder.getRoot(), "song" + StemExporter.MANIFEST_SUFFIX).mkdir());
+        StemExporter exporter = new StemExporter(RATE, 2, DIRECT, DIRECT);
+        try {
+            exporter.render(stems, folder.getRoot(), "song", 120, null);
+            fail("manifest should not be writable");
+        } catch (IOException expected) {
+            // Only the blocking folder is left
+        }
+        exporter.shutdown();
+        assertEquals(1, folder.getRoot().list().length);
+
+        File missing = new File(folder.getRoot(), "missing");
+        exporter = new StemExporter(RATE, 2, DIRECT, DIRECT);
+        try {
+            exporter.render(stems, missing, "song", 120, null);
+            fail("stems should not be writable");
+        } catch (IOException expected) {
+            // Reported from whichever stem failed first
+        }
+        exporter.shutdown();
+        assertFalse(missing.exists());
+    }
+}
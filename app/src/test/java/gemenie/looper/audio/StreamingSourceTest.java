@@ -0,0 +1,194 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingSourceTest {
+
+    private static final int RATE = 48000;
+
+    // Stands in for MediaCodec: a stereo ramp computed on the fly, so any length costs nothing.
+    // Left is the frame position within the file scaled to [0, 1), right its negative.
+    static final class RampStream implements PcmStream {
+        final long frames;
+        final int sampleRate;
+        final int chunkFrames;
+        long position;
+        long limit = Long.MAX_VALUE;
+        volatile int rewinds;
+        volatile boolean closed;
+
+        RampStream(long frames, int sampleRate, int chunkFrames) {
+            this.frames = frames;
+            this.sampleRate = sampleRate;
+            this.chunkFrames = chunkFrames;
+        }
+
+        static float valueAt(long frame, long frames) {
+            return (float) ((double) frame / frames);
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int getChannels() {
+            return 2;
+        }
+
+        @Override
+        public synchronized int read(float[] target, int offset, int maxSamples) {
+            if (position >= frames) {
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(maxSamples / 2, chunkFrames), frames - position);
+            count = (int) Math.min(count, limit - position);
+            for (int i = 0; i < count; i++) {
+                float value = valueAt(position + i, frames);
+                target[offset + i * 2] = value;
+                target[offset + i * 2 + 1] = -value;
+            }
+            position += count;
+            return count * 2;
+        }
+
+        @Override
+        public synchronized void rewind() {
+            position = 0;
+            rewinds++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // Reads like the audio thread, waiting for the feeder whenever it is behind
+    private static void readFully(StreamingSource source, float[] target, int frames) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (source.available() < frames) {
+            assertTrue("feeder stalled", System.nanoTime() < deadline);
+            LockSupport.parkNanos(100000L);
+        }
+        assertEquals(frames, source.read(target, frames));
+    }
+
+    @Test
+    public void playsTheFileInOrderAndLoops() throws IOException {
+        RampStream stream = new RampStream(10000, RATE, 700);
+        StreamingSource source = new StreamingSource(stream, RATE, 4096);
+        source.start();
+        float[] block = new float[256 * 2];
+        long played = 0;
+        while (played < 35000) {
+            readFully(source, block, 256);
+            for (int i = 0; i < 256; i++) {
+                float expected = RampStream.valueAt((played + i) % 10000, 10000);
+                assertEquals(expected, block[i * 2], 0f);
+                assertEquals(-expected, block[i * 2 + 1], 0f);
+            }
+            played += 256;
+        }
+        assertTrue(stream.rewinds >= 3);
+        assertEquals(0, source.getUnderruns());
+        source.close();
+        assertTrue(stream.closed);
+    }
+
+    @Test
+    public void memoryDoesNotDependOnLength() throws IOException {
+        StreamingSource shortFile = new StreamingSource(new RampStream(10L * 44100, 44100, 1024), RATE);
+        RampStream halfHour = new RampStream(30L * 60 * 44100, 44100, 1024);
+        StreamingSource longFile = new StreamingSource(halfHour, RATE);
+        assertEquals(shortFile.getSizeInBytes(), longFile.getSizeInBytes());
+        assertTrue(longFile.getSizeInBytes() < 2 * 1024 * 1024);
+
+        longFile.start();
+        longFile.awaitStart(1, TimeUnit.SECONDS);
+        assertTrue(longFile.available() >= StreamingSource.START_SECONDS * RATE);
+        // The feeder stops once the ring is full instead of decoding the whole file
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(longFile.available() <= longFile.capacity());
+        assertTrue(halfHour.position < 4L * 44100);
+        longFile.close();
+        shortFile.close();
+    }
+
+    @Test
+    public void underrunsCountOnlyOncePlaybackIsUnderWay() throws IOException {
+        RampStream stream = new RampStream(100000, RATE, 512);
+        stream.limit = 1024;
+        StreamingSource source = new StreamingSource(stream, RATE, 4096);
+        float[] block = new float[256 * 2];
+        // Nothing decoded yet is a slow start, not a glitch
+        assertEquals(0, source.read(block, 256));
+        assertEquals(0, source.getUnderruns());
+        source.start();
+        for (int i = 0; i < 4; i++) {
+            readFully(source, block, 256);
+        }
+        block[0] = 1f;
+        assertEquals(0, source.read(block, 256));
+        assertEquals(0f, block[0], 0f);
+        assertEquals(1, source.getUnderruns());
+        source.close();
+    }
+
+    @Test
+    public void emptyStreamFailsToStart() {
+        StreamingSource source = new StreamingSource(new RampStream(0, RATE, 512), RATE);
+        source.start();
+        try {
+            source.awaitStart(1, TimeUnit.SECONDS);
+            fail("empty stream started");
+        } catch (IOException expected) {
+            assertTrue(source.getError() != null);
+        }
+    }
+
+    @Test
+    public void streamingVoiceMixesAtItsOwnPace() throws IOException {
+        RampStream stream = new RampStream(RATE, 44100, 1024);
+        StreamingSource source = new StreamingSource(stream, RATE);
+        MixerTrack voice = new MixerTrack(1, source);
+        assertTrue(voice.isStreaming());
+        assertEquals(0, voice.getBuffer().getSizeInBytes());
+        voice.setVolume(0.5f);
+        // Tempo and pitch do not apply to a stream
+        voice.setSpeed(2f);
+        voice.play();
+        LoopMixer mixer = new LoopMixer(RATE, 256);
+        mixer.addTrack(voice);
+        source.start();
+        source.awaitStart(1, TimeUnit.SECONDS);
+
+        float[] out = new float[256 * 2];
+        mixer.mix(out, 256);
+        mixer.mix(out, 256);
+        // Second block is at full gain and carries on from the first at the stream's own pace
+        float step = (float) (44100.0 / RATE / RATE);
+        float expected = 0.5f * 511 * step;
+        assertEquals(expected, out[255 * 2], 1e-4f);
+        assertEquals(-expected, out[255 * 2 + 1], 1e-4f);
+        assertTrue(voice.getMeter().takePeak() > 0f);
+
+        voice.setMuted(true);
+        mixer.mix(out, 256);
+        mixer.mix(out, 256);
+        assertEquals(0f, out[255 * 2], 0f);
+        voice.release();
+        assertTrue(stream.closed);
+        assertFalse(source.getUnderruns() > 0);
+    }
+}
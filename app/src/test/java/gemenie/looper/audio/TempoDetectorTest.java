@@ -0,0 +1,134 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TempoDetectorTest {
+
+    private static final int RATE = 48000;
+
+    // Stereo clicks on every beat, a short decaying tone over faint noise, downbeats louder
+    static float[] clickTrack(double bpm, double seconds, int rate, long seed) {
+        int frames = (int) (seconds * rate);
+        float[] samples = new float[frames * 2];
+        Random random = new Random(seed);
+        for (int f = 0; f < frames; f++) {
+            float noise = (random.nextFloat() - 0.5f) * 0.002f;
+            samples[f * 2] = noise;
+            samples[f * 2 + 1] = noise;
+        }
+        int clickFrames = rate / 100;
+        for (int beat = 0; ; beat++) {
+            int start = (int) Math.round(beat * 60.0 / bpm * rate);
+            if (start >= frames) {
+                break;
+            }
+            float level = beat % 4 == 0 ? 0.8f : 0.5f;
+            for (int f = 0; f < clickFrames && start + f < frames; f++) {
+                float value = (float) (level * Math.exp(-f * 8.0 / clickFrames) * Math.sin(2 * Math.PI * 1500 * f / rate));
+                samples[(start + f) * 2] += value;
+                samples[(start + f) * 2 + 1] += value;
+            }
+        }
+        return samples;
+    }
+
+    private static TempoDetector feed(float[] samples, int rate, int blockFrames) {
+        TempoDetector detector = new TempoDetector(rate, 2);
+        int frames = samples.length / 2;
+        for (int frame = 0; frame < frames; frame += blockFrames) {
+            detector.process(samples, frame * 2, Math.min(blockFrames, frames - frame));
+        }
+        return detector;
+    }
+
+    @Test
+    public void clickTracksReadTheirTempo() {
+        double[] tempos = {90, 100, 117.5, 120, 128, 140, 160};
+        for (double bpm : tempos) {
+            for (int rate : new int[]{44100, 48000}) {
+                TempoDetector detector = feed(clickTrack(bpm, 20, rate, 1), rate, 4096);
+                assertEquals("at " + bpm + " BPM, " + rate + " Hz", bpm, detector.getBpm(), bpm * 0.002);
+                assertTrue(detector.getConfidence() > 0.5f);
+            }
+        }
+    }
+
+    @Test
+    public void blockSizeDoesNotChangeTheResult() {
+        float[] samples = clickTrack(128, 10, RATE, 2);
+        TempoDetector whole = feed(samples, RATE, samples.length / 2);
+        for (int block : new int[]{1, 333, 4096}) {
+            TempoDetector blocks = feed(samples, RATE, block);
+            assertArrayEquals(whole.getEnvelope(), blocks.getEnvelope(), 0f);
+            assertEquals(whole.getBpm(), blocks.getBpm(), 0f);
+        }
+    }
+
+    @Test
+    public void onsetsLandOnTheClicks() {
+        double bpm = 100;
+        TempoDetector detector = feed(clickTrack(bpm, 6, RATE, 3), RATE, 1000);
+        long[] onsets = detector.getOnsetFrames();
+        assertEquals(10, onsets.length);
+        for (int beat = 0; beat < onsets.length; beat++) {
+            long click = Math.round(beat * 60.0 / bpm * RATE);
+            assertEquals(click, onsets[beat], detector.getHopFrames());
+        }
+    }
+
+    @Test
+    public void noiseAndSilenceHaveNoBeat() {
+        Random random = new Random(4);
+        float[] noise = new float[RATE * 10 * 2];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (float) random.nextGaussian() * 0.3f;
+        }
+        assertEquals(0f, feed(noise, RATE, 4096).getBpm(), 0f);
+        assertEquals(0f, feed(new float[RATE * 10 * 2], RATE, 4096).getBpm(), 0f);
+        // Too short to hold two beats
+        assertEquals(0f, feed(clickTrack(120, 0.4, RATE, 5), RATE, 4096).getBpm(), 0f);
+    }
+
+    @Test
+    public void loopsAreFittedToWholeBeats() {
+        double bpm = 123;
+        int frames = (int) Math.round(8 * 60.0 / bpm * RATE);
+        float[] samples = clickTrack(bpm, (double) frames / RATE, RATE, 6);
+        PcmBuffer loop = new PcmBuffer(samples, 2, RATE);
+        assertEquals(bpm, TempoDetector.detect(loop, frames), 0.01);
+
+        assertEquals(120f, TempoDetector.fitToLength(119.2f, 2L * RATE, RATE), 1e-4f);
+        // Too far from a whole number of beats, or too long to be a loop
+        assertEquals(126f, TempoDetector.fitToLength(126f, 2L * RATE, RATE), 0f);
+        assertEquals(119.2f, TempoDetector.fitToLength(119.2f, 90L * RATE, RATE), 0f);
+        assertEquals(0f, TempoDetector.fitToLength(0f, 2L * RATE, RATE), 0f);
+    }
+
+    @Test
+    public void matchingTakesTheSmallestChange() {
+        assertEquals(1.2f, TempoDetector.matchRatio(100, 120), 1e-6f);
+        // Half and double time line up without a drastic speed change
+        assertEquals(1f, TempoDetector.matchRatio(60, 120), 0f);
+        assertEquals(1f, TempoDetector.matchRatio(180, 90), 0f);
+        assertEquals(90f / 85, TempoDetector.matchRatio(170, 90), 1e-6f);
+        assertEquals(1f, TempoDetector.matchRatio(0, 120), 0f);
+    }
+
+    @Test
+    public void longRecordingsAnalyseInFixedMemory() {
+        float[] chunk = clickTrack(120, 10, RATE, 7);
+        TempoDetector detector = new TempoDetector(RATE, 2);
+        for (int pass = 0; pass < 12; pass++) {
+            detector.process(chunk, 0, chunk.length / 2);
+        }
+        assertTrue(detector.isFull());
+        assertEquals(TempoDetector.MAX_SECONDS * 100, detector.getEnvelope().length);
+        assertEquals(120f, detector.getBpm(), 0.2f);
+    }
+}
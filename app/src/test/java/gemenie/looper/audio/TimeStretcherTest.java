@@ -0,0 +1,108 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeStretcherTest {
+
+    private static final int RATE = 48000;
+
+    private static PcmBuffer sine(double hz, int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) (0.5 * Math.sin(2 * Math.PI * hz * i / RATE));
+        }
+        return new PcmBuffer(samples, 1, RATE);
+    }
+
+    private static float[] run(TimeStretcher stretcher, int frames, double tempo, double pitch) {
+        float[] out = new float[frames * 2];
+        float[] block = new float[256 * 2];
+        for (int done = 0; done < frames; done += 256) {
+            int count = Math.min(256, frames - done);
+            stretcher.process(block, count, tempo, pitch);
+            System.arraycopy(block, 0, out, done * 2, count * 2);
+        }
+        return out;
+    }
+
+    // Frequency from upward zero crossings of the left channel
+    private static double frequency(float[] out) {
+        int crossings = 0;
+        int first = -1;
+        int last = -1;
+        for (int i = 1; i < out.length / 2; i++) {
+            if (out[(i - 1) * 2] < 0 && out[i * 2] >= 0) {
+                if (first < 0) {
+                    first = i;
+                } else {
+                    crossings++;
+                }
+                last = i;
+            }
+        }
+        return crossings * (double) RATE / (last - first);
+    }
+
+    @Test
+    public void unityPassesAudioThrough() {
+        PcmBuffer source = sine(440, 3000);
+        TimeStretcher stretcher = new TimeStretcher(source);
+        float[] out = run(stretcher, 5000, 1, 1);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(source.getSamples()[i % 3000], out[i * 2], 1e-5f);
+        }
+    }
+
+    @Test
+    public void outputLengthFollowsTempo() {
+        PcmBuffer source = sine(440, RATE);
+        TimeStretcher stretcher = new TimeStretcher(source);
+        // Half tempo takes twice as many output frames to play the loop once
+        run(stretcher, RATE, 0.5, 1);
+        assertEquals(RATE / 2.0, stretcher.getPosition(), 1e-6);
+        run(stretcher, RATE, 0.5, 1);
+        assertEquals(0, stretcher.getPosition(), 1e-6);
+        stretcher.skip(RATE / 4, 2);
+        assertEquals(RATE / 2.0, stretcher.getPosition(), 1e-6);
+    }
+
+    @Test
+    public void tempoChangeKeepsPitch() {
+        TimeStretcher stretcher = new TimeStretcher(sine(441, RATE * 2));
+        assertEquals(441, frequency(run(stretcher, RATE, 0.6, 1)), 5);
+        stretcher.seek(0);
+        assertEquals(441, frequency(run(stretcher, RATE, 1.7, 1)), 5);
+    }
+
+    @Test
+    public void pitchChangeKeepsTempo() {
+        TimeStretcher stretcher = new TimeStretcher(sine(441, RATE * 2));
+        float[] out = run(stretcher, RATE, 1, Math.pow(2, 7 / 12.0));
+        assertEquals(441 * Math.pow(2, 7 / 12.0), frequency(out), 5);
+        assertEquals(RATE, stretcher.getPosition(), 1e-6);
+    }
+
+    @Test
+    public void draggingTheTempoDoesNotClick() {
+        PcmBuffer source = sine(220, RATE);
+        TimeStretcher stretcher = new TimeStretcher(source);
+        float[] block = new float[128 * 2];
+        // A 220 Hz sine at 0.5 amplitude never moves more than this between frames
+        double maxStep = 0.5 * 2 * Math.PI * 220 / RATE * 1.5;
+        float previous = Float.NaN;
+        for (int b = 0; b < 400; b++) {
+            double tempo = 0.5 + b * 0.004;
+            stretcher.process(block, 128, tempo, 1);
+            for (int i = 0; i < 128; i++) {
+                float sample = block[i * 2];
+                if (!Float.isNaN(previous)) {
+                    assertTrue("Jump at block " + b, Math.abs(sample - previous) < maxStep);
+                }
+                previous = sample;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackListTest {
+
+    // Stands in for the RecyclerView: counts full binds and partial ones by kind
+    private static class CountingListener implements TrackList.Listener {
+        int inserted;
+        int removed;
+        int moved;
+        int labels;
+        int states;
+        int peaks;
+        int settings;
+        int tempos;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int from, int to) {
+            moved++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, TrackList.Change change) {
+            if (change == TrackList.Change.LABEL) {
+                labels += count;
+            } else if (change == TrackList.Change.STATE) {
+                states += count;
+            } else if (change == TrackList.Change.PEAKS) {
+                peaks += count;
+            } else if (change == TrackList.Change.SETTINGS) {
+                settings += count;
+            } else {
+                tempos += count;
+            }
+        }
+
+        // Rows that go through a full onBindViewHolder, new rows and settings set back by undo
+        int fullBinds() {
+            return inserted + settings;
+        }
+    }
+
+    private static TrackList fifty(CountingListener listener) {
+        TrackList list = new TrackList();
+        list.setListener(listener);
+        for (int i = 0; i < 50; i++) {
+            list.add(new Track("track" + i));
+        }
+        return list;
+    }
+
+    @Test
+    public void addingBindsOnlyTheNewRow() {
+        CountingListener listener = new CountingListener();
+        TrackList list = fifty(listener);
+        assertEquals(50, listener.fullBinds());
+        list.add(new Track("another"));
+        assertEquals(51, listener.fullBinds());
+        assertEquals(0, listener.labels + listener.states + listener.peaks + listener.tempos);
+    }
+
+    @Test
+    public void removingRenumbersOnlyUnnamedRowsBelow() {
+        CountingListener listener = new CountingListener();
+        TrackList list = fifty(listener);
+        for (int i = 40; i < 50; i += 2) {
+            list.get(i).setName("named " + i);
+        }
+        Track removed = list.remove(30);
+        assertEquals("track30", removed.getSource());
+        assertEquals(49, list.size());
+        assertEquals(1, listener.removed);
+        assertEquals(50, listener.fullBinds());
+        // 19 rows follow, 5 of them keep their own name
+        assertEquals(14, listener.labels);
+
+        // Removing the last row touches nothing else
+        listener.labels = 0;
+        list.remove(list.size() - 1);
+        assertEquals(0, listener.labels);
+    }
+
+    @Test
+    public void movingRenumbersOnlyTheRowsItPassed() {
+        CountingListener listener = new CountingListener();
+        TrackList list = fifty(listener);
+        list.get(12).setName("Bass");
+        list.move(10, 14);
+        assertEquals("track10", list.get(14).getSource());
+        assertEquals("track11", list.get(10).getSource());
+        assertEquals(1, listener.moved);
+        assertEquals(50, listener.fullBinds());
+        // Rows 10 to 14 changed places, one of them has its own name
+        assertEquals(4, listener.labels);
+
+        list.move(14, 10);
+        assertEquals("track10", list.get(10).getSource());
+        list.add(0, new Track("first"));
+        assertEquals(51, listener.fullBinds());
+        assertEquals("track10", list.get(11).getSource());
+    }
+
+    @Test
+    public void loadAndWaveformUpdatesTouchOneRow() {
+        CountingListener listener = new CountingListener();
+        TrackList list = fifty(listener);
+        Track track = list.get(17);
+        list.changed(track, TrackList.Change.STATE);
+        list.changed(track, TrackList.Change.PEAKS);
+        list.changed(track, TrackList.Change.TEMPO);
+        assertEquals(1, listener.states);
+        assertEquals(1, listener.peaks);
+        assertEquals(1, listener.tempos);
+        assertEquals(0, listener.settings);
+        assertEquals(50, listener.fullBinds());
+
+        // Loads that finish after their row was deleted are ignored
+        list.remove(17);
+        list.changed(track, TrackList.Change.STATE);
+        assertEquals(1, listener.states);
+    }
+
+    @Test
+    public void undoRebindsTheWholeRow() {
+        CountingListener listener = new CountingListener();
+        TrackList list = fifty(listener);
+        list.changed(list.get(3), TrackList.Change.SETTINGS);
+        assertEquals(1, listener.settings);
+        assertEquals(0, listener.labels + listener.states + listener.peaks + listener.tempos);
+        assertEquals(51, listener.fullBinds());
+    }
+
+    @Test
+    public void restoreInsertsOneRangeAndIdsStayStable() {
+        CountingListener listener = new CountingListener();
+        TrackList list = new TrackList();
+        list.setListener(listener);
+        List<Track> restored = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            restored.add(new Track(1000 + i, "restored" + i));
+        }
+        list.addAll(restored);
+        assertEquals(50, listener.inserted);
+        assertEquals(20, list.indexOfId(1020));
+        list.remove(5);
+        assertEquals(19, list.indexOfId(1020));
+        assertEquals(-1, list.indexOfId(1005));
+        assertEquals(49, list.asList().size());
+    }
+}
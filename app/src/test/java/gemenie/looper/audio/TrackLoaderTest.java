@@ -0,0 +1,182 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackLoaderTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // Stands in for MediaCodec: fixed decode cost per track
+    private static TrackLoader.Decoder slowDecoder(final long millis) {
+        return new TrackLoader.Decoder() {
+            @Override
+            public PcmBuffer decode(String source) throws IOException {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted", e);
+                }
+                return new PcmBuffer(new float[4800], 1, 48000);
+            }
+        };
+    }
+
+    private static class CountingListener implements TrackLoader.Listener {
+        final List<Track> loaded = new ArrayList<>();
+        final List<StreamingSource> streams = new ArrayList<>();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done;
+
+        CountingListener(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void onTrackLoaded(Track track, PcmBuffer buffer) {
+            loaded.add(track);
+            done.countDown();
+        }
+
+        @Override
+        public synchronized void onTrackStreamed(Track track, StreamingSource stream) {
+            loaded.add(track);
+            streams.add(stream);
+            done.countDown();
+        }
+
+        @Override
+        public void onTrackFailed(Track track, Exception error) {
+            failed.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    // Records how many decodes run at once. Each decode holds on until the expected number
+    // have started, so a pool that really runs them side by side always reaches it.
+    private static class OverlapDecoder implements TrackLoader.Decoder {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final CountDownLatch started;
+
+        OverlapDecoder(int expected) {
+            started = new CountDownLatch(expected);
+        }
+
+        @Override
+        public PcmBuffer decode(String source) throws IOException {
+            int now = running.incrementAndGet();
+            int seen;
+            while ((seen = peak.get()) < now && !peak.compareAndSet(seen, now)) {
+                // Another decode raised the peak first, look again
+            }
+            started.countDown();
+            try {
+                started.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted", e);
+            } finally {
+                running.decrementAndGet();
+            }
+            return new PcmBuffer(new float[4800], 1, 48000);
+        }
+    }
+
+    private static int peakDecodes(int tracks, int threads) throws InterruptedException {
+        OverlapDecoder decoder = new OverlapDecoder(threads);
+        TrackLoader loader = new TrackLoader(decoder, threads, DIRECT);
+        CountingListener listener = new CountingListener(tracks);
+        for (int i = 0; i < tracks; i++) {
+            loader.load(new Track("track" + i), listener);
+        }
+        assertTrue(listener.done.await(30, TimeUnit.SECONDS));
+        assertEquals(tracks, listener.loaded.size());
+        assertEquals(0, loader.getPendingCount());
+        loader.shutdown();
+        return decoder.peak.get();
+    }
+
+    // How much faster that makes a restore is measured by TrackLoaderBenchmark
+    @Test
+    public void coldRestoreOfManyTracksRunsInParallel() throws InterruptedException {
+        assertEquals(1, peakDecodes(24, 1));
+        assertEquals(4, peakDecodes(24, 4));
+    }
+
+    @Test
+    public void cancelledTrackIsNeverPublished() throws InterruptedException {
+        TrackLoader loader = new TrackLoader(slowDecoder(50), 1, DIRECT);
+        CountingListener listener = new CountingListener(2);
+        Track first = new Track("first");
+        Track removed = new Track("removed");
+        Track last = new Track("last");
+        loader.load(first, listener);
+        loader.load(removed, listener);
+        loader.load(last, listener);
+        assertTrue(loader.isLoading(removed));
+        assertTrue(loader.cancel(removed));
+        assertFalse(loader.isLoading(removed));
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, listener.loaded.size());
+        assertFalse(listener.loaded.contains(removed));
+        loader.shutdown();
+    }
+
+    @Test
+    public void decodeErrorsAreReported() throws InterruptedException {
+        TrackLoader loader = new TrackLoader(new TrackLoader.Decoder() {
+            @Override
+            public PcmBuffer decode(String source) throws IOException {
+                throw new IOException("corrupt " + source);
+            }
+        }, 1, DIRECT);
+        CountingListener listener = new CountingListener(1);
+        loader.load(new Track("broken"), listener);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.failed.get());
+        loader.shutdown();
+    }
+
+    @Test
+    public void longSourcesStartStreaming() throws InterruptedException, IOException {
+        final StreamingSourceTest.RampStream longFile =
+                new StreamingSourceTest.RampStream(30L * 60 * 48000, 48000, 1024);
+        TrackLoader loader = new TrackLoader(slowDecoder(10), new TrackLoader.Streamer() {
+            @Override
+            public StreamingSource open(String source) {
+                return source.equals("long") ? new StreamingSource(longFile, 48000) : null;
+            }
+        }, 2, DIRECT);
+        CountingListener listener = new CountingListener(2);
+        Track shortTrack = new Track("short");
+        Track longTrack = new Track("long");
+        loader.load(shortTrack, listener);
+        loader.load(longTrack, listener);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.streams.size());
+        assertTrue(listener.loaded.contains(shortTrack));
+        assertTrue(listener.loaded.contains(longTrack));
+        // Handed over already running with enough audio to start on
+        StreamingSource stream = listener.streams.get(0);
+        assertTrue(stream.available() >= StreamingSource.START_SECONDS * 48000);
+        stream.close();
+        assertTrue(longFile.closed);
+        loader.shutdown();
+    }
+}
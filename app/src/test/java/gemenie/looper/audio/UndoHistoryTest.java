@@ -0,0 +1,283 @@
+package gemenie.looper.audio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UndoHistoryTest {
+
+    private static final int RATE = 44100;
+
+    // Counts what the commands asked of the app
+    private static class RecordingHost implements TrackCommands.Host {
+        final List<Track> reloaded = new ArrayList<>();
+        final List<String> deleted = new ArrayList<>();
+        final LoopMixer mixer;
+
+        RecordingHost(LoopMixer mixer) {
+            this.mixer = mixer;
+        }
+
+        @Override
+        public void reload(Track track) {
+            reloaded.add(track);
+        }
+
+        @Override
+        public void cancelLoad(Track track) {
+            track.markRemoved();
+        }
+
+        @Override
+        public void attach(Track track, PcmBuffer buffer) {
+            MixerTrack previous = track.getMixerTrack();
+            MixerTrack next = previous.withBuffer(buffer);
+            mixer.replaceTrack(previous, next);
+            track.setReady(next);
+        }
+
+        @Override
+        public void deleteSource(String source) {
+            deleted.add(source);
+        }
+    }
+
+    // A step holding a fixed amount of audio that remembers how it left the history
+    private static class SizedCommand extends UndoHistory.Command {
+        final long bytes;
+        int applied = 1;
+        String discarded;
+
+        SizedCommand(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void undo() {
+            applied--;
+        }
+
+        @Override
+        public void redo() {
+            applied++;
+        }
+
+        @Override
+        public long retainedBytes() {
+            return bytes;
+        }
+
+        @Override
+        protected void discard(boolean undone) {
+            discarded = undone ? "redo" : "undo";
+        }
+    }
+
+    private static Track readyTrack(String source, LoopMixer mixer, int frames) {
+        Track track = new Track(source);
+        MixerTrack voice = new MixerTrack(track.getId(), new PcmBuffer(new float[frames], 1, RATE));
+        mixer.addTrack(voice);
+        track.setReady(voice);
+        return track;
+    }
+
+    @Test
+    public void undoAndRedoWalkTheSteps() {
+        UndoHistory history = new UndoHistory(10, 1000);
+        SizedCommand first = new SizedCommand(0);
+        SizedCommand second = new SizedCommand(0);
+        history.push(first);
+        history.push(second);
+        assertTrue(history.undo());
+        assertEquals(0, second.applied);
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertEquals(2, history.getRedoCount());
+        assertTrue(history.redo());
+        assertEquals(1, first.applied);
+
+        // A new step drops what could have been redone
+        SizedCommand third = new SizedCommand(0);
+        history.push(third);
+        assertEquals("redo", second.discarded);
+        assertFalse(history.canRedo());
+        assertEquals(2, history.getUndoCount());
+    }
+
+    @Test
+    public void oldestStepsGoFirstToStayWithinLimits() {
+        UndoHistory history = new UndoHistory(3, 250);
+        SizedCommand[] steps = new SizedCommand[5];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = new SizedCommand(i == 4 ? 200 : 10);
+            history.push(steps[i]);
+        }
+        // Three steps fit by count, then the big one leaves room for only one more
+        assertEquals("undo", steps[0].discarded);
+        assertEquals("undo", steps[1].discarded);
+        assertEquals(null, steps[2].discarded);
+        assertEquals(3, history.getUndoCount());
+        assertEquals(220, history.getRetainedBytes());
+
+        // A single step over budget is still kept
+        SizedCommand huge = new SizedCommand(1000);
+        history.push(huge);
+        assertEquals(1, history.getUndoCount());
+        assertEquals(1000, history.getRetainedBytes());
+        history.clear();
+        assertEquals("undo", huge.discarded);
+        assertEquals(0, history.getRetainedBytes());
+    }
+
+    @Test
+    public void deletedRowComesBackWithItsVoice() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        RecordingHost host = new RecordingHost(mixer);
+        TrackList list = new TrackList();
+        Track a = readyTrack("/files/a.wav", mixer, 1000);
+        Track b = readyTrack("/files/b.wav", mixer, 2000);
+        Track c = new Track("content://music/c");
+        list.add(a);
+        list.add(b);
+        list.add(c);
+        MixerTrack voice = b.getMixerTrack();
+        UndoHistory history = new UndoHistory(10, 1 << 20);
+
+        history.perform(TrackCommands.remove(list, mixer, host, 1));
+        assertEquals(2, list.size());
+        assertTrue(b.isRemoved());
+        assertEquals(1, mixer.getTracks().length);
+        // The deleted audio is now kept only by the history
+        assertEquals(2000 * 4, history.getRetainedBytes());
+
+        history.undo();
+        assertSame(b, list.get(1));
+        assertFalse(b.isRemoved());
+        assertSame(voice, mixer.getTracks()[1]);
+        assertEquals(0, history.getRetainedBytes());
+
+        // Rows that had not loaded are decoded again when they come back
+        history.perform(TrackCommands.remove(list, mixer, host, 2));
+        history.undo();
+        assertEquals(Arrays.asList(c), host.reloaded);
+
+        // Once the delete can no longer be undone its file goes
+        history.redo();
+        history.clear();
+        assertEquals(Arrays.asList("content://music/c"), host.deleted);
+        history.perform(TrackCommands.remove(list, mixer, host, 0));
+        history.clear();
+        assertEquals("/files/a.wav", host.deleted.get(1));
+    }
+
+    @Test
+    public void addMoveAndEditUndoInOrder() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        RecordingHost host = new RecordingHost(mixer);
+        TrackList list = new TrackList();
+        UndoHistory history = new UndoHistory(10, 1 << 20);
+        Track first = readyTrack("/files/1.wav", mixer, 100);
+        list.add(first);
+        history.push(TrackCommands.added(list, mixer, host, first));
+        Track second = readyTrack("/files/2.wav", mixer, 100);
+        list.add(second);
+        history.push(TrackCommands.added(list, mixer, host, second));
+
+        list.move(1, 0);
+        history.push(TrackCommands.moved(list, 1, 0));
+
+        first.setVolumeProgress(20);
+        first.setLoop(10, 90);
+        Track.Settings before = first.commitSettings();
+        history.push(TrackCommands.edited(list, first, before, first.getSettings()));
+        first.applySettings(first.getMixerTrack());
+
+        history.undo();
+        assertEquals(SliderMapping.DEFAULT_VOLUME, first.getVolumeProgress());
+        assertEquals(LoopRegion.WHOLE, first.getMixerTrack().getLoop());
+        // The next edit is measured from the settings undo went back to
+        first.setPitchProgress(3);
+        assertEquals(SliderMapping.DEFAULT_VOLUME, first.commitSettings().volumeProgress);
+
+        history.undo();
+        assertSame(first, list.get(0));
+        history.undo();
+        assertEquals(1, list.size());
+        assertEquals(1, mixer.getTracks().length);
+        history.redo();
+        assertSame(second, list.get(1));
+        assertEquals(2, mixer.getTracks().length);
+    }
+
+    @Test
+    public void matchedTempoUndoesBackToTheSlider() {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        TrackList list = new TrackList();
+        UndoHistory history = new UndoHistory(10, 1 << 20);
+        Track track = readyTrack("/files/1.wav", mixer, 100);
+        list.add(track);
+        assertFalse(track.matchTempo(120));
+
+        track.setDetectedBpm(100f);
+        assertTrue(track.matchTempo(120));
+        Track.Settings before = track.commitSettings();
+        history.push(TrackCommands.edited(list, track, before, track.getSettings()));
+        track.applySettings(track.getMixerTrack());
+        assertEquals(1.2f, track.getMixerTrack().getTempo(), 1e-6f);
+        assertEquals(49, track.getSpeedProgress());
+
+        history.undo();
+        assertEquals(1f, track.getMixerTrack().getTempo(), 0f);
+        history.redo();
+        assertEquals(1.2f, track.getMixerTrack().getTempo(), 1e-6f);
+        // Touching the slider hands the speed back to it
+        track.setSpeedProgress(45);
+        assertEquals(0f, track.getMatchedTempo(), 0f);
+        assertEquals(SliderMapping.speedFromProgress(45), track.getTempo(), 0f);
+    }
+
+    @Test
+    public void overdubStepsSwapAudioAndLayers() throws java.io.IOException {
+        LoopMixer mixer = new LoopMixer(RATE, 64);
+        RecordingHost host = new RecordingHost(mixer);
+        UndoHistory history = new UndoHistory(1, 1 << 30);
+        float[] tone = new float[RATE * 20];
+        Arrays.fill(tone, 0.25f);
+        Track track = new Track("/files/take.wav");
+        MixerTrack voice = new MixerTrack(track.getId(), new PcmBuffer(tone, 1, RATE));
+        mixer.addTrack(voice);
+        track.setReady(voice);
+        PcmBuffer base = voice.getBuffer();
+
+        float[] takeSamples = new float[RATE];
+        Arrays.fill(takeSamples, 0.5f);
+        PcmBuffer mixed = OverdubMixer.sum(base, LoopRegion.WHOLE, new PcmBuffer(takeSamples, 1, RATE), RATE * 5, 1f, null);
+        track.pushLayer("/files/dub1.wav");
+        host.attach(track, mixed);
+        history.push(TrackCommands.overdubbed(host, track, "/files/dub1.wav",
+                AudioDelta.between(base, mixed), AudioDelta.between(mixed, base)));
+        assertTrue(history.getRetainedBytes() < base.getSizeInBytes() / 4);
+
+        history.undo();
+        assertEquals("/files/take.wav", track.getSource());
+        assertArrayEquals(tone, track.getMixerTrack().getBuffer().getSamples(), 0f);
+        assertSame(track.getMixerTrack(), mixer.getTracks()[0]);
+        history.redo();
+        assertEquals("/files/dub1.wav", track.getSource());
+        assertEquals(0.75f, track.getMixerTrack().getBuffer().getSamples()[RATE * 5 + 10], 1e-6f);
+
+        // Pushing past the one step limit forgets the version before the overdub
+        history.push(new SizedCommand(0));
+        assertEquals(Arrays.asList("/files/take.wav"), host.deleted);
+        assertTrue(track.getLayers().isEmpty());
+        assertEquals("/files/dub1.wav", track.getSource());
+    }
+}
@@ -0,0 +1,72 @@
+package gemenie.looper.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class WavWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesCanonicalHeader() throws IOException {
+        File file = folder.newFile("take.wav");
+        WavWriter writer = new WavWriter(file, 48000, 1);
+        writer.write(new short[]{1, -1, 32767, -32768}, 0, 4);
+        writer.close();
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(WavWriter.HEADER_SIZE + 8, bytes.capacity());
+        assertEquals(0x46464952, bytes.getInt(0));
+        assertEquals(36 + 8, bytes.getInt(4));
+        assertEquals(0x45564157, bytes.getInt(8));
+        assertEquals(1, bytes.getShort(20));
+        assertEquals(1, bytes.getShort(22));
+        assertEquals(48000, bytes.getInt(24));
+        assertEquals(96000, bytes.getInt(28));
+        assertEquals(16, bytes.getShort(34));
+        assertEquals(0x61746164, bytes.getInt(36));
+        assertEquals(8, bytes.getInt(40));
+        assertEquals(-32768, bytes.getShort(50));
+    }
+
+    @Test
+    public void streamsLargeTakesInChunks() throws IOException {
+        File file = folder.newFile("long.wav");
+        WavWriter writer = new WavWriter(file, 44100, 2);
+        short[] block = new short[1000];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) i;
+        }
+        for (int i = 0; i < 100; i++) {
+            writer.write(block, 0, block.length);
+        }
+        assertEquals(50000, writer.getFramesWritten());
+        writer.close();
+        assertEquals(WavWriter.HEADER_SIZE + 200000, file.length());
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(200000, bytes.getInt(40));
+        assertEquals(999, bytes.getShort(WavWriter.HEADER_SIZE + 2 * 99999));
+    }
+
+    @Test
+    public void floatSamplesAreClamped() throws IOException {
+        File file = folder.newFile("float.wav");
+        WavWriter writer = new WavWriter(file, 48000, 1);
+        writer.write(new float[]{2f, -2f, 0.5f}, 0, 3);
+        writer.close();
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(32767, bytes.getShort(44));
+        assertEquals(-32767, bytes.getShort(46));
+        assertEquals(16384, bytes.getShort(48));
+    }
+}
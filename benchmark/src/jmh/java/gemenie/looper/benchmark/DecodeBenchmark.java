@@ -0,0 +1,88 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.DecodedAudioCache;
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.WavWriter;
+
+// Getting ten seconds of stereo audio into a PcmBuffer: converting codec output the way
+// PcmDecoder does now and the way it used to, and loading a decode back from the disk cache.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodeBenchmark {
+
+    private static final int FRAMES = Signals.SAMPLE_RATE * 10;
+    private static final String SOURCE = "benchmark.wav";
+
+    private ByteBuffer codecOutput;
+    private float[] samples;
+    private File cacheDir;
+    private DecodedAudioCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        float[] audio = Signals.stereo(FRAMES, 1);
+        // Codecs hand back direct buffers of native order 16-bit PCM
+        codecOutput = ByteBuffer.allocateDirect(audio.length * 2).order(ByteOrder.nativeOrder());
+        for (float sample : audio) {
+            codecOutput.putShort(WavWriter.toPcm16(sample));
+        }
+        codecOutput.flip();
+        samples = new float[audio.length];
+        cacheDir = File.createTempFile("decode", "");
+        cacheDir.delete();
+        // No memory budget, so every lookup reads the file
+        cache = new DecodedAudioCache(0, cacheDir, Long.MAX_VALUE);
+        cache.put(SOURCE, 1, new PcmBuffer(audio, 2, Signals.SAMPLE_RATE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Benchmark
+    public float[] pcm16ShortView() {
+        ByteBuffer out = codecOutput.duplicate().order(ByteOrder.nativeOrder());
+        PcmBuffer.readPcm16(out, samples, 0);
+        return samples;
+    }
+
+    // The per-sample loop PcmDecoder ran before readPcm16, kept as the baseline
+    @Benchmark
+    public float[] pcm16GetShort() {
+        ByteBuffer out = codecOutput.duplicate().order(ByteOrder.nativeOrder());
+        int available = out.remaining() / 2;
+        for (int i = 0; i < available; i++) {
+            samples[i] = out.getShort() / 32768f;
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public PcmBuffer diskCacheHit() {
+        return cache.get(SOURCE, 1);
+    }
+}
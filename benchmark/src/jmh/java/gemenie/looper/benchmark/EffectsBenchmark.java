@@ -0,0 +1,65 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.AudioProcessor;
+import gemenie.looper.audio.BiquadFilter;
+import gemenie.looper.audio.Compressor;
+import gemenie.looper.audio.DelayProcessor;
+import gemenie.looper.audio.PanProcessor;
+import gemenie.looper.audio.ThreeBandEq;
+
+// One 256-frame stereo block through each effect on its own, which is what adding it to a
+// track or the master chain costs per block
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EffectsBenchmark {
+
+    private static final int BLOCK_FRAMES = 256;
+
+    @Param({"pan", "lowpass", "eq", "delay", "compressor"})
+    public String effect;
+
+    private AudioProcessor processor;
+    private float[] input;
+    private float[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int rate = Signals.SAMPLE_RATE;
+        if ("pan".equals(effect)) {
+            PanProcessor pan = new PanProcessor();
+            pan.setPan(0.4f);
+            processor = pan;
+        } else if ("lowpass".equals(effect)) {
+            processor = new BiquadFilter(rate, BiquadFilter.Type.LOW_PASS, 2000f, 0.707f, 0f);
+        } else if ("eq".equals(effect)) {
+            processor = new ThreeBandEq(rate, 3f, -3f, 3f);
+        } else if ("delay".equals(effect)) {
+            processor = new DelayProcessor(rate, 1f, 0.3f, 0.5f, 0.5f);
+        } else {
+            processor = new Compressor(rate, -24f, 4f, 5f, 100f, 6f);
+        }
+        input = Signals.stereo(BLOCK_FRAMES, 7);
+        buffer = new float[input.length];
+    }
+
+    @Benchmark
+    public float[] processBlock() {
+        // Fresh input every block so the compressor and filters never settle on silence
+        System.arraycopy(input, 0, buffer, 0, buffer.length);
+        processor.process(buffer, 0, BLOCK_FRAMES);
+        return buffer;
+    }
+}
@@ -0,0 +1,120 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.LoopLibrary;
+import gemenie.looper.audio.PcmStream;
+
+// Filtering an index of 2000 loops by name, tempo and length, which runs on every keystroke in
+// the library search box
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryQueryBenchmark {
+
+    private static final int LOOPS = 2000;
+    // Low rate so indexing in setup stays quick, the query only sees the analysed entries
+    private static final int RATE = 4800;
+
+    private File dir;
+    private LoopLibrary library;
+    private LoopLibrary.Query query;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("library", "");
+        dir.delete();
+        dir.mkdirs();
+        List<File> files = new ArrayList<>(LOOPS);
+        for (int i = 0; i < LOOPS; i++) {
+            File file = new File(dir, "loop " + i + (i % 3 == 0 ? " drums" : " keys") + ".wav");
+            // The file size stands in for the loop's length, 1 to 8 seconds
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new byte[1 + i % 8]);
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+        library = new LoopLibrary(new File(dir, "library.idx"));
+        library.update(files, new LoopLibrary.Opener() {
+            @Override
+            public PcmStream open(File file) {
+                return new SilentStream(file.length() * RATE);
+            }
+        });
+        query = LoopLibrary.Query.parse("drums 120bpm <5s");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<LoopLibrary.Entry> query() {
+        return library.query(query);
+    }
+
+    private static final class SilentStream implements PcmStream {
+        private final long frames;
+        private long position;
+
+        SilentStream(long frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return RATE;
+        }
+
+        @Override
+        public int getChannels() {
+            return 1;
+        }
+
+        @Override
+        public int read(float[] target, int offset, int maxSamples) {
+            if (position >= frames) {
+                return -1;
+            }
+            int count = (int) Math.min(maxSamples, frames - position);
+            Arrays.fill(target, offset, offset + count, 0f);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void rewind() {
+            position = 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.LoopMixer;
+import gemenie.looper.audio.MixerTrack;
+
+// One 256-frame block mixed from N looping tracks. At 48 kHz a block has to be ready every
+// 5.3 ms, so the score says how many loops a device a given factor slower could sustain.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MixBenchmark {
+
+    private static final int BLOCK_FRAMES = 256;
+
+    @Param({"1", "8", "32"})
+    public int tracks;
+
+    private LoopMixer mixer;
+    private float[] out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mixer = new LoopMixer(Signals.SAMPLE_RATE, BLOCK_FRAMES);
+        for (int i = 0; i < tracks; i++) {
+            // Loops of different lengths so the tracks wrap on different blocks
+            MixerTrack track = new MixerTrack(Signals.buffer(Signals.SAMPLE_RATE * 2 + i * 997, i));
+            track.setVolume(0.5f);
+            track.play();
+            mixer.addTrack(track);
+        }
+        out = new float[BLOCK_FRAMES * LoopMixer.CHANNELS];
+    }
+
+    @Benchmark
+    public float[] mixBlock() {
+        mixer.mix(out, BLOCK_FRAMES);
+        return out;
+    }
+}
@@ -0,0 +1,63 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.AudioSink;
+import gemenie.looper.audio.MixdownRenderer;
+import gemenie.looper.audio.MixerTrack;
+
+// Ten seconds of a mixdown of N looping tracks at slightly different tempos, written to a sink
+// that keeps nothing. Anything under 10000 ms renders faster than real time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MixdownBenchmark {
+
+    private static final long FRAMES = Signals.SAMPLE_RATE * 10L;
+
+    @Param({"1", "8"})
+    public int tracks;
+
+    private List<MixerTrack> mix;
+    private MixdownRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mix = new ArrayList<>();
+        for (int i = 0; i < tracks; i++) {
+            MixerTrack track = new MixerTrack(i + 1, Signals.buffer(Signals.SAMPLE_RATE * 4, i));
+            track.setVolume(0.5f);
+            track.setTempo(1f + i * 0.05f);
+            mix.add(track);
+        }
+        renderer = new MixdownRenderer(Signals.SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public void render(final Blackhole blackhole) throws IOException {
+        renderer.render(mix, FRAMES, new AudioSink() {
+            @Override
+            public void write(float[] data, int offset, int length) {
+                blackhole.consume(data);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,50 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.PeakPyramid;
+
+// Waveform overviews of a three-minute stereo track: building the pyramid once after a load, and
+// drawing the whole track across a 1080 pixel row, which happens on every redraw
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeakPyramidBenchmark {
+
+    private static final int FRAMES = Signals.SAMPLE_RATE * 60 * 3;
+    private static final int PIXELS = 1080;
+
+    private PcmBuffer buffer;
+    private PeakPyramid peaks;
+    private float[] min;
+    private float[] max;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buffer = Signals.buffer(FRAMES, 5);
+        peaks = PeakPyramid.build(buffer);
+        min = new float[PIXELS];
+        max = new float[PIXELS];
+    }
+
+    @Benchmark
+    public PeakPyramid build() {
+        return PeakPyramid.build(buffer);
+    }
+
+    @Benchmark
+    public float[] renderWholeTrack() {
+        peaks.render(0, FRAMES, min, max, PIXELS);
+        return max;
+    }
+}
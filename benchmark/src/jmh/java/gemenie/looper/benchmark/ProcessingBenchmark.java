@@ -0,0 +1,60 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.LoopMixer;
+import gemenie.looper.audio.MixerTrack;
+
+// What each row control costs a voice per block: plain playback, a volume slider that never
+// settles, the tape style speed slider, and tempo and pitch moved apart through the stretcher.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcessingBenchmark {
+
+    private static final int BLOCK_FRAMES = 256;
+
+    @Param({"unity", "gain", "speed", "stretch"})
+    public String processing;
+
+    private LoopMixer mixer;
+    private MixerTrack track;
+    private float[] out;
+    private boolean loud;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mixer = new LoopMixer(Signals.SAMPLE_RATE, BLOCK_FRAMES);
+        track = new MixerTrack(Signals.buffer(Signals.SAMPLE_RATE * 4, 2));
+        if ("speed".equals(processing)) {
+            track.setSpeed(0.8f);
+        } else if ("stretch".equals(processing)) {
+            track.setTempo(0.8f);
+            track.setPitch(1.1f);
+        }
+        track.play();
+        mixer.addTrack(track);
+        out = new float[BLOCK_FRAMES * LoopMixer.CHANNELS];
+    }
+
+    @Benchmark
+    public float[] renderBlock() {
+        if ("gain".equals(processing)) {
+            // A new volume every block keeps the gain ramp running
+            loud = !loud;
+            track.setVolume(loud ? 0.9f : 0.6f);
+        }
+        mixer.mix(out, BLOCK_FRAMES);
+        return out;
+    }
+}
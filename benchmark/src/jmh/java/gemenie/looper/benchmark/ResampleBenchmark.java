@@ -0,0 +1,45 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.SampleRateConverter;
+
+// One 2048-frame stereo decoder chunk converted to the 48 kHz output rate, the work a long import
+// does per chunk while it streams. A chunk at 44.1 kHz lasts 46 ms.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResampleBenchmark {
+
+    private static final int CHUNK_FRAMES = 2048;
+
+    @Param({"44100", "22050"})
+    public int inputRate;
+
+    private SampleRateConverter converter;
+    private float[] input;
+    private float[] output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        converter = new SampleRateConverter(inputRate, Signals.SAMPLE_RATE, 2);
+        input = Signals.stereo(CHUNK_FRAMES, 9);
+        output = new float[converter.maxOutputFrames(CHUNK_FRAMES) * 2];
+    }
+
+    @Benchmark
+    public float[] convertChunk() {
+        converter.process(input, CHUNK_FRAMES, output);
+        return output;
+    }
+}
@@ -0,0 +1,30 @@
+package gemenie.looper.benchmark;
+
+import java.util.Random;
+
+import gemenie.looper.audio.PcmBuffer;
+
+// Test material shared by the benchmarks, seeded so every run measures the same audio
+final class Signals {
+
+    static final int SAMPLE_RATE = 48000;
+
+    private Signals() {
+    }
+
+    // Noise under a slow sine so the samples are neither silent nor all at full scale
+    static float[] stereo(int frames, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            float tone = (float) (0.4 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE));
+            samples[i * 2] = tone + (random.nextFloat() - 0.5f) * 0.2f;
+            samples[i * 2 + 1] = tone + (random.nextFloat() - 0.5f) * 0.2f;
+        }
+        return samples;
+    }
+
+    static PcmBuffer buffer(int frames, long seed) {
+        return new PcmBuffer(stereo(frames, seed), 2, SAMPLE_RATE);
+    }
+}
@@ -0,0 +1,78 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.MixerTrack;
+import gemenie.looper.audio.StemExporter;
+
+// Rendering eight four-second loops to stems on one thread and on several, with the tempo
+// changed so every stem goes through the stretcher
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StemExportBenchmark {
+
+    private static final int STEMS = 8;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private List<StemExporter.Stem> stems;
+    private StemExporter exporter;
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        stems = new ArrayList<>();
+        for (int i = 0; i < STEMS; i++) {
+            MixerTrack track = new MixerTrack(i + 1, Signals.buffer(Signals.SAMPLE_RATE * 4, i));
+            track.setVolume(0.5f);
+            track.setTempo(0.8f + i * 0.1f);
+            stems.add(new StemExporter.Stem(track, "stem" + i));
+        }
+        exporter = new StemExporter(Signals.SAMPLE_RATE, threads, DIRECT, DIRECT);
+        dir = File.createTempFile("stems", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        exporter.shutdown();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<File> renderStems() throws IOException {
+        return exporter.render(stems, dir, "song", 120, null);
+    }
+}
@@ -0,0 +1,93 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.PcmBuffer;
+import gemenie.looper.audio.StreamingSource;
+import gemenie.looper.audio.Track;
+import gemenie.looper.audio.TrackLoader;
+
+// A cold restore of 24 tracks whose decode takes 5 ms each, on one loader thread and on a
+// pool, which is the speedup parallel loading buys when a session opens
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrackLoaderBenchmark {
+
+    private static final int TRACKS = 24;
+    private static final long DECODE_MILLIS = 5;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private TrackLoader loader;
+    private PcmBuffer decoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        decoded = new PcmBuffer(Signals.stereo(4800, 3), 2, Signals.SAMPLE_RATE);
+        // Stands in for MediaCodec, which spends its time off the CPU waiting on the codec
+        loader = new TrackLoader(new TrackLoader.Decoder() {
+            @Override
+            public PcmBuffer decode(String source) throws IOException {
+                try {
+                    Thread.sleep(DECODE_MILLIS);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted", e);
+                }
+                return decoded;
+            }
+        }, threads, DIRECT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        loader.shutdown();
+    }
+
+    @Benchmark
+    public void coldRestore() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TRACKS);
+        TrackLoader.Listener listener = new TrackLoader.Listener() {
+            @Override
+            public void onTrackLoaded(Track track, PcmBuffer buffer) {
+                done.countDown();
+            }
+
+            @Override
+            public void onTrackStreamed(Track track, StreamingSource stream) {
+                done.countDown();
+            }
+
+            @Override
+            public void onTrackFailed(Track track, Exception error) {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < TRACKS; i++) {
+            loader.load(new Track("track" + i), listener);
+        }
+        done.await();
+    }
+}
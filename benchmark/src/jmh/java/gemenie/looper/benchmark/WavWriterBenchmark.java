@@ -0,0 +1,54 @@
+package gemenie.looper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import gemenie.looper.audio.WavWriter;
+
+// Ten seconds of stereo written to a WAV file in 256-frame blocks, as a mixdown or a
+// recording feeds it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WavWriterBenchmark {
+
+    private static final int BLOCK_FRAMES = 256;
+
+    private float[] audio;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        audio = Signals.stereo(Signals.SAMPLE_RATE * 10, 3);
+        output = File.createTempFile("writer", ".wav");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public long writeTenSeconds() throws IOException {
+        WavWriter writer = new WavWriter(output, Signals.SAMPLE_RATE, 2);
+        try {
+            for (int offset = 0; offset < audio.length; offset += BLOCK_FRAMES * 2) {
+                writer.write(audio, offset, Math.min(BLOCK_FRAMES * 2, audio.length - offset));
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getFramesWritten();
+    }
+}